@@ -56,24 +56,35 @@ public class JavaFS implements FS {
 	@Override
 	public long blockCount() throws IOException {
 		ensureOpen();
-		long blocks = 0L;
-		for (FileStore store : this.root.getFileSystem().getFileStores()) {
-			blocks += store.getTotalSpace() / store.getBlockSize();
-		}
-		return blocks;
+		FileStore store = Files.getFileStore(this.root);
+		return store.getTotalSpace() / store.getBlockSize();
+	}
+	
+	@Override
+	public long freeBlockCount() throws IOException {
+		ensureOpen();
+		FileStore store = Files.getFileStore(this.root);
+		return store.getUnallocatedSpace() / store.getBlockSize();
+	}
+	
+	@Override
+	public long usedBlockCount() throws IOException {
+		ensureOpen();
+		FileStore store = Files.getFileStore(this.root);
+		return (store.getTotalSpace() - store.getUnallocatedSpace()) / store.getBlockSize();
 	}
 	
 	@Override
 	public int blockSize() throws IOException {
 		ensureOpen();
-		long min = Long.MAX_VALUE;
-		for (FileStore store : this.root.getFileSystem().getFileStores()) {
-			long size = store.getBlockSize();
-			if (size > min) {
-				min = size;
-			}
-		}
-		return min > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) min;
+		long size = Files.getFileStore(this.root).getBlockSize();
+		return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+	}
+	
+	@Override
+	public void deleteInBackground(boolean enable) throws IOException {
+		ensureOpen();
+		// the operating system decides when the blocks are freed
 	}
 	
 	@Override
@@ -160,6 +171,16 @@ public class JavaFS implements FS {
 			return this.fs.blockCount();
 		}
 		
+		@Override
+		public long freeBlockCount() throws IOException {
+			return this.fs.freeBlockCount();
+		}
+		
+		@Override
+		public long usedBlockCount() throws IOException {
+			return this.fs.usedBlockCount();
+		}
+		
 		@Override
 		public int blockSize() throws IOException {
 			return this.fs.blockSize();
@@ -49,6 +49,17 @@ public class JavaFile extends JavaFSElement implements File {
 		}
 	}
 	
+	/**
+	 * the java file system API provides no way to reserve space without changing
+	 * the length of the file, so this is a no-op, which only validates the
+	 * arguments and checks that the file exists
+	 */
+	@Override
+	public void preallocate(long length) throws IOException {
+		if (length < 0) { throw new IllegalArgumentException("negative length: " + length); }
+		Files.size(f());
+	}
+	
 	@Override
 	public Stream open(StreamOpenOptions options) throws IOException {
 		return open0(options, true);
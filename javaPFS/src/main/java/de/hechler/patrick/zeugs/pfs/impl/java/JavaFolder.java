@@ -17,6 +17,7 @@
 package de.hechler.patrick.zeugs.pfs.impl.java;
 
 import java.io.IOException;
+import java.lang.foreign.MemorySegment;
 import java.nio.channels.ClosedChannelException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
@@ -52,8 +53,9 @@ public class JavaFolder extends JavaFSElement implements Folder {
 			
 			private volatile boolean iterClosed;
 			
-			private Iterator<Path> iter;
-			private JavaFSElement  last = null;
+			private Iterator<Path> iter    = stream.iterator();
+			private JavaFSElement  last    = null;
+			private JavaFSElement  pending = null;
 			
 			
 			private void ensureIterOpen() throws ClosedChannelException {
@@ -70,8 +72,13 @@ public class JavaFolder extends JavaFSElement implements Folder {
 			@Override
 			public FSElement nextElement() throws IOException {
 				ensureIterOpen();
-				Path          n = this.iter.next();
-				JavaFSElement e = new JavaFSElement(JavaFolder.this.fs, n.relativize(JavaFolder.this.fs.root));
+				JavaFSElement e = this.pending;
+				if (e != null) {
+					this.pending = null;
+				} else {
+					Path n = this.iter.next();
+					e = new JavaFSElement(JavaFolder.this.fs, JavaFolder.this.fs.root.relativize(n));
+				}
 				this.last = e;
 				return e;
 			}
@@ -79,7 +86,32 @@ public class JavaFolder extends JavaFSElement implements Folder {
 			@Override
 			public boolean hasNextElement() throws IOException {
 				ensureIterOpen();
-				return this.iter.hasNext();
+				return this.pending != null || this.iter.hasNext();
+			}
+			
+			@Override
+			public int nextEntries(MemorySegment buffer) throws IOException {
+				ensureIterOpen();
+				this.last = null;
+				long off = 0L;
+				int  cnt = 0;
+				while (this.pending != null || this.iter.hasNext()) {
+					JavaFSElement e = this.pending;
+					if (e == null) {
+						Path n = this.iter.next();
+						e = new JavaFSElement(JavaFolder.this.fs, JavaFolder.this.fs.root.relativize(n));
+					}
+					long end = Folder.putEntry(buffer, off, e);
+					if (end == -1L) {
+						this.pending = e;
+						if (cnt == 0) { throw new IllegalArgumentException("the buffer is too small for the next entry"); }
+						return cnt;
+					}
+					this.pending = null;
+					off          = end;
+					cnt++;
+				}
+				return cnt;
 			}
 			
 			@Override
@@ -29,7 +29,7 @@ import de.hechler.patrick.zeugs.pfs.interfaces.IntObjectFunction;
 @SuppressWarnings("javadoc")
 public enum PFSErrorCause {
 	
-	GET_FILE_LEN("get file length"), GET_PIPE_LEN("get pipe length"),
+	GET_FILE_LEN("get file length"), GET_PIPE_LEN("get pipe length"), PREALLOCATE_FILE("preallocate file"),
 	
 	OPEN_STREAM(path -> path != null ? "open stream for element '" + path + "'" : "open stream"),
 	
@@ -58,6 +58,8 @@ public enum PFSErrorCause {
 	SAME(info -> info == null ? "check same elements" : ("check same elements : unknown result <" + info + ">")),
 	
 	GET_BLOCK_COUNT(info -> info == null ? "get block count" : "get block count of '" + info + "'"),
+	GET_FREE_BLOCK_COUNT(info -> info == null ? "get free block count" : "get free block count of '" + info + "'"),
+	GET_USED_BLOCK_COUNT(info -> info == null ? "get used block count" : "get used block count of '" + info + "'"),
 	GET_BLOCK_SIZE(info -> info == null ? "get block size" : "get block size of '" + info + "'"),
 	GET_READ_ONLY(info -> info == null ? "get read-only mode" : "get read-only mode of '" + info + "'"),
 	GET_MOUNT_TYPPE(info -> info == null ? "get mount point type" : "get mount point type of '" + info + "'"),
@@ -51,7 +51,10 @@ public class PatrFS implements FS {
 	static final MethodHandle PFS_FREE;
 	
 	private static final MethodHandle PFS_BLOCK_COUNT;
+	private static final MethodHandle PFS_FREE_BLOCK_COUNT;
+	private static final MethodHandle PFS_USED_BLOCK_COUNT;
 	private static final MethodHandle PFS_BLOCK_SIZE;
+	private static final MethodHandle PFS_DELETE_IN_BACKGROUND;
 	private static final MethodHandle PFS_HANDLE;
 	private static final MethodHandle PFS_HANDLE_FOLDER;
 	private static final MethodHandle PFS_HANDLE_MOUNT;
@@ -79,7 +82,10 @@ public class PatrFS implements FS {
 		PFS_FREE = LINKER.downcallHandle(LOCKUP.find("pfs_free").orElseThrow(), FunctionDescriptor.ofVoid(PNTR));
 		
 		PFS_BLOCK_COUNT       = LINKER.downcallHandle(lockup.find("pfs_block_count").orElseThrow(), FunctionDescriptor.of(LONG));
+		PFS_FREE_BLOCK_COUNT  = LINKER.downcallHandle(lockup.find("pfs_free_block_count").orElseThrow(), FunctionDescriptor.of(LONG));
+		PFS_USED_BLOCK_COUNT  = LINKER.downcallHandle(lockup.find("pfs_used_block_count").orElseThrow(), FunctionDescriptor.of(LONG));
 		PFS_BLOCK_SIZE        = LINKER.downcallHandle(lockup.find("pfs_block_size").orElseThrow(), FunctionDescriptor.of(INT));
+		PFS_DELETE_IN_BACKGROUND = LINKER.downcallHandle(lockup.find("pfs_delete_in_background").orElseThrow(), FunctionDescriptor.ofVoid(INT));
 		PFS_HANDLE            = LINKER.downcallHandle(lockup.find("pfs_handle").orElseThrow(), FunctionDescriptor.of(INT, PNTR));
 		PFS_HANDLE_FOLDER     = LINKER.downcallHandle(lockup.find("pfs_handle_folder").orElseThrow(), FunctionDescriptor.of(INT, PNTR));
 		PFS_HANDLE_MOUNT      = LINKER.downcallHandle(lockup.find("pfs_handle_mount").orElseThrow(), FunctionDescriptor.of(INT, PNTR));
@@ -111,6 +117,30 @@ public class PatrFS implements FS {
 		}
 	}
 	
+	@Override
+	public long freeBlockCount() throws IOException {
+		if (this.closed) { throw new ClosedChannelException(); }
+		try {
+			long res = (long) PFS_FREE_BLOCK_COUNT.invoke();
+			if (res == -1L) { throw thrw(PFSErrorCause.GET_FREE_BLOCK_COUNT, null); }
+			return res;
+		} catch (Throwable e) {
+			throw thrw(e);
+		}
+	}
+	
+	@Override
+	public long usedBlockCount() throws IOException {
+		if (this.closed) { throw new ClosedChannelException(); }
+		try {
+			long res = (long) PFS_USED_BLOCK_COUNT.invoke();
+			if (res == -1L) { throw thrw(PFSErrorCause.GET_USED_BLOCK_COUNT, null); }
+			return res;
+		} catch (Throwable e) {
+			throw thrw(e);
+		}
+	}
+	
 	@Override
 	public int blockSize() throws IOException {
 		if (this.closed) { throw new ClosedChannelException(); }
@@ -123,6 +153,16 @@ public class PatrFS implements FS {
 		}
 	}
 	
+	@Override
+	public void deleteInBackground(boolean enable) throws IOException {
+		if (this.closed) { throw new ClosedChannelException(); }
+		try {
+			PFS_DELETE_IN_BACKGROUND.invoke(enable ? 1 : 0);
+		} catch (Throwable e) {
+			throw thrw(e);
+		}
+	}
+	
 	@Override
 	public FSElement element(String path) throws IOException {
 		if (this.closed) { throw new ClosedChannelException(); }
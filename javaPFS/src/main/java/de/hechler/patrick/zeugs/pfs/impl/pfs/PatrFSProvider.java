@@ -37,6 +37,7 @@ import de.hechler.patrick.zeugs.pfs.FSProvider;
 import de.hechler.patrick.zeugs.pfs.interfaces.FS;
 import de.hechler.patrick.zeugs.pfs.interfaces.FSOptions;
 import de.hechler.patrick.zeugs.pfs.opts.PatrFSOptions;
+import de.hechler.patrick.zeugs.pfs.opts.PatrFSOptions.Backend;
 import de.hechler.patrick.zeugs.pfs.opts.PatrRamFSOpts;
 
 /**
@@ -95,12 +96,26 @@ public class PatrFSProvider extends FSProvider {
 	}
 	
 	private static void loadPatrRamOpts(Linker linker, PatrRamFSOpts opts) throws Throwable {
-		MethodHandle  newBm            = linker.downcallHandle(PatrFS.LOCKUP.find("bm_new_ram_block_manager").orElseThrow(), FunctionDescriptor.of(PNTR, LONG, INT));
 		MethodHandle  pfsLoadAndFormat = linker.downcallHandle(PatrFS.LOCKUP.find("pfs_load_and_format").orElseThrow(), FunctionDescriptor.of(INT, PNTR, LONG));
-		MemorySegment bm               = (MemorySegment) newBm.invoke(opts.blockCount(), opts.blockSize());
-		if (0 == (int) pfsLoadAndFormat.invoke(bm, opts.blockCount())) {
+		MemorySegment bm;
+		if (opts.contiguous()) {
+			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find("bm_new_contiguous_ram_block_manager").orElseThrow(),
+					FunctionDescriptor.of(PNTR, LONG, INT, INT));
+			bm = (MemorySegment) newBm.invoke(opts.blockCount(), opts.blockSize(), opts.hugePages() ? 1 : 0);
+		} else {
+			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find("bm_new_ram_block_manager").orElseThrow(), FunctionDescriptor.of(PNTR, LONG, INT));
+			bm = (MemorySegment) newBm.invoke(opts.blockCount(), opts.blockSize());
+		}
+		if (bm.address() == 0) {
 			throw thrw(PFSErrorCause.LOAD_PFS_AND_FORMAT, opts);
 		}
+		if (0 == (int) pfsLoadAndFormat.invoke(bm, opts.blockCount())) {
+			try {
+				throw thrw(PFSErrorCause.LOAD_PFS_AND_FORMAT, opts);
+			} finally {
+				closeBm(linker, bm);
+			}
+		}
 	}
 	
 	private static void loadPatrOpts(Linker linker, Arena local, PatrFSOptions opts) throws Throwable {
@@ -113,39 +128,93 @@ public class PatrFSProvider extends FSProvider {
 	}
 	
 	private static void loadWithFormat(Linker linker, PatrFSOptions opts, MemorySegment path) throws Throwable {
-		MethodHandle  newBm            = linker.downcallHandle(PatrFS.LOCKUP.find("bm_new_file_block_manager_path_bs").orElseThrow(),
-				FunctionDescriptor.of(PNTR, PNTR, INT, INT));
 		MethodHandle  pfsLoadAndFormat = linker.downcallHandle(PatrFS.LOCKUP.find("pfs_load_and_format").orElseThrow(),
 				FunctionDescriptor.of(INT, PNTR, LONG, PNTR, PNTR));
-		MemorySegment bm               = (MemorySegment) newBm.invoke(path, opts.blockSize(), 0);
+		MemorySegment bm;
+		if (opts.backend() == Backend.MMAP) {
+			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find("bm_new_mmap_block_manager_path_bs").orElseThrow(),
+					FunctionDescriptor.of(PNTR, PNTR, INT, LONG, INT));
+			bm = (MemorySegment) newBm.invoke(path, opts.blockSize(), opts.blockCount(), 0);
+		} else {
+			String       func  = opts.backend() == Backend.DIRECT ? "bm_new_direct_block_manager_path_bs" : "bm_new_file_block_manager_path_bs";
+			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find(func).orElseThrow(),
+					FunctionDescriptor.of(PNTR, PNTR, INT, INT));
+			bm = (MemorySegment) newBm.invoke(path, opts.blockSize(), 0);
+		}
 		if (bm.address() == 0) {
 			throw thrw(PFSErrorCause.LOAD_PFS_AND_FORMAT, opts);
 		}
+		setCacheCapacity(linker, opts, bm);
 		try (Arena arena = Arena.openConfined()) {
 			MemorySegment uuid = convUUID(arena, opts.uuid());
 			MemorySegment name = opts.name() == null ? MemorySegment.NULL : arena.allocateUtf8String(opts.name());
 			if (0 == (int) pfsLoadAndFormat.invoke(bm, opts.blockCount(), uuid, name)) {
-				throw thrw(PFSErrorCause.LOAD_PFS_AND_FORMAT, opts);
+				try {
+					throw thrw(PFSErrorCause.LOAD_PFS_AND_FORMAT, opts);
+				} finally {
+					closeBm(linker, bm);
+				}
 			}
 		}
 	}
 	
 	private static void loadWithoutFormat(Linker linker, PatrFSOptions opts, MemorySegment path) throws Throwable {
 		MemorySegment bm;
-		if (opts.blockSize() == -1) {
-			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find("bm_new_file_block_manager_path").orElseThrow(), FunctionDescriptor.of(PNTR, PNTR, INT));
+		if (opts.backend() == Backend.MMAP) {
+			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find("bm_new_mmap_block_manager_path").orElseThrow(), FunctionDescriptor.of(PNTR, PNTR, INT));
+			bm = (MemorySegment) newBm.invoke(path, 0);
+		} else if (opts.blockSize() == -1) {
+			String       func  = opts.backend() == Backend.DIRECT ? "bm_new_direct_block_manager_path" : "bm_new_file_block_manager_path";
+			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find(func).orElseThrow(), FunctionDescriptor.of(PNTR, PNTR, INT));
 			bm = (MemorySegment) newBm.invoke(path, 0);
 		} else {
-			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find("bm_new_file_block_manager_path_bs").orElseThrow(),
+			String       func  = opts.backend() == Backend.DIRECT ? "bm_new_direct_block_manager_path_bs" : "bm_new_file_block_manager_path_bs";
+			MethodHandle newBm = linker.downcallHandle(PatrFS.LOCKUP.find(func).orElseThrow(),
 					FunctionDescriptor.of(PNTR, PNTR, INT, INT));
 			bm = (MemorySegment) newBm.invoke(path, opts.blockSize(), 0);
 		}
+		if (bm.address() == 0) {
+			throw thrw(PFSErrorCause.LOAD_PFS, opts.path());
+		}
+		setCacheCapacity(linker, opts, bm);
 		MethodHandle pfsLoad = linker.downcallHandle(PatrFS.LOCKUP.find("pfs_load").orElseThrow(), FunctionDescriptor.of(INT, PNTR, PNTR));
 		if (0 == (int) pfsLoad.invoke(bm, MemorySegment.NULL)) {
-			throw thrw(PFSErrorCause.LOAD_PFS, opts.path());
+			try {
+				throw thrw(PFSErrorCause.LOAD_PFS, opts.path());
+			} finally {
+				closeBm(linker, bm);
+			}
+		}
+	}
+	
+	private static void setCacheCapacity(Linker linker, PatrFSOptions opts, MemorySegment bm) throws Throwable {
+		if (opts.cacheCapacity() == 0L || opts.backend() == Backend.MMAP) {
+			return;
+		}
+		MethodHandle cacheCapacity = linker.downcallHandle(PatrFS.LOCKUP.find("bm_file_cache_capacity").orElseThrow(),
+				FunctionDescriptor.of(INT, PNTR, LONG));
+		if (0 == (int) cacheCapacity.invoke(bm, opts.cacheCapacity())) {
+			try {
+				throw thrw(PFSErrorCause.LOAD_PFS, opts.path());
+			} finally {
+				closeBm(linker, bm);
+			}
 		}
 	}
 	
+	/**
+	 * the offset of the close_bm function pointer in the native <code>struct bm_block_manager</code>
+	 */
+	private static final long BM_CLOSE_OFFSET = 80L;
+	
+	/**
+	 * closes a block manager, which could not be passed to the file system
+	 */
+	private static void closeBm(Linker linker, MemorySegment bm) throws Throwable {
+		MemorySegment closeBm = MemorySegment.ofAddress(bm.address(), BM_CLOSE_OFFSET + 8L).get(PNTR, BM_CLOSE_OFFSET);
+		linker.downcallHandle(FunctionDescriptor.of(INT, PNTR)).invoke(closeBm, bm);
+	}
+	
 	public static MemorySegment convUUID(Arena arena, UUID uuid) {
 		if (uuid == null) {
 			return MemorySegment.NULL;
@@ -40,11 +40,13 @@ public class PatrFile extends PatrFSElement implements File {
 	private static final MethodHandle PFS_OPEN_STREAM;
 	private static final MethodHandle PFS_FILE_LENGTH;
 	private static final MethodHandle PFS_FILE_TRUNCATE;
+	private static final MethodHandle PFS_FILE_PREALLOCATE;
 	
 	static {
-		PFS_OPEN_STREAM   = LINKER.downcallHandle(LOCKUP.find("pfs_open_stream").orElseThrow(), FunctionDescriptor.of(INT, INT, INT));
-		PFS_FILE_LENGTH   = LINKER.downcallHandle(LOCKUP.find("pfs_file_length").orElseThrow(), FunctionDescriptor.of(LONG, INT));
-		PFS_FILE_TRUNCATE = LINKER.downcallHandle(LOCKUP.find("pfs_file_truncate").orElseThrow(), FunctionDescriptor.of(INT, INT, LONG));
+		PFS_OPEN_STREAM      = LINKER.downcallHandle(LOCKUP.find("pfs_open_stream").orElseThrow(), FunctionDescriptor.of(INT, INT, INT));
+		PFS_FILE_LENGTH      = LINKER.downcallHandle(LOCKUP.find("pfs_file_length").orElseThrow(), FunctionDescriptor.of(LONG, INT));
+		PFS_FILE_TRUNCATE    = LINKER.downcallHandle(LOCKUP.find("pfs_file_truncate").orElseThrow(), FunctionDescriptor.of(INT, INT, LONG));
+		PFS_FILE_PREALLOCATE = LINKER.downcallHandle(LOCKUP.find("pfs_file_preallocate").orElseThrow(), FunctionDescriptor.of(INT, INT, LONG));
 	}
 	
 	public PatrFile(int handle) {
@@ -73,6 +75,16 @@ public class PatrFile extends PatrFSElement implements File {
 		}
 	}
 	
+	@Override
+	public void preallocate(long length) throws IOException {
+		ensureOpen();
+		try {
+			if (0 == (int) PFS_FILE_PREALLOCATE.invoke(this.handle, length)) { throw thrw(PFSErrorCause.PREALLOCATE_FILE, null); }
+		} catch (Throwable e) {
+			throw thrw(e);
+		}
+	}
+	
 	@Override
 	public Stream open(StreamOpenOptions options) throws IOException {
 		ensureOpen();
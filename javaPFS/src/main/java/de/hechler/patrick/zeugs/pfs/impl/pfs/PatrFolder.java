@@ -26,6 +26,7 @@ import static de.hechler.patrick.zeugs.pfs.impl.pfs.PatrFSProvider.thrw;
 import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
 import java.lang.invoke.MethodHandle;
 import java.nio.channels.ClosedChannelException;
 import java.nio.file.NoSuchFileException;
@@ -100,10 +101,12 @@ public class PatrFolder extends PatrFSElement implements Folder {
 		
 		private static final MethodHandle PFS_ITER_CLOSE;
 		private static final MethodHandle PFS_ITER_NEXT;
+		private static final MethodHandle PFS_ITER_NEXT_BATCH;
 		
 		static {
-			PFS_ITER_CLOSE = LINKER.downcallHandle(LOCKUP.find("pfs_iter_close").orElseThrow(), FunctionDescriptor.of(INT, INT));
-			PFS_ITER_NEXT  = LINKER.downcallHandle(LOCKUP.find("pfs_iter_next").orElseThrow(), FunctionDescriptor.of(INT, INT));
+			PFS_ITER_CLOSE      = LINKER.downcallHandle(LOCKUP.find("pfs_iter_close").orElseThrow(), FunctionDescriptor.of(INT, INT));
+			PFS_ITER_NEXT       = LINKER.downcallHandle(LOCKUP.find("pfs_iter_next").orElseThrow(), FunctionDescriptor.of(INT, INT));
+			PFS_ITER_NEXT_BATCH = LINKER.downcallHandle(LOCKUP.find("pfs_iter_next_batch").orElseThrow(), FunctionDescriptor.of(INT, INT, PNTR, LONG, INT));
 		}
 		
 		private final int handle;
@@ -163,6 +166,35 @@ public class PatrFolder extends PatrFSElement implements Folder {
 			}
 		}
 		
+		@Override
+		public int nextEntries(MemorySegment buffer) throws IOException {
+			ensureIterOpen();
+			this.last = null;
+			long      off = 0L;
+			int       cnt = 0;
+			FSElement n   = this.next;
+			if (n != null) {
+				off = Folder.putEntry(buffer, 0L, n);
+				if (off == -1L) { throw new IllegalArgumentException("the buffer is too small for the next entry"); }
+				this.next = null;
+				n.close();
+				cnt = 1;
+			}
+			try {
+				int old = PatrFSProvider.pfsErrno();
+				int res = (int) PFS_ITER_NEXT_BATCH.invoke(this.handle, buffer.asSlice(off), buffer.byteSize() - off, Integer.MAX_VALUE);
+				if (res == -1) {
+					if (PatrFSProvider.pfsErrno() != ErrConsts.OUT_OF_RANGE) { throw thrw(PFSErrorCause.ITER_NEXT, null); }
+					PatrFSProvider.pfsErrno(old);
+					if (cnt == 0) { throw new IllegalArgumentException("the buffer is too small for the next entry"); }
+					return cnt;
+				}
+				return cnt + res;
+			} catch (Throwable e) {
+				throw thrw(e);
+			}
+		}
+		
 		@Override
 		public void delete() throws IOException, IllegalStateException {
 			ensureIterOpen();
@@ -40,6 +40,8 @@ public class PatrMount extends PatrFolder implements Mount {
 	private static final MountType[] MOUNT_TYPES = MountType.values();
 	
 	private static final MethodHandle PFS_MOUNT_FS_BLOCK_COUNT;
+	private static final MethodHandle PFS_MOUNT_FS_FREE_BLOCK_COUNT;
+	private static final MethodHandle PFS_MOUNT_FS_USED_BLOCK_COUNT;
 	private static final MethodHandle PFS_MOUNT_FS_BLOCK_SIZE;
 	private static final MethodHandle PFS_MOUNT_FS_UUID;
 	private static final MethodHandle PFS_MOUNT_FS_SET_UUID;
@@ -49,6 +51,10 @@ public class PatrMount extends PatrFolder implements Mount {
 	
 	static {
 		PFS_MOUNT_FS_BLOCK_COUNT  = LINKER.downcallHandle(LOCKUP.find("pfs_mount_fs_block_count").orElseThrow(), FunctionDescriptor.of(LONG, INT));
+		PFS_MOUNT_FS_FREE_BLOCK_COUNT = LINKER.downcallHandle(LOCKUP.find("pfs_mount_fs_free_block_count").orElseThrow(),
+				FunctionDescriptor.of(LONG, INT));
+		PFS_MOUNT_FS_USED_BLOCK_COUNT = LINKER.downcallHandle(LOCKUP.find("pfs_mount_fs_used_block_count").orElseThrow(),
+				FunctionDescriptor.of(LONG, INT));
 		PFS_MOUNT_FS_BLOCK_SIZE   = LINKER.downcallHandle(LOCKUP.find("pfs_mount_fs_block_size").orElseThrow(), FunctionDescriptor.of(INT, INT));
 		PFS_MOUNT_FS_UUID         = LINKER.downcallHandle(LOCKUP.find("pfs_mount_fs_uuid").orElseThrow(), FunctionDescriptor.of(PNTR, INT, PNTR));
 		PFS_MOUNT_FS_SET_UUID     = LINKER.downcallHandle(LOCKUP.find("pfs_mount_fs_set_uuid").orElseThrow(), FunctionDescriptor.of(INT, INT, PNTR));
@@ -73,6 +79,30 @@ public class PatrMount extends PatrFolder implements Mount {
 		}
 	}
 	
+	@Override
+	public long freeBlockCount() throws IOException {
+		ensureOpen();
+		try {
+			long res = (long) PFS_MOUNT_FS_FREE_BLOCK_COUNT.invoke(this.handle);
+			if (res == -1L) throw thrw(PFSErrorCause.GET_FREE_BLOCK_COUNT, this);
+			return res;
+		} catch (Throwable e) {
+			throw thrw(e);
+		}
+	}
+	
+	@Override
+	public long usedBlockCount() throws IOException {
+		ensureOpen();
+		try {
+			long res = (long) PFS_MOUNT_FS_USED_BLOCK_COUNT.invoke(this.handle);
+			if (res == -1L) throw thrw(PFSErrorCause.GET_USED_BLOCK_COUNT, this);
+			return res;
+		} catch (Throwable e) {
+			throw thrw(e);
+		}
+	}
+	
 	@Override
 	public int blockSize() throws IOException {
 		ensureOpen();
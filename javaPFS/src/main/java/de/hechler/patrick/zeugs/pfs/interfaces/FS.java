@@ -43,6 +43,22 @@ public interface FS extends Closeable {
 	 */
 	long blockCount() throws IOException;
 
+	/**
+	 * returns the number of unused blocks of the file system
+	 * 
+	 * @return the number of unused blocks of the file system
+	 * @throws IOException if an IO error occurs
+	 */
+	long freeBlockCount() throws IOException;
+
+	/**
+	 * returns the number of used blocks of the file system
+	 * 
+	 * @return the number of used blocks of the file system
+	 * @throws IOException if an IO error occurs
+	 */
+	long usedBlockCount() throws IOException;
+
 	/**
 	 * returns the size of the blocks in the file system
 	 * 
@@ -51,6 +67,23 @@ public interface FS extends Closeable {
 	 */
 	int blockSize() throws IOException;
 
+	/**
+	 * enables or disables the delete in background mode
+	 * <p>
+	 * in this mode {@link FSElement#delete()} only detaches the blocks of large files and returns immediately, the
+	 * blocks are freed later (when the file system needs them)
+	 * <p>
+	 * closing and loading the file system may block while they free a bounded number of the remaining blocks, the
+	 * other blocks stay remembered in the file system
+	 * <p>
+	 * file systems, which free their blocks always directly, ignore this mode (patr file systems free their blocks
+	 * always directly, unless they were formatted with the deferred free format option)
+	 * 
+	 * @param enable <code>true</code> to enable and <code>false</code> to disable the delete in background mode
+	 * @throws IOException if an IO error occurs
+	 */
+	void deleteInBackground(boolean enable) throws IOException;
+
 	/**
 	 * get the element which can be referred with the given path
 	 * 
@@ -25,6 +25,7 @@ import de.hechler.patrick.zeugs.pfs.opts.StreamOpenOptions;
  * <ul>
  * <li>to get ({@link #length()} the files length</li>
  * <li>to set ({@link #truncate(long)} the files length</li>
+ * <li>to reserve space for the file ({@link #preallocate(long)}</li>
  * <li>the content of the file can be read with {@link #openRead()}</li>
  * <li>to write to the file use {@link #openWrite()} and
  * {@link #openAppend()}</li>
@@ -56,6 +57,20 @@ public interface File extends FSElement {
 	 */
 	void truncate(long length) throws IOException;
 
+	/**
+	 * reserves enough space for the file to hold {@code length} bytes without
+	 * changing the length of the file. <br>
+	 * later writes, appends and {@link #truncate(long)} calls which grow the
+	 * file use the reserved space first. <br>
+	 * shrinking the file releases the reserved space again <br>
+	 * implementations which can not reserve space without changing the length
+	 * of the file only validate the arguments, for them this is a no-op
+	 * 
+	 * @param length the number of bytes the file should be able to hold
+	 * @throws IOException if an IO error occurs
+	 */
+	void preallocate(long length) throws IOException;
+
 	/**
 	 * opens a {@link ReadStream} for this file
 	 * <p>
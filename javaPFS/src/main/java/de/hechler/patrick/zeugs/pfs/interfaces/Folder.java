@@ -19,6 +19,9 @@ package de.hechler.patrick.zeugs.pfs.interfaces;
 import java.io.Closeable;
 import java.io.IOError;
 import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 
 /**
@@ -33,6 +36,7 @@ import java.util.Iterator;
  * <li>add children to the folder (with the {@link #createFile(String)}, {@link #createFolder(String)} and
  * {@link #createPipe(String)} methods)</li>
  * <li>remove children #re
+ * <li>list the children with their attributes without opening them (over {@link FolderIter#nextEntries(MemorySegment)})</li>
  * </ul>
  * 
  * @author pat
@@ -329,6 +333,90 @@ public interface Folder extends FSElement, Iterable<FSElement> {
 		return createMountRFSFile(name, new java.io.File(file));
 	}
 	
+	/**
+	 * the offset of the {@link FSElement#createTime() create time} ({@code long}) in a listing entry
+	 * 
+	 * @see FolderIter#nextEntries(MemorySegment)
+	 */
+	static final long ENTRY_CREATE_TIME   = 0L;
+	/**
+	 * the offset of the {@link FSElement#lastModTime() last modify time} ({@code long}) in a listing entry
+	 * 
+	 * @see FolderIter#nextEntries(MemorySegment)
+	 */
+	static final long ENTRY_LAST_MOD_TIME = 8L;
+	/**
+	 * the offset of the length ({@code long}) in a listing entry
+	 * <p>
+	 * the length of folders and mount points is zero
+	 * 
+	 * @see FolderIter#nextEntries(MemorySegment)
+	 */
+	static final long ENTRY_LENGTH        = 16L;
+	/**
+	 * the offset of the {@link FSElement#flags() flags} ({@code int}) in a listing entry
+	 * 
+	 * @see FolderIter#nextEntries(MemorySegment)
+	 */
+	static final long ENTRY_FLAGS         = 24L;
+	/**
+	 * the offset of the number of bytes of the name ({@code int}) in a listing entry
+	 * 
+	 * @see FolderIter#nextEntries(MemorySegment)
+	 */
+	static final long ENTRY_NAME_LENGTH   = 28L;
+	/**
+	 * the offset of the <code>'\0'</code> terminated UTF-8 {@link FSElement#name() name} in a listing entry
+	 * 
+	 * @see FolderIter#nextEntries(MemorySegment)
+	 */
+	static final long ENTRY_NAME          = 32L;
+	
+	/**
+	 * returns the size of a listing entry with a name of {@code nameLength} bytes
+	 * <p>
+	 * the size is always a multiple of eight, the next entry starts directly after the entry
+	 * 
+	 * @param nameLength the number of bytes of the name (the value stored at {@link #ENTRY_NAME_LENGTH})
+	 * 
+	 * @return the size of a listing entry with a name of {@code nameLength} bytes
+	 */
+	static long entrySize(int nameLength) {
+		return (ENTRY_NAME + nameLength + 8L) & ~7L;
+	}
+	
+	/**
+	 * stores the listing entry of the given element at {@code offset} in {@code buffer}
+	 * 
+	 * @param buffer  the buffer of the listing entries
+	 * @param offset  the offset of the entry
+	 * @param element the element to be stored
+	 * 
+	 * @return the offset after the stored entry or {@code -1} if the entry does not fit in the buffer
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	static long putEntry(MemorySegment buffer, long offset, FSElement element) throws IOException {
+		byte[] name = element.name().getBytes(StandardCharsets.UTF_8);
+		long   end  = offset + entrySize(name.length);
+		if (end > buffer.byteSize()) { return -1L; }
+		int  flags = element.flags();
+		long len   = 0L;
+		if ((flags & FSElement.FLAG_FILE) != 0) {
+			len = element.getFile().length();
+		} else if ((flags & FSElement.FLAG_PIPE) != 0) {
+			len = element.getPipe().length();
+		}
+		buffer.set(ValueLayout.JAVA_LONG_UNALIGNED, offset + ENTRY_CREATE_TIME, element.createTime());
+		buffer.set(ValueLayout.JAVA_LONG_UNALIGNED, offset + ENTRY_LAST_MOD_TIME, element.lastModTime());
+		buffer.set(ValueLayout.JAVA_LONG_UNALIGNED, offset + ENTRY_LENGTH, len);
+		buffer.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ENTRY_FLAGS, flags);
+		buffer.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ENTRY_NAME_LENGTH, name.length);
+		MemorySegment.copy(name, 0, buffer, ValueLayout.JAVA_BYTE, offset + ENTRY_NAME, name.length);
+		buffer.set(ValueLayout.JAVA_BYTE, offset + ENTRY_NAME + name.length, (byte) 0);
+		return end;
+	}
+	
 	/**
 	 * this interface describes an {@link Iterator} which returns {@link FSElement} objects
 	 * <p>
@@ -358,6 +446,27 @@ public interface Folder extends FSElement, Iterable<FSElement> {
 		 */
 		boolean hasNextElement() throws IOException;
 		
+		/**
+		 * stores listing entries for the next children in {@code buffer} and returns the number of stored entries
+		 * <p>
+		 * each entry holds the create time, the last modify time, the length, the flags and the name of a child (see
+		 * {@link Folder#ENTRY_CREATE_TIME} and the other {@code ENTRY_} offsets). the second entry starts
+		 * {@link Folder#entrySize(int) entrySize(nameLength)} bytes after the first entry and so on.
+		 * <p>
+		 * no handles are opened for the listed children, if a handle is needed it can be opened with
+		 * {@link Folder#childElement(String)}. children which do not fit in the buffer stay in this iterator.
+		 * <p>
+		 * the listed children can not be {@link #delete() deleted} with this iterator.
+		 * 
+		 * @param buffer the buffer to be filled (implementations may require a native segment)
+		 * 
+		 * @return the number of stored entries or <code>0</code> if there are no more children
+		 * 
+		 * @throws IOException              if an IO error occurs
+		 * @throws IllegalArgumentException if the entry of the next child does not fit in the buffer
+		 */
+		int nextEntries(MemorySegment buffer) throws IOException;
+		
 		/**
 		 * {@link FSElement#delete() deletes} the element which has been returned from the last {@link #nextElement()}
 		 * or {@link #next()} call.
@@ -14,6 +14,24 @@ public interface Mount extends Folder {
 	 */
 	long blockCount() throws IOException;
 	
+	/**
+	 * returns the number of unused blocks of the file system
+	 * 
+	 * @return the number of unused blocks of the file system
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	long freeBlockCount() throws IOException;
+	
+	/**
+	 * returns the number of used blocks of the file system
+	 * 
+	 * @return the number of used blocks of the file system
+	 * 
+	 * @throws IOException if an IO error occurs
+	 */
+	long usedBlockCount() throws IOException;
+	
 	/**
 	 * returns the block size of the file system
 	 * 
@@ -38,10 +38,74 @@ import de.hechler.patrick.zeugs.pfs.interfaces.FSOptions;
  *                   system
  * @param uuid       the UUID of the file system, ignored when {@link #format()} is <code>false</code>
  * @param name       the name of the file system, ignored when {@link #format()} is <code>false</code>
+ * @param cacheCapacity the maximum number of unused blocks, which are kept in memory, <code>0</code> disables the
+ *                      block cache (modified cached blocks are written back on eviction, sync and close)
+ * @param backend       the {@link Backend} used to access the file
  * 
  * @author Patrick Hechler
  */
-public record PatrFSOptions(String path, boolean format, long blockCount, int blockSize, UUID uuid, String name) implements FSOptions {
+public record PatrFSOptions(String path, boolean format, long blockCount, int blockSize, UUID uuid, String name, long cacheCapacity,
+	Backend backend) implements FSOptions {
+	
+	/**
+	 * the ways the patr file system can access its underlying file
+	 * 
+	 * @author Patrick Hechler
+	 */
+	public enum Backend {
+		
+		/**
+		 * the blocks are read and written with normal file I/O (this is the default)
+		 */
+		FILE,
+		/**
+		 * the file is mapped into memory and the blocks are accessed directly from the mapping<br>
+		 * the {@link PatrFSOptions#cacheCapacity() cacheCapacity} is ignored by this backend
+		 */
+		MMAP,
+		/**
+		 * the blocks are read and written with direct I/O, which bypasses the page cache of the operating system<br>
+		 * the block size has to be a multiple of the direct I/O alignment of the underlying file system<br>
+		 * this backend should be used together with a {@link PatrFSOptions#cacheCapacity() cacheCapacity}, because otherwise
+		 * every block access goes directly to the device
+		 */
+		DIRECT,
+		
+	}
+	
+	/**
+	 * creates new {@link PatrFSOptions} with the given parameters and a disabled block cache
+	 * 
+	 * @param path       the path of the file, which should be used as underlying
+	 *                   block storage
+	 * @param format     <code>true</code> if the file system should be created and
+	 *                   <code>false</code> if it should be opened
+	 * @param blockCount the number of blocks, which can be used by the file system
+	 * @param blockSize  the size of the blocks, which can be used by the file
+	 *                   system
+	 * @param uuid       the UUID of the file system, ignored when {@link #format()} is <code>false</code>
+	 * @param name       the name of the file system, ignored when {@link #format()} is <code>false</code>
+	 */
+	public PatrFSOptions(String path, boolean format, long blockCount, int blockSize, UUID uuid, String name) {
+		this(path, format, blockCount, blockSize, uuid, name, 0L, Backend.FILE);
+	}
+	
+	/**
+	 * creates new {@link PatrFSOptions} with the given parameters
+	 * 
+	 * <p>
+	 * if <code>backend</code> is <code>null</code> {@link Backend#FILE} is used
+	 * 
+	 * @throws IllegalArgumentException if <code>cacheCapacity</code> is negative
+	 */
+	public PatrFSOptions {
+		if (cacheCapacity < 0L) {
+			throw new IllegalArgumentException("negative cache capacity: " + cacheCapacity);
+		}
+		if (backend == null) {
+			backend = Backend.FILE;
+		}
+	}
 	
 	/**
 	 * creates new {@link PatrFSOptions} with the given parameters
@@ -121,4 +185,26 @@ public record PatrFSOptions(String path, boolean format, long blockCount, int bl
 		this(path, true, blockCount, blockSize, uuid, name);
 	}
 	
+	/**
+	 * returns {@link PatrFSOptions}, which are the same as this, but with the given {@link #cacheCapacity()}
+	 * 
+	 * @param cacheCapacity the maximum number of unused blocks, which are kept in memory
+	 * 
+	 * @return {@link PatrFSOptions} with the given {@link #cacheCapacity()}
+	 */
+	public PatrFSOptions withCacheCapacity(long cacheCapacity) {
+		return new PatrFSOptions(this.path, this.format, this.blockCount, this.blockSize, this.uuid, this.name, cacheCapacity, this.backend);
+	}
+	
+	/**
+	 * returns {@link PatrFSOptions}, which are the same as this, but with the given {@link #backend()}
+	 * 
+	 * @param backend the {@link Backend} used to access the file
+	 * 
+	 * @return {@link PatrFSOptions} with the given {@link #backend()}
+	 */
+	public PatrFSOptions withBackend(Backend backend) {
+		return new PatrFSOptions(this.path, this.format, this.blockCount, this.blockSize, this.uuid, this.name, this.cacheCapacity, backend);
+	}
+	
 }
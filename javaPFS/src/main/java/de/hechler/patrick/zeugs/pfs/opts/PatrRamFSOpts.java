@@ -24,12 +24,35 @@ import de.hechler.patrick.zeugs.pfs.interfaces.FSOptions;
  * which will be stored in the computers ram. after {@link FS#close()} is called
  * of the ram file system all stored data will be lost
  * 
+ * <p>
+ * with <code>contiguous</code> the blocks are stored in one contiguous memory
+ * region, which is only allocated when the blocks are used. this avoids
+ * copying the blocks, but when the system runs out of memory the process is
+ * killed instead of an error being reported
+ * 
  * @param blockCount the number of blocks, which can be used by the file system
  * @param blockSize  the size of the blocks, which can be used by the file
  *                   system
+ * @param contiguous <code>true</code> if the blocks should be stored in one
+ *                   contiguous memory region
+ * @param hugePages  <code>true</code> if the contiguous memory should be backed
+ *                   by (transparent) huge pages when supported by the system
  * 
  * @author pat
  */
-public record PatrRamFSOpts(long blockCount, int blockSize) implements FSOptions {
+public record PatrRamFSOpts(long blockCount, int blockSize, boolean contiguous, boolean hugePages) implements FSOptions {
+	
+	/**
+	 * creates new {@link PatrRamFSOpts} with the given parameters, which store
+	 * each block separately
+	 * 
+	 * @param blockCount the number of blocks, which can be used by the file
+	 *                   system
+	 * @param blockSize  the size of the blocks, which can be used by the file
+	 *                   system
+	 */
+	public PatrRamFSOpts(long blockCount, int blockSize) {
+		this(blockCount, blockSize, false, false);
+	}
 	
 }
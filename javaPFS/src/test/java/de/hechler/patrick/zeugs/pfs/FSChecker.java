@@ -166,6 +166,25 @@ public class FSChecker {
 		}
 	}
 	
+	@Check
+	private void
+		blockCountCheck(@ParamCreater(clas = ParamCreaterHelp.class, method = SPLIT_COMMA_OF_INFO, params = Parameter.class) @ParamInfo(FSProvider.PATR_FS_PROVIDER_NAME) String prov)
+			throws IOException, NoSuchProviderException {
+		try (FS fs = fs(prov); Folder root = fs.folder("/")) {
+			long used = fs.usedBlockCount();
+			assertEquals(fs.blockCount(), fs.freeBlockCount() + used);
+			try (File file = root.createFile("file")) {
+				try (WriteStream write = file.openAppend()) {
+					write.write(new byte[4096]);
+				}
+				assertEquals(fs.blockCount(), fs.freeBlockCount() + fs.usedBlockCount());
+				assertEquals(true, fs.usedBlockCount() >= used + 4);
+				file.delete();
+			}
+			assertEquals(used, fs.usedBlockCount());
+		}
+	}
+	
 	private FS fs(String provName) throws IOException, NoSuchProviderException {
 		FSProvider prov = FSProvider.ofName(provName);
 		FSOptions  opts = this.providerOpts.get(provName);
@@ -0,0 +1,74 @@
+//This file is part of the Patr File System Project
+//DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+//Copyright (C) 2023  Patrick Hechler
+//
+//This program is free software: you can redistribute it and/or modify
+//it under the terms of the GNU General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//This program is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU General Public License for more details.
+//
+//You should have received a copy of the GNU General Public License
+//along with this program.  If not, see <https://www.gnu.org/licenses/>.
+package de.hechler.patrick.zeugs.pfs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.NoSuchProviderException;
+import java.util.Random;
+
+import de.hechler.patrick.zeugs.pfs.interfaces.FS;
+import de.hechler.patrick.zeugs.pfs.interfaces.File;
+import de.hechler.patrick.zeugs.pfs.interfaces.Folder;
+import de.hechler.patrick.zeugs.pfs.interfaces.ReadStream;
+import de.hechler.patrick.zeugs.pfs.interfaces.WriteStream;
+import de.hechler.patrick.zeugs.pfs.opts.PatrFSOptions;
+
+/**
+ * measures sequential reads of a large file through a {@link ReadStream} of the patr file system
+ * <p>
+ * usage: <code>StreamBenchmark [FILE_SIZE_IN_MIB [CHUNK_SIZE_IN_KIB]]</code> (default: 2048 MiB in 64 KiB chunks)
+ * 
+ * @author pat
+ */
+public class StreamBenchmark {
+	
+	private static final int BLOCK_SIZE = 4096;
+	
+	public static void main(String[] args) throws IOException, NoSuchProviderException {
+		long fileSize  = (args.length > 0 ? Long.parseLong(args[0]) : 2048L) << 20;
+		int  chunkSize = (args.length > 1 ? Integer.parseInt(args[1]) : 64) << 10;
+		long blocks    = fileSize / (BLOCK_SIZE - 8) + (fileSize >> 10) + 16L;
+		Files.createDirectories(Paths.get("./testout/"));
+		PatrFSOptions opts  = new PatrFSOptions("./testout/stream-benchmark.pfs", true, blocks, BLOCK_SIZE);
+		byte[]        chunk = new byte[chunkSize];
+		new Random(42L).nextBytes(chunk);
+		try (FS fs = FSProvider.ofName(FSProvider.PATR_FS_PROVIDER_NAME).loadFS(opts); Folder root = fs.folder("/");
+				File file = root.createFile("large-file")) {
+			long start = System.nanoTime();
+			try (WriteStream write = file.openAppend()) {
+				for (long written = 0L; written < fileSize; written += chunkSize) {
+					write.write(chunk, 0, chunkSize);
+				}
+			}
+			long mid = System.nanoTime();
+			long read = 0L;
+			try (ReadStream str = file.openRead()) {
+				for (int r = str.read(chunk, 0, chunkSize); r > 0; r = str.read(chunk, 0, chunkSize)) {
+					read += r;
+				}
+			}
+			long end = System.nanoTime();
+			System.out.printf("write: %8.1f MiB/s%n", (fileSize / 1048576.0) / ((mid - start) / 1e9));
+			System.out.printf("read:  %8.1f MiB/s (%d bytes in %d byte chunks)%n", (read / 1048576.0) / ((end - mid) / 1e9), read,
+					chunkSize);
+			file.delete();
+		}
+	}
+	
+}
@@ -33,6 +33,21 @@
 #include <sys/types.h>
 #include <sys/errno.h>
 #include <sys/file.h>
+#ifndef PFS_PORTABLE_BUILD
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <sys/uio.h>
+#include <sys/ioctl.h>
+#include <limits.h>
+#include <pthread.h>
+#include <time.h>
+#ifndef IOV_MAX
+#define IOV_MAX 1024
+#endif // IOV_MAX
+#endif // PFS_PORTABLE_BUILD
+#ifdef PFS_IO_URING
+#include <liburing.h>
+#endif // PFS_IO_URING
 
 int bm_equal(const void *a, const void *b);
 uint64_t bm_hash(const void *a);
@@ -42,15 +57,102 @@ void set_none_flags(struct bm_block_manager *bm, i64 block, ui64 flags);
 i64 not_get_first_zero_flagged_block(struct bm_block_manager *bm);
 void not_delete_all_flags(struct bm_block_manager *bm);
 
+struct bm_loaded {
+	i64 block;
+	void *data;
+	int count;
+	int save;
+};
+
+_Static_assert(offsetof(struct bm_loaded, block) == 0, "Error!");
+
+/*
+ * a loaded block of a file block manager
+ * when the block is no longer used it is kept in the cache list
+ * (prev is the more recently used and next the less recently used block)
+ */
+struct bm_cached {
+	struct bm_loaded loaded;
+	struct bm_cached *prev;
+	struct bm_cached *next;
+	/* non-zero if the block was read ahead and has not been used since */
+	int prefetched;
+	/* non-zero while the block is in the write-behind queue */
+	int queued;
+	/* non-zero while the flusher thread saves the block */
+	int flushing;
+	/* the write-behind queue (ordered by the time the blocks were queued) */
+	struct bm_cached *wb_prev;
+	struct bm_cached *wb_next;
+	/* the time the block was queued (see bm_nanos) */
+	i64 wb_time;
+};
+
+_Static_assert(offsetof(struct bm_cached, loaded) == 0, "Error!");
+
 struct bm_file {
 	struct bm_block_manager bm;
+	struct bm_pools pools;
 	const char *path;
 	bm_fd file;
 	unsigned load_count;
+	/* the unused blocks, which are still in memory */
+	struct hashset cache;
+	/* the most recently used cached block */
+	struct bm_cached *cache_first;
+	/* the least recently used cached block */
+	struct bm_cached *cache_last;
+	i64 cache_count;
+	i64 cache_capacity;
+	/* the maximum number of blocks read ahead (zero if disabled) */
+	i32 ra_max;
+	/* the size of the current read ahead window */
+	i32 ra_size;
+	/* the block which would continue the current sequential read */
+	i64 ra_expect;
+	/* the current read ahead window [ra_start, ra_end) */
+	i64 ra_start;
+	i64 ra_end;
+	struct bm_readahead_stats ra_stats;
+	/* the alignment needed for O_DIRECT I/O or zero if O_DIRECT is not used */
+	i32 direct_align;
+#ifdef PFS_IO_URING
+	/* the ring is only initialized when ring_depth is not zero */
+	struct io_uring ring;
+	unsigned ring_depth;
+#endif // PFS_IO_URING
+#ifndef PFS_PORTABLE_BUILD
+	/* non-zero while the write-behind mode is enabled */
+	int wb_enabled;
+	/* tells the flusher thread to exit */
+	int wb_stop;
+	pthread_t wb_thread;
+	/* serializes the block manager functions and the flusher */
+	pthread_mutex_t wb_lock;
+	/* wakes the flusher thread */
+	pthread_cond_t wb_wake;
+	/* signaled after the flusher saved blocks */
+	pthread_cond_t wb_done;
+	/* the oldest and the newest queued block */
+	struct bm_cached *wb_first;
+	struct bm_cached *wb_last;
+	/* the number of queued blocks */
+	i64 wb_count;
+	/* the number of blocks the flusher is currently saving */
+	i64 wb_inflight;
+	/* the copies of the blocks the flusher is currently saving */
+	void *wb_buf;
+	i64 wb_max_dirty;
+	/* the maximum time a block stays queued in nanoseconds */
+	i64 wb_max_age;
+	/* the pfs_err value of the last failed write of the flusher or zero */
+	ui32 wb_err;
+#endif // PFS_PORTABLE_BUILD
 };
 
 struct bm_ram {
 	struct bm_block_manager bm;
+	struct bm_pools pools;
 	void **blocks;
 	i64 block_count;
 };
@@ -60,11 +162,28 @@ struct bm_flag_ram {
 	ui8 *flags;
 };
 
+#ifndef PFS_PORTABLE_BUILD
+struct bm_mmap {
+	struct bm_block_manager bm;
+	void *data;
+	i64 block_count;
+	bm_fd file;
+	int read_only;
+};
+
+_Static_assert(offsetof(struct bm_mmap, bm) == 0, "error!");
+#endif // PFS_PORTABLE_BUILD
+
 _Static_assert(offsetof(struct bm_ram, bm)
 == 0, "error!");
 _Static_assert(offsetof(struct bm_file, bm)
 == 0, "error!");
 _Static_assert(offsetof(struct bm_flag_ram, bm) == 0, "error!");
+// bm_pools expects the pools directly after the bm_block_manager
+_Static_assert(offsetof(struct bm_ram, pools)
+== sizeof(struct bm_block_manager), "error!");
+_Static_assert(offsetof(struct bm_file, pools)
+== sizeof(struct bm_block_manager), "error!");
 
 void* bm_lazy_get(struct bm_block_manager *bm, i64 block);
 
@@ -74,12 +193,21 @@ static int bm_ram_set(struct bm_block_manager *bm, i64 block);
 static int bm_ram_sync(struct bm_block_manager *bm);
 static int bm_ram_close(struct bm_block_manager *bm);
 
+static void* bm_file_lazy_get(struct bm_block_manager *bm, i64 block);
 static void* bm_file_get(struct bm_block_manager *bm, i64 block);
 static int bm_file_unget(struct bm_block_manager *bm, i64 block);
 static int bm_file_set(struct bm_block_manager *bm, i64 block);
 static int bm_file_sync(struct bm_block_manager *bm);
 static int bm_file_close(struct bm_block_manager *bm);
 
+#ifndef PFS_PORTABLE_BUILD
+static void* bm_mmap_get(struct bm_block_manager *bm, i64 block);
+static int bm_mmap_unget(struct bm_block_manager *bm, i64 block);
+static int bm_mmap_set(struct bm_block_manager *bm, i64 block);
+static int bm_mmap_sync(struct bm_block_manager *bm);
+static int bm_mmap_close(struct bm_block_manager *bm);
+#endif // PFS_PORTABLE_BUILD
+
 static int bm_flag_ram_close(struct bm_block_manager *bm);
 static i64 get_flag_ram_flags(struct bm_block_manager *bm, i64 block);
 static void set_flag_ram_flags(struct bm_block_manager *bm, i64 block,
@@ -123,6 +251,7 @@ extern struct bm_block_manager* bm_new_ram_block_manager(i64 block_count,
 	bm->bm.loaded.equalizer = bm_equal;
 	bm->bm.loaded.hashmaker = bm_hash;
 	setNoFlagVals(ram)
+	bm_pools_init(&bm->bm);
 	bm->blocks = calloc(block_count, sizeof(void*));
 	bm->block_count = block_count;
 	if (bm->blocks == NULL) {
@@ -133,6 +262,53 @@ extern struct bm_block_manager* bm_new_ram_block_manager(i64 block_count,
 	return &(bm->bm);
 }
 
+extern struct bm_block_manager* bm_new_contiguous_ram_block_manager(
+		i64 block_count, i32 block_size, int huge_pages) {
+#ifdef PFS_PORTABLE_BUILD
+	return bm_new_ram_block_manager(block_count, block_size);
+#else // PFS_PORTABLE_BUILD
+	if (block_size <= 0 || block_count <= 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return NULL;
+	}
+	i64 len = block_count * (i64) block_size;
+	/*
+	 * the pages are only allocated (and zero filled) by the kernel when they
+	 * are touched, so the blocks which are never used cost no memory
+	 */
+	void *data = mmap(NULL, len, PROT_READ | PROT_WRITE,
+			MAP_PRIVATE | MAP_ANONYMOUS | MAP_NORESERVE, -1, 0);
+	if (data == MAP_FAILED) {
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		errno = 0;
+		return NULL;
+	}
+#ifdef MADV_HUGEPAGE
+	if (huge_pages && madvise(data, len, MADV_HUGEPAGE) == -1) {
+		errno = 0; // transparent huge pages are only a hint
+	}
+#endif // MADV_HUGEPAGE
+	struct bm_mmap *bm = malloc(sizeof(struct bm_mmap));
+	if (bm == NULL) {
+		munmap(data, len);
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		return NULL;
+	}
+	bm->bm.loaded.entries = NULL;
+	bm->bm.loaded.maxi = 0;
+	bm->bm.loaded.entrycount = 0;
+	bm->bm.loaded.equalizer = bm_equal;
+	bm->bm.loaded.hashmaker = bm_hash;
+	setNoFlagVals(mmap)
+	setVal(void* (**)(struct bm_block_manager*, i64), lazy_get, bm_mmap_get)
+	bm->data = data;
+	bm->block_count = block_count;
+	bm->file = -1;
+	bm->read_only = 0;
+	return &bm->bm;
+#endif // PFS_PORTABLE_BUILD
+}
+
 static int bm_mnt_equal(const void *a, const void *b) {
 	const struct bm_file *ha = a, *hb = b;
 	return strcmp(ha->path, hb->path) == 0;
@@ -154,33 +330,40 @@ static struct hashset pfs_all_ext_mnt = {   //
 				.maxi = 0                   //
 		};
 
-static inline struct bm_block_manager* bm_new_file_block_manager(bm_fd fd,
-		i32 block_size, const char *path) {
-	if (block_size <= 0) {
-		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
-		return NULL;
-	}
+static int bm_lock_fd(bm_fd fd) {
 #if !defined PFS_PORTABLE_BUILD && !defined PFS_HALF_PORTABLE_BUILD
 	if (flock(fd, LOCK_EX | LOCK_NB) == -1) {
 		switch (errno) {
 		case EBADF:
 			errno = 0;
 			pfs_err = PFS_ERRNO_ILLEGAL_ARG;
-			return NULL;
+			return 0;
 		case ENOLCK:
 			errno = 0;
 			pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
-			return NULL;
+			return 0;
 		case EWOULDBLOCK:
 			errno = 0;
 			pfs_err = PFS_ERRNO_IO_ERR;
-			return NULL;
+			return 0;
 		default:
 			pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
-			return NULL;
+			return 0;
 		}
 	}
 #endif // !PFS_HALF_PORTABLE_BUILD && !PFS_PORTABLE_BUILD
+	return 1;
+}
+
+static inline struct bm_block_manager* bm_new_file_block_manager(bm_fd fd,
+		i32 block_size, const char *path) {
+	if (block_size <= 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return NULL;
+	}
+	if (!bm_lock_fd(fd)) {
+		return NULL;
+	}
 	struct bm_file *bm = malloc(sizeof(struct bm_file));
 	if (bm == NULL) {
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
@@ -192,19 +375,104 @@ static inline struct bm_block_manager* bm_new_file_block_manager(bm_fd fd,
 	bm->bm.loaded.equalizer = bm_equal;
 	bm->bm.loaded.hashmaker = bm_hash;
 	setNoFlagVals(file)
+	setVal(void* (**)(struct bm_block_manager*, i64), lazy_get, bm_file_lazy_get)
+	bm_pools_init(&bm->bm);
 	bm->file = fd;
 	bm->load_count = 1;
 	bm->path = path;
-	if (hashset_put(&pfs_all_ext_mnt, bm_hash(bm), bm) != NULL) {
+	bm->cache.entries = NULL;
+	bm->cache.maxi = 0;
+	bm->cache.entrycount = 0;
+	bm->cache.equalizer = bm_equal;
+	bm->cache.hashmaker = bm_hash;
+	bm->cache_first = NULL;
+	bm->cache_last = NULL;
+	bm->cache_count = 0;
+	bm->cache_capacity = 0;
+	bm->ra_max = 0;
+	bm->ra_size = 0;
+	bm->ra_expect = -1;
+	bm->ra_start = 0;
+	bm->ra_end = 0;
+	memset(&bm->ra_stats, 0, sizeof(struct bm_readahead_stats));
+	bm->direct_align = 0;
+#ifdef PFS_IO_URING
+	bm->ring_depth = 0;
+#endif // PFS_IO_URING
+#ifndef PFS_PORTABLE_BUILD
+	bm->wb_enabled = 0;
+#endif // PFS_PORTABLE_BUILD
+	if (hashset_put(&pfs_all_ext_mnt, bm_mnt_hash(bm), bm) != NULL) {
 		abort();
 	}
 	return &(bm->bm);
 }
 
-extern struct bm_block_manager* bm_new_file_block_manager_path_bs(
-		const char *file, i32 block_size, int read_only) {
+#if !defined PFS_PORTABLE_BUILD && defined O_DIRECT
+/*
+ * returns the alignment needed for O_DIRECT I/O on the given file
+ * (for the file offsets, the lengths and the memory buffers)
+ */
+static i32 bm_direct_align(bm_fd fd) {
+	i32 align = 0;
+#ifdef STATX_DIOALIGN
+	struct statx stx;
+	if (statx(fd, "", AT_EMPTY_PATH, STATX_DIOALIGN, &stx) == 0
+			&& (stx.stx_mask & STATX_DIOALIGN) && stx.stx_dio_offset_align) {
+		align = stx.stx_dio_offset_align;
+		if ((i32) stx.stx_dio_mem_align > align) {
+			align = stx.stx_dio_mem_align;
+		}
+	}
+#endif // STATX_DIOALIGN
+	if (!align) {
+		struct stat64 st;
+		if (fstat64(fd, &st) == -1) {
+			errno = 0;
+			return 4096;
+		}
+#ifdef BLKSSZGET
+		if (S_ISBLK(st.st_mode) && ioctl(fd, BLKSSZGET, &align) == 0) {
+			return align;
+		}
+#endif // BLKSSZGET
+		align = st.st_blksize;
+	}
+	if (align < (i32) sizeof(void*)) {
+		align = sizeof(void*);
+	}
+	return align;
+}
+#endif // !PFS_PORTABLE_BUILD && O_DIRECT
+
+/*
+ * allocates a block buffer
+ * the pooled buffers of a direct I/O block manager are all aligned
+ */
+static inline void* bm_file_alloc_data(struct bm_file *bf) {
+	if (!bf->direct_align || bf->pools.data.first) {
+		return bm_pool_alloc(&bf->pools.data, bf->bm.block_size);
+	}
+	void *data;
+	if (posix_memalign(&data, bf->direct_align, bf->bm.block_size)) {
+		return NULL;
+	}
+	return data;
+}
+
+static inline void bm_file_free_data(struct bm_file *bf, void *data) {
+	bm_pool_free(&bf->pools.data, data);
+}
+
+static struct bm_block_manager* bm_open_file_block_manager(const char *file,
+		i32 block_size, int read_only, int direct) {
 	bm_fd fd;
 	if (read_only) {
+#if !defined PFS_PORTABLE_BUILD && defined O_DIRECT
+		if (direct) {
+			fd = open64(file, O_RDONLY | O_DIRECT);
+		} else
+#endif // !PFS_PORTABLE_BUILD && O_DIRECT
 		fd = bm_fd_open_ro(file);
 	} else {
 #ifdef PFS_PORTABLE_BUILD // fopen has no mode for open existing (but do not truncate) or create new
@@ -216,6 +484,8 @@ extern struct bm_block_manager* bm_new_file_block_manager_path_bs(
 				fd = bm_fd_open_rw_trunc(file);
 			}
 		}
+#elif defined O_DIRECT
+		fd = open64(file, O_RDWR | O_CREAT | (direct ? O_DIRECT : 0), S_IRUSR | S_IWUSR | S_IRGRP | S_IWGRP | S_IROTH | S_IWOTH);
 #else
 		fd = open64(file, O_RDWR | O_CREAT, S_IRUSR | S_IWUSR | S_IRGRP | S_IWGRP | S_IROTH | S_IWOTH);
 #endif
@@ -233,10 +503,14 @@ extern struct bm_block_manager* bm_new_file_block_manager_path_bs(
 		case EIO:
 			pfs_err = PFS_ERRNO_IO_ERR;
 			break;
+		case EINVAL: // the file system does not support O_DIRECT
+			pfs_err = direct ? PFS_ERRNO_ILLEGAL_ARG : PFS_ERRNO_UNKNOWN_ERROR;
+			break;
 		default:
 			pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
 			break;
 		}
+		errno = 0;
 		return NULL;
 	}
 	struct bm_file tf;
@@ -245,6 +519,7 @@ extern struct bm_block_manager* bm_new_file_block_manager_path_bs(
 			bm_mnt_hash(&tf),
 			&tf);
 	if (f) {
+		bm_fd_close(fd);
 		if (f->bm.block_size != block_size) {
 			abort();
 		}
@@ -253,7 +528,59 @@ extern struct bm_block_manager* bm_new_file_block_manager_path_bs(
 		}
 		return &f->bm;
 	}
+#if !defined PFS_PORTABLE_BUILD && defined O_DIRECT
+	i32 align = 0;
+	if (direct) {
+		align = bm_direct_align(fd);
+		if (block_size <= 0 || block_size % align) {
+			bm_fd_close(fd);
+			pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+			return NULL;
+		}
+	}
+	struct bm_block_manager *bm = bm_new_file_block_manager(fd, block_size,
+			strdup(file));
+	if (bm) {
+		((struct bm_file*) bm)->direct_align = align;
+	}
+	return bm;
+#else // !PFS_PORTABLE_BUILD && O_DIRECT
 	return bm_new_file_block_manager(fd, block_size, strdup(file));
+#endif // !PFS_PORTABLE_BUILD && O_DIRECT
+}
+
+extern struct bm_block_manager* bm_new_file_block_manager_path_bs(
+		const char *file, i32 block_size, int read_only) {
+	return bm_open_file_block_manager(file, block_size, read_only, 0);
+}
+
+extern struct bm_block_manager* bm_new_direct_block_manager_path_bs(
+		const char *file, i32 block_size, int read_only) {
+	return bm_open_file_block_manager(file, block_size, read_only, 1);
+}
+
+extern struct bm_block_manager* bm_new_direct_block_manager_path(
+		const char *file, int read_only) {
+	bm_fd fd = bm_fd_open(file, read_only);
+#ifdef PFS_PORTABLE_BUILD
+	if (fd == NULL) {
+#else // PFS_PORTABLE_BUILD
+	if (fd == -1) {
+#endif // PFS_PORTABLE_BUILD
+		pfs_err = errno == EIO ? PFS_ERRNO_IO_ERR : PFS_ERRNO_UNKNOWN_ERROR;
+		errno = 0;
+		return NULL;
+	}
+	struct pfs_b0 b0;
+	i64 reat = bm_fd_read(fd, &b0, sizeof(struct pfs_b0));
+	bm_fd_close(fd);
+	if (reat != sizeof(struct pfs_b0)) {
+		pfs_err = PFS_ERRNO_ILLEGAL_DATA;
+		errno = 0;
+		return NULL;
+	}
+	pfs_validate_b0(&b0, pfs_err = PFS_ERRNO_ILLEGAL_DATA; return NULL;, 0);
+	return bm_open_file_block_manager(file, b0.block_size, read_only, 1);
 }
 
 extern struct bm_block_manager* bm_new_file_block_manager_path(const char *file,
@@ -263,10 +590,11 @@ extern struct bm_block_manager* bm_new_file_block_manager_path(const char *file,
 	bm_fd_read(fd, &b0, sizeof(struct pfs_b0));
 	long value = sizeof(struct pfs_folder_entry);
 	pfs_validate_b0(&b0, pfs_err = PFS_ERRNO_ILLEGAL_DATA; return NULL;, 0);
-	struct bm_file *f = hashset_get(&pfs_all_ext_mnt,
-			bm_mnt_hash(&file - offsetof(struct bm_file, path)),
-			&file - offsetof(struct bm_file, path));
+	struct bm_file tf;
+	tf.path = file;
+	struct bm_file *f = hashset_get(&pfs_all_ext_mnt, bm_mnt_hash(&tf), &tf);
 	if (f) {
+		bm_fd_close(fd);
 		if (f->bm.block_size != b0.block_size) {
 			abort();
 		}
@@ -291,6 +619,7 @@ extern struct bm_block_manager* bm_new_flaggable_ram_block_manager(
 	bm->bm.bm.loaded.equalizer = bm_equal;
 	bm->bm.bm.loaded.hashmaker = bm_hash;
 	setFlagVals(ram, 8)
+	bm_pools_init(&bm->bm.bm);
 	bm->bm.blocks = calloc(block_count, sizeof(void*));
 	bm->bm.block_count = block_count;
 	if (bm->bm.blocks == NULL) {
@@ -308,6 +637,123 @@ extern struct bm_block_manager* bm_new_flaggable_ram_block_manager(
 	return &(bm->bm.bm);
 }
 
+#ifndef PFS_PORTABLE_BUILD
+static struct bm_block_manager* bm_new_mmap_block_manager(bm_fd fd,
+		i32 block_size, i64 block_count, int read_only) {
+	struct stat64 st;
+	if (block_size <= 0 || block_count <= 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		goto fail;
+	}
+	if (fstat64(fd, &st) == -1) {
+		pfs_err = PFS_ERRNO_IO_ERR;
+		goto fail;
+	}
+	i64 len = block_count * (i64) block_size;
+	if (!read_only && st.st_size < len && ftruncate64(fd, len) == -1) {
+		pfs_err = errno == EFBIG ? PFS_ERRNO_OUT_OF_SPACE : PFS_ERRNO_IO_ERR;
+		goto fail;
+	}
+	if (!bm_lock_fd(fd)) {
+		goto fail;
+	}
+	void *data;
+	if (!read_only) {
+		data = mmap(NULL, len, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+	} else {
+		/*
+		 * read only images are mapped privately and may be shorter than
+		 * block_count blocks, the missing blocks are zero filled
+		 * (like it is done by the file block manager)
+		 */
+		data = mmap(NULL, len, PROT_READ | PROT_WRITE,
+				MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+		if (data != MAP_FAILED && st.st_size > 0
+				&& mmap(data, st.st_size < len ? st.st_size : len,
+						PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_FIXED, fd, 0)
+						== MAP_FAILED) {
+			munmap(data, len);
+			data = MAP_FAILED;
+		}
+	}
+	if (data == MAP_FAILED) {
+		pfs_err = errno == ENOMEM ? PFS_ERRNO_OUT_OF_MEMORY : PFS_ERRNO_IO_ERR;
+		goto unlock_fail;
+	}
+	struct bm_mmap *bm = malloc(sizeof(struct bm_mmap));
+	if (bm == NULL) {
+		munmap(data, len);
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		goto unlock_fail;
+	}
+	bm->bm.loaded.entries = NULL;
+	bm->bm.loaded.maxi = 0;
+	bm->bm.loaded.entrycount = 0;
+	bm->bm.loaded.equalizer = bm_equal;
+	bm->bm.loaded.hashmaker = bm_hash;
+	setNoFlagVals(mmap)
+	setVal(void* (**)(struct bm_block_manager*, i64), lazy_get, bm_mmap_get)
+	bm->data = data;
+	bm->block_count = block_count;
+	bm->file = fd;
+	bm->read_only = read_only;
+	return &bm->bm;
+	unlock_fail: ;
+#ifndef PFS_HALF_PORTABLE_BUILD
+	flock(fd, LOCK_UN);
+#endif // PFS_HALF_PORTABLE_BUILD
+	fail: ;
+	close(fd);
+	errno = 0;
+	return NULL;
+}
+#endif // PFS_PORTABLE_BUILD
+
+extern struct bm_block_manager* bm_new_mmap_block_manager_path_bs(
+		const char *file, i32 block_size, i64 block_count, int read_only) {
+#ifdef PFS_PORTABLE_BUILD
+	return bm_new_file_block_manager_path_bs(file, block_size, read_only);
+#else
+	bm_fd fd;
+	if (read_only) {
+		fd = bm_fd_open_ro(file);
+	} else {
+		fd = open64(file, O_RDWR | O_CREAT,
+				S_IRUSR | S_IWUSR | S_IRGRP | S_IWGRP | S_IROTH | S_IWOTH);
+	}
+	if (fd == -1) {
+		pfs_err = errno == EIO ? PFS_ERRNO_IO_ERR : PFS_ERRNO_UNKNOWN_ERROR;
+		errno = 0;
+		return NULL;
+	}
+	return bm_new_mmap_block_manager(fd, block_size, block_count, read_only);
+#endif // PFS_PORTABLE_BUILD
+}
+
+extern struct bm_block_manager* bm_new_mmap_block_manager_path(const char *file,
+		int read_only) {
+#ifdef PFS_PORTABLE_BUILD
+	return bm_new_file_block_manager_path(file, read_only);
+#else
+	bm_fd fd = bm_fd_open(file, read_only);
+	if (fd == -1) {
+		pfs_err = errno == EIO ? PFS_ERRNO_IO_ERR : PFS_ERRNO_UNKNOWN_ERROR;
+		errno = 0;
+		return NULL;
+	}
+	struct pfs_b0 b0;
+	if (pread64(fd, &b0, sizeof(struct pfs_b0), 0) != sizeof(struct pfs_b0)) {
+		close(fd);
+		pfs_err = PFS_ERRNO_ILLEGAL_DATA;
+		errno = 0;
+		return NULL;
+	}
+	pfs_validate_b0(&b0, close(fd); pfs_err = PFS_ERRNO_ILLEGAL_DATA; return NULL;, 0);
+	return bm_new_mmap_block_manager(fd, b0.block_size, b0.block_count,
+			read_only);
+#endif // PFS_PORTABLE_BUILD
+}
+
 int bm_equal(const void *a, const void *b) {
 	return *(i64*) a == *(i64*) b;
 }
@@ -316,15 +762,6 @@ uint64_t bm_hash(const void *a) {
 	return *(uint64_t*) a;
 }
 
-struct bm_loaded {
-	i64 block;
-	void *data;
-	int count;
-	int save;
-};
-
-_Static_assert(offsetof(struct bm_loaded, block) == 0, "Error!");
-
 void* bm_lazy_get(struct bm_block_manager *bm, i64 block) {
 	struct bm_loaded *loaded = hashset_get(&bm->loaded, (uint64_t) block,
 			&block);
@@ -332,7 +769,7 @@ void* bm_lazy_get(struct bm_block_manager *bm, i64 block) {
 		loaded->count++;
 		return loaded->data;
 	}
-	loaded = malloc(sizeof(struct bm_loaded));
+	loaded = bm_pool_alloc(&bm_pools(bm)->loaded, sizeof(struct bm_loaded));
 	if (loaded == NULL) {
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		errno = 0;
@@ -340,14 +777,15 @@ void* bm_lazy_get(struct bm_block_manager *bm, i64 block) {
 	}
 	loaded->block = block;
 	loaded->count = 1;
-	loaded->data = calloc(1, bm->block_size);
+	loaded->data = bm_pool_alloc(&bm_pools(bm)->data, bm->block_size);
 	loaded->save = 0;
 	if (loaded->data == NULL) {
-		free(loaded);
+		bm_pool_free(&bm_pools(bm)->loaded, loaded);
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		errno = 0;
 		return NULL;
 	}
+	memset(loaded->data, 0, bm->block_size);
 	if (hashset_put(&bm->loaded, (uint64_t) block, loaded) != NULL) {
 		abort();
 	}
@@ -362,7 +800,7 @@ static void* bm_ram_get(struct bm_block_manager *bm, i64 block) {
 		loaded->count++;
 		return loaded->data;
 	}
-	loaded = malloc(sizeof(struct bm_loaded));
+	loaded = bm_pool_alloc(&br->pools.loaded, sizeof(struct bm_loaded));
 	if (loaded == NULL) {
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		errno = 0;
@@ -370,10 +808,10 @@ static void* bm_ram_get(struct bm_block_manager *bm, i64 block) {
 	}
 	loaded->block = block;
 	loaded->count = 1;
-	loaded->data = malloc(br->bm.block_size);
+	loaded->data = bm_pool_alloc(&br->pools.data, br->bm.block_size);
 	loaded->save = 0;
 	if (loaded->data == NULL) {
-		free(loaded);
+		bm_pool_free(&br->pools.loaded, loaded);
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		errno = 0;
 		return NULL;
@@ -412,8 +850,8 @@ static int bm_ram_unget(struct bm_block_manager *bm, i64 block) {
 			}
 			memcpy(br->blocks[block], loaded->data, br->bm.block_size);
 		}
-		free(loaded->data);
-		l: free(loaded);
+		bm_pool_free(&br->pools.data, loaded->data);
+		l: bm_pool_free(&br->pools.loaded, loaded);
 	}
 	return 1;
 }
@@ -440,8 +878,8 @@ static int bm_ram_set(struct bm_block_manager *bm, i64 block) {
 			}
 		}
 		memcpy(br->blocks[block], loaded->data, br->bm.block_size);
-		free(loaded->data);
-		l: free(loaded);
+		bm_pool_free(&br->pools.data, loaded->data);
+		l: bm_pool_free(&br->pools.loaded, loaded);
 	}
 	return 1;
 }
@@ -461,51 +899,349 @@ static int bm_ram_close(struct bm_block_manager *bm) {
 		}
 	}
 	free(br->blocks);
+	bm_pools_free(bm);
+	core_data_free(bm);
 	free(bm);
 	return 1;
 }
 
-static void* bm_file_get(struct bm_block_manager *bm, i64 block) {
-	struct bm_file *bf = (struct bm_file*) bm;
+static inline void cache_unlink(struct bm_file *bf, struct bm_cached *c) {
+	if (c->prev) {
+		c->prev->next = c->next;
+	} else {
+		bf->cache_first = c->next;
+	}
+	if (c->next) {
+		c->next->prev = c->prev;
+	} else {
+		bf->cache_last = c->prev;
+	}
+	bf->cache_count--;
+}
+
+static inline void cache_link_first(struct bm_file *bf, struct bm_cached *c) {
+	c->prev = NULL;
+	c->next = bf->cache_first;
+	if (bf->cache_first) {
+		bf->cache_first->prev = c;
+	} else {
+		bf->cache_last = c;
+	}
+	bf->cache_first = c;
+	bf->cache_count++;
+}
+
+#ifndef PFS_PORTABLE_BUILD
+static inline void bm_file_lock(struct bm_file *bf) {
+	if (bf->wb_enabled) {
+		pthread_mutex_lock(&bf->wb_lock);
+	}
+}
+
+static inline void bm_file_unlock(struct bm_file *bf) {
+	if (bf->wb_enabled) {
+		pthread_mutex_unlock(&bf->wb_lock);
+	}
+}
+
+static inline i64 bm_nanos() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1000000000L + ts.tv_nsec;
+}
+
+/* appends the block to the write-behind queue */
+static inline void wb_enqueue(struct bm_file *bf, struct bm_cached *c) {
+	c->queued = 1;
+	c->wb_time = bm_nanos();
+	c->wb_next = NULL;
+	c->wb_prev = bf->wb_last;
+	if (bf->wb_last) {
+		bf->wb_last->wb_next = c;
+	} else {
+		bf->wb_first = c;
+	}
+	bf->wb_last = c;
+	bf->wb_count++;
+}
+
+/* removes the block from the write-behind queue (if it is queued) */
+static inline void wb_dequeue(struct bm_file *bf, struct bm_cached *c) {
+	if (!c->queued) {
+		return;
+	}
+	c->queued = 0;
+	if (c->wb_prev) {
+		c->wb_prev->wb_next = c->wb_next;
+	} else {
+		bf->wb_first = c->wb_next;
+	}
+	if (c->wb_next) {
+		c->wb_next->wb_prev = c->wb_prev;
+	} else {
+		bf->wb_last = c->wb_prev;
+	}
+	bf->wb_count--;
+}
+#else // PFS_PORTABLE_BUILD
+#define bm_file_lock(bf)
+#define bm_file_unlock(bf)
+#define wb_dequeue(bf, c)
+#endif // PFS_PORTABLE_BUILD
+
+/*
+ * returns the loaded block or NULL if the block is neither loaded nor cached
+ * if the block is cached it is moved back to the loaded blocks
+ */
+static inline struct bm_loaded* bm_file_reuse(struct bm_file *bf, i64 block) {
 	struct bm_loaded *loaded = hashset_get(&bf->bm.loaded, (uint64_t) block,
 			&block);
 	if (loaded) {
 		loaded->count++;
-		return loaded->data;
+		return loaded;
 	}
-	loaded = malloc(sizeof(struct bm_loaded));
-	if (loaded == NULL) {
+	struct bm_cached *cached = hashset_remove(&bf->cache, (uint64_t) block,
+			&block);
+	if (cached) {
+		cache_unlink(bf, cached);
+		wb_dequeue(bf, cached);
+		cached->loaded.count = 1;
+		if (cached->prefetched) {
+			cached->prefetched = 0;
+			bf->ra_stats.hits++;
+			bf->ra_expect = *(i64*) (cached->loaded.data + bf->bm.block_size
+					- 8);
+		}
+		if (hashset_put(&bf->bm.loaded, (uint64_t) block, cached) != NULL) {
+			abort();
+		}
+		return &cached->loaded;
+	}
+	return NULL;
+}
+
+static inline struct bm_cached* bm_file_new_loaded(struct bm_file *bf, i64 block) {
+	struct bm_cached *cached = bm_pool_alloc(&bf->pools.loaded,
+			sizeof(struct bm_cached));
+	if (cached == NULL) {
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		errno = 0;
 		return NULL;
 	}
-	loaded->block = block;
-	loaded->count = 1;
-	loaded->data = malloc(bf->bm.block_size);
-	loaded->save = 0;
-	if (loaded->data == NULL) {
-		free(loaded);
+	cached->loaded.block = block;
+	cached->loaded.count = 1;
+	cached->loaded.data = bm_file_alloc_data(bf);
+	cached->loaded.save = 0;
+	cached->prefetched = 0;
+	cached->queued = 0;
+	cached->flushing = 0;
+	if (cached->loaded.data == NULL) {
+		bm_pool_free(&bf->pools.loaded, cached);
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		errno = 0;
 		return NULL;
 	}
-	if (bm_fd_seek(bf->file, block * bf->bm.block_size) == -1) {
-		free(loaded);
-		free(loaded->data);
-		pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
-		return NULL;
+	return cached;
+}
+
+static int cache_shrink(struct bm_file *bf, i64 max_count);
+
+#ifdef PFS_IO_URING
+/*
+ * reads the blocks [start, start+count) which are neither loaded nor cached
+ * into the cache with one batch of io_uring reads
+ *
+ * a read may complete with less bytes than requested (for example when the
+ * end of the file lies inside the block), the rest of the block is then
+ * read with a new submission, only a read of zero bytes marks the end of the
+ * file (and the rest of the block is filled with zeros)
+ */
+static void uring_prefetch(struct bm_file *bf, i64 start, i32 count) {
+	struct bm_cached *reads[count];
+	i32 got[count];
+	i32 read_count = 0;
+	for (i64 block = start; block < start + count; block++) {
+		if (hashset_get(&bf->bm.loaded, (uint64_t) block, &block)
+				|| hashset_get(&bf->cache, (uint64_t) block, &block)) {
+			continue;
+		}
+		struct bm_cached *c = bm_file_new_loaded(bf, block);
+		if (!c) {
+			pfs_err = PFS_ERRNO_NONE;
+			break;
+		}
+		got[read_count] = 0;
+		reads[read_count++] = c;
 	}
-	void *buf = loaded->data;
-	for (i64 remain = bf->bm.block_size; remain > 0;) {
-		i64 reat = bm_fd_read(bf->file, buf, remain);
-		if (reat <= 0) {
-#ifdef PFS_PORTABLE_BUILD
-			if (!feof(bf->file)) {
-#else
-			if (reat) {
-#endif
-				switch (errno) {
-#if EWOULDBLOCK != EAGAIN
+	for (i32 i = 0; i < read_count;) {
+		i32 submitted = 0;
+		for (; i + submitted < read_count && submitted < (i32) bf->ring_depth;
+				submitted++) {
+			struct bm_cached *c = reads[i + submitted];
+			struct io_uring_sqe *sqe = io_uring_get_sqe(&bf->ring);
+			if (!sqe) {
+				break;
+			}
+			io_uring_prep_read(sqe, bf->file, c->loaded.data,
+					bf->bm.block_size, c->loaded.block * bf->bm.block_size);
+			io_uring_sqe_set_data(sqe, (void*) (intptr_t) (i + submitted));
+		}
+		if (!submitted) { // no submission queue entry available
+			for (; i < read_count; i++) {
+				bm_file_free_data(bf, reads[i]->loaded.data);
+				bm_pool_free(&bf->pools.loaded, reads[i]);
+			}
+			break;
+		}
+		io_uring_submit_and_wait(&bf->ring, submitted);
+		for (i32 pending = submitted; pending > 0; pending--) {
+			struct io_uring_cqe *cqe;
+			if (io_uring_wait_cqe(&bf->ring, &cqe) < 0) {
+				abort();
+			}
+			i32 r = (i32) (intptr_t) io_uring_cqe_get_data(cqe);
+			i32 res = cqe->res;
+			io_uring_cqe_seen(&bf->ring, cqe);
+			struct bm_cached *c = reads[r];
+			if (res > 0 && (got[r] += res) < (i32) bf->bm.block_size) {
+				// short read: submit a read for the rest of the block
+				struct io_uring_sqe *sqe = io_uring_get_sqe(&bf->ring);
+				if (sqe) {
+					io_uring_prep_read(sqe, bf->file, c->loaded.data + got[r],
+							bf->bm.block_size - got[r],
+							c->loaded.block * bf->bm.block_size + got[r]);
+					io_uring_sqe_set_data(sqe, (void*) (intptr_t) r);
+					io_uring_submit(&bf->ring);
+					pending++;
+					continue;
+				}
+				res = -EAGAIN;
+			}
+			if (res < 0) { // the block is read again when it is needed
+				bm_file_free_data(bf, c->loaded.data);
+				bm_pool_free(&bf->pools.loaded, c);
+				continue;
+			}
+			if (got[r] < (i32) bf->bm.block_size) { // after the end of file
+				memset(c->loaded.data + got[r], 0,
+						bf->bm.block_size - got[r]);
+			}
+			c->loaded.count = 0;
+			c->prefetched = 1;
+			if (hashset_put(&bf->cache, (uint64_t) c->loaded.block, c) != NULL) {
+				abort();
+			}
+			cache_link_first(bf, c);
+		}
+		i += submitted;
+	}
+	cache_shrink(bf, bf->cache_capacity);
+}
+#endif // PFS_IO_URING
+
+/*
+ * called after the block was read from the file
+ *
+ * if the read continues a sequential traversal (the block is the successor
+ * of the previously read block or is in the read ahead window) the
+ * successor of the block is prefetched
+ * when the successor also follows physically the window grows up to ra_max
+ * blocks, otherwise only the successor is prefetched
+ */
+static inline void bm_file_readahead0(struct bm_file *bf, i64 block,
+		void *data) {
+	if (bf->ra_max <= 0) {
+		return;
+	}
+	i64 next = *(i64*) (data + bf->bm.block_size - 8);
+	if (block >= bf->ra_start && block < bf->ra_end) {
+		bf->ra_stats.hits++;
+	} else if (block == bf->ra_expect) {
+		bf->ra_stats.misses++;
+	} else {
+		bf->ra_size = 0;
+		bf->ra_expect = next;
+		return;
+	}
+	bf->ra_expect = next;
+	if (next < 0 || (next >= bf->ra_start && next < bf->ra_end)) {
+		return;
+	}
+	i32 count = 1;
+	if (next == block + 1) {
+		bf->ra_size = bf->ra_size ? bf->ra_size << 1 : 4;
+		if (bf->ra_size > bf->ra_max) {
+			bf->ra_size = bf->ra_max;
+		}
+		count = bf->ra_size;
+	}
+#ifdef PFS_IO_URING
+	if (bf->ring_depth && bf->cache_capacity >= count) {
+		uring_prefetch(bf, next, count);
+	} else
+#endif // PFS_IO_URING
+	{
+#ifndef PFS_PORTABLE_BUILD
+		posix_fadvise64(bf->file, next * bf->bm.block_size,
+				count * (i64) bf->bm.block_size, POSIX_FADV_WILLNEED);
+#endif // PFS_PORTABLE_BUILD
+	}
+	bf->ra_start = next;
+	bf->ra_end = next + count;
+	bf->ra_stats.prefetched += count;
+}
+
+static void* bm_file_lazy_get0(struct bm_file *bf, i64 block) {
+	struct bm_loaded *loaded = bm_file_reuse(bf, block);
+	if (loaded) {
+		return loaded->data;
+	}
+	struct bm_cached *cached = bm_file_new_loaded(bf, block);
+	if (cached == NULL) {
+		return NULL;
+	}
+	memset(cached->loaded.data, 0, bf->bm.block_size);
+	if (hashset_put(&bf->bm.loaded, (uint64_t) block, cached) != NULL) {
+		abort();
+	}
+	return cached->loaded.data;
+}
+
+static void* bm_file_get0(struct bm_file *bf, i64 block) {
+	struct bm_loaded *loaded = bm_file_reuse(bf, block);
+	if (loaded) {
+		return loaded->data;
+	}
+	struct bm_cached *cached = bm_file_new_loaded(bf, block);
+	if (cached == NULL) {
+		return NULL;
+	}
+	loaded = &cached->loaded;
+#ifdef PFS_PORTABLE_BUILD
+	if (bm_fd_seek(bf->file, block * bf->bm.block_size) == -1) {
+		bm_file_free_data(bf, loaded->data);
+		bm_pool_free(&bf->pools.loaded, cached);
+		pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
+		return NULL;
+	}
+#else // PFS_PORTABLE_BUILD
+	i64 pos = block * bf->bm.block_size;
+#endif // PFS_PORTABLE_BUILD
+	void *buf = loaded->data;
+	for (i64 remain = bf->bm.block_size; remain > 0;) {
+#ifdef PFS_PORTABLE_BUILD
+		i64 reat = bm_fd_read(bf->file, buf, remain);
+#else // PFS_PORTABLE_BUILD
+		i64 reat = bm_fd_pread(bf->file, buf, remain, pos);
+#endif // PFS_PORTABLE_BUILD
+		if (reat <= 0) {
+#ifdef PFS_PORTABLE_BUILD
+			if (!feof(bf->file)) {
+#else
+			if (reat) {
+#endif
+				switch (errno) {
+#if EWOULDBLOCK != EAGAIN
 				case EWOULDBLOCK:
 #endif
 				case EAGAIN:
@@ -517,8 +1253,8 @@ static void* bm_file_get(struct bm_block_manager *bm, i64 block) {
 					errno = 0;
 					continue;
 				default:
-					free(loaded);
-					free(loaded->data);
+					bm_file_free_data(bf, loaded->data);
+					bm_pool_free(&bf->pools.loaded, cached);
 					pfs_err = PFS_ERRNO_IO_ERR;
 					return NULL;
 				}
@@ -531,20 +1267,48 @@ static void* bm_file_get(struct bm_block_manager *bm, i64 block) {
 		}
 		remain -= reat;
 		buf += reat;
+#ifndef PFS_PORTABLE_BUILD
+		pos += reat;
+#endif // PFS_PORTABLE_BUILD
 	}
+	bm_file_readahead0(bf, block, loaded->data);
 	if (hashset_put(&bf->bm.loaded, (uint64_t) block, loaded) != NULL) {
 		abort();
 	}
 	return loaded->data;
 }
 
+static void* bm_file_lazy_get(struct bm_block_manager *bm, i64 block) {
+	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
+	void *data = bm_file_lazy_get0(bf, block);
+	bm_file_unlock(bf);
+	return data;
+}
+
+static void* bm_file_get(struct bm_block_manager *bm, i64 block) {
+	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
+	void *data = bm_file_get0(bf, block);
+	bm_file_unlock(bf);
+	return data;
+}
+
 static inline int save_block(struct bm_file *bf, struct bm_loaded *loaded) {
+#ifdef PFS_PORTABLE_BUILD
 	if (bm_fd_seek(bf->file, loaded->block * (i64) bf->bm.block_size) == -1) {
 		abort();
 	}
+#else // PFS_PORTABLE_BUILD
+	i64 pos = loaded->block * (i64) bf->bm.block_size;
+#endif // PFS_PORTABLE_BUILD
 	void *data = loaded->data;
 	for (i64 need = bf->bm.block_size;;) {
+#ifdef PFS_PORTABLE_BUILD
 		i64 wrote = bm_fd_write(bf->file, data, need);
+#else // PFS_PORTABLE_BUILD
+		i64 wrote = bm_fd_pwrite(bf->file, data, need, pos);
+#endif // PFS_PORTABLE_BUILD
 		if (wrote == -1) {
 			int e = errno;
 			errno = 0;
@@ -565,6 +1329,9 @@ static inline int save_block(struct bm_file *bf, struct bm_loaded *loaded) {
 		}
 		if (need -= wrote) {
 			data += wrote;
+#ifndef PFS_PORTABLE_BUILD
+			pos += wrote;
+#endif // PFS_PORTABLE_BUILD
 			continue;
 		}
 		break;
@@ -572,52 +1339,526 @@ static inline int save_block(struct bm_file *bf, struct bm_loaded *loaded) {
 	return 1;
 }
 
-static int bm_file_unget(struct bm_block_manager *bm, i64 block) {
-	struct bm_file *bf = (struct bm_file*) bm;
-	struct bm_loaded *loaded = hashset_get(&bf->bm.loaded, (uint64_t) block,
-			&block);
-	if (loaded == NULL) {
+static int cached_block_cmp(const void *a, const void *b) {
+	i64 ba = (*(struct bm_cached**) a)->loaded.block;
+	i64 bb = (*(struct bm_cached**) b)->loaded.block;
+	return ba < bb ? -1 : ba > bb;
+}
+
+#ifndef PFS_PORTABLE_BUILD
+/*
+ * saves the count blocks, which are stored in consecutive blocks
+ * starting with run[0] with as few system calls as possible
+ */
+static int save_run(struct bm_file *bf, struct bm_cached **run, int count) {
+	struct iovec iov[count];
+	for (int i = 0; i < count; i++) {
+		iov[i].iov_base = run[i]->loaded.data;
+		iov[i].iov_len = bf->bm.block_size;
+	}
+	i64 pos = run[0]->loaded.block * (i64) bf->bm.block_size;
+	i64 remain = count * (i64) bf->bm.block_size;
+	while (1) {
+		i64 wrote = pwritev64(bf->file, iov, count, pos);
+		if (wrote == -1) {
+			int e = errno;
+			errno = 0;
+			switch (e) {
+#if EWOULDBLOCK != EAGAIN
+			case EWOULDBLOCK:
+#endif
+			case EAGAIN:
+			case EINTR:
+				continue;
+			case EIO:
+				pfs_err = PFS_ERRNO_IO_ERR;
+				return 0;
+			default:
+				pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
+				return 0;
+			}
+		}
+		if (wrote == remain) {
+			return 1;
+		}
+		// partial write: save the rest block by block
+		for (i64 skip = wrote / bf->bm.block_size; skip < count; skip++) {
+			if (!save_block(bf, &run[skip]->loaded)) {
+				return 0;
+			}
+		}
+		return 1;
+	}
+}
+#endif // PFS_PORTABLE_BUILD
+
+#ifdef PFS_IO_URING
+/*
+ * saves the runs of consecutive blocks with batches of up to ring_depth
+ * outstanding io_uring writes
+ * runs which fail or are written only partially are saved again with save_run
+ */
+static int uring_save_runs(struct bm_file *bf, struct bm_cached **dirty,
+		i64 dirty_count) {
+	struct iovec *iov = malloc(dirty_count * sizeof(struct iovec));
+	if (!iov) {
+		errno = 0;
+		return -1;
+	}
+	for (i64 i = 0; i < dirty_count; i++) {
+		iov[i].iov_base = dirty[i]->loaded.data;
+		iov[i].iov_len = bf->bm.block_size;
+	}
+	int res = 1;
+	for (i64 i = 0; i < dirty_count;) {
+		unsigned submitted = 0;
+		i64 run_start = i;
+		while (i < dirty_count && submitted < bf->ring_depth) {
+			i64 run_len = 1;
+			while (i + run_len < dirty_count && run_len < IOV_MAX
+					&& dirty[i + run_len]->loaded.block
+							== dirty[i]->loaded.block + run_len) {
+				run_len++;
+			}
+			struct io_uring_sqe *sqe = io_uring_get_sqe(&bf->ring);
+			if (!sqe) {
+				break;
+			}
+			io_uring_prep_writev(sqe, bf->file, iov + i, run_len,
+					dirty[i]->loaded.block * bf->bm.block_size);
+			io_uring_sqe_set_data(sqe, (void*) ((i << 16) | run_len));
+			i += run_len;
+			submitted++;
+		}
+		io_uring_submit_and_wait(&bf->ring, submitted);
+		for (unsigned done = 0; done < submitted; done++) {
+			struct io_uring_cqe *cqe;
+			if (io_uring_wait_cqe(&bf->ring, &cqe) < 0) {
+				abort();
+			}
+			ui64 data = (ui64) io_uring_cqe_get_data(cqe);
+			i64 run = data >> 16, run_len = data & 0xFFFF;
+			i64 wrote = cqe->res;
+			io_uring_cqe_seen(&bf->ring, cqe);
+			if (wrote != run_len * bf->bm.block_size
+					&& !save_run(bf, dirty + run, run_len)) {
+				res = 0;
+				continue;
+			}
+			for (i64 b = run; b < run + run_len; b++) {
+				dirty[b]->loaded.save = 0;
+			}
+		}
+		if (i == run_start) { // no submission queue entry available
+			abort();
+		}
+	}
+	free(iov);
+	return res;
+}
+#endif // PFS_IO_URING
+
+/*
+ * saves all modified blocks of the cache
+ *
+ * the blocks are written sorted by their block number and blocks which
+ * follow each other are written with a single system call
+ */
+static int flush_cache(struct bm_file *bf) {
+	i64 dirty_count = 0;
+	for (struct bm_cached *c = bf->cache_first; c; c = c->next) {
+		if (c->loaded.save) {
+			dirty_count++;
+		}
+	}
+	if (dirty_count == 0) {
+		return 1;
+	}
+	struct bm_cached **dirty = malloc(dirty_count * sizeof(struct bm_cached*));
+	if (dirty == NULL) {
+		errno = 0;
+		int res = 1;
+		for (struct bm_cached *c = bf->cache_first; c; c = c->next) {
+			if (!c->loaded.save) {
+				continue;
+			}
+			if (save_block(bf, &c->loaded)) {
+				c->loaded.save = 0;
+			} else {
+				res = 0;
+			}
+		}
+		return res;
+	}
+	dirty_count = 0;
+	for (struct bm_cached *c = bf->cache_first; c; c = c->next) {
+		if (c->loaded.save) {
+			dirty[dirty_count++] = c;
+		}
+	}
+	qsort(dirty, dirty_count, sizeof(struct bm_cached*), cached_block_cmp);
+#ifdef PFS_IO_URING
+	if (bf->ring_depth) {
+		int res = uring_save_runs(bf, dirty, dirty_count);
+		if (res != -1) {
+			free(dirty);
+			return res;
+		}
+	}
+#endif // PFS_IO_URING
+	int res = 1;
+	for (i64 i = 0; i < dirty_count;) {
+#ifdef PFS_PORTABLE_BUILD
+		i64 run_len = 1;
+		if (!save_block(bf, &dirty[i]->loaded)) {
+			res = 0;
+			i++;
+			continue;
+		}
+#else // PFS_PORTABLE_BUILD
+		i64 run_len = 1;
+		while (i + run_len < dirty_count && run_len < IOV_MAX
+				&& dirty[i + run_len]->loaded.block
+						== dirty[i]->loaded.block + run_len) {
+			run_len++;
+		}
+		if (!save_run(bf, dirty + i, run_len)) {
+			res = 0;
+			i += run_len;
+			continue;
+		}
+#endif // PFS_PORTABLE_BUILD
+		for (i64 end = i + run_len; i < end; i++) {
+			dirty[i]->loaded.save = 0;
+		}
+	}
+	free(dirty);
+	return res;
+}
+
+/*
+ * removes the least recently used blocks from the cache until
+ * there are at most max_count blocks cached
+ * modified blocks are saved before they are removed
+ */
+static int cache_shrink(struct bm_file *bf, i64 max_count) {
+#ifndef PFS_PORTABLE_BUILD
+	if (bf->wb_enabled) {
+		// modified blocks are saved by the flusher, only drop clean blocks
+		struct bm_cached *c = bf->cache_last;
+		while (bf->cache_count > max_count && c) {
+			struct bm_cached *prev = c->prev;
+			if (!c->loaded.save && !c->flushing) {
+				cache_unlink(bf, c);
+				if (hashset_remove(&bf->cache, (uint64_t) c->loaded.block, c)
+						!= c) {
+					abort();
+				}
+				bm_file_free_data(bf, c->loaded.data);
+				bm_pool_free(&bf->pools.loaded, c);
+			}
+			c = prev;
+		}
+		return 1;
+	}
+#endif // PFS_PORTABLE_BUILD
+	int res = 1;
+	while (bf->cache_count > max_count) {
+		struct bm_cached *c = bf->cache_last;
+		if (c->loaded.save && !flush_cache(bf)) {
+			res = 0;
+		}
+		cache_unlink(bf, c);
+		if (hashset_remove(&bf->cache, (uint64_t) c->loaded.block, c) != c) {
+			abort();
+		}
+		if (c->loaded.save && !save_block(bf, &c->loaded)) {
+			res = 0;
+		}
+		bm_file_free_data(bf, c->loaded.data);
+		bm_pool_free(&bf->pools.loaded, c);
+	}
+	return res;
+}
+
+#ifndef PFS_PORTABLE_BUILD
+#define WB_BATCH_SIZE 256
+
+/*
+ * writes the count blocks starting with block from data
+ * this function is used by the flusher thread, so it does not touch
+ * pfs_err, instead the error value is returned (or zero on success)
+ */
+static ui32 wb_write_run(struct bm_file *bf, i64 block, void *data,
+		int count) {
+	i64 remain = count * (i64) bf->bm.block_size;
+	i64 pos = block * (i64) bf->bm.block_size;
+	while (remain) {
+		i64 wrote = pwrite64(bf->file, data, remain, pos);
+		if (wrote == -1) {
+			int e = errno;
+			errno = 0;
+			switch (e) {
+#if EWOULDBLOCK != EAGAIN
+			case EWOULDBLOCK:
+#endif
+			case EAGAIN:
+			case EINTR:
+				continue;
+			case EIO:
+				return PFS_ERRNO_IO_ERR;
+			default:
+				return PFS_ERRNO_UNKNOWN_ERROR;
+			}
+		}
+		pos += wrote;
+		data += wrote;
+		remain -= wrote;
+	}
+	return 0;
+}
+
+/*
+ * saves up to WB_BATCH_SIZE queued blocks, starting with the oldest
+ * the blocks are copied to wb_buf before the lock is released, because
+ * they can be reused and modified while they are written
+ * the blocks are protected from being freed by their flushing flag
+ * blocks which could not be saved are queued again
+ */
+static void wb_flush_batch(struct bm_file *bf) {
+	struct bm_cached *batch[WB_BATCH_SIZE];
+	ui32 errs[WB_BATCH_SIZE];
+	int count = 0;
+	while (bf->wb_first && count < WB_BATCH_SIZE) {
+		struct bm_cached *c = bf->wb_first;
+		wb_dequeue(bf, c);
+		c->loaded.save = 0;
+		c->flushing = 1;
+		batch[count++] = c;
+	}
+	bf->wb_inflight = count;
+	qsort(batch, count, sizeof(struct bm_cached*), cached_block_cmp);
+	// the copies of consecutive blocks are consecutive in wb_buf
+	for (int i = 0; i < count; i++) {
+		memcpy(bf->wb_buf + i * (i64) bf->bm.block_size,
+				batch[i]->loaded.data, bf->bm.block_size);
+	}
+	pthread_mutex_unlock(&bf->wb_lock);
+	for (int i = 0; i < count;) {
+		int run_len = 1;
+		while (i + run_len < count
+				&& batch[i + run_len]->loaded.block
+						== batch[i]->loaded.block + run_len) {
+			run_len++;
+		}
+		ui32 err = wb_write_run(bf, batch[i]->loaded.block,
+				bf->wb_buf + i * (i64) bf->bm.block_size, run_len);
+		for (int end = i + run_len; i < end; i++) {
+			errs[i] = err;
+		}
+	}
+	pthread_mutex_lock(&bf->wb_lock);
+	for (int i = 0; i < count; i++) {
+		struct bm_cached *c = batch[i];
+		c->flushing = 0;
+		if (!errs[i]) {
+			continue;
+		}
+		bf->wb_err = errs[i];
+		if (!c->loaded.save) {
+			c->loaded.save = 1;
+			if (c->loaded.count == 0) { // still in the cache
+				wb_enqueue(bf, c);
+			}
+		}
+	}
+	bf->wb_inflight = 0;
+	cache_shrink(bf, bf->cache_capacity);
+	pthread_cond_broadcast(&bf->wb_done);
+}
+
+static void* wb_flusher(void *arg) {
+	struct bm_file *bf = arg;
+	pthread_mutex_lock(&bf->wb_lock);
+	while (!bf->wb_stop) {
+		if (!bf->wb_first) {
+			pthread_cond_wait(&bf->wb_wake, &bf->wb_lock);
+			continue;
+		}
+		// after a failed write only the age limit starts the flusher
+		i64 deadline = bf->wb_first->wb_time + bf->wb_max_age;
+		if ((bf->wb_count <= bf->wb_max_dirty / 2 || bf->wb_err)
+				&& deadline > bm_nanos()) {
+			struct timespec ts;
+			ts.tv_sec = deadline / 1000000000L;
+			ts.tv_nsec = deadline % 1000000000L;
+			pthread_cond_timedwait(&bf->wb_wake, &bf->wb_lock, &ts);
+			continue;
+		}
+		wb_flush_batch(bf);
+	}
+	pthread_mutex_unlock(&bf->wb_lock);
+	return NULL;
+}
+
+/*
+ * waits until the flusher is idle and saves all modified cached blocks
+ * a failed write of the flusher since the last call is reported here
+ */
+static int wb_flush_all(struct bm_file *bf) {
+	while (bf->wb_inflight) {
+		pthread_cond_wait(&bf->wb_done, &bf->wb_lock);
+	}
+	int res = flush_cache(bf);
+	for (struct bm_cached *c = bf->wb_first, *next; c; c = next) {
+		next = c->wb_next;
+		if (!c->loaded.save) {
+			wb_dequeue(bf, c);
+		}
+	}
+	if (bf->wb_err) {
+		pfs_err = bf->wb_err;
+		bf->wb_err = 0;
+		res = 0;
+	}
+	return res;
+}
+
+/*
+ * waits until at most wb_max_dirty blocks are queued
+ * after a failed write of the flusher the blocks are saved directly
+ */
+static int wb_throttle(struct bm_file *bf) {
+	while (bf->wb_count > bf->wb_max_dirty) {
+		if (bf->wb_err) {
+			return wb_flush_all(bf);
+		}
+		pthread_cond_signal(&bf->wb_wake);
+		pthread_cond_wait(&bf->wb_done, &bf->wb_lock);
+	}
+	return cache_shrink(bf, bf->cache_capacity);
+}
+
+/*
+ * stops the flusher thread and leaves the write-behind mode
+ * the modified blocks stay in the cache and are saved like without
+ * write-behind mode
+ */
+static int wb_disable(struct bm_file *bf) {
+	pthread_mutex_lock(&bf->wb_lock);
+	bf->wb_stop = 1;
+	pthread_cond_signal(&bf->wb_wake);
+	pthread_mutex_unlock(&bf->wb_lock);
+	pthread_join(bf->wb_thread, NULL);
+	bf->wb_enabled = 0;
+	while (bf->wb_first) {
+		wb_dequeue(bf, bf->wb_first);
+	}
+	pthread_mutex_destroy(&bf->wb_lock);
+	pthread_cond_destroy(&bf->wb_wake);
+	pthread_cond_destroy(&bf->wb_done);
+	free(bf->wb_buf);
+	int res = cache_shrink(bf, bf->cache_capacity);
+	if (bf->wb_err) {
+		pfs_err = bf->wb_err;
+		res = 0;
+	}
+	return res;
+}
+#endif // PFS_PORTABLE_BUILD
+
+/*
+ * called when the block is no longer used
+ * the block is either moved to the cache or saved (when needed) and freed
+ */
+static inline int bm_file_release(struct bm_file *bf, struct bm_loaded *loaded) {
+	if (hashset_remove(&bf->bm.loaded, (uint64_t) loaded->block, loaded)
+			!= loaded) {
 		abort();
 	}
-	if (--loaded->count == 0) {
-		if (hashset_remove(&bf->bm.loaded, (uint64_t) block, loaded)
-				!= loaded) {
+#ifndef PFS_PORTABLE_BUILD
+	if (bf->wb_enabled) {
+		struct bm_cached *cached = (struct bm_cached*) loaded;
+		if (hashset_put(&bf->cache, (uint64_t) loaded->block, cached) != NULL) {
 			abort();
 		}
+		cache_link_first(bf, cached);
+		if (loaded->save) {
+			wb_enqueue(bf, cached);
+			if (bf->wb_count > bf->wb_max_dirty) {
+				return wb_throttle(bf);
+			}
+		}
+		return cache_shrink(bf, bf->cache_capacity);
+	}
+#endif // PFS_PORTABLE_BUILD
+	if (bf->cache_capacity <= 0) {
 		int res = 1;
 		if (loaded->save) {
 			res = save_block(bf, loaded);
 		}
-		free(loaded->data);
-		free(loaded);
+		bm_file_free_data(bf, loaded->data);
+		bm_pool_free(&bf->pools.loaded, loaded);
 		return res;
 	}
-	return 1;
+	struct bm_cached *cached = (struct bm_cached*) loaded;
+	if (hashset_put(&bf->cache, (uint64_t) loaded->block, cached) != NULL) {
+		abort();
+	}
+	cache_link_first(bf, cached);
+	return cache_shrink(bf, bf->cache_capacity);
 }
 
-static int bm_file_set(struct bm_block_manager *bm, i64 block) {
+static int bm_file_unget(struct bm_block_manager *bm, i64 block) {
 	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
 	struct bm_loaded *loaded = hashset_get(&bf->bm.loaded, (uint64_t) block,
 			&block);
 	if (loaded == NULL) {
 		abort();
 	}
+	int res = 1;
 	if (--loaded->count == 0) {
-		if (hashset_remove(&bf->bm.loaded, (uint64_t) block, loaded)
-				!= loaded) {
-			abort();
-		}
-		int res = save_block(bf, loaded);
-		free(loaded->data);
-		free(loaded);
-		return res;
+		res = bm_file_release(bf, loaded);
+	}
+	bm_file_unlock(bf);
+	return res;
+}
+
+static int bm_file_set(struct bm_block_manager *bm, i64 block) {
+	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
+	struct bm_loaded *loaded = hashset_get(&bf->bm.loaded, (uint64_t) block,
+			&block);
+	if (loaded == NULL) {
+		abort();
 	}
 	loaded->save = 1;
-	return 1;
+	int res = 1;
+	if (--loaded->count == 0) {
+		res = bm_file_release(bf, loaded);
+	}
+	bm_file_unlock(bf);
+	return res;
+}
+
+static int bm_file_sync0(struct bm_file *bf) {
+#ifndef PFS_PORTABLE_BUILD
+	if (bf->wb_enabled) {
+		return wb_flush_all(bf);
+	}
+#endif // PFS_PORTABLE_BUILD
+	return flush_cache(bf);
 }
 
 static int bm_file_sync(struct bm_block_manager *bm) {
 	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
+	int res = bm_file_sync0(bf);
+	bm_file_unlock(bf);
+	if (!res) {
+		return 0;
+	}
 	bm_fd_flush(bf->file);
 	if (errno) {
 		if (errno == EIO) {
@@ -631,6 +1872,179 @@ static int bm_file_sync(struct bm_block_manager *bm) {
 	return 1;
 }
 
+extern int bm_file_cache_capacity(struct bm_block_manager *bm, i64 capacity) {
+	if (bm == NULL || bm->get != bm_file_get || capacity < 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
+	bf->cache_capacity = capacity;
+	int res = cache_shrink(bf, capacity);
+	bm_file_unlock(bf);
+	return res;
+}
+
+static int bm_file_io_uring0(struct bm_file *bf, unsigned queue_depth) {
+#ifdef PFS_IO_URING
+	if (bf->ring_depth) {
+		io_uring_queue_exit(&bf->ring);
+		bf->ring_depth = 0;
+	}
+	if (queue_depth == 0) {
+		return 1;
+	}
+	int e = io_uring_queue_init(queue_depth, &bf->ring, 0);
+	if (e < 0) { // the kernel may not support io_uring
+		pfs_err = e == -ENOMEM ? PFS_ERRNO_OUT_OF_MEMORY : PFS_ERRNO_UNKNOWN_ERROR;
+		return 0;
+	}
+	bf->ring_depth = queue_depth;
+	return 1;
+#else // PFS_IO_URING
+	if (queue_depth == 0) {
+		return 1;
+	}
+	pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+	return 0;
+#endif // PFS_IO_URING
+}
+
+extern int bm_file_io_uring(struct bm_block_manager *bm, unsigned queue_depth) {
+	if (bm == NULL || bm->get != bm_file_get) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
+	int res = bm_file_io_uring0(bf, queue_depth);
+	bm_file_unlock(bf);
+	return res;
+}
+
+extern int bm_file_readahead(struct bm_block_manager *bm, i32 max_blocks) {
+	if (bm == NULL || bm->get != bm_file_get || max_blocks < 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
+	bf->ra_max = max_blocks;
+	bf->ra_size = 0;
+	bf->ra_start = 0;
+	bf->ra_end = 0;
+	bm_file_unlock(bf);
+	return 1;
+}
+
+extern int bm_file_readahead_stats(struct bm_block_manager *bm,
+		struct bm_readahead_stats *stats, int reset) {
+	if (bm == NULL || bm->get != bm_file_get || stats == NULL) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+	struct bm_file *bf = (struct bm_file*) bm;
+	bm_file_lock(bf);
+	*stats = bf->ra_stats;
+	if (reset) {
+		memset(&bf->ra_stats, 0, sizeof(struct bm_readahead_stats));
+	}
+	bm_file_unlock(bf);
+	return 1;
+}
+
+extern int bm_pool_capacity(struct bm_block_manager *bm, i64 max_bytes) {
+	if (bm == NULL || max_bytes < 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+#ifndef PFS_PORTABLE_BUILD
+	if (bm->get == bm_mmap_get) { // the blocks are not copied, nothing to pool
+		return 1;
+	}
+#endif // PFS_PORTABLE_BUILD
+	if (bm->get != bm_file_get && bm->get != bm_ram_get) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+	i64 max_count = max_bytes / bm->block_size;
+	if (bm->get == bm_file_get) {
+		bm_file_lock((struct bm_file*) bm);
+	}
+	bm_pool_trim(&bm_pools(bm)->loaded, max_count);
+	bm_pool_trim(&bm_pools(bm)->data,
+			bm->block_size < sizeof(void*) ? 0 : max_count);
+	if (bm->get == bm_file_get) {
+		bm_file_unlock((struct bm_file*) bm);
+	}
+	return 1;
+}
+
+extern int bm_file_write_behind(struct bm_block_manager *bm, i64 max_dirty,
+		i64 max_age_ms) {
+	if (bm == NULL || bm->get != bm_file_get || max_dirty < 0
+			|| max_age_ms < 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+#ifndef PFS_PORTABLE_BUILD
+	struct bm_file *bf = (struct bm_file*) bm;
+	if (bf->wb_enabled) {
+		if (max_dirty == 0) {
+			return wb_disable(bf);
+		}
+		pthread_mutex_lock(&bf->wb_lock);
+		bf->wb_max_dirty = max_dirty;
+		bf->wb_max_age = max_age_ms * 1000000L;
+		pthread_cond_signal(&bf->wb_wake);
+		pthread_mutex_unlock(&bf->wb_lock);
+		return 1;
+	}
+	if (max_dirty == 0) {
+		return 1;
+	}
+	// O_DIRECT needs aligned buffers
+	if (posix_memalign(&bf->wb_buf,
+			bf->direct_align ? (size_t) bf->direct_align : sizeof(void*),
+			WB_BATCH_SIZE * (size_t) bf->bm.block_size)) {
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		return 0;
+	}
+	pthread_condattr_t attr;
+	pthread_condattr_init(&attr);
+	pthread_condattr_setclock(&attr, CLOCK_MONOTONIC);
+	pthread_mutex_init(&bf->wb_lock, NULL);
+	pthread_cond_init(&bf->wb_wake, &attr);
+	pthread_cond_init(&bf->wb_done, NULL);
+	pthread_condattr_destroy(&attr);
+	bf->wb_stop = 0;
+	bf->wb_first = NULL;
+	bf->wb_last = NULL;
+	bf->wb_count = 0;
+	bf->wb_inflight = 0;
+	bf->wb_max_dirty = max_dirty;
+	bf->wb_max_age = max_age_ms * 1000000L;
+	bf->wb_err = 0;
+	int e = pthread_create(&bf->wb_thread, NULL, wb_flusher, bf);
+	if (e) {
+		pthread_mutex_destroy(&bf->wb_lock);
+		pthread_cond_destroy(&bf->wb_wake);
+		pthread_cond_destroy(&bf->wb_done);
+		free(bf->wb_buf);
+		pfs_err = e == EAGAIN ? PFS_ERRNO_OUT_OF_MEMORY : PFS_ERRNO_UNKNOWN_ERROR;
+		return 0;
+	}
+	bf->wb_enabled = 1;
+	return 1;
+#else // PFS_PORTABLE_BUILD
+	if (max_dirty == 0) {
+		return 1;
+	}
+	pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+	return 0;
+#endif // PFS_PORTABLE_BUILD
+}
+
 static int save_block_ret1(void *arg0, void *element) {
 	save_block(arg0, element);
 	return 1;
@@ -646,7 +2060,24 @@ static int bm_file_close(struct bm_block_manager *bm) {
 		hashset_for_each(&bf->bm.loaded, save_block_ret1, bf);
 		abort();
 	}
+	int res = 1;
+#ifndef PFS_PORTABLE_BUILD
+	if (bf->wb_enabled && !wb_disable(bf)) {
+		res = 0;
+	}
+#endif // PFS_PORTABLE_BUILD
+	if (!cache_shrink(bf, 0)) {
+		res = 0;
+	}
+	bm_pools_free(&bf->bm);
+	core_data_free(&bf->bm);
+#ifdef PFS_IO_URING
+	if (bf->ring_depth) {
+		io_uring_queue_exit(&bf->ring);
+	}
+#endif // PFS_IO_URING
 	free(bf->bm.loaded.entries);
+	free(bf->cache.entries);
 #if !defined PFS_PORTABLE_BUILD && !defined PFS_HALF_PORTABLE_BUILD
 	flock(bf->file, LOCK_UN);
 #endif // !PFS_HALF_PORTABLE_BUILD && !PFS_PORTABLE_BUILD
@@ -663,7 +2094,7 @@ static int bm_file_close(struct bm_block_manager *bm) {
 		return 0;
 	}
 	free(bm);
-	return 1;
+	return res;
 }
 
 i64 get_none_flags(struct bm_block_manager *bm, i64 block) {
@@ -710,3 +2141,56 @@ static void delete_flag_ram_all_flags(struct bm_block_manager *bm) {
 	memset(((struct bm_flag_ram*) bm)->flags, 0,
 			((struct bm_flag_ram*) bm)->bm.block_count);
 }
+
+#ifndef PFS_PORTABLE_BUILD
+static void* bm_mmap_get(struct bm_block_manager *bm, i64 block) {
+	struct bm_mmap *bm_ = (struct bm_mmap*) bm;
+	if (block < 0 || block >= bm_->block_count) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return NULL;
+	}
+	return bm_->data + block * bm->block_size;
+}
+
+static int bm_mmap_unget(struct bm_block_manager *bm, i64 block) {
+	return 1;
+}
+
+static int bm_mmap_set(struct bm_block_manager *bm, i64 block) {
+	return 1;
+}
+
+static int bm_mmap_sync(struct bm_block_manager *bm) {
+	struct bm_mmap *bm_ = (struct bm_mmap*) bm;
+	if (bm_->read_only || bm_->file == -1) {
+		return 1;
+	}
+	if (msync(bm_->data, bm_->block_count * bm->block_size, MS_SYNC) == -1) {
+		pfs_err = errno == EIO ? PFS_ERRNO_IO_ERR : PFS_ERRNO_UNKNOWN_ERROR;
+		errno = 0;
+		return 0;
+	}
+	return 1;
+}
+
+static int bm_mmap_close(struct bm_block_manager *bm) {
+	struct bm_mmap *bm_ = (struct bm_mmap*) bm;
+	int res = bm_mmap_sync(bm);
+	munmap(bm_->data, bm_->block_count * bm->block_size);
+	core_data_free(bm);
+	if (bm_->file == -1) { // contiguous ram block manager
+		free(bm);
+		return res;
+	}
+#ifndef PFS_HALF_PORTABLE_BUILD
+	flock(bm_->file, LOCK_UN);
+#endif // PFS_HALF_PORTABLE_BUILD
+	if (close(bm_->file) == -1) {
+		pfs_err = errno == EIO ? PFS_ERRNO_IO_ERR : PFS_ERRNO_UNKNOWN_ERROR;
+		errno = 0;
+		res = 0;
+	}
+	free(bm);
+	return res;
+}
+#endif // PFS_PORTABLE_BUILD
@@ -226,9 +226,10 @@ extern void* hashset_remove(struct hashset *set, uint64_t hash, void *oldvalue)
 					free(list);
 				} else {
 					memmove(list->datam1 + i, list->datam1 + 1 + i,
-							(list->len - i - 1) * sizeof(void*));
+							(list->len - i) * sizeof(void*));
 					if (hs_one_bit_set(list->len)) {
 						list = realloc(list, sizeof(void*) * list->len);
+						((int64_t*) set->entries)[hash] = ~(int64_t) list;
 					}
 					list->len--;
 				}
@@ -126,6 +126,7 @@ extern int pfs_element_set_name(int eh, char *name) {
 	}
 	check_write_access1(handle, 0)
 	struct pfs_place op = handle->direct_parent_place;
+	pfs_name_cache_invalidate();
 	int res = pfsc_element_set_name(handle, name);
 	if ((op.block != handle->direct_parent_place.block)
 			|| (op.pos != handle->direct_parent_place.pos)) {
@@ -161,7 +162,12 @@ extern int pfs_element_set_parent(int eh, int parenteh) {
 	check_write_access1(handle, 0)
 	i64 fi;
 	struct element_handle oph;
+	pfs_name_cache_invalidate();
+	struct pfs_place ep = pfs_ehs[eh]->handle.element_place;
+	struct pfs_place pp = phandle->element_place;
 	int res = pfsc_element_set_parent(handle, phandle, &fi, &oph.handle);
+	pfs_rehash_eh(pfs_ehs[eh], ep);
+	pfs_rehash_eh(pfs_ehs[parenteh], pp);
 	struct element_handle *noph = hashset_get(&pfs_all_ehs_set, eh_hash(&oph),
 			&oph);
 	if (noph) { // if the old parent was not loaded, no iterator needs to be modified
@@ -187,7 +193,12 @@ extern int pfs_element_move(int eh, int parenteh, char *name) {
 	check_write_access1(handle, 0)
 	i64 fi;
 	struct element_handle oph;
+	pfs_name_cache_invalidate();
+	struct pfs_place ep = pfs_ehs[eh]->handle.element_place;
+	struct pfs_place pp = phandle->element_place;
 	int res = pfsc_element_move(handle, phandle, name, &fi, &oph.handle);
+	pfs_rehash_eh(pfs_ehs[eh], ep);
+	pfs_rehash_eh(pfs_ehs[parenteh], pp);
 	struct element_handle *noph = hashset_get(&pfs_all_ehs_set, eh_hash(&oph),
 			&oph);
 	if (noph) { // if the old parent was not loaded, no iterator needs to be modified
@@ -47,3 +47,15 @@ extern int pfs_file_truncate(int eh, i64 length) {
 	cr(0)
 	return res;
 }
+
+extern int pfs_file_preallocate(int eh, i64 length) {
+	if (length < 0) {
+		(pfs_err) = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+	ch(0)
+	check_write_access(0)
+	int res = pfsc_file_preallocate(&pfs_ehs[eh]->handle, length);
+	cr(0)
+	return res;
+}
@@ -25,9 +25,11 @@
 #include "../pfs/pfs-folder.h"
 #include "../core/pfs-mount.h"
 
+// the direct parent block is only needed for the type check
 #define ch(err_ret) \
 	eh(err_ret) \
-	c_h(pfs_ehs[eh], err_ret, PFS_F_FOLDER)
+	c_h(pfs_ehs[eh], err_ret, PFS_F_FOLDER) \
+	c_r(pfs_ehs[eh], err_ret)
 
 extern i64 pfs_folder_child_count(int eh) {
 	ch(-1)
@@ -102,7 +104,11 @@ extern int pfs_folder_child_pipe(int eh, const char *name) {
 	c->load_count = 1; \
 	c->handle = pfs_ehs[eh]->handle; \
 	pfs_modify_iterators(pfs_ehs[eh], UINT64_MAX); \
-	if (!pfsc_folder_create_##type(&c->handle, &pfs_ehs[eh]->handle, __VA_ARGS__)) { \
+	pfs_name_cache_invalidate(); \
+	struct pfs_place ppp = pfs_ehs[eh]->handle.element_place; \
+	int ok = pfsc_folder_create_##type(&c->handle, &pfs_ehs[eh]->handle, __VA_ARGS__); \
+	pfs_rehash_eh(pfs_ehs[eh], ppp); \
+	if (!ok) { \
 		return -1; \
 	} \
 	action \
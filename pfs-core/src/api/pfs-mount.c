@@ -57,6 +57,33 @@ extern i64 pfs_mount_fs_block_count(int eh) {
 	return pfsc_block_count(pfs(pfs_ehs[eh]));
 }
 
+extern i64 pfs_free_block_count() {
+	return pfsc_free_block_count(pfs(pfs_root));
+}
+extern i64 pfs_mount_fs_free_block_count(int eh) {
+	eh(-1L)
+	check_mount_point(-1L)
+	return pfsc_free_block_count(pfs(pfs_ehs[eh]));
+}
+
+extern i64 pfs_free_deferred(i64 max_blocks) {
+	return pfsc_free_deferred(pfs(pfs_root), max_blocks);
+}
+extern i64 pfs_mount_fs_free_deferred(int eh, i64 max_blocks) {
+	eh(-1L)
+	check_mount_point(-1L)
+	return pfsc_free_deferred(pfs(pfs_ehs[eh]), max_blocks);
+}
+
+extern i64 pfs_used_block_count() {
+	return pfsc_used_block_count(pfs(pfs_root));
+}
+extern i64 pfs_mount_fs_used_block_count(int eh) {
+	eh(-1L)
+	check_mount_point(-1L)
+	return pfsc_used_block_count(pfs(pfs_ehs[eh]));
+}
+
 extern i32 pfs_block_size() {
 	return pfsc_block_size(pfs(pfs_root));
 }
@@ -28,6 +28,81 @@
 
 #define pfss(sh) pfs(pfs_shs[sh]->element)
 
+int pfs_stream_flush_delayed(struct stream_handle *sh) {
+	if (sh->delayed_len == 0) {
+		return 1;
+	}
+	if (sh->element->handle.element_place.block == -1) {
+		pfs_delayed_bytes -= sh->delayed_len;
+		sh->delayed_len = 0;
+		pfs_err = PFS_ERRNO_ELEMENT_DELETED;
+		return 0;
+	}
+	// the append allocates all blocks of the delayed data in one batch
+	i64 appended = pfsc_file_append(&sh->element->handle, sh->delayed,
+			sh->delayed_len);
+	if (appended == -1) {
+		return 0;
+	}
+	pfs_delayed_bytes -= appended;
+	sh->delayed_len -= appended;
+	if (sh->delayed_len > 0) {
+		memmove(sh->delayed, sh->delayed + appended, sh->delayed_len);
+		return 0;
+	}
+	return 1;
+}
+
+/* writes the delayed data of all streams */
+static void flush_all_delayed() {
+	for (i64 i = 0; i < pfs_sh_len; i++) {
+		if (pfs_shs[i] && pfs_shs[i]->element) {
+			pfs_stream_flush_delayed(pfs_shs[i]);
+		}
+	}
+}
+
+static i64 delay_write(struct stream_handle *sh, void *data, i64 len) {
+	if (sh->delayed_len + len > PFS_DELAYED_STREAM_BYTES) {
+		if (!pfs_stream_flush_delayed(sh)) {
+			return 0;
+		}
+		if (len >= PFS_DELAYED_STREAM_BYTES) {
+			i64 appended = pfsc_file_append(&sh->element->handle, data, len);
+			return appended == -1 ? 0 : appended;
+		}
+	}
+	if (sh->delayed_len + len > sh->delayed_cap) {
+		i64 cap = sh->delayed_cap ? sh->delayed_cap : 4096;
+		while (cap < sh->delayed_len + len) {
+			cap <<= 1;
+		}
+		void *delayed = realloc(sh->delayed, cap);
+		if (!delayed) {
+			pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+			return 0;
+		}
+		sh->delayed = delayed;
+		sh->delayed_cap = cap;
+	}
+	memcpy(sh->delayed + sh->delayed_len, data, len);
+	sh->delayed_len += len;
+	pfs_delayed_bytes += len;
+	if (pfs_delayed_bytes > PFS_DELAYED_MAX_BYTES) {
+		// data which can not be written stays delayed
+		flush_all_delayed();
+	}
+	return len;
+}
+
+extern int pfs_stream_flush(int sh) {
+	sh(0)
+	if (!pfs_shs[sh]->element) {
+		return 1;
+	}
+	return pfs_stream_flush_delayed(pfs_shs[sh]);
+}
+
 extern i64 pfs_stream_write(int sh, void *data, i64 len) {
 	sh(0)
 	if (!pfs_shs[sh]->element) {
@@ -47,6 +122,9 @@ extern i64 pfs_stream_write(int sh, void *data, i64 len) {
 		}
 		return 0;
 	}
+	if (pfs_shs[sh]->flags & PFS_SO_DELAY_ALLOC) {
+		return delay_write(pfs_shs[sh], data, len);
+	}
 	void *my_block_data = pfss(sh)->get(pfss(sh),
 			pfs_shs[sh]->element->handle.element_place.block);
 	if (!my_block_data) {
@@ -74,14 +152,15 @@ extern i64 pfs_stream_write(int sh, void *data, i64 len) {
 		} else {
 			write_len = len;
 		}
-		if (!pfsc_file_write(&pfs_shs[sh]->element->handle, pfs_shs[sh]->pos,
-				data, write_len)) {
+		if (!pfsc_file_write_cursor(&pfs_shs[sh]->element->handle,
+				&pfs_shs[sh]->cursor, pfs_shs[sh]->pos, data, write_len)) {
 			pfss(sh)->unget(pfss(sh), pfs_shs[sh]->element->handle.element_place.block);
 			return -1;
 		}
 		i64 remain = len - write_len;
 		if (remain <= 0) {
 			pfss(sh)->unget(pfss(sh), pfs_shs[sh]->element->handle.element_place.block);
+			pfs_shs[sh]->pos += write_len;
 			return write_len;
 		}
 		i64 appended = pfsc_file_append(&pfs_shs[sh]->element->handle,
@@ -113,6 +192,8 @@ extern i64 pfs_stream_read(int sh, void *buffer, i64 len) {
 	} else if ((pfs_shs[sh]->flags & PFS_SO_READ) == 0) {
 		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
 		return 0;
+	} else if (!pfs_stream_flush_delayed(pfs_shs[sh])) {
+		return 0;
 	}
 	if (len <= 0) {
 		if (len < 0) {
@@ -145,8 +226,8 @@ extern i64 pfs_stream_read(int sh, void *buffer, i64 len) {
 	if (len > f->file.file_length - pfs_shs[sh]->pos) {
 		len = f->file.file_length - pfs_shs[sh]->pos;
 	}
-	if (!pfsc_file_read(&pfs_shs[sh]->element->handle, pfs_shs[sh]->pos, buffer,
-			len)) {
+	if (!pfsc_file_read_cursor(&pfs_shs[sh]->element->handle,
+			&pfs_shs[sh]->cursor, pfs_shs[sh]->pos, buffer, len)) {
 		pfss(sh)->unget(pfss(sh), pfs_shs[sh]->element->handle.element_place.block);
 		return 0;
 	}
@@ -221,6 +302,8 @@ extern i64 pfs_stream_seek_eof(int sh) {
 	} else if (!pfs_shs[sh]->is_file) {
 		pfs_err = PFS_ERRNO_ELEMENT_WRONG_TYPE;
 		return -1;
+	} else if (!pfs_stream_flush_delayed(pfs_shs[sh])) {
+		return -1;
 	}
 	void *block_data = pfss(sh)->get(pfss(sh),
 			pfs_shs[sh]->element->handle.element_place.block);
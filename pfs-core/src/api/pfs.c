@@ -139,6 +139,105 @@ extern char* pfs_element_path(int eh) {
 	return res;
 }
 
+/* the number of entries of the name cache (must be a power of two) */
+#define PFS_NAME_CACHE_SIZE 1024
+/* longer names are not cached */
+#define PFS_NAME_CACHE_MAX_NAME 48
+
+struct pfs_name_cache_entry {
+	// the entry is only valid when this is pfs_name_cache_gen
+	ui64 gen;
+	struct pfs_file_sys_data *fs_data;
+	struct pfs_place parent;
+	// the element_place.block is -1 if the parent has no child with the name
+	struct pfs_element_handle child;
+	i32 name_len;
+	char name[PFS_NAME_CACHE_MAX_NAME];
+};
+
+static struct pfs_name_cache_entry pfs_name_cache[PFS_NAME_CACHE_SIZE];
+
+static inline struct pfs_name_cache_entry* name_cache_entry(
+		const struct pfs_element_handle *parent, const char *name, i64 len) {
+	ui64 hash = ((ui64) parent->fs_data)
+			^ (((ui64) parent->element_place.block) << 16)
+			^ (ui64) (ui32) parent->element_place.pos;
+	for (i64 i = 0; i < len; i++) {
+		hash ^= (unsigned char) name[i];
+		hash *= 0x100000001b3UL;
+	}
+	return &pfs_name_cache[(hash ^ (hash >> 32)) & (PFS_NAME_CACHE_SIZE - 1)];
+}
+
+/*
+ * replaces the parent with its child with the given name if it is cached
+ * returns 1 if the child is cached, 0 if it is cached that the parent has no
+ * child with the name and -1 if the name is not cached
+ */
+static int name_cache_get(struct pfs_element_handle *parent, const char *name,
+		i64 len) {
+	if (len > PFS_NAME_CACHE_MAX_NAME) {
+		return -1;
+	}
+	struct pfs_name_cache_entry *ce = name_cache_entry(parent, name, len);
+	if (ce->gen != pfs_name_cache_gen || ce->fs_data != parent->fs_data
+			|| ce->parent.block != parent->element_place.block
+			|| ce->parent.pos != parent->element_place.pos
+			|| ce->name_len != len || memcmp(ce->name, name, len) != 0) {
+		return -1;
+	}
+	if (ce->child.element_place.block == -1L) {
+		pfs_err = PFS_ERRNO_ELEMENT_NOT_EXIST;
+		return 0;
+	}
+	*parent = ce->child;
+	return 1;
+}
+
+/*
+ * remembers the child of the parent with the given name
+ * if child is NULL the parent has no child with the name
+ */
+static void name_cache_put(const struct pfs_element_handle *parent,
+		const char *name, i64 len, const struct pfs_element_handle *child) {
+	if (len > PFS_NAME_CACHE_MAX_NAME) {
+		return;
+	}
+	struct pfs_name_cache_entry *ce = name_cache_entry(parent, name, len);
+	ce->gen = pfs_name_cache_gen;
+	ce->fs_data = parent->fs_data;
+	ce->parent = parent->element_place;
+	if (child) {
+		ce->child = *child;
+	} else {
+		ce->child.element_place.block = -1L;
+	}
+	ce->name_len = len;
+	memcpy(ce->name, name, len);
+}
+
+/*
+ * returns the loaded handle of the walked element and takes a reference on it
+ * if the element is not yet loaded a new handle is created
+ */
+static struct element_handle* load_walked_eh(struct element_handle *walk) {
+	struct element_handle *eh = hashset_get(&pfs_all_ehs_set, eh_hash(walk),
+			walk);
+	if (eh) {
+		eh->load_count++;
+		return eh;
+	}
+	eh = malloc(sizeof(struct element_handle));
+	if (!eh) {
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		return NULL;
+	}
+	eh->handle = walk->handle;
+	eh->load_count = 1;
+	hashset_put(&pfs_all_ehs_set, eh_hash(eh), eh);
+	return eh;
+}
+
 #define open_eh(path, rot, allow_relative, parent_on_err) open_eh(path, rot, allow_relative, parent_on_err, 0)
 
 static inline struct element_handle* (open_eh)(const char *path,
@@ -157,6 +256,10 @@ static inline struct element_handle* (open_eh)(const char *path,
 	struct element_handle *eh =
 			(allow_relative && (*path != '/')) ? pfs_cwd : rot;
 	eh->load_count++;
+	// folders on the way are not loaded, they are only walked through
+	// (while walked is set the current folder is walk and eh is not used)
+	struct element_handle walk;
+	int walked = 0;
 	for (const char *cur = path, *end;; cur = end) {
 		while (*cur == '/') {
 			cur++;
@@ -184,81 +287,86 @@ static inline struct element_handle* (open_eh)(const char *path,
 			if (('.' != cur[1]) || ('.' != cur[0])) {
 				break;
 			}
-			struct element_handle *new = malloc(sizeof(struct element_handle));
-			new->handle = eh->handle;
-			release_eh(eh);
-			if (!pfsc_element_get_parent(&new->handle)) {
-				return 0;
+			if (!walked) {
+				walk.handle = eh->handle;
+				release_eh(eh);
+				walked = 1;
 			}
-			struct element_handle *al = hashset_get(&pfs_all_ehs_set,
-					eh_hash(new), new);
-			if (al != NULL) {
-				eh = al;
-				eh->load_count++;
-				free(new);
-			} else {
-				eh = new;
-				eh->load_count = 1;
-				if (hashset_put(&pfs_all_ehs_set, eh_hash(new), new) != NULL) {
-					abort();
-				}
+			if (!pfsc_element_get_parent(&walk.handle)) {
+				free(buf);
+				return 0;
 			}
 			continue;
 		}
-		struct element_handle *neh = malloc(sizeof(struct element_handle));
-		if (!neh) {
-			release_eh(eh);
-			pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
-			return 0;
+		struct pfs_element_handle *folder = walked ? &walk.handle : &eh->handle;
+		struct element_handle ceh;
+		ceh.handle = *folder;
+		int found = name_cache_get(&ceh.handle, buf, len);
+		if (found == -1) {
+			found = pfsc_folder_child_from_name(&ceh.handle, buf);
+			if (found) {
+				if (!ceh.handle.is_mount_point) {
+					name_cache_put(folder, buf, len, &ceh.handle);
+				}
+			} else if (pfs_err == PFS_ERRNO_ELEMENT_NOT_EXIST) {
+				name_cache_put(folder, buf, len, NULL);
+			}
 		}
-		neh->handle = eh->handle;
-		if (!*end && parent_on_err) {
-			if (!pfsc_folder_child_from_name(&neh->handle, buf)) {
-				*parent_on_err = eh;
-				free(buf);
-				free(neh);
-				return 0;
+		if (!found) {
+			if (!*end && parent_on_err) {
+				*parent_on_err = walked ? load_walked_eh(&walk) : eh;
+			} else if (!walked) {
+				release_eh(eh);
 			}
-		} else if (!pfsc_folder_child_from_name(&neh->handle, buf)) {
-			release_eh(eh);
-			free(neh);
 			free(buf);
 			return 0;
 		}
-		struct element_handle *oeh = eh;
-		eh = hashset_get(&pfs_all_ehs_set, eh_hash(neh), neh);
+		if (!walked) {
+			release_eh(eh);
+		}
+		if (!ceh.handle.is_mount_point) {
+			walk.handle = ceh.handle;
+			walked = 1;
+			continue;
+		}
+		walked = 0;
+		eh = hashset_get(&pfs_all_ehs_set, eh_hash(&ceh), &ceh);
 		if (eh) {
 			eh->load_count++;
-			free(neh);
-		} else {
-			if (neh->handle.is_mount_point) {
-				neh = realloc(neh, sizeof(struct element_handle_mount));
-				struct element_handle_mount *mneh =
-						(struct element_handle_mount*) neh;
-				if (!pfsc_mount_open(&(mneh)->handle,
-						mneh->handle.handle.fs_data->read_only)) {
-					if (allow_relative) {
-						pfs_err = 0;
-						neh = realloc(neh, sizeof(struct element_handle));
-						neh->handle.is_mount_point = -1;
-						return neh;
-					} else {
-						neh->handle.is_mount_point = 0;
-						release_eh(neh);
-						return NULL;
-					}
-				} else { // assume that the folder functions are used more often than the mount functions
-					neh = mneh->handle.fs.root; // also the folder functions do not check for mount points
-				}
+			continue;
+		}
+		struct element_handle_mount *mneh = malloc(
+				sizeof(struct element_handle_mount));
+		if (!mneh) {
+			free(buf);
+			pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+			return 0;
+		}
+		mneh->handle.handle = ceh.handle;
+		if (!pfsc_mount_open(&mneh->handle,
+				mneh->handle.handle.fs_data->read_only)) {
+			struct element_handle *neh = realloc(mneh,
+					sizeof(struct element_handle));
+			free(buf);
+			if (allow_relative) {
+				pfs_err = 0;
+				neh->handle.is_mount_point = -1;
+				return neh;
+			} else {
+				free(neh);
+				return NULL;
 			}
-			hashset_put(&pfs_all_ehs_set, eh_hash(neh), neh);
-			neh->load_count = 1;
-			eh = neh;
 		}
-		release_eh(oeh);
+		// assume that the folder functions are used more often than the mount functions
+		// also the folder functions do not check for mount points
+		eh = mneh->handle.fs.root;
+		hashset_put(&pfs_all_ehs_set, eh_hash(eh), eh);
+		eh->load_count = 1;
 	}
 	free(buf);
-	eh->load_count++;
+	if (walked) {
+		return load_walked_eh(&walk);
+	}
 	return eh;
 }
 
@@ -305,6 +413,7 @@ extern int pfs_load(struct bm_block_manager *bm, const char *cur_work_dir,
 		bm->unget(bm, 0L);
 		return 0;
 	}
+	pfs_name_cache_invalidate();
 	nrot->load_count = 1;
 	if (cur_work_dir) {
 		struct element_handle *ncwd = open_eh(cur_work_dir, nrot, 0, NULL);
@@ -342,6 +451,10 @@ extern int pfs_format(i64 block_count, uuid_t uuid, char *name) {
 }
 extern int pfs_load_and_format(struct bm_block_manager *bm, i64 block_count,
 		uuid_t uuid, char *name) {
+	return pfs_load_and_format_flags(bm, block_count, uuid, name, 0U);
+}
+extern int pfs_load_and_format_flags(struct bm_block_manager *bm,
+		i64 block_count, uuid_t uuid, char *name, ui32 format_flags) {
 	if (bm == NULL) {
 		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
 		return 0;
@@ -371,7 +484,7 @@ extern int pfs_load_and_format(struct bm_block_manager *bm, i64 block_count,
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		return 0;
 	}
-	if (!pfsc_format(bm, block_count, uuid, name)) {
+	if (!pfsc_format_flags(bm, block_count, uuid, name, format_flags)) {
 		free(nehs);
 		free(nshs);
 		free(nihs);
@@ -379,6 +492,7 @@ extern int pfs_load_and_format(struct bm_block_manager *bm, i64 block_count,
 		free(fs_data);
 		return 0;
 	}
+	pfs_name_cache_invalidate();
 	if (!pfsc_fill_root(bm, nrot, fs_data, 0)) {
 		free(nehs);
 		free(nshs);
@@ -416,11 +530,32 @@ static int pfs_close_for_each(void *arg0, void *element) {
 }
 extern int pfs_close() {
 	int result = 1;
+	// the delayed data is written before the file systems are closed
+	for (i64 i = 0; i < pfs_sh_len; i++) {
+		struct stream_handle *sh = pfs_shs[i];
+		if (sh && sh->element) {
+			if (!pfs_stream_flush_delayed(sh)) {
+				result = 0;
+			}
+			free(sh->delayed);
+			sh->delayed = NULL;
+			sh->delayed_len = 0L;
+			sh->delayed_cap = 0L;
+		}
+	}
+	pfs_delayed_bytes = 0L;
 	if (pfs_root) {
-		result = pfs(pfs_root)->close_bm(pfs(pfs_root));
+		// some blocks of the files deleted in the background are freed first
+		if (pfsc_free_deferred(pfs(pfs_root), DEFERRED_FREE_STEP) == -1L) {
+			result = 0;
+		}
+		if (!pfs(pfs_root)->close_bm(pfs(pfs_root))) {
+			result = 0;
+		}
 	}
 	hashset_for_each(&pfs_all_ehs_set, pfs_close_for_each, &result);
 	hashset_clear(&pfs_all_ehs_set);
+	pfs_name_cache_invalidate();
 	pfs_root = NULL;
 	pfs_cwd = NULL;
 	if (pfs_ehs) {
@@ -435,6 +570,9 @@ extern int pfs_close() {
 		free(pfs_ihs);
 		pfs_ihs = NULL;
 	}
+	pfs_eh_len = 0;
+	pfs_sh_len = 0;
+	pfs_ih_len = 0;
 	return result;
 }
 
@@ -573,7 +711,9 @@ static int delete_element(struct element_handle **eh, int also_when_loaded) {
 	}
 	i64 former_index;
 	struct element_handle peh;
-	int res = pfsc_element_delete(eh0, &former_index, &peh.handle);
+	pfs_name_cache_invalidate();
+	int res = pfsc_element_delete(eh0, &former_index, &peh.handle,
+			pfs_delete_background);
 	struct element_handle *npeh = hashset_get(&pfs_all_ehs_set, eh_hash(&peh),
 			&peh);
 	if (npeh) {
@@ -600,6 +740,10 @@ extern int pfs_delete(const char *path, int also_when_loaded) {
 	return delete_element(&eh, also_when_loaded);
 }
 
+extern void pfs_delete_in_background(int enable) {
+	pfs_delete_background = enable != 0;
+}
+
 extern int pfs_element_delete(int eh, int also_when_loaded) {
 	eh(0)
 	check_write_access2(pfs_ehs[eh]->handle, release_eh(pfs_ehs[eh]); return 0;)
@@ -619,6 +763,10 @@ static inline int open_sh(struct element_handle *eh, ui32 stream_flags) {
 	sh->element = eh;
 	sh->pos = 0;
 	sh->flags = stream_flags;
+	sh->cursor.pos = -1L;
+	sh->delayed = NULL;
+	sh->delayed_len = 0L;
+	sh->delayed_cap = 0L;
 	void *block_data = pfs(eh)->get(pfs(eh),
 			eh->handle.direct_parent_place.block);
 	if (!block_data) {
@@ -645,7 +793,10 @@ static inline int open_sh(struct element_handle *eh, ui32 stream_flags) {
 		pfs(eh)->unget(pfs(eh), eh->handle.direct_parent_place.block);
 	}
 	if (sh->is_file) {
-		if (stream_flags & PFS_SO_PIPE) {
+		// only appended data can be delayed
+		if ((stream_flags & PFS_SO_PIPE)
+				|| ((stream_flags & PFS_SO_DELAY_ALLOC)
+						&& (stream_flags & PFS_SO_APPEND) == 0)) {
 			if (eh->handle.direct_parent_place.block
 					== eh->handle.element_place.block) {
 				pfs(eh)->unget(pfs(eh),
@@ -938,12 +1089,19 @@ extern int pfs_stream(const char *path, i32 stream_flags) {
 		eh->handle = peh->handle;
 		const char *name = strrchr(path, '/');
 		name = name == NULL ? path : (name + 1);
+		pfs_name_cache_invalidate();
 		if (stream_flags & PFS_SO_PIPE) {
-			if (!pfsc_folder_create_pipe(&eh->handle, &peh->handle, name)) {
+			struct pfs_place ppp = peh->handle.element_place;
+			int ok = pfsc_folder_create_pipe(&eh->handle, &peh->handle, name);
+			pfs_rehash_eh(peh, ppp);
+			if (!ok) {
 				return -1;
 			}
 		} else if (stream_flags & PFS_SO_FILE) {
-			if (!pfsc_folder_create_file(&eh->handle, &peh->handle, name)) {
+			struct pfs_place ppp = peh->handle.element_place;
+			int ok = pfsc_folder_create_file(&eh->handle, &peh->handle, name);
+			pfs_rehash_eh(peh, ppp);
+			if (!ok) {
 				return -1;
 			}
 		} else {
@@ -980,6 +1138,7 @@ extern int pfs_folder_open_iter(int eh, int show_hidden) {
 		return -1;
 	}
 	ih->ieh = pfs_ehs[eh]->handle;
+	ih->index = 0;
 	if (!pfsc_folder_fill_iterator(&ih->ieh, &ih->handle, show_hidden)) {
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		release_eh(pfs_ehs[eh]);
@@ -1024,6 +1183,7 @@ extern int pfs_iter(const char *path, int show_hidden) {
 		return -1;
 	}
 	ih->ieh = eh->handle;
+	ih->index = 0;
 	if (!pfsc_folder_fill_iterator(&ih->ieh, &ih->handle, show_hidden)) {
 		release_eh(eh);
 		pfs(eh)->unget(pfs(eh), eh->handle.direct_parent_place.block);
@@ -1043,7 +1203,9 @@ void (pfs_modify_iterators)(struct element_handle const *eh, ui64 former_index,
 		int removed) {
 	for (int i = pfs_ih_len; --i >= 0;) {
 		if (pfs_ihs[i] && (!eh || element_equal(pfs_ihs[i]->folder, eh))) {
+			const int show_hidden = pfs_ihs[i]->handle.show_hidden;
 			memset(&pfs_ihs[i]->handle, 0xFF, sizeof(struct pfs_folder_iter));
+			pfs_ihs[i]->handle.show_hidden = show_hidden;
 			if (removed) {
 				if (pfs_ihs[i]->index >= former_index) {
 					pfs_ihs[i]->index--;
@@ -1057,26 +1219,35 @@ void (pfs_modify_iterators)(struct element_handle const *eh, ui64 former_index,
 	}
 }
 
+// restores the position of an iterator after pfs_modify_iterators
+static int iter_restore(struct iter_handle *ih) {
+	if (ih->handle.current_place.block != -1L) {
+		return 1;
+	}
+	memcpy(&ih->ieh, &ih->folder->handle, sizeof(struct pfs_element_handle));
+	if (!pfsc_folder_fill_iterator(&ih->ieh, &ih->handle,
+			ih->handle.show_hidden)) {
+		ih->handle.current_depth = -1;
+		return 0;
+	}
+	for (i64 i = ih->index; i > 0; --i) {
+		if (!pfsc_folder_iter_next(&ih->handle)) {
+			ih->handle.current_depth = -1;
+			return 0;
+		}
+	}
+	return 1;
+}
+
 extern int pfs_iter_next(int ih) {
 	ih(-1)
-	if (pfs_ihs[ih]->handle.current_place.block == -1L) {
-		memcpy(&pfs_ihs[ih]->ieh, &pfs_ihs[ih]->folder->handle,
-				sizeof(struct pfs_element_handle));
-		if (!pfsc_folder_fill_iterator(&pfs_ihs[ih]->ieh, &pfs_ihs[ih]->handle,
-				pfs_ihs[ih]->handle.show_hidden)) {
-			pfs_ihs[ih]->handle.current_depth = -1;
-			return -1;
-		}
-		for (i64 i = pfs_ihs[ih]->index; i > 0; --i) {
-			if (!pfsc_folder_iter_next(&pfs_ihs[ih]->handle)) {
-				pfs_ihs[ih]->handle.current_depth = -1;
-				return -1;
-			}
-		}
+	if (!iter_restore(pfs_ihs[ih])) {
+		return -1;
 	}
 	if (!pfsc_folder_iter_next(&pfs_ihs[ih]->handle)) {
 		return -1;
 	}
+	pfs_ihs[ih]->index++;
 	struct element_handle *c = hashset_get(&pfs_all_ehs_set,
 			eh_hash(&pfs_ihs[ih]->ieh),
 			((void*) &pfs_ihs[ih]->ieh)
@@ -1101,6 +1272,49 @@ extern int pfs_iter_next(int ih) {
 	return_handle(pfs_eh_len, pfs_ehs, c)
 }
 
+extern int pfs_iter_next_batch(int ih, void *buffer, i64 buffer_size,
+		int max_count) {
+	ih(-1)
+	if (buffer_size < 0 || max_count < 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return -1;
+	}
+	struct iter_handle *h = pfs_ihs[ih];
+	if (!iter_restore(h)) {
+		return -1;
+	}
+	const ui32 old_err = pfs_err;
+	int count = 0;
+	while (count < max_count) {
+		struct pfs_folder_iter old = h->handle;
+		if (!pfsc_folder_iter_next(&h->handle)) {
+			if (pfs_err != PFS_ERRNO_NO_MORE_ELEMENTS) {
+				return -1;
+			}
+			pfs_err = old_err;
+			break;
+		}
+		i64 size = pfsc_element_fill_iter_entry(&h->ieh, buffer, buffer_size);
+		if (size == -1L || size > buffer_size) {
+			// the element stays in the iterator
+			h->handle = old;
+			if (size == -1L) {
+				return -1;
+			}
+			if (!count) {
+				pfs_err = PFS_ERRNO_OUT_OF_RANGE;
+				return -1;
+			}
+			break;
+		}
+		h->index++;
+		buffer += size;
+		buffer_size -= size;
+		count++;
+	}
+	return count;
+}
+
 extern int pfs_element_close(int eh) {
 	get_handle(0, pfs_eh_len, pfs_ehs, eh)
 	// eh(0) fails when the element was deleted
@@ -1118,8 +1332,15 @@ extern int pfs_iter_close(int ih) {
 extern int pfs_stream_close(int sh) {
 	sh(0)
 	if (pfs_shs[sh]->element) {
+		// the stream stays open when the delayed data can not be written
+		const int res = pfs_stream_flush_delayed(pfs_shs[sh]);
+		if (!res && pfs_shs[sh]->delayed_len > 0) {
+			return 0;
+		}
+		free(pfs_shs[sh]->delayed);
 		release_eh(pfs_shs[sh]->element);
 		pfs_shs[sh] = NULL;
+		return res;
 	} else if (--pfs_shs[sh]->delegate_ref_count <= 0) {
 		if (pfs_shs[sh]->pos < 0) {
 			abort();
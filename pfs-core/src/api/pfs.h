@@ -158,8 +158,26 @@ struct stream_handle {
 		ui32 delegate_ref_count;
 	};
 	int is_file;
+	// only used for file streams, the cursor is ignored after a seek (pos
+	// changed) or after blocks were freed by a truncate (generation changed)
+	struct pfs_file_cursor cursor;
+	// only used for streams with PFS_SO_DELAY_ALLOC
+	void *delayed;
+	i64 delayed_len;
+	i64 delayed_cap;
 };
 
+/* the maximum number of delayed bytes of one stream */
+#define PFS_DELAYED_STREAM_BYTES (1L << 20)
+/* when more bytes are delayed, the data of all streams is written */
+#define PFS_DELAYED_MAX_BYTES (16L << 20)
+
+/*
+ * appends the delayed data of the stream to its file/pipe
+ * on success 1 and on error 0 is returned
+ */
+int pfs_stream_flush_delayed(struct stream_handle *sh);
+
 struct iter_handle {
 	struct pfs_folder_iter handle;
 	struct pfs_element_handle ieh;
@@ -199,10 +217,47 @@ PFS_EXT i64 pfs_eh_len PFS_INIT(0);
 PFS_EXT i64 pfs_sh_len PFS_INIT(0);
 PFS_EXT i64 pfs_ih_len PFS_INIT(0);
 
+/* the number of delayed bytes of all streams */
+PFS_EXT i64 pfs_delayed_bytes PFS_INIT(0);
+
+/* non-zero if the blocks of deleted files are freed in the background */
+PFS_EXT int pfs_delete_background PFS_INIT(0);
+
 PFS_EXT struct element_handle *pfs_root PFS_INIT(NULL);
 PFS_EXT struct element_handle *pfs_cwd PFS_INIT(NULL);
 
+/*
+ * the generation of the name cache of open_eh
+ * cached names are only used while the generation did not change
+ */
+PFS_EXT ui64 pfs_name_cache_gen PFS_INIT(1);
+
 #undef PFS_EXT
 #undef PFS_INIT
 
+/*
+ * invalidates all names cached by open_eh
+ * this has to be done before each create, delete, move and rename
+ */
+static inline void pfs_name_cache_invalidate() {
+	pfs_name_cache_gen++;
+}
+
+/*
+ * re-hashes eh after the core changed its element place
+ * (for example when a folder is relocated because it grew)
+ * old is the place eh had when it was added to pfs_all_ehs_set
+ */
+static inline void pfs_rehash_eh(struct element_handle *eh,
+		struct pfs_place old) {
+	struct pfs_place new = eh->handle.element_place;
+	if (new.block == old.block && new.pos == old.pos) {
+		return;
+	}
+	eh->handle.element_place = old;
+	hashset_remove(&pfs_all_ehs_set, eh_hash(eh), eh);
+	eh->handle.element_place = new;
+	hashset_put(&pfs_all_ehs_set, eh_hash(eh), eh);
+}
+
 #endif /* SRC_API_PFS_H_ */
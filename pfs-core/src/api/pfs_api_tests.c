@@ -0,0 +1,412 @@
+//This file is part of the Patr File System Project
+//DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+//Copyright (C) 2023  Patrick Hechler
+//
+//This program is free software: you can redistribute it and/or modify
+//it under the terms of the GNU General Public License as published by
+//the Free Software Foundation, either version 3 of the License, or
+//(at your option) any later version.
+//
+//This program is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//GNU General Public License for more details.
+//
+//You should have received a copy of the GNU General Public License
+//along with this program.  If not, see <https://www.gnu.org/licenses/>.
+/*
+ * pfs_api_tests.c
+ *
+ *  Created on: Oct 18, 2026
+ *      Author: pat
+ */
+
+#include "pfs.h"
+#include "../core/pfs.h"
+#include "../pfs/pfs.h"
+#include "../pfs/pfs-element.h"
+#include "../pfs/pfs-folder.h"
+#include "../pfs/pfs-file.h"
+#include "../pfs/pfs-iter.h"
+#include "../pfs/pfs-stream.h"
+#include "../pfs/pfs-constants.h"
+
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+
+#define BLOCK_COUNT (1L << 16)
+
+#define ITER_CHILDREN 2000
+
+static void iter_batch_check(ui32 format_flags);
+static void name_cache_check();
+
+int main(int argc, char **argv) {
+	const char *start = "[main]:                                               ";
+	printf("%sstart iter batch checks [0]\n", start);
+	fflush(NULL);
+	iter_batch_check(0U);
+	printf("%sstart iter batch checks with hash folders [1]\n", start);
+	fflush(NULL);
+	iter_batch_check(PFS_FORMAT_HASH_FOLDERS);
+	printf("%sstart name cache checks [2]\n", start);
+	fflush(NULL);
+	name_cache_check();
+	printf("%sFINISH [A]\n", start);
+	return EXIT_SUCCESS;
+}
+
+static void load(const char *start, ui32 format_flags) {
+	bm b = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
+	if (b == NULL
+			|| !pfs_load_and_format_flags(b, BLOCK_COUNT, NULL, "",
+					format_flags)) {
+		printf("%scould not load the file system (%s) [load]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+}
+
+struct expected_child {
+	char *name;
+	i64 length;
+	ui32 flags;
+};
+
+/*
+ * lists the children of the folder with the core folder iterator
+ * returns the number of children
+ */
+static i64 expected_children(const char *start, int eh, int show_hidden,
+		struct expected_child *result) {
+	struct pfs_element_handle f = pfs_ehs[eh]->handle;
+	struct pfs_folder_iter fi;
+	if (!pfsc_folder_fill_iterator(&f, &fi, show_hidden)) {
+		printf("%scould not create the core iterator (%s) [expected.0]\n",
+				start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	i64 count = 0;
+	while (pfsc_folder_iter_next(&fi)) {
+		struct expected_child *c = result + count++;
+		c->name = NULL;
+		i64 len = 0;
+		c->flags = pfsc_element_get_flags(&f);
+		if (!pfsc_element_get_name(&f, &c->name, &len) || c->flags == -1) {
+			printf("%scould not get the child (%s) [expected.1]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		c->length = (c->flags & PFS_F_FILE) ? pfsc_file_length(&f) : 0L;
+	}
+	if (pfs_err != PFS_ERRNO_NO_MORE_ELEMENTS) {
+		printf("%scould not iterate over the folder (%s) [expected.2]\n",
+				start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	pfs_err = PFS_ERRNO_NONE;
+	return count;
+}
+
+/*
+ * lists the folder with pfs_iter_next_batch through small buffers and
+ * compares the entries with the children of the core iterator
+ */
+static void iter_batch_compare(const char *start, int eh, int show_hidden,
+		struct expected_child *exp, i64 exp_count) {
+	i64 buffer[32];
+	int ih = pfs_folder_open_iter(eh, show_hidden);
+	if (ih == -1) {
+		printf("%scould not open the iterator (%s) [compare.0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	// not even the first entry fits in the buffer
+	if (pfs_iter_next_batch(ih, buffer, PFS_ITER_ENTRY_SIZE(0) - 1, 4) != -1
+			|| pfs_err != PFS_ERRNO_OUT_OF_RANGE) {
+		printf("%sthe first entry did not give out of range [compare.1]\n",
+				start);
+		exit(EXIT_FAILURE);
+	}
+	pfs_err = PFS_ERRNO_NONE;
+	i64 next = 0;
+	for (int call = 0;; call++) {
+		const i64 size = PFS_ITER_ENTRY_SIZE(0) + (call * 37) % 200;
+		const int max = 1 + call % 4;
+		// the entries which fit in the buffer
+		int fit = 0;
+		i64 used = 0;
+		while (fit < max && next + fit < exp_count) {
+			used += PFS_ITER_ENTRY_SIZE(strlen(exp[next + fit].name));
+			if (used > size) {
+				break;
+			}
+			fit++;
+		}
+		int count = pfs_iter_next_batch(ih, buffer, size, max);
+		if (next == exp_count) {
+			if (count != 0) {
+				printf("%sgot %d entries after the end [compare.2]\n", start,
+						count);
+				exit(EXIT_FAILURE);
+			}
+			break;
+		}
+		if (!fit) {
+			// the entry stays in the iterator for the next call
+			if (count != -1 || pfs_err != PFS_ERRNO_OUT_OF_RANGE) {
+				printf("%sthe entry %ld did not give out of range "
+						"(%d entries) [compare.3]\n", start, next, count);
+				exit(EXIT_FAILURE);
+			}
+			pfs_err = PFS_ERRNO_NONE;
+			continue;
+		}
+		if (count != fit) {
+			printf("%sgot %d entries instead of %d at %ld (%s) [compare.4]\n",
+					start, count, fit, next, pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		void *entry_data = buffer;
+		for (int i = 0; i < count; i++, next++) {
+			struct pfs_iter_entry *entry = entry_data;
+			if (strcmp(entry->name, exp[next].name) != 0
+					|| entry->name_length != strlen(exp[next].name)
+					|| entry->flags != exp[next].flags
+					|| entry->length != exp[next].length) {
+				printf("%sthe entry %ld is %s and not %s [compare.5]\n", start,
+						next, entry->name, exp[next].name);
+				exit(EXIT_FAILURE);
+			}
+			if (!show_hidden && (entry->flags & PFS_F_HIDDEN)) {
+				printf("%sgot the hidden entry %s [compare.6]\n", start,
+						entry->name);
+				exit(EXIT_FAILURE);
+			}
+			entry_data += PFS_ITER_ENTRY_SIZE(entry->name_length);
+		}
+	}
+	pfs_iter_close(ih);
+}
+
+static int is_hash_folder(int eh) {
+	struct pfs_element_handle *h = &pfs_ehs[eh]->handle;
+	bm b = h->fs_data->file_sys;
+	void *block_data = b->get(b, h->element_place.block);
+	if (block_data == NULL) {
+		return 0;
+	}
+	struct pfs_folder *f = block_data + h->element_place.pos;
+	int res = f->helper_index == HASH_NODE_INDEX;
+	b->unget(b, h->element_place.block);
+	return res;
+}
+
+static void iter_batch_check(ui32 format_flags) {
+	const char *start = "[main.iter_batch_check]:                              ";
+	char name[64];
+	load(start, format_flags);
+	int root = pfs_handle_folder("/");
+	int folder = pfs_folder_create_folder(root, "iter");
+	pfs_element_close(root);
+	if (folder == -1) {
+		printf("%scould not create the folder (%s) [0]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	// the names have different lengths, so the entries have different sizes
+	for (int i = 0; i < ITER_CHILDREN; i++) {
+		int len = sprintf(name, "child-%d-", i);
+		memset(name + len, 'x', i % 48);
+		name[len + i % 48] = '\0';
+		int c = (i % 11) == 0 ? pfs_folder_create_folder(folder, name) :
+				pfs_folder_create_file(folder, name);
+		if (c == -1) {
+			printf("%scould not create %s (%s) [1]\n", start, name,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		if ((i % 7) == 0 && !pfs_element_modify_flags(c, PFS_F_HIDDEN, 0)) {
+			printf("%scould not hide %s (%s) [2]\n", start, name, pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		if ((i % 5) == 0 && (i % 11) != 0) {
+			int sh = pfs_open_stream(c, PFS_SO_APPEND);
+			if (sh == -1 || pfs_stream_write(sh, name, i % 13) != i % 13
+					|| !pfs_stream_close(sh)) {
+				printf("%scould not write %s (%s) [3]\n", start, name,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+		}
+		pfs_element_close(c);
+	}
+	if ((format_flags & PFS_FORMAT_HASH_FOLDERS) != 0
+			&& !is_hash_folder(folder)) {
+		printf("%sthe folder is no hash folder [4]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	struct expected_child *exp = malloc(
+			ITER_CHILDREN * sizeof(struct expected_child));
+	if (exp == NULL) {
+		printf("%scould not allocate the expected children [5]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	i64 visible = expected_children(start, folder, 0, exp);
+	iter_batch_compare(start, folder, 0, exp, visible);
+	for (i64 i = 0; i < visible; i++) {
+		free(exp[i].name);
+	}
+	i64 all = expected_children(start, folder, 1, exp);
+	// every seventh child is hidden
+	if (all != ITER_CHILDREN
+			|| visible != ITER_CHILDREN - 1 - ITER_CHILDREN / 7) {
+		printf("%sthe core iterator returned %ld and %ld children [6]\n",
+				start, visible, all);
+		exit(EXIT_FAILURE);
+	}
+	iter_batch_compare(start, folder, 1, exp, all);
+	for (i64 i = 0; i < all; i++) {
+		free(exp[i].name);
+	}
+	free(exp);
+	pfs_element_close(folder);
+	if (!pfs_close()) {
+		printf("%scould not close the file system (%s) [7]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+}
+
+/* fails if path does not refer to the same element as eh */
+static void name_cache_expect(const char *start, const char *path, int eh,
+		const char *tag) {
+	int peh = pfs_handle(path);
+	if (peh == -1 || pfs_element_same(peh, eh) != 1) {
+		printf("%s%s is not the expected element (%s) [%s]\n", start, path,
+				pfs_error(), tag);
+		exit(EXIT_FAILURE);
+	}
+	pfs_element_close(peh);
+}
+
+/* fails if path refers to an element */
+static void name_cache_expect_none(const char *start, const char *path,
+		const char *tag) {
+	int peh = pfs_handle(path);
+	if (peh != -1 || pfs_err != PFS_ERRNO_ELEMENT_NOT_EXIST) {
+		printf("%s%s does exist (%s) [%s]\n", start, path, pfs_error(), tag);
+		exit(EXIT_FAILURE);
+	}
+	pfs_err = PFS_ERRNO_NONE;
+}
+
+static void name_cache_check() {
+	const char *start = "[main.name_cache_check]:                              ";
+	load(start, 0U);
+	int root = pfs_handle_folder("/");
+	int folder = pfs_folder_create_folder(root, "nc");
+	int folder2 = pfs_folder_create_folder(root, "nc2");
+	int file = pfs_folder_create_file(folder, "a");
+	if (root == -1 || folder == -1 || folder2 == -1 || file == -1) {
+		printf("%scould not create the elements (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	// positive hit: the core rename does not invalidate the cache, so the
+	// old name is still found until the cache is invalidated
+	name_cache_expect(start, "/nc/a", file, "1");
+	struct pfs_element_handle c = pfs_ehs[file]->handle;
+	if (!pfsc_element_set_name(&c, "b")) {
+		printf("%scould not rename the file (%s) [2]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	name_cache_expect(start, "/nc/a", file, "3");
+	pfs_name_cache_invalidate();
+	name_cache_expect_none(start, "/nc/a", "4");
+	name_cache_expect(start, "/nc/b", file, "5");
+	// negative hit: the core create does not invalidate the cache, so the
+	// new element is not found until the cache is invalidated
+	name_cache_expect_none(start, "/nc/c", "6");
+	c = pfs_ehs[folder]->handle;
+	if (!pfsc_folder_create_file(&c, NULL, "c")) {
+		printf("%scould not create the file (%s) [7]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	name_cache_expect_none(start, "/nc/c", "8");
+	pfs_name_cache_invalidate();
+	int file_c = pfs_handle("/nc/c");
+	if (file_c == -1) {
+		printf("%scould not find the new file (%s) [9]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	// the api functions invalidate the cache
+	name_cache_expect_none(start, "/nc/d", "10");
+	int sh = pfs_stream("/nc/d", PFS_SO_FILE | PFS_SO_ONLY_CREATE | PFS_SO_WRITE);
+	if (sh == -1 || !pfs_stream_close(sh)) {
+		printf("%scould not create /nc/d (%s) [11]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	int file_d = pfs_handle("/nc/d");
+	if (file_d == -1) {
+		printf("%sthe created file was not found (%s) [12]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	pfs_element_close(file_d);
+	name_cache_expect_none(start, "/nc/e", "13");
+	int folder_e = pfs_folder_create_folder(folder, "e");
+	if (folder_e == -1) {
+		printf("%scould not create /nc/e (%s) [14]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	name_cache_expect(start, "/nc/e", folder_e, "15");
+	pfs_element_close(folder_e);
+	if (!pfs_delete("/nc/d", 0)) {
+		printf("%scould not delete /nc/d (%s) [16]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	name_cache_expect_none(start, "/nc/d", "17");
+	if (!pfs_element_set_name(file, "f")) {
+		printf("%scould not rename /nc/b (%s) [18]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	name_cache_expect_none(start, "/nc/b", "19");
+	name_cache_expect(start, "/nc/f", file, "20");
+	if (!pfs_element_move(file, folder2, "g")) {
+		printf("%scould not move /nc/f (%s) [21]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	name_cache_expect_none(start, "/nc/f", "22");
+	name_cache_expect(start, "/nc2/g", file, "23");
+	if (!pfs_element_set_parent(file, folder)) {
+		printf("%scould not move /nc2/g (%s) [24]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	name_cache_expect_none(start, "/nc2/g", "25");
+	name_cache_expect(start, "/nc/g", file, "26");
+	// the element opened by path is still loaded, so it is not deleted
+	if (pfs_delete("/nc/c", 0) || pfs_err != PFS_ERRNO_ELEMENT_USED) {
+		printf("%sdeleted the loaded element (%s) [27]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	pfs_err = PFS_ERRNO_NONE;
+	name_cache_expect(start, "/nc/c", file_c, "28");
+	pfs_element_close(file_c);
+	if (!pfs_delete("/nc/c", 0)) {
+		printf("%scould not delete /nc/c (%s) [29]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	name_cache_expect_none(start, "/nc/c", "30");
+	pfs_element_close(file);
+	pfs_element_close(folder2);
+	pfs_element_close(folder);
+	pfs_element_close(root);
+	if (!pfs_close()) {
+		printf("%scould not close the file system (%s) [31]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+}
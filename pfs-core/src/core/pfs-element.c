@@ -181,12 +181,24 @@ int pfsc_element_set_name(pfs_eh e, char *name) {
 		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
 		return 0;
 	}
+	int moved = hash_folder_set_name(e, name);
+	if (moved != -1) {
+		return moved;
+	}
 	get_entry0(entry, direct_parent, entry_block_data, 0)
+	struct pfs_place real_parent = e->real_parent_place;
+	if (core(pfs0(e))->name_index) {
+		name_index_remove(pfs0(e), real_parent, entry_block_data + entry->name_pos,
+		        get_size_from_block_table(entry_block_data, entry->name_pos, pfs0(e)->block_size),
+		        e->direct_parent_place);
+	}
 	i32 new_name_pos = reallocate_in_block_table(pfs0(e), e->direct_parent_place.block, entry->name_pos,
 	        name_len, 0);
 	if (new_name_pos != -1) {
 		memcpy(entry_block_data + new_name_pos, name, name_len);
 		pfs0(e)->set(pfs0(e), e->direct_parent_place.block);
+		name_index_add(pfs0(e), real_parent, name, name_len, e->direct_parent_place,
+		        e->index_in_direct_parent_list);
 		return 1;
 	}
 	struct pfs_place dpplace;
@@ -194,6 +206,7 @@ int pfsc_element_set_name(pfs_eh e, char *name) {
 	        + (sizeof(struct pfs_folder_entry) * direct_parent->direct_child_count);
 	if (!allocate_new_entry(pfs0(e), &dpplace, -1, parent_size)) {
 		pfs0(e)->unget(pfs0(e), e->direct_parent_place.block);
+		name_index_forget(pfs0(e), real_parent);
 		pfs_err = PFS_ERRNO_OUT_OF_SPACE;
 		return 0;
 	}
@@ -201,6 +214,7 @@ int pfsc_element_set_name(pfs_eh e, char *name) {
 	if (new_block == NULL) {
 		free_block(pfs0(e), dpplace.block);
 		pfs0(e)->unget(pfs0(e), e->direct_parent_place.block);
+		name_index_forget(pfs0(e), real_parent);
 		return 0;
 	}
 	struct pfs_folder *new_parent = new_block + dpplace.pos;
@@ -215,7 +229,7 @@ int pfsc_element_set_name(pfs_eh e, char *name) {
 			pcn = name;
 			pcn_len = name_len;
 		} else {
-			pcn = new_block + new_parent->entries[i].name_pos;
+			pcn = entry_block_data + new_parent->entries[i].name_pos;
 			pcn_len = get_size_from_block_table(entry_block_data, new_parent->entries[i].name_pos, pfs0(e)->block_size);
 		}
 		i32 pcnp = add_name(pfs0(e), dpplace.block, pcn, pcn_len);
@@ -223,6 +237,7 @@ int pfsc_element_set_name(pfs_eh e, char *name) {
 			free_block(pfs0(e), dpplace.block);
 			pfs0(e)->unget(pfs0(e), dpplace.block);
 			pfs0(e)->unget(pfs0(e), e->direct_parent_place.block);
+			name_index_forget(pfs0(e), real_parent);
 			return 0;
 		}
 		new_parent->entries[i].name_pos = pcnp;
@@ -232,6 +247,7 @@ int pfsc_element_set_name(pfs_eh e, char *name) {
 		free_block(pfs0(e), dpplace.block);
 		pfs0(e)->unget(pfs0(e), dpplace.block);
 		pfs0(e)->unget(pfs0(e), e->direct_parent_place.block);
+		name_index_forget(pfs0(e), real_parent);
 		return 0;
 	}
 	struct pfs_folder_entry *pfe = pfs_block + new_parent->folder_entry.pos;
@@ -264,6 +280,7 @@ int pfsc_element_set_name(pfs_eh e, char *name) {
 				}
 				pfs0(e)->unget(pfs0(e), dpplace.block);
 				pfs0(e)->unget(pfs0(e), e->direct_parent_place.block);
+				name_index_forget(pfs0(e), real_parent);
 				pfs_err = PFS_ERRNO_OUT_OF_SPACE;
 				return 0;
 			}
@@ -278,7 +295,14 @@ int pfsc_element_set_name(pfs_eh e, char *name) {
 	}
 	remove_from_block_table(pfs0(e), e->direct_parent_place.block, e->direct_parent_place.pos);
 	const i64 old_parent_block = e->direct_parent_place.block;
+	name_index_moved(pfs0(e), e->direct_parent_place, dpplace);
+	count_cache_moved(pfs0(e), e->direct_parent_place, dpplace);
+	if (real_parent.block == e->direct_parent_place.block && real_parent.pos == e->direct_parent_place.pos) {
+		real_parent = dpplace;
+		e->real_parent_place = dpplace;
+	}
 	e->direct_parent_place = dpplace;
+	name_index_add(pfs0(e), real_parent, name, name_len, dpplace, e->index_in_direct_parent_list);
 	pfs0(e)->set(pfs0(e), old_parent_block);
 	pfs0(e)->set(pfs0(e), dpplace.block);
 	return 1;
@@ -319,3 +343,42 @@ int pfsc_element_set_last_mod_time(pfs_eh e, i64 new_time) {
 	pfs0(e)->set(pfs0(e), e->element_place.block);
 	return 1;
 }
+
+i64 pfsc_element_fill_iter_entry(pfs_eh e, struct pfs_iter_entry *ie,
+		i64 max_size) {
+	if (e->real_parent_place.block == -1) {
+		(pfs_err) = PFS_ERRNO_ROOT_FOLDER;
+		return -1;
+	}
+	get_entry(-1)
+	i32 name_len = get_size_from_block_table(dpblock, entry->name_pos,
+			pfs0(e)->block_size);
+	i64 size = PFS_ITER_ENTRY_SIZE(name_len);
+	if (size > max_size) {
+		pfs0(e)->unget(pfs0(e), e->direct_parent_place.block);
+		return size;
+	}
+	void *block_data = pfs0(e)->get(pfs0(e), e->element_place.block);
+	if (block_data == NULL) {
+		pfs0(e)->unget(pfs0(e), e->direct_parent_place.block);
+		return -1;
+	}
+	struct pfs_element *element = block_data + e->element_place.pos;
+	ie->create_time = entry->create_time;
+	ie->last_mod_time = element->last_mod_time;
+	if (entry->flags & PFS_F_FILE) {
+		ie->length = ((struct pfs_file*) element)->file.file_length;
+	} else if (entry->flags & PFS_F_PIPE) {
+		struct pfs_pipe *pipe = (struct pfs_pipe*) element;
+		ie->length = pipe->pipe.file.file_length - pipe->pipe.start_offset;
+	} else {
+		ie->length = 0;
+	}
+	ie->flags = entry->flags;
+	ie->name_length = name_len;
+	memcpy(ie->name, dpblock + entry->name_pos, name_len);
+	ie->name[name_len] = '\0';
+	pfs0(e)->unget(pfs0(e), e->element_place.block);
+	pfs0(e)->unget(pfs0(e), e->direct_parent_place.block);
+	return size;
+}
@@ -25,6 +25,7 @@
 #define SRC_CORE_PFS_ELEMENT_H_
 
 #include "pfs.h"
+#include "../pfs/pfs-iter.h"
 
 /**
  * get the flags of a patr-file-system-element
@@ -108,6 +109,17 @@ i64 pfsc_element_get_last_mod_time(pfs_eh e);
  */
 int pfsc_element_set_last_mod_time(pfs_eh e, i64 new_time);
 
+/**
+ * fills the iterator entry with the name and the attributes of the given
+ * pfs-element
+ *
+ * the entry is only filled if it fits in max_size bytes
+ *
+ * returns the size of the entry (see PFS_ITER_ENTRY_SIZE) or -1 on error
+ */
+i64 pfsc_element_fill_iter_entry(pfs_eh e, struct pfs_iter_entry *ie,
+		i64 max_size);
+
 /*
  * note that the following functions are implemented in pfs-folder.c
  * and not in pfs-element.c.
@@ -120,8 +132,12 @@ int pfsc_element_set_last_mod_time(pfs_eh e, i64 new_time);
  * deletes the given pfs-element
  *
  * note that the pfs-element-handle needs to be manually freed
+ *
+ * if background is non-zero the blocks of a large file are freed later
+ * (see pfsc_file_detach)
  */
-int pfsc_element_delete(pfs_eh e, i64 *former_index, pfs_eh old_parent);
+int pfsc_element_delete(pfs_eh e, i64 *former_index, pfs_eh old_parent,
+		int background);
 
 // note that this function is implemented in pfs-folder.c and not in pfs-element.c
 /**
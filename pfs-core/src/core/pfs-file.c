@@ -41,15 +41,836 @@
 	} \
 	struct pfs_pipe *pipe = file_block_data + p->element_place.pos;
 
+/* returns non-zero if the file system stores the files as extents */
+static inline int extent_layout(bm pfs) {
+	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
+	if (b0 == NULL) {
+		return 0;
+	}
+	const int res = (b0->flags & PATRFS_B0_FLAG_EXTENTS) != 0;
+	pfs->unget(pfs, 0L);
+	return res;
+}
+
+/*
+ * returns non-zero if the extent blocks end with the reserved count
+ * (file systems formatted before the reserved count existed can not
+ * preallocate blocks)
+ */
+static inline int extent_reserved_layout(bm pfs) {
+	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
+	if (b0 == NULL) {
+		return 0;
+	}
+	const int res = (b0->flags & PATRFS_B0_FLAG_EXTENT_RESERVED) != 0;
+	pfs->unget(pfs, 0L);
+	return res;
+}
+
+/*
+ * the place of a data block in the extent blocks
+ * the extent block is loaded until it is released by the user
+ */
+struct extent_place {
+	i64 ext_block;
+	struct pfs_extent_block *eb;
+	/* the index of the extent in the extent block */
+	i64 index;
+	/* the index of the data block in the extent */
+	i64 offset;
+};
+
+/* finds the block_index-th data block of the file */
+static int extent_find(bm pfs, i64 ext_block, i64 block_index,
+		struct extent_place *place) {
+	while (ext_block != -1L) {
+		struct pfs_extent_block *eb = pfs->get(pfs, ext_block);
+		if (eb == NULL) {
+			return 0;
+		}
+		for (i64 i = 0; i < eb->count; i++) {
+			if (block_index < eb->extents[i].count) {
+				place->ext_block = ext_block;
+				place->eb = eb;
+				place->index = i;
+				place->offset = block_index;
+				return 1;
+			}
+			block_index -= eb->extents[i].count;
+		}
+		const i64 next_block = eb->next_block;
+		pfs->unget(pfs, ext_block);
+		ext_block = next_block;
+	}
+	pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
+	return 0;
+}
+
+/*
+ * copies the data from/to the data blocks, starting at the given place
+ * (when writing and buffer is NULL zeros are written)
+ * the data blocks of an extent are transfered one after another without
+ * following any block chain and blocks, which are completely overwritten,
+ * are not loaded
+ * the extent block of the place is released
+ */
+static int extent_copy(bm pfs, struct extent_place place, i64 pos_in_block,
+		void *buffer, i64 length, const int read) {
+	const i64 block_size = pfs->block_size;
+	while (1) {
+		const struct pfs_extent *e = place.eb->extents + place.index;
+		for (i64 block = e->start + place.offset, end = e->start + e->count;
+				block < end; block++) {
+			i64 cpy = block_size - pos_in_block;
+			if (cpy > length) {
+				cpy = length;
+			}
+			void *block_data;
+			if (read || cpy != block_size) {
+				block_data = pfs->get(pfs, block);
+			} else {
+				block_data = pfs->lazy_get(pfs, block);
+			}
+			if (block_data == NULL) {
+				pfs->unget(pfs, place.ext_block);
+				return 0;
+			}
+			if (read) {
+				memcpy(buffer, block_data + pos_in_block, cpy);
+				pfs->unget(pfs, block);
+			} else if (buffer) {
+				memcpy(block_data + pos_in_block, buffer, cpy);
+				pfs->set(pfs, block);
+			} else {
+				memset(block_data + pos_in_block, 0, cpy);
+				pfs->set(pfs, block);
+			}
+			if (buffer) {
+				buffer += cpy;
+			}
+			length -= cpy;
+			if (length == 0) {
+				pfs->unget(pfs, place.ext_block);
+				return 1;
+			}
+			pos_in_block = 0;
+		}
+		place.offset = 0;
+		if (++place.index < place.eb->count) {
+			continue;
+		}
+		const i64 next_block = place.eb->next_block;
+		pfs->unget(pfs, place.ext_block);
+		if (next_block == -1L) {
+			pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
+			return 0;
+		}
+		place.eb = pfs->get(pfs, next_block);
+		if (place.eb == NULL) {
+			return 0;
+		}
+		place.ext_block = next_block;
+		place.index = 0;
+	}
+}
+
+/*
+ * adds the extent blocks starting with ext_block and all their data blocks
+ * to the free batch
+ */
+static int extent_free_all(bm pfs, struct pfs_free_batch *fb, i64 ext_block) {
+	while (ext_block != -1L) {
+		struct pfs_extent_block *eb = pfs->get(pfs, ext_block);
+		if (eb == NULL) {
+			return 0;
+		}
+		for (i64 i = 0; i < eb->count; i++) {
+			for (i64 b = 0; b < eb->extents[i].count; b++) {
+				free_batch_add(pfs, fb, eb->extents[i].start + b);
+			}
+		}
+		const i64 next_block = eb->next_block;
+		pfs->unget(pfs, ext_block);
+		free_batch_add(pfs, fb, ext_block);
+		ext_block = next_block;
+	}
+	return 1;
+}
+
+static int extent_drop_front0(bm pfs, struct pfs_file0 *f, i64 drop,
+		struct pfs_free_batch *fb);
+
+/* frees the first drop data blocks of the file (used by pipes) */
+static int extent_drop_front(bm pfs, struct pfs_file0 *f, i64 drop) {
+	struct pfs_free_batch fb;
+	fb.count = 0L;
+	const int res = extent_drop_front0(pfs, f, drop, &fb);
+	free_batch_flush(pfs, &fb);
+	return res;
+}
+
+static int extent_drop_front0(bm pfs, struct pfs_file0 *f, i64 drop,
+		struct pfs_free_batch *fb) {
+	while (drop > 0) {
+		const i64 ext_block = f->first_block;
+		if (ext_block == -1L) {
+			pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
+			return 0;
+		}
+		struct pfs_extent_block *eb = pfs->get(pfs, ext_block);
+		if (eb == NULL) {
+			return 0;
+		}
+		i64 removed = 0;
+		while (removed < eb->count && drop > 0) {
+			struct pfs_extent *e = eb->extents + removed;
+			const i64 cnt = e->count < drop ? e->count : drop;
+			for (i64 b = 0; b < cnt; b++) {
+				free_batch_add(pfs, fb, e->start + b);
+			}
+			e->start += cnt;
+			e->count -= cnt;
+			drop -= cnt;
+			if (e->count == 0) {
+				removed++;
+			}
+		}
+		if (removed == eb->count) {
+			f->first_block = eb->next_block;
+			pfs->unget(pfs, ext_block);
+			free_batch_add(pfs, fb, ext_block);
+		} else {
+			memmove(eb->extents, eb->extents + removed,
+					(eb->count - removed) * sizeof(struct pfs_extent));
+			eb->count -= removed;
+			pfs->set(pfs, ext_block);
+		}
+	}
+	return 1;
+}
+
+static inline void copy_or_zero(void *target, void **data, i64 length) {
+	if (*data) {
+		memcpy(target, *data, length);
+		*data += length;
+	} else {
+		memset(target, 0, length);
+	}
+}
+
+/* allocates and initializes a new extent block near goal */
+static i64 extent_new_block(bm pfs, i64 goal, struct pfs_extent_block **eb) {
+	const i64 block = allocate_block_near(pfs,
+			BLOCK_FLAG_USED | BLOCK_FLAG_DATA, goal);
+	if (block == -1L) {
+		return -1L;
+	}
+	*eb = pfs->lazy_get(pfs, block);
+	if (*eb == NULL) {
+		free_block(pfs, block);
+		return -1L;
+	}
+	(*eb)->next_block = -1L;
+	(*eb)->count = 0L;
+	if (extent_reserved_layout(pfs)) {
+		pfs_extent_reserved(pfs->block_size, *eb) = 0L;
+	}
+	return block;
+}
+
+/*
+ * loads the last extent block of the file and stores its index in ext_index
+ * returns the last extent block or -1 on error
+ */
+static i64 extent_last_block(bm pfs, i64 first_block, i64 *ext_index,
+		struct pfs_extent_block **eb) {
+	i64 ext_block = chain_index_tail(pfs, first_block, ext_index);
+	if (ext_block == -1L) {
+		ext_block = first_block;
+		*ext_index = 0L;
+	}
+	while (1) {
+		*eb = pfs->get(pfs, ext_block);
+		if (*eb == NULL) {
+			return -1L;
+		}
+		const i64 next_block = (*eb)->next_block;
+		if (next_block == -1L) {
+			return ext_block;
+		}
+		pfs->unget(pfs, ext_block);
+		ext_block = next_block;
+		(*ext_index)++;
+	}
+}
+
+/*
+ * returns the last block of the last extent of eb or no_extent when eb has
+ * no extents
+ */
+static inline i64 extent_last(const struct pfs_extent_block *eb,
+		i64 no_extent) {
+	if (eb->count == 0) {
+		return no_extent;
+	}
+	const struct pfs_extent *last = eb->extents + eb->count - 1;
+	return last->start + last->count - 1;
+}
+
+/*
+ * adds the count blocks starting with start to the extents
+ * the blocks extend the last extent when they directly follow it
+ * when the last extent block is full a new extent block is appended, the
+ * old one is then released and ext_block, eb and ext_index are updated
+ */
+static int extent_add(bm pfs, i64 *ext_block, struct pfs_extent_block **eb,
+		i64 *ext_index, i64 start, i64 count) {
+	struct pfs_extent_block *e = *eb;
+	if (e->count > 0
+			&& e->extents[e->count - 1].start + e->extents[e->count - 1].count
+					== start) {
+		e->extents[e->count - 1].count += count;
+		return 1;
+	}
+	if (e->count
+			== pfs_extents_per_block(pfs->block_size,
+					extent_reserved_layout(pfs))) {
+		struct pfs_extent_block *next_eb;
+		const i64 next_block = extent_new_block(pfs, *ext_block, &next_eb);
+		if (next_block == -1L) {
+			return 0;
+		}
+		e->next_block = next_block;
+		pfs->set(pfs, *ext_block);
+		*ext_block = next_block;
+		*eb = e = next_eb;
+		(*ext_index)++;
+	}
+	e->extents[e->count].start = start;
+	e->extents[e->count].count = count;
+	e->count++;
+	return 1;
+}
+
+/*
+ * appends length bytes to the file (zeros if data is NULL)
+ * preallocated blocks are filled before new blocks are allocated
+ * the first block of an empty file is allocated near file_block
+ *
+ * returns the number of appended bytes (which is lower than length if not
+ * enough blocks could be allocated) or -1 on error
+ */
+static i64 extent_append(bm pfs, struct pfs_file0 *f, void *data,
+		i64 length, i64 file_block) {
+	const i64 block_size = pfs->block_size;
+	i64 appended = 0L;
+	i64 ext_index = 0L;
+	i64 ext_block;
+	struct pfs_extent_block *eb;
+	if (length == 0) {
+		return 0L;
+	}
+	if (f->first_block == -1L) {
+		ext_block = extent_new_block(pfs, file_block, &eb);
+		if (ext_block == -1L) {
+			return 0L;
+		}
+		f->first_block = ext_block;
+	} else {
+		struct pfs_extent_block *first = pfs->get(pfs, f->first_block);
+		if (first == NULL) {
+			return -1;
+		}
+		i64 *reserved =
+				extent_reserved_layout(pfs) ?
+						&pfs_extent_reserved(block_size, first) : NULL;
+		if (reserved && *reserved > 0) {
+			const i64 blocks = (f->file_length + block_size - 1) / block_size;
+			i64 cpy = (blocks + *reserved) * block_size - f->file_length;
+			if (cpy > length) {
+				cpy = length;
+			}
+			struct extent_place place;
+			if (!extent_find(pfs, f->first_block, f->file_length / block_size,
+					&place)
+					|| !extent_copy(pfs, place, f->file_length % block_size,
+							data, cpy, 0)) {
+				pfs->unget(pfs, f->first_block);
+				return -1;
+			}
+			f->file_length += cpy;
+			*reserved -= (f->file_length + block_size - 1) / block_size
+					- blocks;
+			pfs->set(pfs, f->first_block);
+			if (data) {
+				data += cpy;
+			}
+			appended += cpy;
+			length -= cpy;
+			if (length == 0) {
+				return appended;
+			}
+		} else {
+			pfs->unget(pfs, f->first_block);
+		}
+		ext_block = extent_last_block(pfs, f->first_block, &ext_index, &eb);
+		if (ext_block == -1L) {
+			return -1;
+		}
+		const i64 used = f->file_length % block_size;
+		if (used) {
+			// the last data block is the last block of the last extent
+			const i64 block = extent_last(eb, -1L);
+			if (block == -1L) {
+				pfs->unget(pfs, ext_block);
+				pfs_err = PFS_ERRNO_ILLEGAL_DATA;
+				return -1;
+			}
+			void *block_data = pfs->get(pfs, block);
+			if (block_data == NULL) {
+				pfs->unget(pfs, ext_block);
+				return -1;
+			}
+			i64 cpy = block_size - used;
+			if (cpy > length) {
+				cpy = length;
+			}
+			copy_or_zero(block_data + used, &data, cpy);
+			pfs->set(pfs, block);
+			f->file_length += cpy;
+			appended += cpy;
+			length -= cpy;
+		}
+	}
+	while (length > 0) {
+		// a block directly after the last extent just grows the extent
+		const i64 block = allocate_block_near(pfs,
+				BLOCK_FLAG_USED | BLOCK_FLAG_DATA, extent_last(eb, ext_block));
+		if (block == -1L) {
+			break;
+		}
+		void *block_data = pfs->lazy_get(pfs, block);
+		if (block_data == NULL) {
+			free_block(pfs, block);
+			break;
+		}
+		if (!extent_add(pfs, &ext_block, &eb, &ext_index, block, 1L)) {
+			pfs->unget(pfs, block);
+			free_block(pfs, block);
+			break;
+		}
+		i64 cpy = block_size;
+		if (cpy > length) {
+			cpy = length;
+		}
+		copy_or_zero(block_data, &data, cpy);
+		pfs->set(pfs, block);
+		f->file_length += cpy;
+		appended += cpy;
+		length -= cpy;
+	}
+	pfs->set(pfs, ext_block);
+	chain_index_append(pfs, f->first_block, ext_index, ext_block);
+	return appended;
+}
+
+/*
+ * makes sure that the extents of the file list at least blocks data blocks
+ * the new blocks are allocated as runs of consecutive blocks
+ */
+static int extent_preallocate(bm pfs, struct pfs_file0 *f, i64 blocks,
+		i64 file_block) {
+	if (!extent_reserved_layout(pfs)) {
+		// there is no place to remember the reserved blocks
+		return 1;
+	}
+	i64 ext_index = 0L;
+	i64 ext_block;
+	struct pfs_extent_block *eb;
+	if (f->first_block == -1L) {
+		if (blocks <= 0) {
+			return 1;
+		}
+		ext_block = extent_new_block(pfs, file_block, &eb);
+		if (ext_block == -1L) {
+			return 0;
+		}
+		f->first_block = ext_block;
+		pfs->set(pfs, ext_block);
+	}
+	struct pfs_extent_block *first = pfs->get(pfs, f->first_block);
+	if (first == NULL) {
+		return 0;
+	}
+	i64 *reserved = &pfs_extent_reserved(pfs->block_size, first);
+	i64 have = (f->file_length + pfs->block_size - 1) / pfs->block_size
+			+ *reserved;
+	if (have >= blocks) {
+		pfs->unget(pfs, f->first_block);
+		return 1;
+	}
+	ext_block = extent_last_block(pfs, f->first_block, &ext_index, &eb);
+	if (ext_block == -1L) {
+		pfs->unget(pfs, f->first_block);
+		return 0;
+	}
+	int res = 1;
+	while (have < blocks) {
+		i64 start;
+		const i64 count = allocate_blocks(pfs,
+				BLOCK_FLAG_USED | BLOCK_FLAG_DATA, extent_last(eb, ext_block),
+				blocks - have, &start);
+		if (count == -1L) {
+			res = 0;
+			break;
+		}
+		if (!extent_add(pfs, &ext_block, &eb, &ext_index, start, count)) {
+			for (i64 b = 0; b < count; b++) {
+				free_block(pfs, start + b);
+			}
+			res = 0;
+			break;
+		}
+		*reserved += count;
+		have += count;
+	}
+	pfs->set(pfs, ext_block);
+	chain_index_append(pfs, f->first_block, ext_index, ext_block);
+	pfs->set(pfs, f->first_block);
+	return res;
+}
+
+static int extent_truncate_shrink0(bm pfs, struct pfs_file0 *f,
+		i64 new_length, struct pfs_free_batch *fb);
+
+/* removes the data blocks after new_length from the file */
+static int extent_truncate_shrink(bm pfs, struct pfs_file0 *f,
+		i64 new_length) {
+	struct pfs_free_batch fb;
+	fb.count = 0L;
+	const int res = extent_truncate_shrink0(pfs, f, new_length, &fb);
+	free_batch_flush(pfs, &fb);
+	return res;
+}
+
+static int extent_truncate_shrink0(bm pfs, struct pfs_file0 *f,
+		i64 new_length, struct pfs_free_batch *fb) {
+	if (new_length == f->file_length && new_length != 0) {
+		return 1;
+	}
+	i64 keep = (new_length + pfs->block_size - 1) / pfs->block_size;
+	i64 rest;
+	if (keep == 0) {
+		rest = f->first_block;
+		f->first_block = -1L;
+	} else {
+		i64 ext_block = f->first_block;
+		for (i64 ext_index = 0L; 1; ext_index++) {
+			if (ext_block == -1L) {
+				pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
+				return 0;
+			}
+			struct pfs_extent_block *eb = pfs->get(pfs, ext_block);
+			if (eb == NULL) {
+				return 0;
+			}
+			i64 i = 0;
+			for (; i < eb->count && keep > 0; i++) {
+				struct pfs_extent *e = eb->extents + i;
+				if (e->count > keep) {
+					for (i64 b = keep; b < e->count; b++) {
+						free_batch_add(pfs, fb, e->start + b);
+					}
+					e->count = keep;
+				}
+				keep -= e->count;
+			}
+			if (keep > 0) {
+				const i64 next_block = eb->next_block;
+				pfs->unget(pfs, ext_block);
+				ext_block = next_block;
+				continue;
+			}
+			for (i64 j = i; j < eb->count; j++) {
+				for (i64 b = 0; b < eb->extents[j].count; b++) {
+					free_batch_add(pfs, fb, eb->extents[j].start + b);
+				}
+			}
+			eb->count = i;
+			rest = eb->next_block;
+			eb->next_block = -1L;
+			pfs->set(pfs, ext_block);
+			chain_index_truncate(pfs, f->first_block, ext_index + 1);
+			chain_index_append(pfs, f->first_block, ext_index, ext_block);
+			break;
+		}
+		// the preallocated blocks are freed with the other blocks
+		if (extent_reserved_layout(pfs)) {
+			struct pfs_extent_block *first = pfs->get(pfs, f->first_block);
+			if (first == NULL) {
+				return 0;
+			}
+			pfs_extent_reserved(pfs->block_size, first) = 0L;
+			pfs->set(pfs, f->first_block);
+		}
+	}
+	f->file_length = new_length;
+	return extent_free_all(pfs, fb, rest);
+}
+
+/*
+ * like read_write0, but for files, which are stored as extents
+ * the cursor is not needed, because the position is found in the extent
+ * blocks without walking through the data blocks
+ */
+static int extent_read_write0(bm pfs, struct pfs_file_data file,
+		i64 position, void *buffer, i64 length, const int read,
+		const int pipe, const i64 file_block) {
+	const i64 block_size = pfs->block_size;
+	const i64 fb = file.f->first_block;
+	if (!pipe) {
+		if (!read) {
+			file.e->last_mod_time = time(NULL);
+			pfs->set(pfs, file_block);
+		} else {
+			pfs->unget(pfs, file_block);
+		}
+	}
+	struct extent_place place;
+	if (!extent_find(pfs, fb, position / block_size, &place)
+			|| !extent_copy(pfs, place, position % block_size, buffer, length,
+					read)) {
+		if (pipe) {
+			pfs->unget(pfs, file_block);
+		}
+		return 0;
+	}
+	if (pipe) {
+		const i64 end = position + length;
+		const i64 drop = end / block_size;
+		if (!extent_drop_front(pfs, file.f, drop)) {
+			pfs->set(pfs, file_block);
+			return 0;
+		}
+		file.f->file_length -= drop * block_size;
+		if (file.f->file_length > 0) {
+			((struct pfs_pipe0*) file.f)->start_offset = end - drop * block_size;
+		} else if (file.f->file_length < 0) {
+			abort();
+		} else {
+			((struct pfs_pipe0*) file.f)->start_offset = 0;
+		}
+		pfs->set(pfs, file_block);
+	}
+	return 1;
+}
+
 static inline int read_write(pfs_eh f, i64 position, void *buffer, i64 length,
-		const int read, const int pipe);
+		const int read, const int pipe, struct pfs_file_cursor *cursor);
 
 int pfsc_file_read(pfs_eh f, i64 position, void *buffer, i64 length) {
-	return read_write(f, position, buffer, length, 1, 0);
+	return read_write(f, position, buffer, length, 1, 0, NULL);
 }
 
 int pfsc_file_write(pfs_eh f, i64 position, void *data, i64 length) {
-	return read_write(f, position, data, length, 0, 0);
+	return read_write(f, position, data, length, 0, 0, NULL);
+}
+
+int pfsc_file_read_cursor(pfs_eh f, struct pfs_file_cursor *cursor,
+		i64 position, void *buffer, i64 length) {
+	return read_write(f, position, buffer, length, 1, 0, cursor);
+}
+
+int pfsc_file_write_cursor(pfs_eh f, struct pfs_file_cursor *cursor,
+		i64 position, void *data, i64 length) {
+	return read_write(f, position, data, length, 0, 0, cursor);
+}
+
+/*
+ * appends length bytes to the block chain of the file (zeros if data is NULL)
+ * preallocated blocks after the end of the file are filled before new blocks
+ * are allocated
+ * the first block of an empty file is allocated near file_block
+ *
+ * returns the number of appended bytes (which is lower than length if not
+ * enough blocks could be allocated)
+ */
+static i64 chain_append(bm pfs, struct pfs_file0 *f, void *data, i64 length,
+		i64 file_block) {
+	const i64 block_data_size = pfs->block_size - 8;
+	struct pfs_place file_end;
+	// new blocks are lazy loaded, the next pointer of old blocks is kept
+	int fresh = 0;
+	if (f->first_block == -1L) {
+		file_end.block = allocate_block_near(pfs,
+				BLOCK_FLAG_USED | BLOCK_FLAG_DATA, file_block);
+		f->first_block = file_end.block;
+		file_end.pos = 0;
+		fresh = 1;
+	} else if (f->file_length == 0) {
+		file_end.block = f->first_block;
+		file_end.pos = 0;
+	} else {
+		file_end = find_place(pfs, f->first_block, f->file_length);
+	}
+	if (file_end.block == -1L) {
+		return 0L;
+	}
+	i64 block_index = (f->file_length - file_end.pos) / block_data_size;
+	i64 appended = 0L;
+	while (1) {
+		void *block_data;
+		if (fresh) {
+			block_data = pfs->lazy_get(pfs, file_end.block);
+		} else {
+			block_data = pfs->get(pfs, file_end.block);
+		}
+		if (!block_data) {
+			break;
+		}
+		i64 cpy = block_data_size - file_end.pos;
+		if (cpy > length) {
+			cpy = length;
+		}
+		copy_or_zero(block_data + file_end.pos, &data, cpy);
+		length -= cpy;
+		appended += cpy;
+		f->file_length += cpy;
+		i64 next_block = fresh ? -1L : *(i64*) (block_data + block_data_size);
+		fresh = 0;
+		if (length > 0 && next_block == -1L) {
+			next_block = allocate_block_near(pfs,
+					BLOCK_FLAG_USED | BLOCK_FLAG_DATA, file_end.block);
+			fresh = 1;
+		}
+		*(i64*) (block_data + block_data_size) = next_block;
+		pfs->set(pfs, file_end.block);
+		chain_index_append(pfs, f->first_block, block_index++,
+				file_end.block);
+		if (length == 0 || next_block == -1L) {
+			return appended;
+		}
+		file_end.block = next_block;
+		file_end.pos = 0;
+	}
+	return appended;
+}
+
+/*
+ * makes sure that the block chain of the file has at least blocks blocks
+ * the new blocks are allocated as runs of consecutive blocks
+ */
+static int chain_preallocate(bm pfs, struct pfs_file0 *f, i64 blocks,
+		i64 file_block) {
+	const i64 block_data_size = pfs->block_size - 8;
+	i64 last = -1L;
+	i64 count = 0L;
+	if (f->first_block != -1L) {
+		struct pfs_place place = { .block = f->first_block, .pos = 0 };
+		if (f->file_length > 0) {
+			place = find_place(pfs, f->first_block, f->file_length);
+			if (place.block == -1L) {
+				return 0;
+			}
+		}
+		last = place.block;
+		count = (f->file_length - place.pos) / block_data_size + 1;
+		while (1) {
+			void *block_data = pfs->get(pfs, last);
+			if (!block_data) {
+				return 0;
+			}
+			const i64 next_block = *(i64*) (block_data + block_data_size);
+			pfs->unget(pfs, last);
+			if (next_block == -1L) {
+				break;
+			}
+			last = next_block;
+			count++;
+		}
+	}
+	while (count < blocks) {
+		i64 start;
+		const i64 run = allocate_blocks(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_DATA,
+				last == -1L ? file_block : last, blocks - count, &start);
+		if (run == -1L) {
+			return 0;
+		}
+		for (i64 block = start; block < start + run; block++) {
+			void *block_data = pfs->lazy_get(pfs, block);
+			if (!block_data) {
+				for (block = start; block < start + run; block++) {
+					free_block(pfs, block);
+				}
+				return 0;
+			}
+			*(i64*) (block_data + block_data_size) =
+					block + 1 < start + run ? block + 1 : -1L;
+			pfs->set(pfs, block);
+		}
+		if (last == -1L) {
+			f->first_block = start;
+		} else {
+			void *block_data = pfs->get(pfs, last);
+			if (!block_data) {
+				for (i64 block = start; block < start + run; block++) {
+					free_block(pfs, block);
+				}
+				return 0;
+			}
+			*(i64*) (block_data + block_data_size) = start;
+			pfs->set(pfs, last);
+		}
+		last = start + run - 1;
+		count += run;
+	}
+	return 1;
+}
+
+/*
+ * allocates the blocks for appending length bytes in one batch when the
+ * append needs more than one new block
+ * on failure nothing is done, the append then allocates the blocks one at a
+ * time
+ */
+static void batch_allocate(bm pfs, struct pfs_file0 *f, i64 length,
+		i64 file_block);
+
+/* makes sure that the file has enough blocks to hold length bytes */
+static int preallocate0(bm pfs, struct pfs_file0 *f, i64 length,
+		i64 file_block) {
+	if (extent_layout(pfs)) {
+		return extent_preallocate(pfs, f,
+				(length + pfs->block_size - 1) / pfs->block_size, file_block);
+	}
+	return chain_preallocate(pfs, f,
+			(length + pfs->block_size - 9) / (pfs->block_size - 8),
+			file_block);
+}
+
+static void batch_allocate(bm pfs, struct pfs_file0 *f, i64 length,
+		i64 file_block) {
+	const i64 block_data_size =
+			extent_layout(pfs) ? pfs->block_size : pfs->block_size - 8;
+	const i64 old_blocks = (f->file_length + block_data_size - 1)
+			/ block_data_size;
+	const i64 new_blocks = (f->file_length + length + block_data_size - 1)
+			/ block_data_size;
+	if (new_blocks - old_blocks > 1) {
+		preallocate0(pfs, f, f->file_length + length, file_block);
+	}
+}
+
+int pfsc_file_preallocate(pfs_eh f, i64 length) {
+	if (length < 0L) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
+	get_file(0)
+	const int res = preallocate0(pfs0(f), &file->file, length,
+			f->element_place.block);
+	pfs0(f)->set(pfs0(f), f->element_place.block);
+	return res;
 }
 
 static inline i64 pfsc_file_append0(bm pfs, struct pfs_file_data file, void *data,
@@ -75,48 +896,12 @@ i64 pfsc_file_append(pfs_eh f, void *data, i64 length) {
 static inline i64 pfsc_file_append0(bm pfs, struct pfs_file_data file, void *data,
 		i64 length, const i64 file_block) {
 	file.e->last_mod_time = time(NULL);
-	struct pfs_place file_end;
-	if (file.f->file_length == 0) {
-		file_end.block = allocate_block(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_DATA);
-		file.f->first_block = file_end.block;
-		file_end.pos = 0;
+	batch_allocate(pfs, file.f, length, file_block);
+	i64 appended;
+	if (extent_layout(pfs)) {
+		appended = extent_append(pfs, file.f, data, length, file_block);
 	} else {
-		file_end = find_place(pfs, file.f->first_block, file.f->file_length);
-	}
-	i64 appended = 0L;
-	int cpy = pfs->block_size - 8 - file_end.pos;
-	while (file_end.block != -1) {
-		void *block_data;
-		if (file_end.pos) {
-			block_data = pfs->get(pfs, file_end.block);
-		} else {
-			block_data = pfs->lazy_get(pfs, file_end.block);
-		}
-		if (!block_data) {
-			break;
-		}
-		void *cpy_target = block_data + file_end.pos;
-		if (cpy > length) {
-			cpy = length;
-		}
-		memcpy(cpy_target, data, cpy);
-		length -= cpy;
-		data += cpy;
-		appended += cpy;
-		file.f->file_length += cpy;
-		i64 next_block;
-		if (length > 0) {
-			next_block = allocate_block(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_DATA);
-		} else {
-			next_block = -1L;
-		}
-		*(i64*) (block_data + pfs->block_size - 8) = next_block;
-		pfs->set(pfs, file_end.block);
-		file_end.block = next_block;
-		if (file_end.pos) { // no need to set them to the values they already have
-			file_end.pos = 0;
-			cpy = pfs->block_size - 8;
-		}
+		appended = chain_append(pfs, file.f, data, length, file_block);
 	}
 	pfs->set(pfs, file_block);
 	return appended;
@@ -125,32 +910,55 @@ static inline i64 pfsc_file_append0(bm pfs, struct pfs_file_data file, void *dat
 static inline int truncate_shrink(pfs_eh f, i64 new_length) {
 	struct pfs_file *file = pfs0(f)->get(pfs0(f), f->element_place.block)
 			+ f->element_place.pos;
-	i64 remain = file->file.file_length - new_length;
-	struct pfs_place place = find_place(pfs0(f), file->file.first_block, new_length);
-	int first = 1;
+	if (extent_layout(pfs0(f))) {
+		const int res = extent_truncate_shrink(pfs0(f), &file->file,
+				new_length);
+		pfs0(f)->set(pfs0(f), f->element_place.block);
+		return res;
+	}
+	const i64 first_block = file->file.first_block;
+	i64 next_block;
+	i64 tail = -1L;
 	if (new_length == 0) {
+		// also frees the preallocated blocks of an empty file
+		next_block = first_block;
 		file->file.first_block = -1L;
-		first = 0;
+	} else if (new_length == file->file.file_length) {
+		next_block = -1L;
+	} else {
+		// the block with the last remaining byte becomes the last block
+		struct pfs_place last = find_place(pfs0(f), first_block, new_length - 1);
+		void *last_block = pfs0(f)->get(pfs0(f), last.block);
+		if (last_block == NULL) {
+			pfs0(f)->unget(pfs0(f), f->element_place.block);
+			return 0;
+		}
+		next_block = *(i64*) (last_block + pfs0(f)->block_size - 8);
+		*(i64*) (last_block + pfs0(f)->block_size - 8) = -1L;
+		pfs0(f)->set(pfs0(f), last.block);
+		tail = last.block;
 	}
 	file->file.file_length = new_length;
-	while (remain > 0) {
-		const i64 current_block_num = place.block;
+	struct pfs_free_batch fb;
+	fb.count = 0L;
+	while (next_block != -1L) {
+		const i64 current_block_num = next_block;
 		void *current_block = pfs0(f)->get(pfs0(f), current_block_num);
-		place.block = *(i64*) (current_block + pfs0(f)->block_size - 8);
-		if (first) {
-			*(i64*) (current_block + pfs0(f)->block_size - 8) = -1L;
-			pfs0(f)->set(pfs0(f), current_block_num);
-			first = 0;
-		} else {
-			pfs0(f)->unget(pfs0(f), current_block_num);
-		}
-		if (place.pos) {
-			place.pos = 0;
-		} else {
-			free_block(pfs0(f), current_block_num);
+		if (current_block == NULL) {
+			free_batch_flush(pfs0(f), &fb);
+			pfs0(f)->set(pfs0(f), f->element_place.block);
+			return 0;
 		}
-		i64 free_data = pfs0(f)->block_size - 8 - place.pos;
-		remain -= free_data;
+		next_block = *(i64*) (current_block + pfs0(f)->block_size - 8);
+		pfs0(f)->unget(pfs0(f), current_block_num);
+		free_batch_add(pfs0(f), &fb, current_block_num);
+	}
+	free_batch_flush(pfs0(f), &fb);
+	const i64 keep_blocks = (new_length + pfs0(f)->block_size - 9)
+			/ (pfs0(f)->block_size - 8);
+	chain_index_truncate(pfs0(f), first_block, keep_blocks);
+	if (tail != -1L) {
+		chain_index_append(pfs0(f), first_block, keep_blocks - 1, tail);
 	}
 	pfs0(f)->set(pfs0(f), f->element_place.block);
 	return 1;
@@ -173,49 +981,16 @@ static inline int pfsc_file_truncate_grow0(bm pfs, struct pfs_file_data file,
 		i64 new_length, const i64 file_block) {
 	const i64 old_length = file.f->file_length;
 	file.e->last_mod_time = time(NULL);
-	struct pfs_place file_end;
-	if (file.f->file_length == 0) {
-		file_end.block = allocate_block(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_DATA);
-		file.f->first_block = file_end.block;
-		file_end.pos = 0;
+	const i64 add_length = new_length - old_length;
+	batch_allocate(pfs, file.f, add_length, file_block);
+	i64 appended;
+	if (extent_layout(pfs)) {
+		appended = extent_append(pfs, file.f, NULL, add_length, file_block);
 	} else {
-		file_end = find_place(pfs, file.f->first_block, file.f->file_length);
-	}
-	i64 add_length = new_length - file.f->file_length;
-	int set_len = pfs->block_size - 8 - file_end.pos;
-	while (file_end.block != -1) {
-		void *block_data;
-		if (file_end.pos) {
-			block_data = pfs->get(pfs, file_end.block);
-		} else {
-			block_data = pfs->lazy_get(pfs, file_end.block);
-		}
-		if (block_data == NULL) {
-			break;
-		}
-		void *set_target = block_data + file_end.pos;
-		if (set_len > add_length) {
-			set_len = add_length;
-		}
-		memset(set_target, 0, set_len);
-		add_length -= set_len;
-		file.f->file_length += set_len;
-		i64 next_block;
-		if (add_length > 0) {
-			next_block = allocate_block(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_DATA);
-		} else {
-			next_block = -1L;
-		}
-		*(i64*) (block_data + pfs->block_size - 8) = next_block;
-		pfs->set(pfs, file_end.block);
-		file_end.block = next_block;
-		if (file_end.pos) { // no need to set them to the values they already have
-			file_end.pos = 0;
-			set_len = pfs->block_size - 8;
-		}
+		appended = chain_append(pfs, file.f, NULL, add_length, file_block);
 	}
 	pfs->set(pfs, file_block);
-	return 1;
+	return appended == add_length;
 }
 
 int pfsc_file_truncate(pfs_eh f, i64 new_length) {
@@ -235,6 +1010,199 @@ int pfsc_file_truncate(pfs_eh f, i64 new_length) {
 	return res;
 }
 
+/* returns the number of first blocks, which fit in one deferred list block */
+static inline i64 deferred_block_capacity(bm pfs) {
+	return (pfs->block_size - sizeof(struct pfs_deferred_block)) / sizeof(i64);
+}
+
+/*
+ * adds the detached blocks starting at first_block to the deferred list
+ * on success 1 and on error 0 is returned
+ */
+static int deferred_list_add(bm pfs, i64 first_block) {
+	void *b0 = pfs->get(pfs, 0L);
+	if (b0 == NULL) {
+		return 0;
+	}
+	const i64 list_block = *b0_deferred_head(pfs, b0);
+	pfs->unget(pfs, 0L);
+	if (list_block != -1L) {
+		struct pfs_deferred_block *db = pfs->get(pfs, list_block);
+		if (db == NULL) {
+			return 0;
+		}
+		if (db->count < deferred_block_capacity(pfs)) {
+			db->first_blocks[db->count++] = first_block;
+			return pfs->set(pfs, list_block);
+		}
+		pfs->unget(pfs, list_block);
+	}
+	// when there is no space, allocate_block already frees the old list
+	const i64 new_block = allocate_block(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_DATA);
+	if (new_block == -1L) {
+		return 0;
+	}
+	struct pfs_deferred_block *db = pfs->lazy_get(pfs, new_block);
+	if (db == NULL) {
+		free_block(pfs, new_block);
+		return 0;
+	}
+	b0 = pfs->get(pfs, 0L);
+	if (b0 == NULL) {
+		pfs->unget(pfs, new_block);
+		free_block(pfs, new_block);
+		return 0;
+	}
+	i64 *head = b0_deferred_head(pfs, b0);
+	db->next_block = *head;
+	db->count = 1L;
+	db->first_blocks[0] = first_block;
+	if (!pfs->set(pfs, new_block)) {
+		pfs->unget(pfs, 0L);
+		return 0;
+	}
+	*head = new_block;
+	return pfs->set(pfs, 0L);
+}
+
+/* returns non-zero if the file system has a deferred list */
+static inline int deferred_list(bm pfs) {
+	void *b0 = pfs->get(pfs, 0L);
+	if (b0 == NULL) {
+		return 0;
+	}
+	const int res = b0_deferred_head(pfs, b0) != NULL;
+	pfs->unget(pfs, 0L);
+	return res;
+}
+
+int pfsc_file_detach(pfs_eh f) {
+	get_file(0)
+	const i64 first_block = file->file.first_block;
+	// small files are faster freed than remembered
+	if (first_block == -1L || file->file.file_length
+			< FREE_BATCH_BLOCKS * (i64) pfs0(f)->block_size
+			|| !deferred_list(pfs0(f))) {
+		pfs0(f)->unget(pfs0(f), f->element_place.block);
+		return pfsc_file_truncate(f, 0L);
+	}
+	if (!deferred_list_add(pfs0(f), first_block)) {
+		pfs0(f)->unget(pfs0(f), f->element_place.block);
+		if (pfs_err != PFS_ERRNO_OUT_OF_SPACE) {
+			return 0;
+		}
+		// freeing the blocks needs no new block
+		pfs_err = PFS_ERRNO_NONE;
+		return pfsc_file_truncate(f, 0L);
+	}
+	chain_index_truncate(pfs0(f), first_block, 0L);
+	file->element.last_mod_time = time(NULL);
+	file->file.first_block = -1L;
+	file->file.file_length = 0L;
+	pfs0(f)->set(pfs0(f), f->element_place.block);
+	return 1;
+}
+
+/*
+ * frees the blocks of the detached chain starting at *first until it is
+ * freed completely or max_blocks blocks are freed
+ * *first is set to the first block, which is not yet freed (-1 when all
+ * blocks are freed)
+ * on success 1 and on error 0 is returned
+ */
+static int deferred_free_chain(bm pfs, i64 *first, int extents,
+		struct pfs_free_batch *fb, i64 max_blocks, i64 *freed) {
+	while (*first != -1L && (max_blocks < 0L || *freed < max_blocks)) {
+		const i64 block = *first;
+		void *block_data = pfs->get(pfs, block);
+		if (block_data == NULL) {
+			return 0;
+		}
+		if (extents) {
+			struct pfs_extent_block *eb = block_data;
+			i64 done = 0L;
+			while (done < eb->count
+					&& (max_blocks < 0L || *freed < max_blocks)) {
+				struct pfs_extent *e = eb->extents + done;
+				const i64 cnt = max_blocks < 0L
+						|| e->count <= max_blocks - *freed ?
+						e->count : max_blocks - *freed;
+				for (i64 b = 0; b < cnt; b++) {
+					free_batch_add(pfs, fb, e->start + b);
+				}
+				*freed += cnt;
+				e->start += cnt;
+				e->count -= cnt;
+				if (e->count == 0) {
+					done++;
+				}
+			}
+			if (done < eb->count) {
+				// the extent block is freed later with its remaining extents
+				memmove(eb->extents, eb->extents + done,
+						(eb->count - done) * sizeof(struct pfs_extent));
+				eb->count -= done;
+				return pfs->set(pfs, block);
+			}
+			*first = eb->next_block;
+		} else {
+			*first = *(i64*) (block_data + pfs->block_size - 8);
+		}
+		pfs->unget(pfs, block);
+		free_batch_add(pfs, fb, block);
+		(*freed)++;
+	}
+	return 1;
+}
+
+i64 pfsc_free_deferred(bm pfs, i64 max_blocks) {
+	const int extents = extent_layout(pfs);
+	struct pfs_free_batch fb;
+	fb.count = 0L;
+	i64 freed = 0L;
+	while (max_blocks < 0L || freed < max_blocks) {
+		void *b0 = pfs->get(pfs, 0L);
+		if (b0 == NULL) {
+			free_batch_flush(pfs, &fb);
+			return -1L;
+		}
+		i64 *head = b0_deferred_head(pfs, b0);
+		const i64 list_block = head ? *head : -1L;
+		if (list_block == -1L) {
+			pfs->unget(pfs, 0L);
+			break;
+		}
+		struct pfs_deferred_block *db = pfs->get(pfs, list_block);
+		if (db == NULL) {
+			pfs->unget(pfs, 0L);
+			free_batch_flush(pfs, &fb);
+			return -1L;
+		}
+		if (db->count == 0L) {
+			*head = db->next_block;
+			pfs->unget(pfs, list_block);
+			pfs->set(pfs, 0L);
+			free_batch_add(pfs, &fb, list_block);
+			freed++;
+			continue;
+		}
+		pfs->unget(pfs, 0L);
+		i64 *first = db->first_blocks + db->count - 1;
+		if (!deferred_free_chain(pfs, first, extents, &fb, max_blocks,
+				&freed)) {
+			pfs->unget(pfs, list_block);
+			free_batch_flush(pfs, &fb);
+			return -1L;
+		}
+		if (*first == -1L) {
+			db->count--;
+		}
+		pfs->set(pfs, list_block);
+	}
+	free_batch_flush(pfs, &fb);
+	return freed;
+}
+
 i64 pfsc_file_length(pfs_eh f) {
 	get_file(-1)
 	i64 len = file->file.file_length;
@@ -242,6 +1210,58 @@ i64 pfsc_file_length(pfs_eh f) {
 	return len;
 }
 
+/* counts the runs of consecutive blocks of the extent chain */
+static i64 extent_fragments(bm pfs, i64 ext_block) {
+	i64 fragments = 0L;
+	i64 end = -1L;
+	while (ext_block != -1L) {
+		struct pfs_extent_block *eb = pfs->get(pfs, ext_block);
+		if (eb == NULL) {
+			return -1L;
+		}
+		for (i64 i = 0; i < eb->count; i++) {
+			if (eb->extents[i].start != end) {
+				fragments++;
+			}
+			end = eb->extents[i].start + eb->extents[i].count;
+		}
+		const i64 next_block = eb->next_block;
+		pfs->unget(pfs, ext_block);
+		ext_block = next_block;
+	}
+	return fragments;
+}
+
+/* counts the runs of consecutive blocks of the block chain */
+static i64 chain_fragments(bm pfs, i64 block) {
+	i64 fragments = 0L;
+	i64 prev = -2L;
+	while (block != -1L) {
+		void *block_data = pfs->get(pfs, block);
+		if (block_data == NULL) {
+			return -1L;
+		}
+		if (block != prev + 1) {
+			fragments++;
+		}
+		const i64 next_block = *(i64*) (block_data + pfs->block_size - 8);
+		pfs->unget(pfs, block);
+		prev = block;
+		block = next_block;
+	}
+	return fragments;
+}
+
+i64 pfsc_file_fragments(pfs_eh f) {
+	get_file(-1)
+	const i64 first_block = file->file.first_block;
+	pfs0(f)->unget(pfs0(f), f->element_place.block);
+	if (extent_layout(pfs0(f))) {
+		return extent_fragments(pfs0(f), first_block);
+	}
+	return chain_fragments(pfs0(f), first_block);
+}
+
 i64 pfsc_pipe_length(pfs_eh p) {
 	get_pipe(-1)
 	i64 len = pipe->pipe.file.file_length - pipe->pipe.start_offset;
@@ -250,15 +1270,15 @@ i64 pfsc_pipe_length(pfs_eh p) {
 }
 
 int pfsc_pipe_read(pfs_eh p, void *buffer, i64 length) {
-	return read_write(p, 0, buffer, length, 1, 1);
+	return read_write(p, 0, buffer, length, 1, 1, NULL);
 }
 
 static inline int read_write0(bm pfs, struct pfs_file_data file, i64 position,
 		void *buffer, i64 length, const int read, const int pipe,
-		const i64 file_block);
+		const i64 file_block, struct pfs_file_cursor *cursor);
 
 static inline int read_write(pfs_eh f, i64 position, void *buffer, i64 length,
-		const int read, const int pipe) {
+		const int read, const int pipe, struct pfs_file_cursor *cursor) {
 	if (position < 0 || length <= 0) {
 		if (length == 0) {
 			return 1;
@@ -280,13 +1300,19 @@ static inline int read_write(pfs_eh f, i64 position, void *buffer, i64 length,
 			.f = &file->file
 	};
 	return read_write0(pfs0(f), file0, position, buffer, length, read, pipe,
-			f->element_place.block);
+			f->element_place.block, cursor);
 }
 
 static inline int read_write0(bm pfs, struct pfs_file_data file, i64 position,
 		void *buffer, i64 length, const int read, const int pipe,
-		const i64 file_block) {
+		const i64 file_block, struct pfs_file_cursor *cursor) {
+	if (extent_layout(pfs)) {
+		return extent_read_write0(pfs, file, position, buffer, length, read,
+				pipe, file_block);
+	}
 	i64 fb = file.f->first_block;
+	const i64 end = position + length;
+	i64 generation = -1L;
 	struct pfs_place cpy_place;
 	if (!pipe) {
 		if (!read) {
@@ -295,7 +1321,16 @@ static inline int read_write0(bm pfs, struct pfs_file_data file, i64 position,
 		} else {
 			pfs->unget(pfs, file_block);
 		}
-		cpy_place = find_place(pfs, fb, position);
+		if (cursor) {
+			generation = chain_index_generation(pfs);
+		}
+		if (cursor && generation != -1L && cursor->pos == position
+				&& cursor->first_block == fb
+				&& cursor->generation == generation) {
+			cpy_place = cursor->place;
+		} else {
+			cpy_place = find_place(pfs, fb, position);
+		}
 	} else {
 		cpy_place.block = fb;
 		cpy_place.pos = position;
@@ -336,6 +1371,12 @@ static inline int read_write0(bm pfs, struct pfs_file_data file, i64 position,
 					file.f->first_block = -1;
 				}
 				pfs->set(pfs, file_block);
+			} else if (cursor) {
+				cursor->pos = generation == -1L ? -1L : end;
+				cursor->place.block = cpy_place.block;
+				cursor->place.pos = cpy_place.pos + cpy;
+				cursor->first_block = fb;
+				cursor->generation = generation;
 			}
 			return 1;
 		}
@@ -360,7 +1401,7 @@ static inline int pfsc_file_read_write0(bm pfs, struct pfs_file_data file,
 	} else if (position > file.f->file_length - length) {
 		i64 len = file.f->file_length - position;
 		pfs->get(pfs, file_block);
-		read_write0(pfs, file, position, buffer, len, read, 0, file_block);
+		read_write0(pfs, file, position, buffer, len, read, 0, file_block, NULL);
 		position += len;
 		buffer += len;
 		length -= len;
@@ -373,7 +1414,8 @@ static inline int pfsc_file_read_write0(bm pfs, struct pfs_file_data file,
 		return 1;
 	} else {
 		pfs->get(pfs, file_block);
-		return read_write0(pfs, file, position, buffer, length, read, 0, file_block);
+		return read_write0(pfs, file, position, buffer, length, read, 0, file_block,
+				NULL);
 	}
 }
 
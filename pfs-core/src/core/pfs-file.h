@@ -40,6 +40,22 @@ int pfsc_file_read(pfs_eh f, i64 position, void *buffer, i64 length);
  */
 int pfsc_file_write(pfs_eh f, i64 position, void *data, i64 length);
 
+/**
+ * like pfsc_file_read, but when the read starts where the last read/write
+ * with the cursor ended, the cursor is used instead of searching the position
+ * in the block chain
+ */
+int pfsc_file_read_cursor(pfs_eh f, struct pfs_file_cursor *cursor,
+		i64 position, void *buffer, i64 length);
+
+/**
+ * like pfsc_file_write, but when the write starts where the last read/write
+ * with the cursor ended, the cursor is used instead of searching the position
+ * in the block chain
+ */
+int pfsc_file_write_cursor(pfs_eh f, struct pfs_file_cursor *cursor,
+		i64 position, void *data, i64 length);
+
 /**
  * append some data to the file
  *
@@ -60,6 +76,19 @@ i64 pfsc_file_append(pfs_eh f, void *data, i64 length);
  */
 int pfsc_file_truncate(pfs_eh f, i64 new_length);
 
+/**
+ * removes all blocks from the file, like truncating it to zero
+ *
+ * the blocks of large files are not freed, but added to the deferred list of
+ * the file system, they are freed later by pfsc_free_deferred (some of them
+ * also when more blocks are needed or the file system is loaded or closed)
+ * smaller files and files of file systems without deferred list are
+ * truncated directly
+ *
+ * this is used when a file is deleted in the background
+ */
+int pfsc_file_detach(pfs_eh f);
+
 /**
  * change the length of the file
  *
@@ -69,6 +98,21 @@ int pfsc_file_truncate(pfs_eh f, i64 new_length);
  */
 int pfsc_file_truncate_grow(pfs_eh f, i64 new_length);
 
+/**
+ * reserves blocks for the file, so that it can grow to length bytes
+ * without allocating new blocks
+ *
+ * the length of the file is not changed, appends and truncates, which grow
+ * the file, fill the reserved blocks first
+ * shrinking the file (or truncating it to zero) frees the reserved blocks
+ *
+ * the blocks are allocated as runs of consecutive blocks when possible
+ *
+ * on extent file systems, which were formatted before the reserved count
+ * existed, nothing is reserved
+ */
+int pfsc_file_preallocate(pfs_eh f, i64 length);
+
 /**
  * get the length of a file
  *
@@ -76,6 +120,16 @@ int pfsc_file_truncate_grow(pfs_eh f, i64 new_length);
  */
 i64 pfsc_file_length(pfs_eh f);
 
+/**
+ * get the number of fragments of a file
+ *
+ * a fragment is a run of consecutive blocks, which hold the data of the file
+ * (including reserved blocks), an empty file has zero fragments
+ *
+ * if this operation fails -1 is returned
+ */
+i64 pfsc_file_fragments(pfs_eh f);
+
 int pfsc_file_read0(bm pfs, struct pfs_file_data file, i64 position, void *buffer, i64 length, i64 file_block);
 int pfsc_file_write0(bm pfs, struct pfs_file_data file, i64 position, void *buffer, i64 length, i64 file_block);
 
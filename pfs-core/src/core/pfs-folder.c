@@ -73,6 +73,20 @@ int pfsc_folder_fill_iterator(pfs_eh f, pfs_fi iter, int show_hidden) {
 
 int pfsc_folder_fill_iterator_index(pfs_eh f, pfs_fi iter, i64 index) {
 	get_folder
+	if (folder->helper_index == HASH_NODE_INDEX) {
+		// the children of hash folders are not stored in index order
+		pfs0(f)->unget(pfs0(f), f->element_place.block);
+		struct pfs_element_handle eh = *f;
+		struct pfs_element_handle *old_eh = iter->eh;
+		const int old_show_hidden = iter->show_hidden;
+		int res = pfsc_folder_fill_iterator(&eh, iter, 1);
+		for (; res && index > 0; index--) {
+			res = pfsc_folder_iter_next(iter);
+		}
+		iter->eh = old_eh;
+		iter->show_hidden = old_show_hidden;
+		return res;
+	}
 	iter->current_place.block = f->element_place.block;
 	iter->current_place.pos = f->element_place.pos + sizeof(struct pfs_folder);
 	iter->current_depth = 0;
@@ -268,12 +282,18 @@ int pfsc_folder_iter_next(pfs_fi fi) {
 }
 
 static i64 count_children(bm pfs, struct pfs_place *f) {
-	get_folder1_(pfs, folder, block_data, *f)
+	get_folder3_(pfs, folder, block_data, f->block, f->pos, return -1;)
 	i64 child_count = folder->direct_child_count;
 	i64 result = 0L;
 	for (i64 i = 0; i < child_count; i++) {
-		if (folder->helper_index == i) {
-			result += count_children(pfs, &folder->entries[i].child_place);
+		if ((folder->entries[i].flags & PFS_F_HELPER_FOLDER) != 0) {
+			i64 helper_count = count_children(pfs,
+					&folder->entries[i].child_place);
+			if (helper_count == -1) {
+				pfs->unget(pfs, f->block);
+				return -1;
+			}
+			result += helper_count;
 		} else {
 			result++;
 		}
@@ -282,82 +302,708 @@ static i64 count_children(bm pfs, struct pfs_place *f) {
 	return result;
 }
 
+static inline int same_place(struct pfs_place a, struct pfs_place b) {
+	return a.block == b.block && a.pos == b.pos;
+}
+
+static struct pfs_count_folder* count_folder_of(bm pfs,
+		struct pfs_place folder) {
+	struct pfs_count_cache *cc = core(pfs)->count_cache;
+	if (!cc) {
+		return NULL;
+	}
+	for (int i = 0; i < COUNT_CACHE_FOLDERS; i++) {
+		if (same_place(cc->folders[i].folder, folder)) {
+			return &cc->folders[i];
+		}
+	}
+	return NULL;
+}
+
 i64 pfsc_folder_child_count(pfs_eh f) {
-	return count_children(pfs0(f), &f->element_place);
+	struct pfs_count_folder *cf = count_folder_of(pfs0(f), f->element_place);
+	if (cf) {
+		cf->last_use = ++core(pfs0(f))->count_cache->use_counter;
+		return cf->count;
+	}
+	i64 count = count_children(pfs0(f), &f->element_place);
+	if (count == -1) {
+		return -1;
+	}
+	struct pfs_count_cache *cc = core(pfs0(f))->count_cache;
+	if (!cc) {
+		cc = malloc(sizeof(struct pfs_count_cache));
+		if (!cc) {
+			return count; // the count is just not cached
+		}
+		memset(cc, 0, sizeof(struct pfs_count_cache));
+		for (int i = 0; i < COUNT_CACHE_FOLDERS; i++) {
+			cc->folders[i].folder.block = -1;
+			cc->folders[i].folder.pos = -1;
+		}
+		core(pfs0(f))->count_cache = cc;
+	}
+	cf = &cc->folders[0];
+	for (int i = 1; i < COUNT_CACHE_FOLDERS && cf->folder.block != -1; i++) {
+		if (cc->folders[i].folder.block == -1
+				|| cc->folders[i].last_use < cf->last_use) {
+			cf = &cc->folders[i];
+		}
+	}
+	cf->folder = f->element_place;
+	cf->count = count;
+	cf->last_use = ++cc->use_counter;
+	return count;
+}
+
+void count_cache_add(bm pfs, struct pfs_place folder, i64 delta) {
+	struct pfs_count_folder *cf = count_folder_of(pfs, folder);
+	if (cf) {
+		cf->count += delta;
+	}
+}
+
+void count_cache_moved(bm pfs, struct pfs_place old_place,
+		struct pfs_place new_place) {
+	struct pfs_count_folder *cf = count_folder_of(pfs, old_place);
+	if (cf) {
+		cf->folder = new_place;
+	}
+}
+
+void count_cache_forget(bm pfs, struct pfs_place folder) {
+	struct pfs_count_folder *cf = count_folder_of(pfs, folder);
+	if (cf) {
+		cf->folder.block = -1;
+		cf->folder.pos = -1;
+	}
+}
+
+static inline ui64 name_hash(const char *name, i64 name_len) {
+	ui64 hash = 0xcbf29ce484222325UL;
+	for (i64 i = 0; i < name_len; i++) {
+		hash ^= (unsigned char) name[i];
+		hash *= 0x100000001b3UL;
+	}
+	// zero and one mark unused and removed slots
+	return hash < 2 ? hash + 2 : hash;
+}
+
+static void name_folder_drop(struct pfs_name_index *ni,
+		struct pfs_name_folder *nf) {
+	ni->slot_count -= nf->capacity;
+	free(nf->slots);
+	free(nf->dirs);
+	memset(nf, 0, sizeof(struct pfs_name_folder));
+	nf->folder.block = -1;
+	nf->folder.pos = -1;
+}
+
+void name_index_free(struct pfs_name_index *ni) {
+	for (int i = 0; i < NAME_INDEX_FOLDERS; i++) {
+		free(ni->folders[i].slots);
+		free(ni->folders[i].dirs);
+	}
+	free(ni);
+}
+
+static struct pfs_name_folder* name_folder_of(bm pfs,
+		struct pfs_place folder) {
+	struct pfs_name_index *ni = core(pfs)->name_index;
+	if (!ni) {
+		return NULL;
+	}
+	for (int i = 0; i < NAME_INDEX_FOLDERS; i++) {
+		if (same_place(ni->folders[i].folder, folder)) {
+			ni->folders[i].last_use = ++ni->use_counter;
+			return &ni->folders[i];
+		}
+	}
+	return NULL;
+}
+
+static struct pfs_name_folder* name_folder_lru(struct pfs_name_index *ni,
+		struct pfs_name_folder *keep) {
+	struct pfs_name_folder *lru = NULL;
+	for (int i = 0; i < NAME_INDEX_FOLDERS; i++) {
+		struct pfs_name_folder *nf = &ni->folders[i];
+		if (nf == keep || nf->folder.block == -1) {
+			continue;
+		}
+		if (!lru || nf->last_use < lru->last_use) {
+			lru = nf;
+		}
+	}
+	return lru;
+}
+
+static void name_slot_put(struct pfs_name_folder *nf, ui64 hash, i32 dir,
+		i32 index) {
+	i64 mask = nf->capacity - 1;
+	for (i64 i = hash & mask; 1; i = (i + 1) & mask) {
+		if (nf->slots[i].hash < 2) {
+			if (nf->slots[i].hash == 0) {
+				nf->used++;
+			}
+			nf->slots[i].hash = hash;
+			nf->slots[i].dir = dir;
+			nf->slots[i].index = index;
+			return;
+		}
+	}
+}
+
+/*
+ * ensures that one more child can be added to the index
+ * other indices are dropped when the memory is needed
+ */
+static int name_folder_reserve(bm pfs, struct pfs_name_folder *nf) {
+	if ((nf->used + 1) * 4 <= nf->capacity * 3) {
+		return 1;
+	}
+	struct pfs_name_index *ni = core(pfs)->name_index;
+	i64 capacity = 256;
+	while ((nf->count + 1) * 2 > capacity) {
+		capacity <<= 1;
+	}
+	struct pfs_name_slot *slots;
+	while (1) {
+		if (ni->slot_count - nf->capacity + capacity <= NAME_INDEX_MAX_SLOTS) {
+			slots = calloc(capacity, sizeof(struct pfs_name_slot));
+			if (slots) {
+				break;
+			}
+		}
+		struct pfs_name_folder *lru = name_folder_lru(ni, nf);
+		if (!lru) {
+			return 0;
+		}
+		name_folder_drop(ni, lru);
+	}
+	struct pfs_name_slot *old_slots = nf->slots;
+	const i64 old_capacity = nf->capacity;
+	ni->slot_count += capacity - old_capacity;
+	nf->slots = slots;
+	nf->capacity = capacity;
+	nf->used = 0;
+	for (i64 i = 0; i < old_capacity; i++) {
+		if (old_slots[i].hash >= 2) {
+			name_slot_put(nf, old_slots[i].hash, old_slots[i].dir,
+					old_slots[i].index);
+		}
+	}
+	free(old_slots);
+	return 1;
+}
+
+static i32 name_folder_dir(struct pfs_name_folder *nf, struct pfs_place dir,
+		int add) {
+	// new children are normally added to the last helper folder
+	for (i32 i = nf->dir_count - 1; i >= 0; i--) {
+		if (same_place(nf->dirs[i], dir)) {
+			return i;
+		}
+	}
+	if (!add) {
+		return -1;
+	}
+	if (nf->dir_count == nf->dir_capacity) {
+		i32 dir_capacity = nf->dir_capacity ? nf->dir_capacity * 2 : 16;
+		void *dirs = realloc(nf->dirs, dir_capacity * sizeof(struct pfs_place));
+		if (!dirs) {
+			return -1;
+		}
+		nf->dirs = dirs;
+		nf->dir_capacity = dir_capacity;
+	}
+	nf->dirs[nf->dir_count] = dir;
+	return nf->dir_count++;
+}
+
+/*
+ * returns the index of the child with the given name in dir or -1
+ * the child is searched at index and before, because removing children only
+ * moves the following children to lower indices
+ */
+static i32 name_slot_check(bm pfs, struct pfs_place dir, i32 index,
+		const char *name, i64 name_len) {
+	void *block_data = pfs->get(pfs, dir.block);
+	if (block_data == NULL) {
+		return -1;
+	}
+	struct pfs_folder *folder = block_data + dir.pos;
+	if (index >= folder->direct_child_count) {
+		index = folder->direct_child_count - 1;
+	}
+	for (; index >= 0; index--) {
+		i32 name_pos = folder->entries[index].name_pos;
+		if (name_pos == -1) {
+			continue;
+		}
+		if (get_size_from_block_table(block_data, name_pos, pfs->block_size)
+				== name_len && memcmp(name, block_data + name_pos, name_len) == 0) {
+			break;
+		}
+	}
+	pfs->unget(pfs, dir.block);
+	return index;
+}
+
+static struct pfs_name_folder* name_index_build(bm pfs,
+		struct pfs_place folder_place) {
+	struct pfs_name_index *ni = core(pfs)->name_index;
+	if (!ni) {
+		ni = malloc(sizeof(struct pfs_name_index));
+		if (!ni) {
+			return NULL;
+		}
+		memset(ni, 0, sizeof(struct pfs_name_index));
+		for (int i = 0; i < NAME_INDEX_FOLDERS; i++) {
+			ni->folders[i].folder.block = -1;
+			ni->folders[i].folder.pos = -1;
+		}
+		core(pfs)->name_index = ni;
+	}
+	struct pfs_name_folder *nf = NULL;
+	for (int i = 0; i < NAME_INDEX_FOLDERS; i++) {
+		if (ni->folders[i].folder.block == -1) {
+			nf = &ni->folders[i];
+			break;
+		}
+	}
+	if (!nf) {
+		nf = name_folder_lru(ni, NULL);
+		name_folder_drop(ni, nf);
+	}
+	nf->folder = folder_place;
+	nf->last_use = ++ni->use_counter;
+	if (!name_folder_reserve(pfs, nf)) {
+		name_folder_drop(ni, nf);
+		return NULL;
+	}
+	for (struct pfs_place dir = folder_place; 1;) {
+		void *block_data = pfs->get(pfs, dir.block);
+		if (block_data == NULL) {
+			name_folder_drop(ni, nf);
+			return NULL;
+		}
+		struct pfs_folder *folder = block_data + dir.pos;
+		i32 d = name_folder_dir(nf, dir, 1);
+		for (i32 i = 0; d != -1 && i < folder->direct_child_count; i++) {
+			i32 name_pos = folder->entries[i].name_pos;
+			if (name_pos == -1) {
+				continue;
+			}
+			if (!name_folder_reserve(pfs, nf)) {
+				d = -1;
+				break;
+			}
+			name_slot_put(nf,
+					name_hash(block_data + name_pos,
+							get_size_from_block_table(block_data, name_pos,
+									pfs->block_size)), d, i);
+			nf->count++;
+		}
+		if (d == -1) {
+			pfs->unget(pfs, dir.block);
+			name_folder_drop(ni, nf);
+			return NULL;
+		}
+		if (folder->helper_index == -1) {
+			pfs->unget(pfs, dir.block);
+			return nf;
+		}
+		struct pfs_place next = folder->entries[folder->helper_index].child_place;
+		pfs->unget(pfs, dir.block);
+		dir = next;
+	}
+}
+
+/*
+ * returns the name index of the folder or NULL if the folder is not (and can
+ * not be) indexed
+ * folders without a helper folder fit in a single block and are not indexed
+ */
+static struct pfs_name_folder* name_index_get(bm pfs, struct pfs_place place,
+		struct pfs_folder *folder) {
+	if (folder->helper_index < 0) {
+		return NULL;
+	}
+	struct pfs_name_folder *nf = name_folder_of(pfs, place);
+	if (nf) {
+		if (nf->dir_count > 1
+				&& same_place(nf->dirs[1],
+						folder->entries[folder->helper_index].child_place)) {
+			return nf;
+		}
+		name_folder_drop(core(pfs)->name_index, nf);
+	}
+	return name_index_build(pfs, place);
+}
+
+static int name_index_find(bm pfs, struct pfs_name_folder *nf,
+		const char *name, i64 name_len, struct pfs_place *dir, i32 *index) {
+	const ui64 hash = name_hash(name, name_len);
+	const i64 mask = nf->capacity - 1;
+	for (i64 i = hash & mask; nf->slots[i].hash; i = (i + 1) & mask) {
+		struct pfs_name_slot *slot = &nf->slots[i];
+		if (slot->hash != hash) {
+			continue;
+		}
+		i32 found = name_slot_check(pfs, nf->dirs[slot->dir], slot->index,
+				name, name_len);
+		if (found == -1) {
+			continue;
+		}
+		slot->index = found;
+		*dir = nf->dirs[slot->dir];
+		*index = found;
+		return 1;
+	}
+	return 0;
+}
+
+void name_index_forget(bm pfs, struct pfs_place folder) {
+	struct pfs_name_folder *nf = name_folder_of(pfs, folder);
+	if (nf) {
+		name_folder_drop(core(pfs)->name_index, nf);
+	}
+}
+
+void name_index_moved(bm pfs, struct pfs_place old_place,
+		struct pfs_place new_place) {
+	struct pfs_name_index *ni = core(pfs)->name_index;
+	if (!ni) {
+		return;
+	}
+	for (int i = 0; i < NAME_INDEX_FOLDERS; i++) {
+		struct pfs_name_folder *nf = &ni->folders[i];
+		if (same_place(nf->folder, old_place)) {
+			nf->folder = new_place;
+		}
+		i32 d = name_folder_dir(nf, old_place, 0);
+		if (d != -1) {
+			nf->dirs[d] = new_place;
+			return;
+		}
+	}
+}
+
+void name_index_add(bm pfs, struct pfs_place folder, const char *name,
+		i64 name_len, struct pfs_place dir, i32 index) {
+	struct pfs_name_folder *nf = name_folder_of(pfs, folder);
+	if (!nf) {
+		return;
+	}
+	i32 d = name_folder_dir(nf, dir, 1);
+	if (d == -1 || !name_folder_reserve(pfs, nf)) {
+		name_folder_drop(core(pfs)->name_index, nf);
+		return;
+	}
+	name_slot_put(nf, name_hash(name, name_len), d, index);
+	nf->count++;
+}
+
+void name_index_remove(bm pfs, struct pfs_place folder, const char *name,
+		i64 name_len, struct pfs_place dir) {
+	struct pfs_name_folder *nf = name_folder_of(pfs, folder);
+	if (!nf) {
+		return;
+	}
+	const ui64 hash = name_hash(name, name_len);
+	const i64 mask = nf->capacity - 1;
+	for (i64 i = hash & mask; nf->slots[i].hash; i = (i + 1) & mask) {
+		struct pfs_name_slot *slot = &nf->slots[i];
+		if (slot->hash != hash || !same_place(nf->dirs[slot->dir], dir)) {
+			continue;
+		}
+		if (name_slot_check(pfs, dir, slot->index, name, name_len) == -1) {
+			continue;
+		}
+		slot->hash = 1;
+		nf->count--;
+		return;
+	}
+	// the index does not know the child, so it can not be trusted
+	name_folder_drop(core(pfs)->name_index, nf);
+}
+
+/* returns 1 if large folders are stored as hash trees */
+static inline int hash_folders(bm pfs) {
+	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
+	if (b0 == NULL) {
+		return 0;
+	}
+	const int res = (b0->flags & PATRFS_B0_FLAG_HASH_FOLDERS) != 0;
+	pfs->unget(pfs, 0L);
+	return res;
+}
+
+/*
+ * moves f from the hash node to the leaf of the hash folder, which contains
+ * (or would contain) a child with the given name hash
+ * depth is the depth of the node and is set to the depth of the leaf
+ */
+static int hash_folder_descend(bm pfs, pfs_eh f, ui64 hash, i32 *depth) {
+	while (1) {
+		void *block_data = pfs->get(pfs, f->element_place.block);
+		if (block_data == NULL) {
+			return 0;
+		}
+		struct pfs_folder *node = block_data + f->element_place.pos;
+		if (node->helper_index != HASH_NODE_INDEX) {
+			pfs->unget(pfs, f->element_place.block);
+			return 1;
+		}
+		const i32 bucket = (hash >> *depth) & 1;
+		const i64 node_block = f->element_place.block;
+		f->direct_parent_place = f->element_place;
+		f->index_in_direct_parent_list = bucket;
+		f->entry_pos = f->element_place.pos + sizeof(struct pfs_folder)
+				+ bucket * sizeof(struct pfs_folder_entry);
+		f->element_place = node->entries[bucket].child_place;
+		pfs->unget(pfs, node_block);
+		(*depth)++;
+	}
+}
+
+/*
+ * converts the leaf of a hash folder into a hash node with two new leaves
+ * the children of the leaf are distributed by the depth-th bit of the hash
+ * of their names
+ */
+static int hash_folder_split(bm pfs, struct pfs_place leaf,
+		struct pfs_place real_parent, i32 depth) {
+	void *block_data = pfs->get(pfs, leaf.block);
+	if (block_data == NULL) {
+		return 0;
+	}
+	struct pfs_folder *folder = block_data + leaf.pos;
+	const i32 count = folder->direct_child_count;
+	ui8 *buckets = malloc(count);
+	if (buckets == NULL) {
+		pfs->unget(pfs, leaf.block);
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		return 0;
+	}
+	i32 sizes[2] = { 0, 0 };
+	for (i32 i = 0; i < count; i++) {
+		i32 name_pos = folder->entries[i].name_pos;
+		buckets[i] = (name_hash(block_data + name_pos,
+				get_size_from_block_table(block_data, name_pos,
+						pfs->block_size)) >> depth) & 1;
+		sizes[buckets[i]]++;
+	}
+	struct pfs_place halves[2];
+	struct pfs_folder *half_folders[2];
+	for (int h = 0; h < 2; h++) {
+		if (!allocate_new_entry(pfs, &halves[h], -1,
+				sizeof(struct pfs_folder)
+						+ sizes[h] * sizeof(struct pfs_folder_entry))) {
+			if (h) {
+				pfs->unget(pfs, halves[0].block);
+				free_block(pfs, halves[0].block);
+			}
+			free(buckets);
+			pfs->unget(pfs, leaf.block);
+			return 0;
+		}
+		void *half_data = pfs->get(pfs, halves[h].block);
+		if (half_data == NULL) {
+			free_block(pfs, halves[h].block);
+			if (h) {
+				pfs->unget(pfs, halves[0].block);
+				free_block(pfs, halves[0].block);
+			}
+			free(buckets);
+			pfs->unget(pfs, leaf.block);
+			return 0;
+		}
+		struct pfs_folder *hf = half_data + halves[h].pos;
+		hf->element.last_mod_time = -1L;
+		hf->real_parent = real_parent;
+		hf->direct_child_count = 0;
+		hf->folder_entry.block = leaf.block;
+		hf->folder_entry.pos = leaf.pos + sizeof(struct pfs_folder)
+				+ h * sizeof(struct pfs_folder_entry);
+		hf->helper_index = -1;
+		half_folders[h] = hf;
+	}
+	for (i32 i = 0; i < count; i++) {
+		struct pfs_folder *hf = half_folders[buckets[i]];
+		const i64 half_block = halves[buckets[i]].block;
+		struct pfs_folder_entry *entry = &hf->entries[hf->direct_child_count];
+		*entry = folder->entries[i];
+		i32 name_pos = add_name(pfs, half_block,
+				block_data + folder->entries[i].name_pos,
+				get_size_from_block_table(block_data,
+						folder->entries[i].name_pos, pfs->block_size));
+		if (name_pos == -1) {
+			// can not happen, the children fitted in the old block
+			for (int h = 0; h < 2; h++) {
+				pfs->unget(pfs, halves[h].block);
+				free_block(pfs, halves[h].block);
+			}
+			free(buckets);
+			pfs->unget(pfs, leaf.block);
+			pfs_err = PFS_ERRNO_OUT_OF_SPACE;
+			return 0;
+		}
+		entry->name_pos = name_pos;
+		hf->direct_child_count++;
+	}
+	free(buckets);
+	for (i32 i = 0; i < count; i++) {
+		remove_from_block_table(pfs, leaf.block, folder->entries[i].name_pos);
+	}
+	folder->direct_child_count = 2;
+	folder->helper_index = HASH_NODE_INDEX;
+	for (int h = 0; h < 2; h++) {
+		folder->entries[h].name_pos = -1;
+		folder->entries[h].child_place = halves[h];
+		folder->entries[h].create_time = -1L;
+		folder->entries[h].flags = PFS_F_FOLDER | PFS_F_HELPER_FOLDER;
+	}
+	if (reallocate_in_block_table(pfs, leaf.block, leaf.pos,
+			sizeof(struct pfs_folder) + 2 * sizeof(struct pfs_folder_entry), 1)
+			!= leaf.pos) {
+		abort(); // shrinking is always done in place
+	}
+	pfs->set(pfs, leaf.block);
+	for (int h = 0; h < 2; h++) {
+		pfs->set(pfs, halves[h].block);
+		// update the folder entries of the child folders
+		set_parent_place_from_childs(pfs, halves[h], real_parent);
+	}
+	return 1;
+}
+
+static inline int enter_child(pfs_eh f, void *block_data,
+		struct pfs_folder *folder, i32 index, struct pfs_place real_parent,
+		ui32 neededflag) {
+	struct pfs_folder_entry *entry = &folder->entries[index];
+	if ((entry->flags & neededflag) == 0) {
+		pfs_err = PFS_ERRNO_ELEMENT_WRONG_TYPE;
+		return -1;
+	}
+	f->real_parent_place = real_parent;
+	f->direct_parent_place.block = f->element_place.block;
+	f->direct_parent_place.pos = ((void*) folder) - block_data;
+	f->element_place = entry->child_place;
+	f->entry_pos = ((void*) entry) - block_data;
+	f->index_in_direct_parent_list = index;
+	if (entry->flags & PFS_F_MOUNT) {
+		f->is_mount_point = 1;
+	} else {
+		f->is_mount_point = 0;
+	}
+	return 1;
 }
 
 static int pfs_folder_child_from_name_impl(pfs_eh f, const char *name,
-		int is_helper, ui32 neededflag) {
+		const struct pfs_place *real_parent, ui32 neededflag) {
 	const i64 old_block_num = f->element_place.block;
 	const i64 name_len = strlen(name);
 	get_folder
+	const struct pfs_place my_place = f->element_place;
+	if (!real_parent && folder->helper_index == HASH_NODE_INDEX) {
+		struct pfs_element_handle leaf = *f;
+		i32 depth = 0;
+		pfs0(f)->unget(pfs0(f), old_block_num);
+		if (!hash_folder_descend(pfs0(f), &leaf, name_hash(name, name_len),
+				&depth)) {
+			return -1;
+		}
+		int res = pfs_folder_child_from_name_impl(&leaf, name, &my_place,
+				neededflag);
+		if (res == 1) {
+			*f = leaf;
+		} else if (res == 0) {
+			pfs_err = PFS_ERRNO_ELEMENT_NOT_EXIST;
+		}
+		return res;
+	}
+	if (!real_parent) {
+		struct pfs_name_folder *nf = name_index_get(pfs0(f), f->element_place,
+				folder);
+		if (nf) {
+			struct pfs_place dir;
+			i32 index;
+			if (!name_index_find(pfs0(f), nf, name, name_len, &dir, &index)) {
+				pfs0(f)->unget(pfs0(f), old_block_num);
+				pfs_err = PFS_ERRNO_ELEMENT_NOT_EXIST;
+				return 0;
+			}
+			void *dir_block_data = pfs0(f)->get(pfs0(f), dir.block);
+			if (dir_block_data == NULL) {
+				pfs0(f)->unget(pfs0(f), old_block_num);
+				return -1;
+			}
+			struct pfs_place rp = f->element_place;
+			f->element_place.block = dir.block;
+			int res = enter_child(f, dir_block_data, dir_block_data + dir.pos,
+					index, rp, neededflag);
+			if (res != 1) {
+				f->element_place = rp;
+			}
+			pfs0(f)->unget(pfs0(f), dir.block);
+			pfs0(f)->unget(pfs0(f), old_block_num);
+			return res;
+		}
+	}
 	for (int i = 0; i < folder->direct_child_count; i++) {
 		if (folder->entries[i].name_pos == -1) {
 			struct pfs_place old_place = f->direct_parent_place;
 			f->direct_parent_place = f->element_place;
 			f->element_place = folder->entries[i].child_place;
-			int res = pfs_folder_child_from_name_impl(f, name, 1, neededflag);
+			int res = pfs_folder_child_from_name_impl(f, name,
+					real_parent ? real_parent : &my_place, neededflag);
 			if (res != 0) {
 				pfs0(f)->unget(pfs0(f), old_block_num);
-				return 1;
+				return res;
 			}
 			f->element_place = f->direct_parent_place;
 			f->direct_parent_place = old_place;
+			continue;
 		}
 		char *cn = block_data + folder->entries[i].name_pos;
 		if (get_size_from_block_table(block_data, folder->entries[i].name_pos,
 		pfs0(f)->block_size) == name_len) {
 			if (memcmp(name, block_data + folder->entries[i].name_pos, name_len)
 					== 0) {
-				if ((folder->entries[i].flags & neededflag) == 0) {
-					pfs0(f)->unget(pfs0(f), old_block_num);
-					pfs_err = PFS_ERRNO_ELEMENT_WRONG_TYPE;
-					return -1;
-				}
-				if (is_helper) {
-					f->real_parent_place = f->direct_parent_place;
-				} else {
-					f->real_parent_place = f->element_place;
-				}
-				f->direct_parent_place = f->element_place;
-				f->element_place = folder->entries[i].child_place;
-				f->entry_pos = ((void*) &folder->entries[i]) - block_data;
-				f->index_in_direct_parent_list = i;
-				if (folder->entries[i].flags & PFS_F_MOUNT) {
-					f->is_mount_point = 1;
-				} else {
-					f->is_mount_point = 0;
-				}
+				int res = enter_child(f, block_data, folder, i,
+						real_parent ? *real_parent : f->element_place,
+						neededflag);
 				pfs0(f)->unget(pfs0(f), old_block_num);
-				return 1;
+				return res;
 			}
 		}
 	}
 	pfs0(f)->unget(pfs0(f), old_block_num);
-	if (!is_helper) {
+	if (!real_parent) {
 		pfs_err = PFS_ERRNO_ELEMENT_NOT_EXIST;
 	}
 	return 0;
 }
 
 int pfsc_folder_child_from_name(pfs_eh f, const char *name) {
-	return pfs_folder_child_from_name_impl(f, name, 0, -1);
+	return pfs_folder_child_from_name_impl(f, name, NULL, -1);
 }
 
 int pfsc_folder_folder_child_from_name(pfs_eh f, const char *name) {
-	return 1 == pfs_folder_child_from_name_impl(f, name, 0, PFS_F_FOLDER | PFS_F_MOUNT);
+	return 1 == pfs_folder_child_from_name_impl(f, name, NULL, PFS_F_FOLDER | PFS_F_MOUNT);
 }
 
 int pfsc_folder_mount_child_from_name(pfs_eh f, const char *name) {
-	return 1 == pfs_folder_child_from_name_impl(f, name, 0, PFS_F_MOUNT);
+	return 1 == pfs_folder_child_from_name_impl(f, name, NULL, PFS_F_MOUNT);
 }
 
 int pfsc_folder_file_child_from_name(pfs_eh f, const char *name) {
-	return 1 == pfs_folder_child_from_name_impl(f, name, 0, PFS_F_FILE);
+	return 1 == pfs_folder_child_from_name_impl(f, name, NULL, PFS_F_FILE);
 }
 
 int pfsc_folder_pipe_child_from_name(pfs_eh f, const char *name) {
-	return 1 == pfs_folder_child_from_name_impl(f, name, 0, PFS_F_PIPE);
+	return 1 == pfs_folder_child_from_name_impl(f, name, NULL, PFS_F_PIPE);
 }
 
 static inline int has_child_with_name(bm pfs, struct pfs_place place,
@@ -386,7 +1032,7 @@ static inline int has_child_with_name(bm pfs, struct pfs_place place,
 			abort();
 		}
 		if (get_size_from_block_table(block_data, folder->entries[i].name_pos,
-				pfs->block_size) == name_len, pfs->block_size) {
+				pfs->block_size) == name_len) {
 			if (memcmp(name, block_data + folder->entries[i].name_pos, name_len)
 					== 0) {
 				pfs->unget(pfs, place.block);
@@ -398,6 +1044,27 @@ static inline int has_child_with_name(bm pfs, struct pfs_place place,
 	return 0;
 }
 
+static inline int folder_has_child(bm pfs, struct pfs_place place,
+		struct pfs_folder *folder, const char *name, i64 name_len) {
+	if (folder->helper_index == HASH_NODE_INDEX) {
+		struct pfs_element_handle leaf;
+		leaf.element_place = place;
+		i32 depth = 0;
+		if (!hash_folder_descend(pfs, &leaf, name_hash(name, name_len),
+				&depth)) {
+			return -1;
+		}
+		return has_child_with_name(pfs, leaf.element_place, name, name_len);
+	}
+	struct pfs_name_folder *nf = name_index_get(pfs, place, folder);
+	if (nf) {
+		struct pfs_place dir;
+		i32 index;
+		return name_index_find(pfs, nf, name, name_len, &dir, &index);
+	}
+	return has_child_with_name(pfs, place, name, name_len);
+}
+
 static inline int add_child(pfs_eh f, pfs_eh parent,
 		struct pfs_place real_parent, const char *name, i64 name_len,
 		ui32 child_flags, struct pfs_folder_entry *overwrite_child_entry, ...);
@@ -405,12 +1072,13 @@ static inline int add_child(pfs_eh f, pfs_eh parent,
 static inline int delegate_create_element_to_helper(const i64 my_new_size,
 		struct pfs_place real_parent, int grow_success, i32 child_flags,
 		struct pfs_folder *me, struct pfs_place my_place, pfs_eh f,
-		const char *name, i64 name_len, va_list vargs) {
+		const char *name, i64 name_len,
+		struct pfs_folder_entry *overwrite_child_entry, va_list vargs) {
 	i64 helper_block;
 	const int orig_grow_success = grow_success;
 	if (me->helper_index == -1) {
-		helper_block = allocate_block(pfs0(f),
-		BLOCK_FLAG_USED | BLOCK_FLAG_ENTRIES);
+		helper_block = allocate_block_near(pfs0(f),
+		BLOCK_FLAG_USED | BLOCK_FLAG_ENTRIES, my_place.block);
 		if (helper_block == -1L) {
 			if (grow_success) {
 				shrink_folder_entry(pfs0(f), my_place, my_new_size);
@@ -466,6 +1134,11 @@ static inline int delegate_create_element_to_helper(const i64 my_new_size,
 				pfs_err = PFS_ERRNO_OUT_OF_SPACE;
 				return 0;
 			}
+			name_index_remove(pfs0(f), real_parent, new_helper_child_name,
+					name_len, my_place);
+			name_index_add(pfs0(f), real_parent, new_helper_child_name,
+					name_len, (struct pfs_place ) { .block = helper_block,
+									.pos = 0 }, 0);
 			helper->entries[0].name_pos = name_pos;
 			if ((helper->entries[0].flags & PFS_F_FOLDER) != 0) {
 				get_folder3(helper_child_folder, helper_child_folder_block_data,
@@ -526,7 +1199,7 @@ static inline int delegate_create_element_to_helper(const i64 my_new_size,
 	} else {
 		va_end(vargs);
 		res = add_child(f, NULL, real_parent, name, name_len, child_flags,
-		/*				*/NULL);
+		/*				*/overwrite_child_entry);
 	}
 	if (!res) {
 		*f = eh;
@@ -558,11 +1231,36 @@ static inline int add_child(pfs_eh f, pfs_eh parent,
 	}
 	get_folder0(me, my_old_block_data)
 	struct pfs_place my_place = f->element_place;
-	if (has_child_with_name(pfs0(f), my_place, name, name_len)) {
+	// helper folders are only used after the real folder has been checked
+	if (same_place(real_parent, my_place)
+			&& folder_has_child(pfs0(f), my_place, me, name, name_len)) {
 		pfs0(f)->unget(pfs0(f), my_place.block);
 		pfs_err = PFS_ERRNO_ELEMENT_ALREADY_EXIST;
 		return 0;
 	}
+	// the depth of me in a hash folder or -1
+	i32 hash_depth = -1;
+	if (same_place(real_parent, my_place) && hash_folders(pfs0(f))) {
+		hash_depth = 0;
+	}
+	hash_retry: if (me->helper_index == HASH_NODE_INDEX) {
+		pfs0(f)->unget(pfs0(f), my_place.block);
+		if (!hash_folder_descend(pfs0(f), f, name_hash(name, name_len),
+				&hash_depth)) {
+			return 0;
+		}
+		parent = NULL; // parent is the real folder, me is now a leaf
+		my_place = f->element_place;
+		my_old_block_data = pfs0(f)->get(pfs0(f), my_place.block);
+		if (my_old_block_data == NULL) {
+			return 0;
+		}
+		me = my_old_block_data + my_place.pos;
+	}
+	// full leaves of hash folders are split instead of using helper folders
+	const int hash_split = hash_depth >= 0
+			&& hash_depth < HASH_FOLDER_MAX_DEPTH && me->direct_child_count >= 2
+			&& me->helper_index == -1;
 	const i64 my_new_size = sizeof(struct pfs_folder)
 			+ (sizeof(struct pfs_folder_entry) * (1 + me->direct_child_count));
 	i32 name_pos;
@@ -582,13 +1280,28 @@ static inline int add_child(pfs_eh f, pfs_eh parent,
 			}
 		}
 		name_pos = add_name(pfs0(f), my_place.block, name, name_len);
+		if (name_pos == -1 && hash_split) {
+			shrink_folder_entry(pfs0(f), my_place, my_new_size)
+			if (!hash_folder_split(pfs0(f), my_place, real_parent,
+					hash_depth)) {
+				pfs0(f)->unget(pfs0(f), my_place.block);
+				return 0;
+			}
+			goto hash_retry;
+		}
 		if (name_pos == -1) {
 			va_list vargs;
 			va_start(vargs, overwrite_child_entry);
 			return delegate_create_element_to_helper(my_new_size, real_parent,
 					new_pos != -1, child_flags, me, my_place, f, name, name_len,
-					vargs);
+					overwrite_child_entry, vargs);
 		}
+	} else if (hash_split) {
+		if (!hash_folder_split(pfs0(f), my_place, real_parent, hash_depth)) {
+			pfs0(f)->unget(pfs0(f), my_place.block);
+			return 0;
+		}
+		goto hash_retry;
 	} else if (((me->direct_child_count) < 2) && (me->helper_index == -1)) {
 		if (!allocate_new_entry(pfs0(f), &f->element_place, -1,
 				sizeof(struct pfs_folder)
@@ -604,6 +1317,10 @@ static inline int add_child(pfs_eh f, pfs_eh parent,
 		const i64 my_old_block = my_place.block;
 		const i32 my_old_pos = my_place.pos;
 		my_place = f->element_place;
+		name_index_moved(pfs0(f), (struct pfs_place ) { .block = my_old_block,
+						.pos = my_old_pos }, my_place);
+		count_cache_moved(pfs0(f), (struct pfs_place ) { .block = my_old_block,
+						.pos = my_old_pos }, my_place);
 		if (real_parent.block == my_old_block) {
 			if (real_parent.pos != my_old_pos) {
 				abort();
@@ -642,7 +1359,22 @@ static inline int add_child(pfs_eh f, pfs_eh parent,
 		if (old_me->folder_entry.block != f->direct_parent_place.block) {
 			abort();
 		}
-		name_pos = add_name(pfs0(f), my_place.block, name, name_len);
+		name_pos = 0;
+		for (i32 i = 0; i < old_me->direct_child_count; i++) {
+			const i32 old_name_pos = old_me->entries[i].name_pos;
+			me->entries[i] = old_me->entries[i];
+			me->entries[i].name_pos = add_name(pfs0(f), my_place.block,
+					my_old_block_data + old_name_pos,
+					get_size_from_block_table(my_old_block_data, old_name_pos,
+							pfs0(f)->block_size));
+			if (me->entries[i].name_pos == -1) {
+				name_pos = -1;
+				break;
+			}
+		}
+		if (name_pos != -1) {
+			name_pos = add_name(pfs0(f), my_place.block, name, name_len);
+		}
 		if (name_pos == -1) {
 			free_block(pfs0(f), f->element_place.block);
 			pfs0(f)->unget(pfs0(f), my_place.block);
@@ -668,7 +1400,12 @@ static inline int add_child(pfs_eh f, pfs_eh parent,
 			my_entry->child_place = my_place;
 			pfs0(f)->set(pfs0(f), old_me->folder_entry.block);
 		}
+		for (i32 i = 0; i < old_me->direct_child_count; i++) {
+			remove_from_block_table(pfs0(f), my_old_block,
+					old_me->entries[i].name_pos);
+		}
 		remove_from_block_table(pfs0(f), my_old_block, my_old_pos);
+		set_parent_place_from_childs(pfs0(f), my_place, real_parent);
 		if (pfs0(f)->block_size - 4
 				== *(i32*) (my_old_block_data + pfs0(f)->block_size - 4)) {
 			pfs0(f)->unget(pfs0(f), my_old_block); // no need to save a dead block
@@ -681,11 +1418,34 @@ static inline int add_child(pfs_eh f, pfs_eh parent,
 		va_start(vargs, overwrite_child_entry);
 		return delegate_create_element_to_helper(my_new_size, real_parent,
 				new_pos != -1, child_flags, me, my_place, f, name, name_len,
-				vargs);
+				overwrite_child_entry, vargs);
 	}
 	const i32 child_index = me->direct_child_count;
 	if (overwrite_child_entry != NULL) {
 		me->entries[child_index] = *overwrite_child_entry;
+		me->entries[child_index].name_pos = name_pos;
+		me->direct_child_count++;
+		f->real_parent_place = real_parent;
+		f->index_in_direct_parent_list = child_index;
+		f->direct_parent_place = my_place;
+		f->entry_pos = my_place.pos + sizeof(struct pfs_folder)
+				+ (child_index * sizeof(struct pfs_folder_entry));
+		f->element_place = me->entries[child_index].child_place;
+		if ((me->entries[child_index].flags & PFS_F_FOLDER) != 0) {
+			void *child_block_data = pfs0(f)->get(pfs0(f),
+					f->element_place.block);
+			if (child_block_data == NULL) {
+				abort();
+			}
+			struct pfs_folder *cf = child_block_data + f->element_place.pos;
+			cf->real_parent = real_parent;
+			cf->folder_entry.block = my_place.block;
+			cf->folder_entry.pos = f->entry_pos;
+			pfs0(f)->set(pfs0(f), f->element_place.block);
+		}
+		name_index_add(pfs0(f), real_parent, name, name_len, my_place,
+				child_index);
+		count_cache_add(pfs0(f), real_parent, 1);
 		pfs0(f)->set(pfs0(f), my_place.block);
 	} else {
 		size_t len;
@@ -825,6 +1585,9 @@ static inline int add_child(pfs_eh f, pfs_eh parent,
 			abort();
 		}
 		pfs0(f)->set(pfs0(f), f->element_place.block);
+		name_index_add(pfs0(f), real_parent, name, name_len, my_place,
+				child_index);
+		count_cache_add(pfs0(f), real_parent, 1);
 	}
 	return 1;
 }
@@ -918,6 +1681,15 @@ int pfsc_element_get_parent(pfs_eh e) {
 
 static void remove_from_parent(const struct pfs_element_handle *e,
 		struct pfs_folder *direct_parent) {
+	if (core(pfs0(e))->name_index) {
+		void *block_data = ((void*) direct_parent) - e->direct_parent_place.pos;
+		i32 name_pos = direct_parent->entries[e->index_in_direct_parent_list]
+				.name_pos;
+		name_index_remove(pfs0(e), e->real_parent_place, block_data + name_pos,
+				get_size_from_block_table(block_data, name_pos,
+						pfs0(e)->block_size), e->direct_parent_place);
+	}
+	count_cache_add(pfs0(e), e->real_parent_place, -1);
 	size_t cpyLen = (direct_parent->direct_child_count
 			- e->index_in_direct_parent_list - 1)
 			* sizeof(struct pfs_folder_entry);
@@ -930,6 +1702,21 @@ static void remove_from_parent(const struct pfs_element_handle *e,
 	} else if (direct_parent->helper_index == e->index_in_direct_parent_list) {
 		abort();
 	}
+	// the entries of the following child folders have been moved
+	for (i32 i = e->index_in_direct_parent_list;
+			i < direct_parent->direct_child_count; i++) {
+		if ((direct_parent->entries[i].flags & PFS_F_FOLDER) == 0) {
+			continue;
+		}
+		const struct pfs_place cp = direct_parent->entries[i].child_place;
+		void *child_block_data = pfs0(e)->get(pfs0(e), cp.block);
+		if (child_block_data == NULL) {
+			abort();
+		}
+		struct pfs_folder *child = child_block_data + cp.pos;
+		child->folder_entry.pos -= sizeof(struct pfs_folder_entry);
+		pfs0(e)->set(pfs0(e), cp.block);
+	}
 	shrink_folder_entry(pfs0(e), e->direct_parent_place,
 			sizeof(struct pfs_folder)
 					+ (sizeof(struct pfs_folder_entry)
@@ -956,8 +1743,90 @@ static int del_helper(bm pfs, struct pfs_place h) {
 	return 1;
 }
 
+/*
+ * returns 1 if the hash node or helper folder contains only empty helper
+ * folders, 0 if not and -1 on error
+ */
+static int helpers_are_empty(bm pfs, struct pfs_place h) {
+	get_folder3_(pfs, helper, block_data, h.block, h.pos, return -1;)
+	int res = 1;
+	for (i32 i = 0; res == 1 && i < helper->direct_child_count; i++) {
+		if ((helper->entries[i].flags & PFS_F_HELPER_FOLDER) == 0) {
+			res = 0;
+		} else {
+			res = helpers_are_empty(pfs, helper->entries[i].child_place);
+		}
+	}
+	pfs->unget(pfs, h.block);
+	return res;
+}
+
+/*
+ * removes the empty helper folders of the hash node or helper folder
+ * blocks which become empty are freed
+ */
+static void del_empty_helpers(bm pfs, struct pfs_folder *helper) {
+	for (i32 i = 0; i < helper->direct_child_count; i++) {
+		struct pfs_place h = helper->entries[i].child_place;
+		void *block_data = pfs->get(pfs, h.block);
+		if (block_data == NULL) {
+			abort(); // helpers_are_empty already loaded this block
+		}
+		del_empty_helpers(pfs, block_data + h.pos);
+		remove_from_block_table(pfs, h.block, h.pos);
+		if (pfs->block_size - 4
+				== *(i32*) (block_data + pfs->block_size - 4)) {
+			pfs->unget(pfs, h.block);
+			free_block(pfs, h.block);
+		} else {
+			pfs->set(pfs, h.block);
+		}
+	}
+	helper->direct_child_count = 0;
+	helper->helper_index = -1;
+}
+
+/*
+ * counts the children of the folder which are iterated before the target
+ * returns 1 if the target was found, 0 if not and -1 on error
+ */
+static int count_before(bm pfs, struct pfs_place place,
+		struct pfs_place target, i32 target_index, i64 *count) {
+	get_folder3_(pfs, folder, block_data, place.block, place.pos, return -1;)
+	for (i32 i = 0; i < folder->direct_child_count; i++) {
+		if ((folder->entries[i].flags & PFS_F_HELPER_FOLDER) != 0) {
+			int res = count_before(pfs, folder->entries[i].child_place,
+					target, target_index, count);
+			if (res != 0) {
+				pfs->unget(pfs, place.block);
+				return res;
+			}
+		} else if (i == target_index && same_place(place, target)) {
+			pfs->unget(pfs, place.block);
+			return 1;
+		} else {
+			(*count)++;
+		}
+	}
+	pfs->unget(pfs, place.block);
+	return 0;
+}
+
 static inline i64 get_index_from_parent(pfs_eh e) {
 	get_folder1_(pfs0(e), folder, block_data, e->real_parent_place);
+	if (folder->helper_index == HASH_NODE_INDEX) {
+		pfs0(e)->unget(pfs0(e), e->real_parent_place.block);
+		i64 index = 0;
+		const int res = count_before(pfs0(e), e->real_parent_place,
+				e->direct_parent_place, e->index_in_direct_parent_list, &index);
+		if (res != 1) {
+			if (res == 0) {
+				pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
+			}
+			return -1;
+		}
+		return index;
+	}
 	struct pfs_place cur_place = e->real_parent_place;
 	i64 index = 0;
 	while (cur_place.block != e->direct_parent_place.block) {
@@ -975,7 +1844,8 @@ static inline i64 get_index_from_parent(pfs_eh e) {
 	return index + e->index_in_direct_parent_list;
 }
 
-int pfsc_element_delete(pfs_eh e, i64 *former_index, pfs_eh old_parent) {
+int pfsc_element_delete(pfs_eh e, i64 *former_index, pfs_eh old_parent,
+		int background) {
 	get_folder1_(pfs0(e), direct_parent, direct_parent_block,
 			e->direct_parent_place)
 	get_any(pfs0(e), pfs_element, element, element_block,
@@ -1001,7 +1871,17 @@ int pfsc_element_delete(pfs_eh e, i64 *former_index, pfs_eh old_parent) {
 	if ((direct_parent->entries[e->index_in_direct_parent_list].flags
 			& PFS_F_FOLDER) != 0) {
 		struct pfs_folder *folder = (struct pfs_folder*) element;
-		if (folder->direct_child_count > 0) {
+		if (folder->helper_index == HASH_NODE_INDEX) {
+			int empty = helpers_are_empty(pfs0(e), e->element_place);
+			if (empty != 1) {
+				if (empty == 0) {
+					pfs_err = PFS_ERRNO_FOLDER_NOT_EMPTY;
+				}
+				pfs0(e)->unget(pfs0(e), e->element_place.block);
+				return 0;
+			}
+			del_empty_helpers(pfs0(e), folder);
+		} else if (folder->direct_child_count > 0) {
 			if ((folder->direct_child_count > 1)
 					|| (folder->helper_index == -1)) {
 				pfs_err = PFS_ERRNO_FOLDER_NOT_EMPTY;
@@ -1014,12 +1894,19 @@ int pfsc_element_delete(pfs_eh e, i64 *former_index, pfs_eh old_parent) {
 			folder->direct_child_count = 0;
 			folder->helper_index = -1;
 		}
+		name_index_forget(pfs0(e), e->element_place);
 	} else if ((direct_parent->entries[e->index_in_direct_parent_list].flags
 			& (PFS_F_FILE | PFS_F_PIPE)) != 0) {
-		pfsc_file_truncate(e, 0L);
+		if (background) {
+			pfsc_file_detach(e);
+		} else {
+			pfsc_file_truncate(e, 0L);
+		}
 	} else {
 		abort();
 	}
+	// the place of e can be reused, also when e is no folder
+	count_cache_forget(pfs0(e), e->element_place);
 	remove_from_parent(e, direct_parent);
 	pfs0(e)->set(pfs0(e), e->direct_parent_place.block);
 	pfs0(e)->set(pfs0(e), e->element_place.block);
@@ -1092,6 +1979,8 @@ static int move_and_set_parent_impl(pfs_eh e, pfs_eh new_parent, char *name,
 	} else {
 		name_len = strlen(name);
 	}
+	const int same_parent = same_place(moh.real_parent_place,
+			new_parent->element_place);
 	if (!add_child(e, new_parent, new_parent->element_place, name, name_len, -1,
 			my_old_entry)) {
 		pfs0(e)->unget(pfs0(e), moh.direct_parent_place.block);
@@ -1099,6 +1988,10 @@ static int move_and_set_parent_impl(pfs_eh e, pfs_eh new_parent, char *name,
 		pfs0(e)->unget(pfs0(e), new_parent_old_block);
 		return 0; // pfs_err has already been set
 	}
+	if (same_parent) {
+		// the parent may have been moved when it grew
+		moh.real_parent_place = e->real_parent_place;
+	}
 	remove_from_parent(&moh, old_parent_folder);
 	pfs0(e)->set(pfs0(e), moh.direct_parent_place.block);
 	pfs0(e)->set(pfs0(e), moh.element_place.block);
@@ -1121,3 +2014,28 @@ int pfsc_element_move(pfs_eh e, pfs_eh new_parent, char *name,
 	return move_and_set_parent_impl(e, new_parent, name, former_index,
 			old_parent);
 }
+
+int hash_folder_set_name(pfs_eh e, char *name) {
+	get_folder3_(pfs0(e), real_parent, block_data, e->real_parent_place.block,
+			e->real_parent_place.pos, return 0;)
+	const int hashed = real_parent->helper_index == HASH_NODE_INDEX;
+	pfs0(e)->unget(pfs0(e), e->real_parent_place.block);
+	if (!hashed) {
+		return -1;
+	}
+	struct pfs_element_handle leaf = *e;
+	leaf.element_place = e->real_parent_place;
+	i32 depth = 0;
+	if (!hash_folder_descend(pfs0(e), &leaf, name_hash(name, strlen(name)),
+			&depth)) {
+		return 0;
+	}
+	if (same_place(leaf.element_place, e->direct_parent_place)) {
+		return -1;
+	}
+	struct pfs_element_handle parent = *e;
+	if (!pfsc_element_get_parent(&parent)) {
+		return 0;
+	}
+	return pfsc_element_move(e, &parent, name, NULL, NULL);
+}
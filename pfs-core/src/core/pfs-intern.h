@@ -27,6 +27,7 @@
 #include "../pfs/patr-file-sys.h"
 #include "../pfs/pfs-mount.h"
 #include "../pfs/hashset.h"
+#include "../pfs/bm.h"
 #include <string.h>
 #include <stdlib.h>
 
@@ -110,6 +111,18 @@ _Static_assert(offsetof(struct pfs_b0, MAGIC0) == 0, "error!");
 
 #define PATRFS_B0_FLAG_BM_ALLOC   0x00000001U
 #define PATRFS_B0_FLAG_READ_ONLY  0x00000002U
+#define PATRFS_B0_FLAG_EXTENTS    0x00000004U
+#define PATRFS_B0_FLAG_LOCALITY   0x00000008U
+#define PATRFS_B0_FLAG_HASH_FOLDERS 0x00000010U
+/* the super block entry ends with the first block of the deferred list */
+#define PATRFS_B0_FLAG_DEFERRED_LIST 0x00000020U
+/* the extent blocks end with the reserved count (see pfs_extent_block) */
+#define PATRFS_B0_FLAG_EXTENT_RESERVED 0x00000040U
+
+_Static_assert(PATRFS_B0_FLAG_EXTENTS == PFS_FORMAT_EXTENTS, "error!");
+_Static_assert(PATRFS_B0_FLAG_LOCALITY == PFS_FORMAT_LOCALITY, "error!");
+_Static_assert(PATRFS_B0_FLAG_HASH_FOLDERS == PFS_FORMAT_HASH_FOLDERS, "error!");
+_Static_assert(PATRFS_B0_FLAG_DEFERRED_LIST == PFS_FORMAT_DEFERRED_FREE, "error!");
 
 struct pfs_element {
 	i64 last_mod_time;
@@ -135,6 +148,19 @@ struct pfs_folder {
 
 _Static_assert(offsetof(struct pfs_folder, entries) == sizeof(struct pfs_folder));
 
+/*
+ * with PATRFS_B0_FLAG_HASH_FOLDERS a folder, which does not fit in its block,
+ * becomes a hash node: its helper_index is HASH_NODE_INDEX and it has exactly
+ * two entries, which are helper folders
+ * the first helper folder contains the children, which have a zero bit in the
+ * hash of their name at the depth of the node, the second helper folder
+ * contains the other children
+ * the helper folders are hash nodes or normal folders (leaves), leaves at
+ * HASH_FOLDER_MAX_DEPTH use a chain of helper folders when they are full
+ */
+#define HASH_NODE_INDEX -2
+#define HASH_FOLDER_MAX_DEPTH 64
+
 struct pfs_file_data {
 	struct pfs_element *e;
 	struct pfs_file0 *f;
@@ -150,6 +176,37 @@ struct pfs_file {
 	struct pfs_file0 file;
 } __attribute__((packed));
 
+/*
+ * with PATRFS_B0_FLAG_EXTENTS the first_block of a file/pipe is the first
+ * extent block (or -1 if the file has no blocks)
+ * the extent blocks form a chain, which lists the data blocks as runs of
+ * consecutive blocks
+ * the data blocks have no next pointer and are completely used for data
+ * with PATRFS_B0_FLAG_EXTENT_RESERVED the last 8 bytes of an extent block are
+ * not used for extents, in the first extent block they hold the number of
+ * preallocated data blocks after the end of the file
+ */
+struct pfs_extent {
+	i64 start;
+	i64 count;
+} __attribute__((packed));
+
+struct pfs_extent_block {
+	i64 next_block;
+	i64 count;
+	struct pfs_extent extents[0];
+} __attribute__((packed));
+
+_Static_assert(offsetof(struct pfs_extent_block, extents) == 16, "error!");
+
+#define pfs_extents_per_block(block_size, reserved_layout) \
+	(((block_size) - (i64) sizeof(struct pfs_extent_block) \
+			- ((reserved_layout) ? 8 : 0)) / (i64) sizeof(struct pfs_extent))
+
+/* the reserved count of the first extent block */
+#define pfs_extent_reserved(block_size, first) \
+	(*(i64*) (((void*) (first)) + (block_size) - 8))
+
 struct pfs_pipe0 {
 	struct pfs_file0 file;
 	i32 start_offset;
@@ -275,6 +332,13 @@ i32 reallocate_in_block_table(bm pfs, const i64 block, const i32 pos,
 		} \
 	}
 
+/*
+ * updates the real parent and folder entry of the child folders of e
+ * (helper folders are updated recursively)
+ */
+void set_parent_place_from_childs(bm pfs, struct pfs_place e,
+		struct pfs_place real_parent);
+
 i32 grow_folder_entry(const struct pfs_element_handle *e, i32 new_size,
 		struct pfs_place real_parent);
 
@@ -282,16 +346,451 @@ i32 grow_folder_entry(const struct pfs_element_handle *e, i32 new_size,
 
 i32 add_name(bm pfs, i64 block_num, const char *name, i64 str_len);
 
+/*
+ * the in-memory summary of the block allocation bitmap
+ * the index is built on the first allocation (or block count query) and then
+ * updated by allocate_block and free_block
+ * with PATRFS_B0_FLAG_BM_ALLOC only the counter is used (the block manager
+ * allocates the blocks)
+ */
+struct pfs_free_index {
+	/* the number of blocks of the file system */
+	i64 block_count;
+	/* the number of unused blocks */
+	i64 free_blocks;
+	/* the number of blocks covered by one block of the bitmap */
+	i64 map_bits;
+	/* the blocks of the bitmap chain */
+	i64 *map_blocks;
+	i64 map_count;
+	/* one bit per block, set if the block is used */
+	ui64 *used;
+	i64 used_count;
+	/* one bit per word of used, set if all bits of the word are set */
+	ui64 *full;
+	i64 full_count;
+	/* the first word of full, which may have a zero bit */
+	i64 hint;
+};
+
+void free_index_free(struct pfs_free_index *fi);
+
+/* the maximum number of files remembered by the chain index */
+#define CHAIN_INDEX_FILES 16
+/* the maximum number of remembered blocks per file */
+#define CHAIN_INDEX_MAX_BLOCKS (1 << 14)
+
+/*
+ * remembers every stride-th block of the block chain of a file
+ * blocks[i] is the (i * stride)-th block of the chain
+ * the stride is doubled when the file has more than
+ * CHAIN_INDEX_MAX_BLOCKS * stride blocks
+ */
+struct pfs_chain_entry {
+	/* the first block of the file or -1 if the entry is unused */
+	i64 first_block;
+	i64 *blocks;
+	i64 count;
+	i64 capacity;
+	i64 stride;
+	i64 last_use;
+	/* the last block of the chain and its index (-1 if not known) */
+	i64 tail_block;
+	i64 tail_index;
+};
+
+/*
+ * the chain index of a file system, it is used by find_place
+ * entries are removed when the first block of the file is freed and
+ * shortened when the file is truncated
+ */
+struct pfs_chain_index {
+	struct pfs_chain_entry entries[CHAIN_INDEX_FILES];
+	i64 use_counter;
+	/* changed whenever a block is freed */
+	i64 generation;
+};
+
+void chain_index_free(struct pfs_chain_index *ci);
+
+/*
+ * forgets all blocks of the file with the given first block after the first
+ * keep_blocks blocks (when keep_blocks is zero the file is forgotten)
+ */
+void chain_index_truncate(bm pfs, i64 first_block, i64 keep_blocks);
+
+/*
+ * remembers that block is the index-th block of the chain and currently the
+ * last block of the chain
+ * this is used when blocks are appended to a chain, so that the next append
+ * does not need to search the end of the chain
+ */
+void chain_index_append(bm pfs, i64 first_block, i64 index, i64 block);
+
+/*
+ * returns the remembered last block of the chain with the given first block
+ * and stores its index in index
+ * if the last block is not known -1 is returned
+ */
+i64 chain_index_tail(bm pfs, i64 first_block, i64 *index);
+
+/*
+ * returns the current generation of the chain index
+ * places in block chains stay valid as long as the generation does not change
+ * on error -1 is returned
+ */
+i64 chain_index_generation(bm pfs);
+
+/* the maximum number of folders with a name index */
+#define NAME_INDEX_FOLDERS 8
+/* the maximum number of slots of all name indices of a file system */
+#define NAME_INDEX_MAX_SLOTS (1L << 21)
+
+/*
+ * a child of an indexed folder
+ * hash is zero for unused and one for removed slots
+ * the child is the index-th entry of dirs[dir], the index may be too large
+ * after entries before it were removed
+ */
+struct pfs_name_slot {
+	ui64 hash;
+	i32 dir;
+	i32 index;
+};
+
+/*
+ * the name index of a folder, only folders with helper folders are indexed
+ * every child has exactly one slot
+ */
+struct pfs_name_folder {
+	/* the place of the folder or -1 if the entry is unused */
+	struct pfs_place folder;
+	/* the places of the folder (dirs[0]) and its helper folders */
+	struct pfs_place *dirs;
+	i32 dir_count;
+	i32 dir_capacity;
+	struct pfs_name_slot *slots;
+	/* the number of slots (a power of two) */
+	i64 capacity;
+	/* the number of children */
+	i64 count;
+	/* the number of used and removed slots */
+	i64 used;
+	i64 last_use;
+};
+
+/*
+ * the name indices of the recently used large folders of a file system
+ * the least recently used index is dropped when a new folder is indexed or
+ * when the indices would have more than NAME_INDEX_MAX_SLOTS slots
+ */
+struct pfs_name_index {
+	struct pfs_name_folder folders[NAME_INDEX_FOLDERS];
+	i64 use_counter;
+	i64 slot_count;
+};
+
+void name_index_free(struct pfs_name_index *ni);
+
+/* forgets the name index of the folder (used when the folder is deleted) */
+void name_index_forget(bm pfs, struct pfs_place folder);
+
+/*
+ * updates the name indices after a folder or helper folder was moved from
+ * old_place to new_place
+ */
+void name_index_moved(bm pfs, struct pfs_place old_place,
+		struct pfs_place new_place);
+
+/*
+ * adds the child, which is the index-th entry of dir, to the name index of
+ * the folder (if the folder is indexed)
+ */
+void name_index_add(bm pfs, struct pfs_place folder, const char *name,
+		i64 name_len, struct pfs_place dir, i32 index);
+
+/*
+ * removes the child with the given name, which is in dir, from the name
+ * index of the folder (if the folder is indexed)
+ */
+void name_index_remove(bm pfs, struct pfs_place folder, const char *name,
+		i64 name_len, struct pfs_place dir);
+
+/* the maximum number of folders with a cached child count */
+#define COUNT_CACHE_FOLDERS 64
+
+/* the cached child count of a folder */
+struct pfs_count_folder {
+	/* the place of the folder or -1 if the entry is unused */
+	struct pfs_place folder;
+	/* the number of children (the children of helper folders included) */
+	i64 count;
+	i64 last_use;
+};
+
+/*
+ * the child counts of the recently counted folders of a file system
+ * the least recently used count is dropped when a new folder is counted
+ * the counts are only kept in memory, so they also work for old images
+ */
+struct pfs_count_cache {
+	struct pfs_count_folder folders[COUNT_CACHE_FOLDERS];
+	i64 use_counter;
+};
+
+/*
+ * adds delta to the cached child count of the folder (if it is cached)
+ * folder is the real folder (never a helper folder)
+ */
+void count_cache_add(bm pfs, struct pfs_place folder, i64 delta);
+
+/*
+ * updates the cached child counts after a folder or helper folder was moved
+ * from old_place to new_place
+ */
+void count_cache_moved(bm pfs, struct pfs_place old_place,
+		struct pfs_place new_place);
+
+/* forgets the child count of the folder (used when the folder is deleted) */
+void count_cache_forget(bm pfs, struct pfs_place folder);
+
+/*
+ * renames e if its parent is a hash folder and the new name belongs to
+ * another leaf, the child is then moved to that leaf
+ * returns -1 if the name can be changed in place, otherwise 1 on success
+ * and 0 on error
+ */
+int hash_folder_set_name(pfs_eh e, char *name);
+
+/*
+ * remembers where the last read/write with the cursor ended
+ * the place is only used when the next operation starts at pos and the file
+ * and the chain index generation did not change
+ */
+struct pfs_file_cursor {
+	/* the file position of place or -1 if the cursor is unset */
+	i64 pos;
+	struct pfs_place place;
+	i64 first_block;
+	i64 generation;
+};
+
 i64 allocate_block(bm pfs, ui64 block_flags);
 
+/*
+ * like allocate_block, but with PATRFS_B0_FLAG_LOCALITY the unused block
+ * nearest to goal is allocated (blocks after goal are preferred)
+ * goal is the previous block of a chain or the block of the parent, -1 if
+ * there is no goal
+ */
+i64 allocate_block_near(bm pfs, ui64 block_flags, i64 goal);
+
+/*
+ * allocates up to count consecutive blocks in one pass over the block
+ * allocation bitmap
+ * with PATRFS_B0_FLAG_LOCALITY the run is placed like allocate_block_near
+ * places a single block
+ * the first allocated block is stored in first_block
+ * returns the number of allocated blocks (at least one) or -1 on error
+ */
+i64 allocate_blocks(bm pfs, ui64 block_flags, i64 goal, i64 count,
+		i64 *first_block);
+
 void free_block(bm pfs, i64 block);
 
+/*
+ * frees the given blocks like free_block
+ * the blocks are sorted, so that every block of the block allocation bitmap
+ * is changed only once
+ */
+void free_blocks(bm pfs, i64 *blocks, i64 count);
+
+/* the maximum number of blocks collected by a free batch */
+#define FREE_BATCH_BLOCKS 1024
+
+/*
+ * collects the blocks freed by a large delete or truncate
+ * the blocks are freed with free_blocks when the batch is full or flushed
+ */
+struct pfs_free_batch {
+	i64 count;
+	i64 blocks[FREE_BATCH_BLOCKS];
+};
+
+static inline void free_batch_flush(bm pfs, struct pfs_free_batch *fb) {
+	free_blocks(pfs, fb->blocks, fb->count);
+	fb->count = 0L;
+}
+
+static inline void free_batch_add(bm pfs, struct pfs_free_batch *fb,
+		i64 block) {
+	if (fb->count == FREE_BATCH_BLOCKS) {
+		free_batch_flush(pfs, fb);
+	}
+	fb->blocks[fb->count++] = block;
+}
+
+/*
+ * a block of the list of the files, which were deleted in the background
+ * first_blocks contains the first block (or extent block) of the detached
+ * blocks of each file, which are not yet freed
+ * the blocks stay used until they are freed by pfsc_free_deferred
+ *
+ * with PATRFS_B0_FLAG_DEFERRED_LIST the last 8 bytes of the super block entry
+ * contain the first block of the list (-1 if the list is empty)
+ */
+struct pfs_deferred_block {
+	i64 next_block;
+	i64 count;
+	i64 first_blocks[];
+} __attribute__((packed));
+
+/*
+ * the maximum number of blocks of the deferred list, which are freed when the
+ * file system is loaded or closed or when an allocation finds no unused block
+ * (the rest stays in the list, so a large list does not stall these calls)
+ */
+#define DEFERRED_FREE_STEP FREE_BATCH_BLOCKS
+
+/*
+ * returns the first block of the deferred list in the given b0 data or NULL
+ * if the file system has no deferred list
+ */
+static inline i64* b0_deferred_head(struct bm_block_manager *bm, void *b0) {
+	if ((((struct pfs_b0*) b0)->flags & PATRFS_B0_FLAG_DEFERRED_LIST) == 0) {
+		return NULL;
+	}
+	i32 *table = b0 + *(i32*) (b0 + bm->block_size - 4);
+	return b0 + table[1] - sizeof(i64);
+}
+
+/* returns non-zero if there are blocks of files deleted in the background */
+static inline int deferred_free_pending(struct bm_block_manager *bm) {
+	void *b0 = bm->get(bm, 0L);
+	if (b0 == NULL) {
+		return 0;
+	}
+	i64 *head = b0_deferred_head(bm, b0);
+	const int res = head != NULL && *head != -1L;
+	bm->unget(bm, 0L);
+	return res;
+}
+
+/*
+ * the in-memory data, which the file system keeps for a block manager
+ * it is kept in a table of the core keyed by the block manager, so the
+ * block manager structure does not know the file system internals
+ */
+struct pfs_core_data {
+	struct bm_block_manager *bm;
+	/*
+	 * the in-memory summary of the block allocation bitmap of the file
+	 * system, which is built lazily by the file system
+	 */
+	struct pfs_free_index *free_index;
+	/* remembers some blocks of the block chains of recently used files */
+	struct pfs_chain_index *chain_index;
+	/* maps the names of the children of large folders to their entries */
+	struct pfs_name_index *name_index;
+	/* remembers the number of children of recently counted folders */
+	struct pfs_count_cache *count_cache;
+};
+
+/*
+ * returns the core data of the block manager, the data is created when the
+ * block manager is used the first time by the file system
+ */
+struct pfs_core_data* core_data(struct bm_block_manager *bm);
+
+/* frees the core data of the block manager and its indices */
+void core_data_free(struct bm_block_manager *bm);
+
+#define core(pfs) core_data(pfs)
+
 void ensure_block_is_file_data(bm pfs, i64 block);
 
 void ensure_block_is_entry(bm pfs, i64 block);
 
 struct pfs_place find_place(bm pfs, i64 first_block, i64 remain);
 
+/* a list of unused memory chunks, which all have the same size */
+struct bm_pool {
+	/* the first unused chunk (the first bytes of a chunk point to the next) */
+	void *first;
+	i64 count;
+	i64 max_count;
+};
+
+/*
+ * the pools of a block manager keep the records of loaded blocks and the
+ * block buffers, which are no longer used, so they can be reused without
+ * malloc/free
+ * the block managers, which use the pools, store them in their private
+ * structure directly after the struct bm_block_manager
+ */
+struct bm_pools {
+	struct bm_pool loaded;
+	struct bm_pool data;
+};
+
+/* returns the pools of a block manager, which has pools */
+#define bm_pools(bm) ((struct bm_pools*) (((struct bm_block_manager*) (bm)) + 1))
+
+/* returns a pooled chunk or a new chunk with the given size */
+static inline void* bm_pool_alloc(struct bm_pool *pool, size_t size) {
+	void *chunk = pool->first;
+	if (chunk) {
+		pool->first = *(void**) chunk;
+		pool->count--;
+		return chunk;
+	}
+	return malloc(size);
+}
+
+/* puts the chunk in the pool or frees it if the pool is full */
+static inline void bm_pool_free(struct bm_pool *pool, void *chunk) {
+	if (pool->count < pool->max_count) {
+		*(void**) chunk = pool->first;
+		pool->first = chunk;
+		pool->count++;
+	} else {
+		free(chunk);
+	}
+}
+
+/* frees pooled chunks until at most max_count chunks are kept */
+static inline void bm_pool_trim(struct bm_pool *pool, i64 max_count) {
+	pool->max_count = max_count;
+	while (pool->count > max_count) {
+		void *chunk = pool->first;
+		pool->first = *(void**) chunk;
+		pool->count--;
+		free(chunk);
+	}
+}
+
+/*
+ * initializes the pools of the block manager
+ * the block_size of the block manager has to be set already
+ */
+static inline void bm_pools_init(struct bm_block_manager *bm) {
+	struct bm_pools *pools = bm_pools(bm);
+	i64 max_count = BM_POOL_DEFAULT_MAX_BYTES / bm->block_size;
+	pools->loaded.first = NULL;
+	pools->loaded.count = 0;
+	pools->loaded.max_count = max_count;
+	pools->data.first = NULL;
+	pools->data.count = 0;
+	// the chunks are linked with their first bytes
+	pools->data.max_count = bm->block_size < sizeof(void*) ? 0 : max_count;
+}
+
+/* frees all pooled chunks of the block manager */
+static inline void bm_pools_free(struct bm_block_manager *bm) {
+	bm_pool_trim(&bm_pools(bm)->loaded, 0);
+	bm_pool_trim(&bm_pools(bm)->data, 0);
+}
+
 #define pfs(eh) (eh)->handle.fs_data->file_sys
 
 #define pfs0(e) (e)->fs_data->file_sys
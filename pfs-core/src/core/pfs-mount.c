@@ -39,10 +39,15 @@
 
 struct bm_block_manager_intern {
 	struct bm_block_manager bm;
+	struct bm_pools pools;
 	struct pfs_element_handle_mount *me;
 	i64 block_count;
 };
 
+// bm_pools expects the pools directly after the bm_block_manager
+_Static_assert(offsetof(struct bm_block_manager_intern, pools)
+		== sizeof(struct bm_block_manager), "error!");
+
 struct bm_loaded {
 	i64 block;
 	void *data;
@@ -124,8 +129,11 @@ int pfsc_mount_open(pfs_meh me, int read_only) {
 				not_get_first_zero_flagged_block)
 		bm_set(void*, delete_all_flags, not_delete_all_flags)
 #undef bm_set
+		bm_pools_init(&inner->bm);
 		if (imount->file.file_length == 0) {
 			if (!pfsc_format(&inner->bm, imount->block_count, NULL, "")) {
+				bm_pools_free(&inner->bm);
+				core_data_free(&inner->bm);
 				free(inner);
 				pfs(me)->unget(pfs(me), me->handle.element_place.block);
 				return 0;
@@ -192,18 +200,18 @@ static void* pfs_inten_bm_get(struct bm_block_manager *bm, i64 block) {
 		return loaded->data;
 	}
 	get_mount_(bi->me, imount, NULL, _intern)
-	loaded = malloc(sizeof(struct bm_loaded));
+	loaded = bm_pool_alloc(&bi->pools.loaded, sizeof(struct bm_loaded));
 	if (loaded == NULL) {
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		errno = 0;
 		return NULL;
 	}
 	loaded->block = block;
-	loaded->data = malloc(bi->bm.block_size);
+	loaded->data = bm_pool_alloc(&bi->pools.data, bi->bm.block_size);
 	loaded->count = 1;
 	loaded->save = 0;
 	if (loaded->data == NULL) {
-		free(loaded);
+		bm_pool_free(&bi->pools.loaded, loaded);
 		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
 		errno = 0;
 		return NULL;
@@ -215,8 +223,8 @@ static void* pfs_inten_bm_get(struct bm_block_manager *bm, i64 block) {
 			};
 	if (!pfsc_file_read0(pfs(bi->me), file0, fpos, loaded->data,
 			bi->bm.block_size, bi->me->handle.element_place.block)) {
-		free(loaded);
-		free(loaded->data);
+		bm_pool_free(&bi->pools.data, loaded->data);
+		bm_pool_free(&bi->pools.loaded, loaded);
 		return NULL;
 	}
 	if (hashset_put(&bi->bm.loaded, (uint64_t) block, loaded) != NULL) {
@@ -240,8 +248,8 @@ static int pfs_inten_bm_unget(struct bm_block_manager *bm, i64 block) {
 		if (loaded->save) {
 			res = save_block(bi, loaded);
 		}
-		free(loaded->data);
-		free(loaded);
+		bm_pool_free(&bi->pools.data, loaded->data);
+		bm_pool_free(&bi->pools.loaded, loaded);
 		return res;
 	}
 	return 1;
@@ -259,8 +267,8 @@ static int pfs_inten_bm_set(struct bm_block_manager *bm, i64 block) {
 			abort();
 		}
 		int res = save_block(bi, loaded);
-		free(loaded->data);
-		free(loaded);
+		bm_pool_free(&bi->pools.data, loaded->data);
+		bm_pool_free(&bi->pools.loaded, loaded);
 		return res;
 	}
 	loaded->save = 1;
@@ -283,12 +291,18 @@ static int pfs_inten_bm_close_bm(struct bm_block_manager *bm) {
 		abort();
 	}
 	free(bm->loaded.entries);
+	bm_pools_free(bm);
+	core_data_free(bm);
 	free(bm);
 	return 1;
 }
 
 int pfsc_mount_close(pfs_meh me) {
-	int res = me->fs.file_sys->close_bm(me->fs.file_sys);
+	// some blocks of the files deleted in the background are freed first
+	int res = pfsc_free_deferred(me->fs.file_sys, DEFERRED_FREE_STEP) != -1L;
+	if (!me->fs.file_sys->close_bm(me->fs.file_sys)) {
+		res = 0;
+	}
 	free(me->fs.root);
 	return res;
 }
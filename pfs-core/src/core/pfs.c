@@ -28,6 +28,70 @@
 
 static char pfs_error_buf[128];
 
+static int core_data_equal(const void *a, const void *b) {
+	const struct pfs_core_data *x = a, *y = b;
+	return x->bm == y->bm;
+}
+
+static uint64_t core_data_hash(const void *a) {
+	// block managers are at least 8 byte aligned
+	return ((uint64_t) ((const struct pfs_core_data*) a)->bm) >> 3;
+}
+
+static struct hashset pfs_core_datas = { //
+		/*	  */.entries = NULL, //
+				.entrycount = 0, //
+				.equalizer = core_data_equal, //
+				.hashmaker = core_data_hash, //
+				.maxi = 0 //
+		};
+
+/* the file system is mostly used with the same block manager again */
+static struct pfs_core_data *last_core_data = NULL;
+
+struct pfs_core_data* core_data(struct bm_block_manager *bm) {
+	if (last_core_data && last_core_data->bm == bm) {
+		return last_core_data;
+	}
+	struct pfs_core_data key = { .bm = bm };
+	const uint64_t hash = core_data_hash(&key);
+	struct pfs_core_data *cd = hashset_get(&pfs_core_datas, hash, &key);
+	if (cd == NULL) {
+		cd = calloc(1, sizeof(struct pfs_core_data));
+		if (cd == NULL) {
+			// the callers can not handle missing core data
+			abort();
+		}
+		cd->bm = bm;
+		hashset_put(&pfs_core_datas, hash, cd);
+	}
+	last_core_data = cd;
+	return cd;
+}
+
+void core_data_free(struct bm_block_manager *bm) {
+	struct pfs_core_data key = { .bm = bm };
+	struct pfs_core_data *cd = hashset_remove(&pfs_core_datas,
+			core_data_hash(&key), &key);
+	if (cd == NULL) {
+		return;
+	}
+	if (last_core_data == cd) {
+		last_core_data = NULL;
+	}
+	if (cd->free_index) {
+		free_index_free(cd->free_index);
+	}
+	if (cd->chain_index) {
+		chain_index_free(cd->chain_index);
+	}
+	if (cd->name_index) {
+		name_index_free(cd->name_index);
+	}
+	free(cd->count_cache);
+	free(cd);
+}
+
 extern const char* pfs_error0(int pfs_err_val) {
 	switch (pfs_err_val) {
 	case PFS_ERRNO_NONE:
@@ -79,6 +143,11 @@ extern void pfs_perror(const char *msg) {
 }
 
 int pfsc_format(bm pfs, i64 block_count, uuid_t uuid, char *name) {
+	return pfsc_format_flags(pfs, block_count, uuid, name, 0U);
+}
+
+int pfsc_format_flags(bm pfs, i64 block_count, uuid_t uuid, char *name,
+		ui32 format_flags) {
 	if (pfs == NULL) {
 		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
 		return 0;
@@ -103,9 +172,29 @@ int pfsc_format(bm pfs, i64 block_count, uuid_t uuid, char *name) {
 		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
 		return 0;
 	}
+	if ((format_flags
+			& ~(PFS_FORMAT_EXTENTS | PFS_FORMAT_LOCALITY
+					| PFS_FORMAT_HASH_FOLDERS | PFS_FORMAT_DEFERRED_FREE)) != 0) {
+		pfs_err = PFS_ERRNO_ILLEGAL_ARG;
+		return 0;
+	}
 	if (pfs->loaded.entrycount > 0) {
 		abort();
 	}
+	if (core(pfs)->free_index) {
+		free_index_free(core(pfs)->free_index);
+		core(pfs)->free_index = NULL;
+	}
+	if (core(pfs)->chain_index) {
+		chain_index_free(core(pfs)->chain_index);
+		core(pfs)->chain_index = NULL;
+	}
+	if (core(pfs)->name_index) {
+		name_index_free(core(pfs)->name_index);
+		core(pfs)->name_index = NULL;
+	}
+	free(core(pfs)->count_cache);
+	core(pfs)->count_cache = NULL;
 	void *b0 = pfs->lazy_get(pfs, 0L);
 	if (b0 == NULL) {
 		pfs_err = PFS_ERRNO_UNKNOWN_ERROR;
@@ -122,8 +211,12 @@ int pfsc_format(bm pfs, i64 block_count, uuid_t uuid, char *name) {
 	i32 *table = b0 + table_offset;
 	table[0] = 0; // table_entry0: super_block
 	table[1] = sizeof(struct pfs_b0) + name_len;
-	table[2] = sizeof(struct pfs_b0) + name_len; // table_entry1: root_folder
-	table[3] = sizeof(struct pfs_b0) + name_len + sizeof(struct pfs_folder);
+	if (format_flags & PFS_FORMAT_DEFERRED_FREE) {
+		// the super block entry ends with the head of the deferred list
+		table[1] += sizeof(i64);
+	}
+	table[2] = table[1]; // table_entry1: root_folder
+	table[3] = table[2] + sizeof(struct pfs_folder);
 	table[4] = table_offset; // (table_entry2.start:) table_offset marker
 	if (table[4] - (i64) table[3]
 			< sizeof(struct pfs_folder_entry) + sizeof(struct pfs_folder_entry)
@@ -136,11 +229,15 @@ int pfsc_format(bm pfs, i64 block_count, uuid_t uuid, char *name) {
 	super_data->MAGIC0 = PFS_MAGIC_START0;
 	super_data->MAGIC1 = PFS_MAGIC_START1;
 	super_data->root.block = 0L;
-	super_data->root.pos = sizeof(struct pfs_b0);
+	super_data->root.pos = table[2];
 	super_data->block_size = pfs->block_size;
 	super_data->block_count = block_count;
+	ui32 b0_flags = format_flags;
+	if (format_flags & PFS_FORMAT_EXTENTS) {
+		b0_flags |= PATRFS_B0_FLAG_EXTENT_RESERVED;
+	}
 	if (pfs->block_flag_bits > 0) {
-		super_data->flags = PATRFS_B0_FLAG_BM_ALLOC;
+		super_data->flags = PATRFS_B0_FLAG_BM_ALLOC | b0_flags;
 		if (!pfs->delete_all_flags(pfs)) {
 			pfs->unget(pfs, 0);
 			return 0;
@@ -150,7 +247,7 @@ int pfsc_format(bm pfs, i64 block_count, uuid_t uuid, char *name) {
 			return 0;
 		}
 	} else {
-		super_data->flags = 0;
+		super_data->flags = b0_flags;
 		void *b1 = pfs->lazy_get(pfs, 1L);
 		memset(b1, 0, pfs->block_size - 8);
 		*(ui8*) b1 = 3;
@@ -174,7 +271,11 @@ int pfsc_format(bm pfs, i64 block_count, uuid_t uuid, char *name) {
 	if (name_len) {
 		memcpy(super_data->name, name, name_len);
 	}
-	struct pfs_folder *root = b0 + sizeof(struct pfs_b0) + name_len;
+	i64 *deferred_head = b0_deferred_head(pfs, b0);
+	if (deferred_head) {
+		*deferred_head = -1L;
+	}
+	struct pfs_folder *root = b0 + table[2];
 	const struct pfs_place no_parent = { .block = -1L, .pos = -1 };
 	i64 now = time(NULL);
 	root->element.last_mod_time = now;
@@ -211,63 +312,32 @@ i64 pfsc_block_count(bm pfs) {
 	return block_count;
 }
 
+static struct pfs_free_index* free_index_load(bm pfs, i64 block_count);
+
+static struct pfs_free_index* free_index_count_flags(bm pfs, i64 block_count);
+
 static inline i64 pfsc_free_and_used_block_count_impl(bm pfs, _Bool free) {
+	// the blocks of files deleted in the background are counted as used
 	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
 	if (b0 == NULL) {
 		return -1L;
 	}
-	i64 total_block_count = b0->block_count;
-	if (!pfs->unget(pfs, 0L)) {
-		return -1L;
-	}
-	if (b0->flags & PATRFS_B0_FLAG_BM_ALLOC) {
-		i64 fzfb = pfs->first_zero_flagged_block(pfs);
-		if (fzfb == -1) {
-			return 0;
+	if (!core(pfs)->free_index) {
+		if (b0->flags & PATRFS_B0_FLAG_BM_ALLOC) {
+			core(pfs)->free_index = free_index_count_flags(pfs, b0->block_count);
 		} else {
-			return 1;
+			core(pfs)->free_index = free_index_load(pfs, b0->block_count);
 		}
-	} else {
-		i64 free_blocks = 0;
-		i64 current_block = 1;
-		while (1) {
-			void *block_data = pfs->get(pfs, current_block);
-			if (block_data == NULL) {
-				return -1L;
-			}
-			i64 *data = block_data;
-			for (i64 i = pfs->block_size - 16; i; i--) {
-				if (data[i] == -1) {
-					continue;
-				}
-				ui8 *p = (void*) &data[i];
-				for (int ii = 7; ii; ii--) {
-					if (p[ii] == (ui8) -1) {
-						continue;
-					}
-					for (int iii = 7; iii; iii--) {
-						if (free) {
-							if ((p[ii] & (1U << iii)) == 0) {
-								free_blocks++;
-							}
-						} else {
-							if ((p[ii] & (1U << iii)) != 0) {
-								free_blocks++;
-							}
-						}
-					}
-				}
-			}
-			i64 next = *(i64*) (block_data + pfs->block_size - 8);
-			if (!pfs->unget(pfs, current_block)) {
-				return -1;
-			}
-			if (next == -1) {
-				return free_blocks;
-			}
-			current_block = next;
+		if (!core(pfs)->free_index) {
+			pfs->unget(pfs, 0L);
+			return -1L;
 		}
 	}
+	if (!pfs->unget(pfs, 0L)) {
+		return -1L;
+	}
+	struct pfs_free_index *fi = core(pfs)->free_index;
+	return free ? fi->free_blocks : fi->block_count - fi->free_blocks;
 }
 
 i64 pfsc_free_block_count(bm pfs) {
@@ -317,18 +387,26 @@ uuid_p_t pfsc_uuid(bm pfs, uuid_t copy) {
 	return copy;
 }
 
+/* returns the length of the name in the given b0 data */
+static inline i32 b0_name_len(bm pfs, void *super) {
+	i32 *table = super + *(i32*) (super + pfs->block_size - 4);
+	i32 end = table[1];
+	if (b0_deferred_head(pfs, super)) {
+		end -= sizeof(i64);
+	}
+	return end - offsetof(struct pfs_b0, name);
+}
+
 i32 pfsc_name_len(bm pfs) {
 	void *super = pfs->get(pfs, 0L);
-	i32 len = (*(i32*) (super + 4 + (*(i32*) (super + pfs->block_size))))
-			- offsetof(struct pfs_b0, name);
+	i32 len = b0_name_len(pfs, super);
 	pfs->unget(pfs, 0L);
 	return len;
 }
 
 i32 pfsc_name_cpy(bm pfs, char *buf, i32 buf_len) {
 	void *super = pfs->get(pfs, 0L);
-	i32 len = (*(i32*) (super + 4 + (*(i32*) (super + pfs->block_size))))
-			- offsetof(struct pfs_b0, name);
+	i32 len = b0_name_len(pfs, super);
 	if (buf_len > len) {
 		memcpy(buf, super + offsetof(struct pfs_b0, name), len);
 		buf[len] = '\0';
@@ -341,8 +419,7 @@ i32 pfsc_name_cpy(bm pfs, char *buf, i32 buf_len) {
 
 char* pfsc_name(bm pfs) {
 	void *super = pfs->get(pfs, 0L);
-	i32 len = (*(i32*) (super + 4 + (*(i32*) (super + pfs->block_size))))
-			- offsetof(struct pfs_b0, name);
+	i32 len = b0_name_len(pfs, super);
 	char *name = malloc(len + 1);
 	memcpy(name, super + offsetof(struct pfs_b0, name), len);
 	name[len] = '\0';
@@ -376,6 +453,10 @@ int pfsc_fill_root(bm pfs, struct element_handle *overwrite_me,
 	if (!pfs->unget(pfs, 0L)) {
 		return 0;
 	}
+	// continue with the files deleted in the background before the last close
+	if (!read_only && pfsc_free_deferred(pfs, DEFERRED_FREE_STEP) == -1L) {
+		return 0;
+	}
 	return 1;
 }
 
@@ -462,6 +543,10 @@ i32 allocate_in_block_table(bm pfs, i64 block, i64 size) {
 	}
 	for (table++; table < table_end; table += 2) {
 		i32 free_size = table[1] - table[0];
+		if (table + 1 == table_end) {
+			// the table grows into the last gap
+			free_size -= 8;
+		}
 		if (free_size >= size) {
 			i32 result = ((free_size - size) >> 1) + *table;
 			result = result & ~7L;
@@ -507,7 +592,8 @@ static inline i32 fill_entry_and_move_data(i32 free, i32 last_end,
 		abort();
 	}
 	if (copy) {
-		memcpy(block_data + new_pos, block_data + pos, old_size);
+		// the old and new place may overlap
+		memmove(block_data + new_pos, block_data + pos, old_size);
 	}
 	return new_pos;
 }
@@ -577,9 +663,10 @@ i32 reallocate_in_block_table(bm pfs, const i64 block, const i32 pos,
 		for (; table < my_old_entry; table += 2) {
 			i32 free = (*table) - last_end;
 			if (free >= new_size) {
-				for (i64 *table_entry = (void*) table;
-						((void*) table_entry) < ((void*) my_old_entry);
-						table_entry++) {
+				// move backwards, the entries are shifted to higher addresses
+				for (i64 *table_entry = ((void*) my_old_entry) - 8;
+						((void*) table_entry) >= ((void*) table);
+						table_entry--) {
 					table_entry[1] = table_entry[0];
 				}
 				i32 new_pos = fill_entry_and_move_data(free, last_end, new_size,
@@ -624,7 +711,8 @@ int allocate_new_entry(bm pfs, struct pfs_place *write, i64 base_block,
 			return 1;
 		}
 	}
-	i64 block = allocate_block(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_ENTRIES);
+	i64 block = allocate_block_near(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_ENTRIES,
+			base_block);
 	if (block == -1L) {
 		return 0;
 	}
@@ -661,7 +749,8 @@ void set_parent_place_from_childs(bm pfs, struct pfs_place e,
 				abort();
 			}
 			if ((f->entries[i].flags & PFS_F_HELPER_FOLDER) != 0) {
-				if (i != f->helper_index) {
+				if (i != f->helper_index
+						&& f->helper_index != HASH_NODE_INDEX) {
 					abort();
 				}
 				set_parent_place_from_childs(pfs, f->entries[i].child_place,
@@ -707,6 +796,8 @@ i32 grow_folder_entry(const struct pfs_element_handle *e, i32 new_size,
 		if (real_parent.block == place.block) {
 			real_parent.pos = new_pos;
 		}
+		name_index_moved(pfs0(e), e->element_place, place);
+		count_cache_moved(pfs0(e), e->element_place, place);
 		set_parent_place_from_childs(pfs0(e), place, real_parent);
 	}
 	return new_pos;
@@ -823,7 +914,243 @@ static inline i64 allocate_block_without_bm(bm pfs, struct pfs_b0 *b0) {
 	}
 }
 
-i64 allocate_block(bm pfs, ui64 block_flags) {
+void free_index_free(struct pfs_free_index *fi) {
+	free(fi->map_blocks);
+	free(fi->used);
+	free(fi->full);
+	free(fi);
+}
+
+static inline void free_index_mark(struct pfs_free_index *fi, i64 block) {
+	i64 word = block >> 6;
+	fi->free_blocks--;
+	fi->used[word] |= 1UL << (block & 63);
+	if (fi->used[word] == 0xFFFFFFFFFFFFFFFFUL) {
+		fi->full[word >> 6] |= 1UL << (word & 63);
+	}
+}
+
+static inline void free_index_unmark(struct pfs_free_index *fi, i64 block) {
+	i64 word = block >> 6;
+	fi->free_blocks++;
+	fi->used[word] &= ~(1UL << (block & 63));
+	fi->full[word >> 6] &= ~(1UL << (word & 63));
+	if ((word >> 6) < fi->hint) {
+		fi->hint = word >> 6;
+	}
+}
+
+/* returns the lowest unused block or -1 if all blocks are used */
+static inline i64 free_index_find(struct pfs_free_index *fi) {
+	for (; fi->hint < fi->full_count; fi->hint++) {
+		ui64 free_words = ~fi->full[fi->hint];
+		if (free_words) {
+			i64 word = (fi->hint << 6) + __builtin_ctzll(free_words);
+			return (word << 6) + __builtin_ctzll(~fi->used[word]);
+		}
+	}
+	return -1L;
+}
+
+/* returns the end of the blocks, which are covered by the bitmap */
+static inline i64 free_index_covered(struct pfs_free_index *fi) {
+	const i64 covered = fi->map_count * fi->map_bits;
+	return covered < fi->block_count ? covered : fi->block_count;
+}
+
+/*
+ * returns the unused block nearest to goal or -1 if all blocks covered by
+ * the bitmap are used
+ * the words of the index are searched alternating after and before goal
+ */
+static i64 free_index_find_near(struct pfs_free_index *fi, i64 goal) {
+	const i64 end = free_index_covered(fi);
+	if (goal >= end) {
+		goal = end - 1;
+	}
+	const i64 goal_word = goal >> 6;
+	const i64 last_word = (end - 1) >> 6;
+	ui64 free_bits = ~fi->used[goal_word];
+	const ui64 after = free_bits & (0xFFFFFFFFFFFFFFFFUL << (goal & 63));
+	if (after && (goal_word << 6) + __builtin_ctzll(after) < end) {
+		return (goal_word << 6) + __builtin_ctzll(after);
+	}
+	const ui64 before = free_bits & ((1UL << (goal & 63)) - 1);
+	if (before) {
+		return (goal_word << 6) + 63 - __builtin_clzll(before);
+	}
+	for (i64 dist = 1; goal_word + dist <= last_word || goal_word >= dist;
+			dist++) {
+		if (goal_word + dist <= last_word) {
+			free_bits = ~fi->used[goal_word + dist];
+			if (free_bits
+					&& ((goal_word + dist) << 6) + __builtin_ctzll(free_bits)
+							< end) {
+				return ((goal_word + dist) << 6) + __builtin_ctzll(free_bits);
+			}
+		}
+		if (goal_word >= dist) {
+			free_bits = ~fi->used[goal_word - dist];
+			if (free_bits) {
+				return ((goal_word - dist) << 6) + 63
+						- __builtin_clzll(free_bits);
+			}
+		}
+	}
+	return -1L;
+}
+
+/* marks the block, which has to be covered by the bitmap, as used */
+static int free_index_use(bm pfs, struct pfs_free_index *fi, i64 block) {
+	const i64 map = block / fi->map_bits;
+	ui8 *data = pfs->get(pfs, fi->map_blocks[map]);
+	if (!data) {
+		return 0;
+	}
+	const i64 bit = block - map * fi->map_bits;
+	data[bit >> 3] |= 1U << (bit & 7);
+	if (!pfs->set(pfs, fi->map_blocks[map])) {
+		return 0;
+	}
+	free_index_mark(fi, block);
+	return 1;
+}
+
+/*
+ * counts the flagged blocks of a file system with PATRFS_B0_FLAG_BM_ALLOC
+ * the returned index only contains the counter
+ */
+static struct pfs_free_index* free_index_count_flags(bm pfs, i64 block_count) {
+	struct pfs_free_index *fi = calloc(1, sizeof(struct pfs_free_index));
+	if (!fi) {
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		return NULL;
+	}
+	fi->block_count = block_count;
+	fi->free_blocks = block_count;
+	for (i64 block = 0; block < block_count; block++) {
+		i64 flags = pfs->get_flags(pfs, block);
+		if (flags == -1L) {
+			free(fi);
+			return NULL;
+		}
+		if (flags) {
+			fi->free_blocks--;
+		}
+	}
+	return fi;
+}
+
+/*
+ * builds the free index from the bitmap chain
+ * on error NULL is returned, allocate_block then falls back to the bitmap
+ */
+static struct pfs_free_index* free_index_load(bm pfs, i64 block_count) {
+	struct pfs_free_index *fi = malloc(sizeof(struct pfs_free_index));
+	if (!fi) {
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		return NULL;
+	}
+	fi->block_count = block_count;
+	fi->map_bits = (pfs->block_size - 8) * 8L;
+	fi->map_count = 0L;
+	fi->used_count = (block_count + 63) >> 6;
+	fi->full_count = (fi->used_count + 63) >> 6;
+	fi->hint = 0L;
+	i64 max_maps = (block_count + fi->map_bits - 1) / fi->map_bits;
+	fi->map_blocks = malloc(max_maps * sizeof(i64));
+	fi->used = calloc(fi->used_count, sizeof(ui64));
+	fi->full = calloc(fi->full_count, sizeof(ui64));
+	if (!fi->map_blocks || !fi->used || !fi->full) {
+		free_index_free(fi);
+		pfs_err = PFS_ERRNO_OUT_OF_MEMORY;
+		return NULL;
+	}
+	for (i64 map_block = 1L; map_block != -1L; fi->map_count++) {
+		if (fi->map_count >= max_maps) {
+			free_index_free(fi);
+			pfs_err = PFS_ERRNO_ILLEGAL_DATA;
+			return NULL;
+		}
+		ui8 *data = pfs->get(pfs, map_block);
+		if (!data) {
+			free_index_free(fi);
+			return NULL;
+		}
+		fi->map_blocks[fi->map_count] = map_block;
+		i64 base = fi->map_count * fi->map_bits;
+		for (i32 i = 0; i < pfs->block_size - 8 && base < block_count;
+				i++, base += 8) {
+			fi->used[base >> 6] |= ((ui64) data[i]) << (base & 63);
+		}
+		i64 next = *(i64*) (data + pfs->block_size - 8);
+		pfs->unget(pfs, map_block);
+		map_block = next;
+	}
+	// the bits after the last block are marked as used
+	if (block_count & 63) {
+		fi->used[fi->used_count - 1] |= 0xFFFFFFFFFFFFFFFFUL
+				<< (block_count & 63);
+	}
+	fi->free_blocks = fi->used_count << 6;
+	for (i64 word = 0; word < fi->used_count; word++) {
+		fi->free_blocks -= __builtin_popcountll(fi->used[word]);
+		if (fi->used[word] == 0xFFFFFFFFFFFFFFFFUL) {
+			fi->full[word >> 6] |= 1UL << (word & 63);
+		}
+	}
+	if (fi->used_count & 63) {
+		fi->full[fi->full_count - 1] |= 0xFFFFFFFFFFFFFFFFUL
+				<< (fi->used_count & 63);
+	}
+	return fi;
+}
+
+static inline i64 allocate_block_with_index(bm pfs,
+		struct pfs_free_index *fi) {
+	i64 result = free_index_find(fi);
+	if (result == -1L) {
+		pfs_err = PFS_ERRNO_OUT_OF_SPACE;
+		return -1L;
+	}
+	i64 map = result / fi->map_bits;
+	if (map < fi->map_count) {
+		return free_index_use(pfs, fi, result) ? result : -1L;
+	}
+	// all covered blocks are used, append a new block to the bitmap
+	if (map != fi->map_count || result != map * fi->map_bits) {
+		abort();
+	}
+	if (result + 1 >= fi->block_count) {
+		pfs_err = PFS_ERRNO_OUT_OF_SPACE;
+		return -1L;
+	}
+	i64 last = fi->map_blocks[fi->map_count - 1];
+	void *data = pfs->get(pfs, last);
+	if (!data) {
+		return -1L;
+	}
+	*(i64*) (data + pfs->block_size - 8) = result;
+	if (!pfs->set(pfs, last)) {
+		return -1L;
+	}
+	data = pfs->lazy_get(pfs, result);
+	if (!data) {
+		return -1L;
+	}
+	memset(data, 0, pfs->block_size - 8);
+	*(ui8*) data = 3;
+	*(i64*) (data + pfs->block_size - 8) = -1L;
+	if (!pfs->set(pfs, result)) {
+		return -1L;
+	}
+	fi->map_blocks[fi->map_count++] = result;
+	free_index_mark(fi, result);
+	free_index_mark(fi, result + 1);
+	return result + 1;
+}
+
+static i64 allocate_block0(bm pfs, ui64 block_flags) {
 	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
 	if (b0->flags & PATRFS_B0_FLAG_BM_ALLOC) {
 		i64 fzfb = pfs->first_zero_flagged_block(pfs);
@@ -840,13 +1167,216 @@ i64 allocate_block(bm pfs, ui64 block_flags) {
 		}
 		pfs->unget(pfs, 0L);
 		pfs->set_flags(pfs, fzfb, block_flags);
+		if (core(pfs)->free_index) {
+			core(pfs)->free_index->free_blocks--;
+		}
 		return fzfb;
-	} else {
-		return allocate_block_without_bm(pfs, b0);
 	}
+	if (!core(pfs)->free_index) {
+		core(pfs)->free_index = free_index_load(pfs, b0->block_count);
+		if (!core(pfs)->free_index) {
+			return allocate_block_without_bm(pfs, b0);
+		}
+	}
+	pfs->unget(pfs, 0L);
+	return allocate_block_with_index(pfs, core(pfs)->free_index);
+}
+
+i64 allocate_block(bm pfs, ui64 block_flags) {
+	i64 block = allocate_block0(pfs, block_flags);
+	while (block == -1L && pfs_err == PFS_ERRNO_OUT_OF_SPACE
+			&& deferred_free_pending(pfs)) {
+		// the blocks of the files deleted in the background are still used
+		const i64 freed = pfsc_free_deferred(pfs, DEFERRED_FREE_STEP);
+		if (freed <= 0L) {
+			if (freed == 0L) {
+				pfs_err = PFS_ERRNO_OUT_OF_SPACE;
+			}
+			return -1L;
+		}
+		pfs_err = PFS_ERRNO_NONE;
+		block = allocate_block0(pfs, block_flags);
+	}
+	return block;
+}
+
+/*
+ * searches a run of unused blocks in the blocks covered by the bitmap, which
+ * are not before from
+ * returns the first block of the first run with at least count blocks or
+ * of the longest run if there is no such run (-1 if all blocks are used)
+ * the length of the run (at most count) is stored in run_length
+ */
+static i64 free_index_find_run(struct pfs_free_index *fi, i64 from,
+		i64 count, i64 *run_length) {
+	const i64 end = free_index_covered(fi);
+	i64 best = -1L, best_length = 0L;
+	i64 run = -1L, length = 0L;
+	for (i64 block = from; block < end;) {
+		const ui64 word = fi->used[block >> 6] >> (block & 63);
+		const i64 bits = 64 - (block & 63);
+		i64 free_bits = word ? __builtin_ctzll(word) : bits;
+		if (free_bits > end - block) {
+			free_bits = end - block;
+		}
+		if (free_bits > 0) {
+			if (run == -1L) {
+				run = block;
+				length = 0L;
+			}
+			length += free_bits;
+			if (length >= count) {
+				*run_length = count;
+				return run;
+			}
+			block += free_bits;
+			if (free_bits == bits) {
+				continue;
+			}
+		}
+		if (run != -1L && length > best_length) {
+			best = run;
+			best_length = length;
+		}
+		run = -1L;
+		// skip the used blocks
+		const ui64 rest = ~(fi->used[block >> 6] >> (block & 63));
+		const i64 used_bits = 64 - (block & 63);
+		i64 skip = rest ? __builtin_ctzll(rest) : used_bits;
+		block += skip < used_bits ? skip : used_bits;
+	}
+	if (run != -1L && length > best_length) {
+		best = run;
+		best_length = length;
+	}
+	*run_length = best_length;
+	return best;
+}
+
+/*
+ * returns the number of unused blocks starting at block (at most count)
+ * only blocks covered by the bitmap are counted
+ */
+static i64 free_index_free_at(struct pfs_free_index *fi, i64 block,
+		i64 count) {
+	const i64 end = free_index_covered(fi);
+	i64 length = 0L;
+	while (length < count && block + length < end) {
+		const i64 b = block + length;
+		const ui64 word = fi->used[b >> 6] >> (b & 63);
+		const i64 bits = 64 - (b & 63);
+		if (word) {
+			length += __builtin_ctzll(word);
+			break;
+		}
+		length += bits;
+	}
+	if (length > end - block) {
+		length = end - block;
+	}
+	return length < count ? length : count;
+}
+
+/* returns 1 if blocks are allocated near their goal block */
+static inline int locality_alloc(bm pfs) {
+	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
+	if (b0 == NULL) {
+		return 0;
+	}
+	const int res = (b0->flags & PATRFS_B0_FLAG_LOCALITY) != 0;
+	pfs->unget(pfs, 0L);
+	return res;
+}
+
+/* the number of unused blocks left before a new fragment */
+#define LOCALITY_GAP 8
+
+i64 allocate_block_near(bm pfs, ui64 block_flags, i64 goal) {
+	struct pfs_free_index *fi = core(pfs)->free_index;
+	// without a bitmap index allocate_block builds the index or uses the
+	// block manager
+	if (goal > 0L && fi && fi->map_count > 0 && locality_alloc(pfs)) {
+		i64 block = goal + 1;
+		if (block >= free_index_covered(fi)
+				|| (fi->used[block >> 6] & (1UL << (block & 63)))) {
+			// start a new fragment after some unused blocks, so the element
+			// which owns the blocks before can still grow in place
+			i64 length;
+			block = free_index_find_run(fi, goal, LOCALITY_GAP + 1, &length);
+			if (length > LOCALITY_GAP) {
+				block += LOCALITY_GAP;
+			} else {
+				block = free_index_find_near(fi, goal);
+			}
+		}
+		if (block != -1L) {
+			return free_index_use(pfs, fi, block) ? block : -1L;
+		}
+	}
+	return allocate_block(pfs, block_flags);
+}
+
+i64 allocate_blocks(bm pfs, ui64 block_flags, i64 goal, i64 count,
+		i64 *first_block) {
+	if (count > 1 && core(pfs)->free_index && core(pfs)->free_index->map_count > 0) {
+		struct pfs_free_index *fi = core(pfs)->free_index;
+		i64 length = 0L;
+		i64 start = -1L;
+		if (goal > 0L && locality_alloc(pfs)) {
+			// continue directly after goal or start a new fragment like
+			// allocate_block_near
+			length = free_index_free_at(fi, goal + 1, count);
+			if (length > 0L) {
+				start = goal + 1;
+			} else {
+				start = free_index_find_run(fi, goal, count + LOCALITY_GAP,
+						&length);
+				if (length > LOCALITY_GAP) {
+					start += LOCALITY_GAP;
+					length -= LOCALITY_GAP;
+				} else {
+					start = -1L;
+					length = 0L;
+				}
+			}
+		}
+		if (start == -1L) {
+			start = free_index_find_run(fi, fi->hint << 12, count, &length);
+		}
+		if (start != -1L && length > 1) {
+			*first_block = start;
+			for (i64 block = start; block < start + length;) {
+				const i64 map = block / fi->map_bits;
+				const i64 map_end = (map + 1) * fi->map_bits;
+				ui8 *data = pfs->get(pfs, fi->map_blocks[map]);
+				if (!data) {
+					return block == start ? -1L : block - start;
+				}
+				for (i64 bit = block - map * fi->map_bits;
+						block < start + length && block < map_end;
+						block++, bit++) {
+					data[bit >> 3] |= 1U << (bit & 7);
+					free_index_mark(fi, block);
+				}
+				if (!pfs->set(pfs, fi->map_blocks[map])) {
+					return -1L;
+				}
+			}
+			return length;
+		}
+	}
+	const i64 block = allocate_block_near(pfs, block_flags, goal);
+	if (block == -1L) {
+		return -1L;
+	}
+	*first_block = block;
+	return 1L;
 }
 
+static inline void chain_index_forget(bm pfs, i64 block);
+
 void free_block(bm pfs, i64 free_this_block) {
+	chain_index_forget(pfs, free_this_block);
 	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
 	ui32 flags = b0->flags;
 	pfs->unget(pfs, 0L);
@@ -854,6 +1384,25 @@ void free_block(bm pfs, i64 free_this_block) {
 		if (!pfs->set_flags(pfs, free_this_block, 0L)) {
 			abort();
 		}
+		if (core(pfs)->free_index) {
+			core(pfs)->free_index->free_blocks++;
+		}
+	} else if (core(pfs)->free_index) {
+		struct pfs_free_index *fi = core(pfs)->free_index;
+		i64 map = free_this_block / fi->map_bits;
+		i64 bit = free_this_block - map * fi->map_bits;
+		if (map >= fi->map_count) {
+			abort();
+		}
+		ui8 *data = pfs->get(pfs, fi->map_blocks[map]);
+		if (data == NULL) {
+			abort();
+		}
+		data[bit >> 3] &= ~(1U << (bit & 7));
+		if (!pfs->set(pfs, fi->map_blocks[map])) {
+			abort();
+		}
+		free_index_unmark(fi, free_this_block);
 	} else {
 		i64 remain = free_this_block >> 3;
 		struct pfs_place place = find_place(pfs, 1, remain);
@@ -863,6 +1412,52 @@ void free_block(bm pfs, i64 free_this_block) {
 	}
 }
 
+static int compare_blocks(const void *a, const void *b) {
+	const i64 x = *(const i64*) a, y = *(const i64*) b;
+	return x < y ? -1 : x > y;
+}
+
+static inline void chain_index_forget_sorted(bm pfs, i64 *blocks, i64 count);
+
+void free_blocks(bm pfs, i64 *blocks, i64 count) {
+	if (count <= 0L) {
+		return;
+	}
+	qsort(blocks, count, sizeof(i64), compare_blocks);
+	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
+	const ui32 flags = b0->flags;
+	const i64 block_count = b0->block_count;
+	pfs->unget(pfs, 0L);
+	if (!(flags & PATRFS_B0_FLAG_BM_ALLOC) && !core(pfs)->free_index) {
+		core(pfs)->free_index = free_index_load(pfs, block_count);
+	}
+	if ((flags & PATRFS_B0_FLAG_BM_ALLOC) || !core(pfs)->free_index) {
+		for (i64 i = 0; i < count; i++) {
+			free_block(pfs, blocks[i]);
+		}
+		return;
+	}
+	chain_index_forget_sorted(pfs, blocks, count);
+	struct pfs_free_index *fi = core(pfs)->free_index;
+	// the blocks are sorted, so every bitmap block is changed only once
+	for (i64 i = 0; i < count;) {
+		const i64 map = blocks[i] / fi->map_bits;
+		const i64 base = map * fi->map_bits;
+		ui8 *data = pfs->get(pfs, fi->map_blocks[map]);
+		if (data == NULL) {
+			abort();
+		}
+		for (; i < count && blocks[i] - base < fi->map_bits; i++) {
+			const i64 bit = blocks[i] - base;
+			data[bit >> 3] &= ~(1U << (bit & 7));
+			free_index_unmark(fi, blocks[i]);
+		}
+		if (!pfs->set(pfs, fi->map_blocks[map])) {
+			abort();
+		}
+	}
+}
+
 static inline void ensure_used_block_has_flag(bm pfs, i64 block, ui64 flag) {
 	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
 	ui32 flags = b0->flags;
@@ -891,8 +1486,224 @@ void ensure_block_is_entry(bm pfs, i64 block) {
 	ensure_used_block_has_flag(pfs, block, BLOCK_FLAG_ENTRIES);
 }
 
+void chain_index_free(struct pfs_chain_index *ci) {
+	for (int i = 0; i < CHAIN_INDEX_FILES; i++) {
+		free(ci->entries[i].blocks);
+	}
+	free(ci);
+}
+
+// all chain indices share this counter, so a generation is never reused
+static i64 chain_generation = 0L;
+
+static inline void chain_index_forget(bm pfs, i64 block) {
+	struct pfs_chain_index *ci = core(pfs)->chain_index;
+	if (!ci) {
+		return;
+	}
+	ci->generation = ++chain_generation;
+	for (int i = 0; i < CHAIN_INDEX_FILES; i++) {
+		if (ci->entries[i].first_block == block) {
+			ci->entries[i].first_block = -1L;
+		}
+	}
+}
+
+static inline void chain_index_forget_sorted(bm pfs, i64 *blocks, i64 count) {
+	struct pfs_chain_index *ci = core(pfs)->chain_index;
+	if (!ci) {
+		return;
+	}
+	ci->generation = ++chain_generation;
+	for (int i = 0; i < CHAIN_INDEX_FILES; i++) {
+		if (ci->entries[i].first_block != -1L
+				&& bsearch(&ci->entries[i].first_block, blocks, count,
+						sizeof(i64), compare_blocks)) {
+			ci->entries[i].first_block = -1L;
+		}
+	}
+}
+
+void chain_index_truncate(bm pfs, i64 first_block, i64 keep_blocks) {
+	struct pfs_chain_index *ci = core(pfs)->chain_index;
+	if (!ci) {
+		return;
+	}
+	for (int i = 0; i < CHAIN_INDEX_FILES; i++) {
+		struct pfs_chain_entry *e = &ci->entries[i];
+		if (e->first_block != first_block) {
+			continue;
+		}
+		if (keep_blocks <= 0) {
+			e->first_block = -1L;
+			continue;
+		}
+		if (e->count > (keep_blocks - 1) / e->stride + 1) {
+			e->count = (keep_blocks - 1) / e->stride + 1;
+		}
+		if (e->tail_index >= keep_blocks) {
+			e->tail_index = -1L;
+		}
+	}
+}
+
+static inline struct pfs_chain_index* chain_index_init(bm pfs) {
+	struct pfs_chain_index *ci = core(pfs)->chain_index;
+	if (!ci) {
+		ci = calloc(1, sizeof(struct pfs_chain_index));
+		if (!ci) {
+			return NULL;
+		}
+		for (int i = 0; i < CHAIN_INDEX_FILES; i++) {
+			ci->entries[i].first_block = -1L;
+		}
+		ci->generation = ++chain_generation;
+		core(pfs)->chain_index = ci;
+	}
+	return ci;
+}
+
+i64 chain_index_generation(bm pfs) {
+	struct pfs_chain_index *ci = chain_index_init(pfs);
+	return ci ? ci->generation : -1L;
+}
+
+/*
+ * returns the entry of the file with the given first block
+ * if the file is not remembered, the least recently used entry is reused
+ * on error NULL is returned, find_place then walks the complete chain
+ */
+static struct pfs_chain_entry* chain_index_get(bm pfs, i64 first_block) {
+	struct pfs_chain_index *ci = chain_index_init(pfs);
+	if (!ci) {
+		return NULL;
+	}
+	struct pfs_chain_entry *e = &ci->entries[0];
+	for (int i = 0; i < CHAIN_INDEX_FILES; i++) {
+		if (ci->entries[i].first_block == first_block) {
+			e = &ci->entries[i];
+			e->last_use = ++ci->use_counter;
+			return e;
+		}
+		if (ci->entries[i].first_block == -1L) {
+			if (e->first_block != -1L) {
+				e = &ci->entries[i];
+			}
+		} else if (e->first_block != -1L
+				&& ci->entries[i].last_use < e->last_use) {
+			e = &ci->entries[i];
+		}
+	}
+	if (!e->blocks) {
+		e->blocks = malloc(16 * sizeof(i64));
+		if (!e->blocks) {
+			return NULL;
+		}
+		e->capacity = 16;
+	}
+	e->first_block = first_block;
+	e->blocks[0] = first_block;
+	e->count = 1;
+	e->stride = 1;
+	e->last_use = ++ci->use_counter;
+	e->tail_index = -1L;
+	return e;
+}
+
+/* remembers that block is the index-th block of the chain (if needed) */
+static inline void chain_index_add(struct pfs_chain_entry *e, i64 index,
+		i64 block) {
+	if (index != e->count * e->stride) {
+		return;
+	}
+	if (e->count == e->capacity) {
+		if (e->capacity < CHAIN_INDEX_MAX_BLOCKS) {
+			i64 *blocks = realloc(e->blocks, e->capacity * 2 * sizeof(i64));
+			if (!blocks) {
+				return;
+			}
+			e->blocks = blocks;
+			e->capacity *= 2;
+		} else {
+			// only keep every second block
+			for (i64 i = 1; i < (e->count + 1) >> 1; i++) {
+				e->blocks[i] = e->blocks[i << 1];
+			}
+			e->count = (e->count + 1) >> 1;
+			e->stride <<= 1;
+			if (index != e->count * e->stride) {
+				return;
+			}
+		}
+	}
+	e->blocks[e->count++] = block;
+}
+
+void chain_index_append(bm pfs, i64 first_block, i64 index, i64 block) {
+	struct pfs_chain_entry *e = chain_index_get(pfs, first_block);
+	if (!e) {
+		return;
+	}
+	if (index > 0) {
+		chain_index_add(e, index, block);
+	}
+	e->tail_block = block;
+	e->tail_index = index;
+}
+
+i64 chain_index_tail(bm pfs, i64 first_block, i64 *index) {
+	struct pfs_chain_index *ci = core(pfs)->chain_index;
+	if (!ci) {
+		return -1L;
+	}
+	for (int i = 0; i < CHAIN_INDEX_FILES; i++) {
+		struct pfs_chain_entry *e = &ci->entries[i];
+		if (e->first_block == first_block && e->tail_index != -1L) {
+			e->last_use = ++ci->use_counter;
+			*index = e->tail_index;
+			return e->tail_block;
+		}
+	}
+	return -1L;
+}
+
 struct pfs_place find_place(bm pfs, const i64 first_block, i64 remain) {
-	for (i64 current_block = first_block; 1; remain -= pfs->block_size - 8) {
+	i64 current_block = first_block;
+	const i64 block_data = pfs->block_size - 8;
+	struct pfs_chain_entry *e;
+	if (remain > block_data && (e = chain_index_get(pfs, first_block))) {
+		// jump to the nearest remembered block before the target
+		const i64 target = (remain - 1) / block_data;
+		i64 index;
+		if (e->tail_index == target) {
+			// appends always need the last block
+			current_block = e->tail_block;
+			index = target;
+		} else {
+			index = target / e->stride;
+			if (index >= e->count) {
+				index = e->count - 1;
+			}
+			current_block = e->blocks[index];
+			index *= e->stride;
+		}
+		for (; index < target; index++) {
+			void *cb = pfs->get(pfs, current_block);
+			if (!cb) {
+				struct pfs_place res = { .block = -1, .pos = -1 };
+				return res;
+			}
+			i64 next_block = *(i64*) (cb + block_data);
+			pfs->unget(pfs, current_block);
+			if (next_block == -1L) {
+				break;
+			}
+			current_block = next_block;
+			chain_index_add(e, index + 1, current_block);
+		}
+		remain -= index * block_data;
+	}
+	for (; 1; remain -= pfs->block_size - 8) {
 		if (remain < (pfs->block_size - 8)) {
 			struct pfs_place result = { //
 					/*	  */.block = current_block, //
@@ -35,12 +35,31 @@
 
 int pfsc_format(bm pfs, i64 block_count, uuid_t uuid, char *name);
 
+/**
+ * like pfsc_format, but the format_flags (PFS_FORMAT_*) select optional
+ * features of the on-disk format
+ */
+int pfsc_format_flags(bm pfs, i64 block_count, uuid_t uuid, char *name,
+		ui32 format_flags);
+
 i64 pfsc_block_count(bm pfs);
 
 i64 pfsc_free_block_count(bm pfs);
 
 i64 pfsc_used_block_count(bm pfs);
 
+/*
+ * frees up to max_blocks of the blocks of the files deleted in the background
+ * (all of them if max_blocks is negative)
+ * an extent block is freed together with its last data block, so one block
+ * more than max_blocks may be freed
+ * the blocks of the deferred list itself are freed when they become empty
+ * (loading and closing the file system and allocations, which find no unused
+ * block, call this with DEFERRED_FREE_STEP)
+ * returns the number of freed blocks or -1 on error
+ */
+i64 pfsc_free_deferred(bm pfs, i64 max_blocks);
+
 i32 pfsc_block_size(bm pfs);
 
 int pfsc_make_read_only(bm pfs);
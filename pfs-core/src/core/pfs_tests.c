@@ -35,9 +35,13 @@
 #include <dirent.h>
 #include <sys/types.h>
 #include <sys/stat.h>
+#include <time.h>
 
 #define BLOCK_COUNT (1L << 20)
 
+/* the format flags used by the checks */
+static ui32 format_flags = 0U;
+
 static void* random_data0(const char *log_start, size_t len) {
 	void *data = malloc(len);
 	if (!data) {
@@ -59,6 +63,26 @@ static void deep_folder_check();
 static void real_file_sys_check();
 static void meta_check();
 static void pipe_check();
+static void block_count_check();
+static void preallocate_check();
+static void deferred_free_check();
+static void large_folder_check();
+static void readahead_check();
+
+static void benchmarks();
+
+static void io_benchmark();
+static void ram_benchmark();
+static void flush_benchmark();
+static void readahead_benchmark();
+static void direct_benchmark();
+static void alloc_benchmark();
+static void file_benchmark();
+static void append_benchmark();
+static void locality_benchmark();
+static void delayed_benchmark();
+static void free_benchmark();
+static void folder_benchmark();
 
 static bm pfs;
 
@@ -294,7 +318,7 @@ static int print_folder(struct pfs_place fp, const char *name,
 		const char *name;
 		if (name_pos == -1) {
 			name = "help-folder/no-name";
-			if (i != f->helper_index) {
+			if (i != f->helper_index && f->helper_index != HASH_NODE_INDEX) {
 				res++;
 				printf("non helper has no name!");
 			}
@@ -411,22 +435,46 @@ static int my_set_flags(struct bm_block_manager *bm, i64 block, ui64 flags) {
 
 int main(int argc, char **argv) {
 	const char *start = "[main]:                                               ";
-	printf("%sstart checks with a ram block manager [0]\n", start);
-	fflush(NULL);
-	pfs = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
-	checks();
-	pfs->close_bm(pfs);
-	printf("%sstart checks with a file block manager [1]\n", start);
 	const char *test_file = "./testout/testfile.pfs";
-	if (argc > 1) {
-		if (argc != 2) {
+	int bench = 0, file_arg = 0;
+	for (int i = 1; i < argc; i++) {
+		if (strcmp(argv[i], "--bench") == 0) {
+			bench = 1;
+		} else if (!file_arg) {
+			test_file = argv[i];
+			file_arg = 1;
+		} else {
 			printf(
-					"%sinvalid argument count (Usage: %s [OPTIONAL_TESTFILE]) [2]\n",
+					"%sinvalid arguments (Usage: %s [--bench] [OPTIONAL_TESTFILE]) [2]\n",
 					start, argv[0]);
 			exit(EXIT_FAILURE);
 		}
-		test_file = argv[1];
 	}
+	// the benchmarks only run on request (make bench)
+	if (bench) {
+		printf("%sstart benchmarks [9.1]\n", start);
+		fflush(NULL);
+		random_ensure_init();
+		benchmarks();
+		printf("%sFINISH [A]\n", start);
+		return EXIT_SUCCESS;
+	}
+	printf("%sstart checks with a ram block manager [0]\n", start);
+	fflush(NULL);
+	pfs = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
+	checks();
+	pfs->close_bm(pfs);
+	printf("%sstart checks with a contiguous ram block manager [0.1]\n", start);
+	fflush(NULL);
+	pfs = bm_new_contiguous_ram_block_manager(BLOCK_COUNT, 1024, 1);
+	if (pfs == NULL) {
+		printf("%scould not create the block manager (%s) [0.2]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	checks();
+	pfs->close_bm(pfs);
+	printf("%sstart checks with a file block manager [1]\n", start);
 	pfs = bm_new_file_block_manager_path_bs(test_file, 1024, 0);
 	if (pfs == NULL) {
 		printf("%scould not open testfile ('%s' : %s) [3]\n", start, test_file, pfs_error());
@@ -435,7 +483,7 @@ int main(int argc, char **argv) {
 	}
 	checks();
 	pfs->close_bm(pfs);
-	printf("%sstart checks with a file block manager (again) [4]\n", start);
+	printf("%sstart checks with a caching file block manager [4]\n", start);
 	fflush(NULL);
 	pfs = bm_new_file_block_manager_path(test_file, 0);
 	if (pfs == NULL) {
@@ -443,8 +491,58 @@ int main(int argc, char **argv) {
 				pfs_error());
 		exit(EXIT_FAILURE);
 	}
+	if (!bm_file_cache_capacity(pfs, 64)) {
+		printf("%scould not set the cache capacity (%s) [5.4]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	checks();
+	pfs->close_bm(pfs);
+	printf("%sstart checks with a read ahead file block manager [5.41]\n",
+			start);
+	fflush(NULL);
+	pfs = bm_new_file_block_manager_path(test_file, 0);
+	if (pfs == NULL || !bm_file_cache_capacity(pfs, 64)
+			|| !bm_file_readahead(pfs, 32)) {
+		printf("%scould not create the block manager (%s) [5.42]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
 	checks();
 	pfs->close_bm(pfs);
+	printf("%sstart checks with an io_uring file block manager [5.43]\n",
+			start);
+	fflush(NULL);
+	pfs = bm_new_file_block_manager_path(test_file, 0);
+	if (pfs == NULL || !bm_file_cache_capacity(pfs, 64)
+			|| !bm_file_readahead(pfs, 32)) {
+		printf("%scould not create the block manager (%s) [5.44]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	if (bm_file_io_uring(pfs, 32)) {
+		checks();
+	} else {
+		printf("%sSKIP the io_uring checks, io_uring is not supported by "
+				"this build or kernel (%s) [5.45]\n", start, pfs_error());
+	}
+	pfs->close_bm(pfs);
+	printf("%sstart checks with a write-behind file block manager [5.46]\n",
+			start);
+	fflush(NULL);
+	pfs = bm_new_file_block_manager_path(test_file, 0);
+	if (pfs == NULL || !bm_file_cache_capacity(pfs, 64)) {
+		printf("%scould not create the block manager (%s) [5.47]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	if (bm_file_write_behind(pfs, 32, 10)) {
+		checks();
+	} else {
+		printf("%sSKIP the write-behind checks, write-behind is not supported "
+				"by this build (%s) [5.48]\n", start, pfs_error());
+	}
+	pfs->close_bm(pfs);
 	printf("%sstart checks with a file block manager (again, again) [4]\n",
 			start);
 	pfs = bm_new_file_block_manager_path_bs(test_file, 1 << 15, 0);
@@ -454,6 +552,43 @@ int main(int argc, char **argv) {
 		exit(EXIT_FAILURE);
 	}
 	checks();
+	printf("%sstart checks with a mmap block manager [5.5]\n", start);
+	fflush(NULL);
+	pfs = bm_new_mmap_block_manager_path_bs("./testout/testfile-mmap.pfs",
+			1024, BLOCK_COUNT, 0);
+	if (pfs == NULL) {
+		printf("%scould not create the block manager (%s) [5.6]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	checks();
+	pfs->close_bm(pfs);
+	printf("%sstart checks with a mmap block manager (again) [5.7]\n", start);
+	fflush(NULL);
+	pfs = bm_new_mmap_block_manager_path("./testout/testfile-mmap.pfs", 0);
+	if (pfs == NULL) {
+		printf("%scould not create the block manager (%s) [5.8]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	checks();
+	pfs->close_bm(pfs);
+	printf("%sstart checks with a direct I/O block manager [5.9]\n", start);
+	fflush(NULL);
+	pfs = bm_new_direct_block_manager_path_bs("./testout/testfile-direct.pfs",
+			1024, 0);
+	if (pfs == NULL) {
+		printf("%sdirect I/O is not supported, skip checks (%s) [5.A]\n",
+				start, pfs_error());
+	} else {
+		if (!bm_file_cache_capacity(pfs, 256)) {
+			printf("%scould not set the cache capacity (%s) [5.B]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		checks();
+		pfs->close_bm(pfs);
+	}
 	printf("%sstart checks with block-flaggable ram block manager [6]\n", start);
 	fflush(NULL);
 	pfs = bm_new_flaggable_ram_block_manager(BLOCK_COUNT, 1024);
@@ -495,13 +630,75 @@ int main(int argc, char **argv) {
 	flag_and = 7;
 	checks();
 	pfs->close_bm(pfs);
+	format_flags = PFS_FORMAT_EXTENTS;
+	printf("%sstart extent checks with a ram block manager [9.01]\n", start);
+	fflush(NULL);
+	pfs = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
+	checks();
+	pfs->close_bm(pfs);
+	printf("%sstart extent checks with a file block manager [9.02]\n", start);
+	fflush(NULL);
+	pfs = bm_new_file_block_manager_path_bs("./testout/testfile-extents.pfs",
+			1024, 0);
+	if (pfs == NULL) {
+		printf("%scould not create the block manager (%s) [9.03]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	checks();
+	pfs->close_bm(pfs);
+	printf("%sstart extent checks with block-flaggable ram block manager [9.04]\n",
+			start);
+	fflush(NULL);
+	pfs = bm_new_flaggable_ram_block_manager(BLOCK_COUNT, 1024);
+	checks();
+	pfs->close_bm(pfs);
+	format_flags = PFS_FORMAT_LOCALITY;
+	printf("%sstart locality checks with a ram block manager [9.05]\n", start);
+	fflush(NULL);
+	pfs = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
+	checks();
+	pfs->close_bm(pfs);
+	format_flags = PFS_FORMAT_EXTENTS | PFS_FORMAT_LOCALITY;
+	printf("%sstart locality extent checks with a ram block manager [9.06]\n",
+			start);
+	fflush(NULL);
+	pfs = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
+	checks();
+	pfs->close_bm(pfs);
+	format_flags = PFS_FORMAT_HASH_FOLDERS;
+	printf("%sstart hash folder checks with a ram block manager [9.07]\n",
+			start);
+	fflush(NULL);
+	pfs = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
+	checks();
+	pfs->close_bm(pfs);
+	format_flags = PFS_FORMAT_DEFERRED_FREE;
+	printf("%sstart deferred free checks with a ram block manager [9.071]\n",
+			start);
+	fflush(NULL);
+	pfs = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
+	checks();
+	pfs->close_bm(pfs);
+	format_flags = PFS_FORMAT_DEFERRED_FREE | PFS_FORMAT_EXTENTS;
+	printf("%sstart deferred free extent checks with a ram block manager "
+			"[9.072]\n", start);
+	fflush(NULL);
+	pfs = bm_new_ram_block_manager(BLOCK_COUNT, 1024);
+	checks();
+	pfs->close_bm(pfs);
+	format_flags = 0U;
+	printf("%sstart readahead check with a file block manager [9.08]\n",
+			start);
+	fflush(NULL);
+	readahead_check();
 	printf("%sFINISH [A]\n", start);
 	return EXIT_SUCCESS;
 }
 
 static void checks() {
 	const char *start = "[main.checks]:                                        ";
-	if (!pfsc_format(pfs, BLOCK_COUNT, NULL, "")) {
+	if (!pfsc_format_flags(pfs, BLOCK_COUNT, NULL, "", format_flags)) {
 		printf("%scould not format the file system! [0]: %s\n", start,
 				pfs_error());
 		exit(EXIT_FAILURE);
@@ -536,7 +733,19 @@ static void checks() {
 	printf("%sstart pipe_check [9]\n", start);
 	fflush(NULL);
 	pipe_check();
-	printf("%sall checks executed [A]\n", start);
+	printf("%sstart block_count_check [A]\n", start);
+	fflush(NULL);
+	block_count_check();
+	printf("%sstart preallocate_check [B]\n", start);
+	fflush(NULL);
+	preallocate_check();
+	printf("%sstart deferred_free_check [C]\n", start);
+	fflush(NULL);
+	deferred_free_check();
+	printf("%sstart large_folder_check [D]\n", start);
+	fflush(NULL);
+	large_folder_check();
+	printf("%sall checks executed [E]\n", start);
 	fflush(NULL);
 }
 
@@ -552,6 +761,14 @@ static void simple_check() {
 		printf("%sroot child count != 0 (%ld) [1]\n", start, child_count);
 		exit(EXIT_FAILURE);
 	}
+	i64 free_blocks = pfsc_free_block_count(pfs);
+	i64 used_blocks = pfsc_used_block_count(pfs);
+	if (free_blocks + used_blocks != BLOCK_COUNT || used_blocks < 1
+			|| used_blocks > 2) {
+		printf("%sinvalid block counts (free=%ld, used=%ld) [2]\n", start,
+				free_blocks, used_blocks);
+		exit(EXIT_FAILURE);
+	}
 }
 
 int debug_print(void *arg0, void *element) {
@@ -801,6 +1018,56 @@ static void read_write_file_check() {
 	}
 	_Static_assert(start1 == 0, "error");
 	_Static_assert((start3 + len3) == 4098, "error");
+	// sequential reads/writes with a cursor continue in the last block
+	struct pfs_file_cursor cursor = { .pos = -1L };
+	memset(reat, 0, 4098);
+	for (i64 pos = 0; pos < 4098; pos += 300) {
+		i64 len = pos + 300 > 4098 ? 4098 - pos : 300;
+		if (!pfsc_file_read_cursor(file, &cursor, pos, reat + pos, len)) {
+			printf("%sfailed to read with the cursor [16]\n", start);
+			exit(EXIT_FAILURE);
+		}
+	}
+	// files stored as extents do not need the cursor
+	const int chains = (format_flags & PFS_FORMAT_EXTENTS) == 0;
+	if (memcmp(data, reat, 4098) != 0 || (chains && cursor.pos != 4098)) {
+		printf("%sdid not read the expected data with the cursor [17]\n",
+				start);
+		exit(EXIT_FAILURE);
+	}
+	for (i64 pos = 100; pos < 3100; pos += 1000) {
+		memcpy(data + pos, rnd2 + (pos / 1000) * 500, 1000);
+		if (!pfsc_file_write_cursor(file, &cursor, pos, data + pos, 1000)) {
+			printf("%sfailed to write with the cursor [18]\n", start);
+			exit(EXIT_FAILURE);
+		}
+	}
+	// seeking back, other writers and truncating the file must be noticed
+	if (!pfsc_file_read_cursor(file, &cursor, 1500, reat, 500)
+			|| memcmp(data + 1500, reat, 500) != 0) {
+		printf("%sdid not read the expected data after a seek [19]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	memcpy(data + 2000, rnd2, 300);
+	if (!pfsc_file_write(file, 2000, rnd2, 300)
+			|| !pfsc_file_read_cursor(file, &cursor, 2000, reat, 300)
+			|| memcmp(data + 2000, reat, 300) != 0) {
+		printf("%sdid not read the data of an other writer [1A]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	// the truncate only frees blocks (and changes the generation) when the
+	// data does not fit in one block
+	const i64 generation = cursor.generation;
+	const int frees = chains && pfs->block_size - 8 < 1200;
+	if (!pfsc_file_truncate(file, 1200)
+			|| pfsc_file_append(file, rnd2, 2048) != 2048
+			|| !pfsc_file_read_cursor(file, &cursor, 2300, reat, 500)
+			|| memcmp(rnd2 + 1100, reat, 500) != 0
+			|| (frees && cursor.generation == generation)) {
+		printf("%sdid not read the expected data after a truncate [1B]\n",
+				start);
+		exit(EXIT_FAILURE);
+	}
 }
 
 static void append_file_check() {
@@ -893,11 +1160,30 @@ static void append_file_check() {
 		printf("%smemcmp != 0 [10]\n", start, res);
 		exit(EXIT_FAILURE);
 	}
+	// truncate at a block boundary and append again
+	i64 boundary = pfs->block_size - 8;
+	if (boundary >= 10000) {
+		return;
+	}
+	while (boundary * 2 < 10000) {
+		boundary *= 2;
+	}
+	if (!pfsc_file_truncate(file, boundary)
+			|| pfsc_file_append(file, data2, 1000) != 1000) {
+		printf("%scould not truncate and append to the file [11]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	if (!pfsc_file_read(file, 0, buffer, boundary + 1000)
+			|| memcmp(data, buffer, boundary) != 0
+			|| memcmp(data2, buffer + boundary, 1000) != 0) {
+		printf("%smemcmp != 0 [12]\n", start);
+		exit(EXIT_FAILURE);
+	}
 }
 
 static void folder_check() {
 	const char *start = "[main.checks.folder_check]:                           ";
-	if (!pfsc_format(pfs, BLOCK_COUNT, NULL, "")) {
+	if (!pfsc_format_flags(pfs, BLOCK_COUNT, NULL, "", format_flags)) {
 		printf("%scould not format the file system! [0]\n");
 		exit(EXIT_FAILURE);
 	}
@@ -1477,7 +1763,7 @@ static void compare(DIR *dir, DIR *dir2, char *name, char *name2) {
 
 static void real_file_sys_check() {
 	const char *start = "[main.checks.real_file_sys_check]:                    ";
-	if (!pfsc_format(pfs, BLOCK_COUNT, NULL, "")) {
+	if (!pfsc_format_flags(pfs, BLOCK_COUNT, NULL, "", format_flags)) {
 		printf("%scould not format the pfs! [0]\n", start);
 		exit(EXIT_FAILURE);
 	}
@@ -1686,11 +1972,46 @@ void sub_meta_check(pfs_eh e, int is_not_root) {
 		}
 	}
 	pfs_err = 0;
+	i64 ie_data[32];
+	struct pfs_iter_entry *ie = (struct pfs_iter_entry*) ie_data;
+	i64 ie_size = pfsc_element_fill_iter_entry(e, ie, sizeof(ie_data));
+	if (!is_not_root) {
+		if (ie_size != -1 || pfs_err != PFS_ERRNO_ROOT_FOLDER) {
+			printf("%scould fill the iterator entry of the root! [1F]\n",
+					start);
+			exit(EXIT_FAILURE);
+		}
+		pfs_err = 0;
+		return;
+	}
+	if (ie_size == -1 || ie_size > sizeof(ie_data)) {
+		printf("%scould not fill the iterator entry! (%s) [20]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	char *name = NULL;
+	i64 name_len = 0;
+	if (!pfsc_element_get_name(e, &name, &name_len) || strcmp(name, ie->name)
+			|| ie->name_length != strlen(name)
+			|| ie_size != PFS_ITER_ENTRY_SIZE(ie->name_length)) {
+		printf("%sthe iterator entry has the wrong name! [21]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	free(name);
+	if (ie->create_time != ct || ie->last_mod_time != lmt
+			|| ie->flags != pfsc_element_get_flags(e) || ie->length != 0) {
+		printf("%sthe iterator entry has unexpected values! [22]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	if (pfsc_element_fill_iter_entry(e, ie, ie_size - 1) != ie_size) {
+		printf("%sthe iterator entry size is not returned! [23]\n", start);
+		exit(EXIT_FAILURE);
+	}
 }
 
 static void meta_check() {
 	const char *start = "[main.checks.meta_check]:                             ";
-	if (!pfsc_format(pfs, BLOCK_COUNT, NULL, "")) {
+	if (!pfsc_format_flags(pfs, BLOCK_COUNT, NULL, "", format_flags)) {
 		printf("%scould not format the PFS! (%s) [0]\n", start, pfs_error());
 		exit(EXIT_FAILURE);
 	}
@@ -1847,3 +2168,1473 @@ static void pipe_check() {
 		exit(EXIT_FAILURE);
 	}
 }
+
+static void block_count_check() {
+	const char *start = "[main.checks.block_count_check]:                      ";
+	i64 free_blocks = pfsc_free_block_count(pfs);
+	i64 used_blocks = pfsc_used_block_count(pfs);
+	if (free_blocks + used_blocks != BLOCK_COUNT) {
+		printf("%sinvalid block counts (free=%ld, used=%ld) [0]\n", start,
+				free_blocks, used_blocks);
+		exit(EXIT_FAILURE);
+	}
+	// the counters have to match the counters rebuilt from the file system
+	free_index_free(core(pfs)->free_index);
+	core(pfs)->free_index = NULL;
+	if (pfsc_free_block_count(pfs) != free_blocks) {
+		printf("%sfree block count changed after a rebuild (%ld -> %ld) [1]\n",
+				start, free_blocks, pfsc_free_block_count(pfs));
+		exit(EXIT_FAILURE);
+	}
+	i64 block = allocate_block(pfs, BLOCK_FLAG_USED | BLOCK_FLAG_DATA);
+	if (block == -1L || pfsc_free_block_count(pfs) != free_blocks - 1
+			|| pfsc_used_block_count(pfs) != used_blocks + 1) {
+		printf("%sallocate_block did not update the counters [2]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	free_block(pfs, block);
+	if (pfsc_free_block_count(pfs) != free_blocks
+			|| pfsc_used_block_count(pfs) != used_blocks) {
+		printf("%sfree_block did not update the counters [3]\n", start);
+		exit(EXIT_FAILURE);
+	}
+}
+
+static void preallocate_check() {
+	const char *start = "[main.checks.preallocate_check]:                      ";
+	pfs_eh file = pfsc_root();
+	if (file == NULL
+			|| !pfsc_folder_create_file(file, NULL, "preallocated_file")) {
+		printf("%scould not create the file (%s) [0]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	const i64 length = pfs->block_size * 20L;
+	void *data = random_data0(start, length);
+	void *buffer = malloc(length);
+	memset(data + 10, 0, 990);
+	const i64 free_blocks = pfsc_free_block_count(pfs);
+	if (!pfsc_file_preallocate(file, length) || pfsc_file_length(file) != 0) {
+		printf("%scould not preallocate the file (%s) [1]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	const i64 reserved = free_blocks - pfsc_free_block_count(pfs);
+	if (reserved < 20) {
+		printf("%sonly %ld blocks were reserved [2]\n", start, reserved);
+		exit(EXIT_FAILURE);
+	}
+	// appending and growing the file has to fill the reserved blocks
+	if (pfsc_file_append(file, data, 10) != 10
+			|| !pfsc_file_truncate(file, 1000)
+			|| pfsc_file_append(file, data + 1000, length - 1000)
+					!= length - 1000
+			|| pfsc_free_block_count(pfs) != free_blocks - reserved) {
+		printf("%sthe reserved blocks were not used (%s) [3]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	if (!pfsc_file_read(file, 0, buffer, length)
+			|| memcmp(data, buffer, length) != 0) {
+		printf("%sread wrong data [4]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	if (!pfsc_file_truncate(file, 0)
+			|| pfsc_free_block_count(pfs) != free_blocks) {
+		printf("%struncate did not free all blocks [5]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	// an empty file releases its reserved blocks on truncate
+	if (!pfsc_file_preallocate(file, length) || !pfsc_file_truncate(file, 0)
+			|| pfsc_free_block_count(pfs) != free_blocks) {
+		printf("%struncate did not free the reserved blocks [6]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	// extent file systems formatted without the reserved count (the old
+	// layout) do not reserve anything, but the files still work
+	struct pfs_b0 *b0 = pfs->get(pfs, 0L);
+	if (b0 == NULL) {
+		printf("%scould not get the super block (%s) [7]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	const ui32 b0_flags = b0->flags;
+	if ((b0_flags & PATRFS_B0_FLAG_EXTENTS) != 0) {
+		b0->flags &= ~PATRFS_B0_FLAG_EXTENT_RESERVED;
+		pfs->set(pfs, 0L);
+		if (!pfsc_file_preallocate(file, length)
+				|| pfsc_free_block_count(pfs) != free_blocks
+				|| pfsc_file_append(file, data, length) != length
+				|| !pfsc_file_read(file, 0, buffer, length)
+				|| memcmp(data, buffer, length) != 0
+				|| !pfsc_file_truncate(file, 0)
+				|| pfsc_free_block_count(pfs) != free_blocks) {
+			printf("%sthe old extent layout does not work (%s) [8]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		b0 = pfs->get(pfs, 0L);
+		if (b0 == NULL) {
+			printf("%scould not get the super block (%s) [9]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		b0->flags = b0_flags;
+		pfs->set(pfs, 0L);
+	} else {
+		pfs->unget(pfs, 0L);
+	}
+	free(buffer);
+	free(data);
+	free(file);
+}
+
+static void deferred_free_check() {
+	const char *start = "[main.checks.deferred_free_check]:                    ";
+	const i64 free_blocks = pfsc_free_block_count(pfs);
+	const i64 length = pfs->block_size * (FREE_BATCH_BLOCKS * 2L + 3L);
+	void *data = random_data0(start, length);
+	pfs_eh file = pfsc_root();
+	if (file == NULL || !pfsc_folder_create_file(file, NULL, "large_file")
+			|| pfsc_file_append(file, data, length) != length) {
+		printf("%scould not create the file (%s) [0]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	if (!pfsc_element_delete(file, NULL, NULL, 1)) {
+		printf("%scould not delete the file (%s) [1]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	if ((format_flags & PFS_FORMAT_DEFERRED_FREE) == 0) {
+		// without the deferred list the blocks are freed directly
+		if (deferred_free_pending(pfs)
+				|| pfsc_free_block_count(pfs) != free_blocks) {
+			printf("%sthe blocks of the file were not freed [1.1]\n", start);
+			exit(EXIT_FAILURE);
+		}
+		free(file);
+		free(data);
+		return;
+	}
+	if (!deferred_free_pending(pfs)) {
+		printf("%sthe blocks of the file were not deferred [2]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	const i64 freed = pfsc_free_deferred(pfs, 10L);
+	if (freed < 10L || freed >= FREE_BATCH_BLOCKS * 2L) {
+		printf("%sfreed %ld blocks instead of about 10 [3]\n", start, freed);
+		exit(EXIT_FAILURE);
+	}
+	// the block count query does not free the remaining blocks
+	if (pfsc_free_block_count(pfs) >= free_blocks
+			|| !deferred_free_pending(pfs)) {
+		printf("%sthe block count freed the blocks [4]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	// the deferred list is stored in the file system, loading it again
+	// frees only a bounded number of the remaining blocks
+	const i64 before_load = pfsc_free_block_count(pfs);
+	struct pfs_file_sys_data fs_data;
+	struct element_handle root;
+	if (!pfsc_fill_root(pfs, &root, &fs_data, 0)
+			|| pfsc_free_block_count(pfs) < before_load + DEFERRED_FREE_STEP
+			|| pfsc_free_block_count(pfs) > before_load + DEFERRED_FREE_STEP + 1
+			|| !deferred_free_pending(pfs)) {
+		printf("%sthe load did not free a step of the blocks (%s) [5]\n",
+				start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	if (pfsc_free_deferred(pfs, -1L) == -1L
+			|| pfsc_free_block_count(pfs) != free_blocks
+			|| deferred_free_pending(pfs)) {
+		printf("%snot all blocks were freed (%s) [5.1]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	free(file);
+	// small files are freed directly
+	file = pfsc_root();
+	if (file == NULL || !pfsc_folder_create_file(file, NULL, "small_file")
+			|| pfsc_file_append(file, data, 5000) != 5000
+			|| !pfsc_element_delete(file, NULL, NULL, 1)
+			|| deferred_free_pending(pfs)
+			|| pfsc_free_block_count(pfs) != free_blocks) {
+		printf("%scould not delete the small file (%s) [6]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	free(file);
+	free(data);
+}
+
+#define LARGE_FOLDER_CHILDREN 2000
+
+/*
+ * returns the child of the large folder or the large folder itself if name is
+ * NULL
+ */
+static pfs_eh large_folder_child(const char *name) {
+	pfs_eh e = pfsc_root();
+	if (!pfsc_folder_child_from_name(e, "large")
+			|| (name && !pfsc_folder_child_from_name(e, name))) {
+		free(e);
+		return NULL;
+	}
+	return e;
+}
+
+static int large_folder_has(const char *name) {
+	pfs_eh e = large_folder_child(name);
+	if (e == NULL) {
+		return 0;
+	}
+	char *buf = NULL;
+	i64 len = 0;
+	int res = pfsc_element_get_name(e, &buf, &len) && strcmp(buf, name) == 0;
+	free(buf);
+	free(e);
+	return res;
+}
+
+static int large_folder_is_hashed() {
+	pfs_eh e = large_folder_child(NULL);
+	if (e == NULL) {
+		return 0;
+	}
+	void *block_data = pfs->get(pfs, e->element_place.block);
+	int res = 0;
+	if (block_data != NULL) {
+		struct pfs_folder *f = block_data + e->element_place.pos;
+		res = f->helper_index == HASH_NODE_INDEX;
+		pfs->unget(pfs, e->element_place.block);
+	}
+	free(e);
+	return res;
+}
+
+static void large_folder_check() {
+	const char *start = "[main.checks.large_folder_check]:                     ";
+	char name[32];
+	pfs_eh e = pfsc_root();
+	if (!pfsc_folder_create_folder(e, NULL, "large")) {
+		printf("%scould not create the folder (%s) [0]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	free(e);
+	for (int i = 0; i < LARGE_FOLDER_CHILDREN; i++) {
+		sprintf(name, "child-%d", i);
+		e = large_folder_child(NULL);
+		if (e == NULL || !pfsc_folder_create_file(e, NULL, name)) {
+			printf("%scould not create %s (%s) [1]\n", start, name,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		free(e);
+	}
+	for (int i = 0; i < LARGE_FOLDER_CHILDREN; i++) {
+		sprintf(name, "child-%d", i);
+		if (!large_folder_has(name)) {
+			printf("%scould not find %s (%s) [2]\n", start, name, pfs_error());
+			exit(EXIT_FAILURE);
+		}
+	}
+	if ((format_flags & PFS_FORMAT_HASH_FOLDERS) != 0) {
+		if (!large_folder_is_hashed()) {
+			printf("%sthe large folder is no hash folder [3]\n", start);
+			exit(EXIT_FAILURE);
+		}
+	} else if (core(pfs)->name_index == NULL) {
+		printf("%sthe large folder was not indexed [3]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	e = large_folder_child(NULL);
+	// the count is cached from now on
+	if (pfsc_folder_child_count(e) != LARGE_FOLDER_CHILDREN
+			|| core(pfs)->count_cache == NULL) {
+		printf("%sthe child count was not cached [3]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	if (pfsc_folder_create_file(e, NULL, "child-17")
+			|| pfs_err != PFS_ERRNO_ELEMENT_ALREADY_EXIST) {
+		printf("%scould create child-17 twice [4]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	pfs_err = PFS_ERRNO_NONE;
+	free(e);
+	e = large_folder_child("child-5");
+	if (e == NULL || !pfsc_element_set_name(e, "renamed")) {
+		printf("%scould not rename child-5 (%s) [5]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	free(e);
+	if (large_folder_has("child-5") || !large_folder_has("renamed")) {
+		printf("%sthe renamed child was not found [6]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	for (int i = 0; i < LARGE_FOLDER_CHILDREN; i += 3) {
+		sprintf(name, "child-%d", i);
+		e = large_folder_child(name);
+		if (e == NULL || !pfsc_element_delete(e, NULL, NULL, 0)) {
+			printf("%scould not delete %s (%s) [7]\n", start, name,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		free(e);
+	}
+	pfs_eh sub = pfsc_root();
+	if (!pfsc_folder_create_folder(sub, NULL, "sub")
+			|| (e = large_folder_child("child-1")) == NULL
+			|| !pfsc_element_move(e, sub, "moved", NULL, NULL)) {
+		printf("%scould not move child-1 (%s) [8]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	free(e);
+	free(sub);
+	e = pfsc_root();
+	if (large_folder_has("child-1") || !pfsc_folder_child_from_name(e, "sub")
+			|| !pfsc_folder_child_from_name(e, "moved")) {
+		printf("%sthe moved child was not found (%s) [9]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	free(e);
+	i64 count = 1; // renamed
+	for (int i = 0; i < LARGE_FOLDER_CHILDREN; i++) {
+		sprintf(name, "child-%d", i);
+		int expected = i % 3 != 0 && i != 1 && i != 5;
+		if (large_folder_has(name) != expected) {
+			printf("%s%s was %sfound [A]\n", start, name,
+					expected ? "not " : "");
+			exit(EXIT_FAILURE);
+		}
+		count += expected;
+	}
+	pfs_err = PFS_ERRNO_NONE;
+	e = large_folder_child(NULL);
+	if (pfsc_folder_child_count(e) != count
+			|| !pfsc_folder_create_file(e, NULL, "child-0")) {
+		printf("%scould not recreate child-0 (%s) [B]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	free(e);
+	if (!large_folder_has("child-0")) {
+		printf("%scould not find the recreated child-0 [C]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	e = large_folder_child(NULL);
+	pfs_fi iter = pfsc_folder_iterator(e, 1);
+	i64 iterated = 0;
+	while (iter != NULL && pfsc_folder_iter_next(iter)) {
+		iterated++;
+	}
+	if (iter == NULL || iterated != count + 1) {
+		printf("%sthe iterator found %ld of %ld children [D]\n", start,
+				iterated, count + 1);
+		exit(EXIT_FAILURE);
+	}
+	free(iter);
+	free(e); // the iterator changed e
+	e = large_folder_child(NULL);
+	pfs_eh child = large_folder_child("child-2");
+	if (child == NULL || !pfsc_element_move(child, e, "moved-2", NULL, NULL)
+			|| pfsc_folder_child_count(e) != count + 1) {
+		printf("%sthe child count is wrong after a move in the folder (%s) "
+				"[E]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	free(child);
+	free(e);
+}
+
+#define BENCH_BLOCK_COUNT 4096
+#define BENCH_BLOCK_SIZE  1024
+#define BENCH_OPS         (1 << 16)
+
+static i64 bench_nanos() {
+	struct timespec t;
+	clock_gettime(CLOCK_MONOTONIC, &t);
+	return t.tv_sec * 1000000000L + t.tv_nsec;
+}
+
+/*
+ * reads a chain of blocks from a file, which ends inside of the last block,
+ * with read ahead (and io_uring if available), so that the prefetch of the
+ * last block gets less bytes than requested
+ */
+static void readahead_check() {
+	const char *start = "[main.readahead_check]:                               ";
+	const char *file = "./testout/testfile-readahead.pfs";
+	const i64 count = 40, cut = 300;
+	bm bm = bm_new_file_block_manager_path_bs(file, 1024, 0);
+	if (bm == NULL) {
+		printf("%scould not create the block manager (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	for (i64 b = 0; b < count; b++) {
+		void *data = bm->get(bm, b);
+		if (data == NULL) {
+			printf("%scould not get block %ld (%s) [1]\n", start, b,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		memset(data, (int) b + 1, bm->block_size - 8);
+		*(i64*) (data + bm->block_size - 8) = b + 1 < count ? b + 1 : -1;
+		if (!bm->set(bm, b)) {
+			printf("%scould not save block %ld (%s) [2]\n", start, b,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+	}
+	if (!bm->close_bm(bm) || truncate(file, count * 1024 - cut)) {
+		printf("%scould not close and truncate the file (%s) [3]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	bm = bm_new_file_block_manager_path_bs(file, 1024, 0);
+	if (bm == NULL || !bm_file_cache_capacity(bm, 64)
+			|| !bm_file_readahead(bm, 32)) {
+		printf("%scould not reopen the block manager (%s) [4]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	if (!bm_file_io_uring(bm, 8)) {
+		printf("%sSKIP io_uring, it is not supported by this build or kernel, "
+				"use normal file I/O (%s) [5]\n", start, pfs_error());
+	}
+	for (i64 b = 0; b < count; b++) {
+		void *data = bm->get(bm, b);
+		if (data == NULL) {
+			printf("%scould not get block %ld (%s) [6]\n", start, b,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		// the last block is filled with zeros after the end of the file
+		i64 filled = b + 1 < count ? bm->block_size - 8 : bm->block_size - cut;
+		i64 end = b + 1 < count ? filled : bm->block_size;
+		for (i64 i = 0; i < end; i++) {
+			int expect = i < filled ? (int) b + 1 : 0;
+			if (((unsigned char*) data)[i] != expect) {
+				printf("%sblock %ld has the wrong byte at %ld [7]\n", start, b,
+						i);
+				exit(EXIT_FAILURE);
+			}
+		}
+		if (!bm->unget(bm, b)) {
+			printf("%scould not unget block %ld (%s) [8]\n", start, b,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+	}
+	struct bm_readahead_stats stats;
+	if (!bm_file_readahead_stats(bm, &stats, 0) || stats.hits <= 0) {
+		printf("%sthe blocks were not read ahead [9]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	if (!bm->close_bm(bm)) {
+		printf("%scould not close the block manager (%s) [A]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+}
+
+static void benchmarks() {
+	const char *start = "[main.benchmarks]:                                    ";
+	printf("%sstart io_benchmark [0]\n", start);
+	fflush(NULL);
+	io_benchmark();
+	printf("%sstart flush_benchmark [1]\n", start);
+	fflush(NULL);
+	flush_benchmark();
+	printf("%sstart readahead_benchmark [2]\n", start);
+	fflush(NULL);
+	readahead_benchmark();
+	printf("%sstart direct_benchmark [3]\n", start);
+	fflush(NULL);
+	direct_benchmark();
+	printf("%sstart ram_benchmark [4]\n", start);
+	fflush(NULL);
+	ram_benchmark();
+	printf("%sstart alloc_benchmark [5]\n", start);
+	fflush(NULL);
+	alloc_benchmark();
+	printf("%sstart file_benchmark [6]\n", start);
+	fflush(NULL);
+	file_benchmark();
+	printf("%sstart append_benchmark [7]\n", start);
+	fflush(NULL);
+	append_benchmark();
+	printf("%sstart locality_benchmark [8]\n", start);
+	fflush(NULL);
+	locality_benchmark();
+	printf("%sstart delayed_benchmark [9]\n", start);
+	fflush(NULL);
+	delayed_benchmark();
+	printf("%sstart free_benchmark [A]\n", start);
+	fflush(NULL);
+	free_benchmark();
+	printf("%sstart folder_benchmark [B]\n", start);
+	fflush(NULL);
+	folder_benchmark();
+	printf("%sall benchmarks executed [C]\n", start);
+	fflush(NULL);
+}
+
+/*
+ * compares seek+read/write with positional pread/pwrite on random blocks
+ * and measures the get/unget and get/set latency of the file block manager
+ */
+static void io_benchmark() {
+	const char *start = "[main.benchmarks.io_benchmark]:                       ";
+#ifdef PFS_PORTABLE_BUILD
+	printf("%sskip io benchmark on portable builds [0]\n", start);
+#else // PFS_PORTABLE_BUILD
+	const char *bench_file = "./testout/bench.pfs";
+	bm_fd fd = bm_fd_open_rw_trunc(bench_file);
+	if (fd == -1) {
+		printf("%scould not open the benchmark file [1]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	void *data = random_data0(start, BENCH_BLOCK_SIZE * BENCH_BLOCK_COUNT);
+	if (bm_fd_write(fd, data, BENCH_BLOCK_SIZE * BENCH_BLOCK_COUNT)
+			!= BENCH_BLOCK_SIZE * BENCH_BLOCK_COUNT) {
+		printf("%scould not fill the benchmark file [2]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	i64 *blocks = malloc(BENCH_OPS * sizeof(i64));
+	for (int i = 0; i < BENCH_OPS; i++) {
+		blocks[i] = ((ui64) ((ui32*) data)[i % (BENCH_BLOCK_COUNT - 1)]) % BENCH_BLOCK_COUNT;
+	}
+	i64 t0 = bench_nanos();
+	for (int i = 0; i < BENCH_OPS; i++) {
+		bm_fd_seek(fd, blocks[i] * BENCH_BLOCK_SIZE);
+		if (bm_fd_read(fd, data, BENCH_BLOCK_SIZE) != BENCH_BLOCK_SIZE) {
+			printf("%scould not read [3]\n", start);
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t1 = bench_nanos();
+	for (int i = 0; i < BENCH_OPS; i++) {
+		if (bm_fd_pread(fd, data, BENCH_BLOCK_SIZE, blocks[i] * BENCH_BLOCK_SIZE)
+				!= BENCH_BLOCK_SIZE) {
+			printf("%scould not pread [4]\n", start);
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t2 = bench_nanos();
+	for (int i = 0; i < BENCH_OPS; i++) {
+		bm_fd_seek(fd, blocks[i] * BENCH_BLOCK_SIZE);
+		if (bm_fd_write(fd, data, BENCH_BLOCK_SIZE) != BENCH_BLOCK_SIZE) {
+			printf("%scould not write [5]\n", start);
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t3 = bench_nanos();
+	for (int i = 0; i < BENCH_OPS; i++) {
+		if (bm_fd_pwrite(fd, data, BENCH_BLOCK_SIZE, blocks[i] * BENCH_BLOCK_SIZE)
+				!= BENCH_BLOCK_SIZE) {
+			printf("%scould not pwrite [6]\n", start);
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t4 = bench_nanos();
+	bm_fd_close(fd);
+	printf("%sseek+read:  %6ld ns/block (2 syscalls/block) [7]\n", start,
+			(t1 - t0) / BENCH_OPS);
+	printf("%spread:      %6ld ns/block (1 syscall/block) [8]\n", start,
+			(t2 - t1) / BENCH_OPS);
+	printf("%sseek+write: %6ld ns/block (2 syscalls/block) [9]\n", start,
+			(t3 - t2) / BENCH_OPS);
+	printf("%spwrite:     %6ld ns/block (1 syscall/block) [A]\n", start,
+			(t4 - t3) / BENCH_OPS);
+	bm bench_bm = bm_new_file_block_manager_path_bs(bench_file,
+			BENCH_BLOCK_SIZE, 0);
+	if (bench_bm == NULL) {
+		printf("%scould not create the block manager (%s) [B]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	t0 = bench_nanos();
+	for (int i = 0; i < BENCH_OPS; i++) {
+		if (!bench_bm->get(bench_bm, blocks[i])) {
+			printf("%scould not get a block (%s) [C]\n", start, pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		bench_bm->unget(bench_bm, blocks[i]);
+	}
+	t1 = bench_nanos();
+	for (int i = 0; i < BENCH_OPS; i++) {
+		if (!bench_bm->get(bench_bm, blocks[i])) {
+			printf("%scould not get a block (%s) [D]\n", start, pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		bench_bm->set(bench_bm, blocks[i]);
+	}
+	t2 = bench_nanos();
+	bench_bm->close_bm(bench_bm);
+	printf("%sbm get+unget: %6ld ns/block [E]\n", start, (t1 - t0) / BENCH_OPS);
+	printf("%sbm get+set:   %6ld ns/block [F]\n", start, (t2 - t1) / BENCH_OPS);
+	free(blocks);
+	free(data);
+#endif // PFS_PORTABLE_BUILD
+}
+
+/*
+ * writes all blocks of a file sequentially, once without block cache
+ * (each set is written immediately) and once with a block cache
+ * (the modified blocks are written in runs on sync)
+ */
+static void flush_benchmark() {
+	const char *start = "[main.benchmarks.flush_benchmark]:                    ";
+	const char *bench_file = "./testout/bench.pfs";
+	const char *names[] = { //
+			"(write through)          ", //
+			"(cached, coalesced flush)", //
+			"(write-behind)           ", //
+			};
+	for (int cached = 0; cached < 3; cached++) {
+		bm bench_bm = bm_new_file_block_manager_path_bs(bench_file,
+				BENCH_BLOCK_SIZE, 0);
+		if (bench_bm == NULL) {
+			printf("%scould not create the block manager (%s) [0]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		if (cached == 1 && !bm_file_cache_capacity(bench_bm, BENCH_BLOCK_COUNT)) {
+			printf("%scould not set the cache capacity (%s) [1]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		if (cached == 2 && !bm_file_write_behind(bench_bm, 1024, 30)) {
+			printf("%swrite-behind is not available, skip (%s) [1.1]\n",
+					start, pfs_error());
+			bench_bm->close_bm(bench_bm);
+			break;
+		}
+		i64 t0 = bench_nanos();
+		for (i64 block = 0; block < BENCH_BLOCK_COUNT; block++) {
+			i64 *data = bench_bm->get(bench_bm, block);
+			if (!data) {
+				printf("%scould not get a block (%s) [2]\n", start, pfs_error());
+				exit(EXIT_FAILURE);
+			}
+			data[0] = block;
+			bench_bm->set(bench_bm, block);
+		}
+		i64 t_set = bench_nanos();
+		if (!bench_bm->sync_bm(bench_bm)) {
+			printf("%scould not sync the block manager (%s) [3]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		i64 t1 = bench_nanos();
+		bench_bm->close_bm(bench_bm);
+		printf("%ssequential write %s: %6ld ns/block (set: %6ld ns/block) [4]\n",
+				start, names[cached], (t1 - t0) / BENCH_BLOCK_COUNT,
+				(t_set - t0) / BENCH_BLOCK_COUNT);
+	}
+}
+
+/*
+ * follows a block chain through the benchmark file with cold page cache
+ * once without and once with read ahead
+ */
+static void readahead_benchmark() {
+	const char *start = "[main.benchmarks.readahead_benchmark]:                ";
+	const char *bench_file = "./testout/bench.pfs";
+	bm bench_bm = bm_new_file_block_manager_path_bs(bench_file,
+			BENCH_BLOCK_SIZE, 0);
+	if (bench_bm == NULL) {
+		printf("%scould not create the block manager (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	for (i64 block = 0; block < BENCH_BLOCK_COUNT; block++) {
+		void *data = bench_bm->lazy_get(bench_bm, block);
+		if (!data) {
+			printf("%scould not get a block (%s) [1]\n", start, pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		*(i64*) (data + BENCH_BLOCK_SIZE - 8) =
+				block + 1 < BENCH_BLOCK_COUNT ? block + 1 : -1;
+		bench_bm->set(bench_bm, block);
+	}
+	bench_bm->close_bm(bench_bm);
+	for (int ra = 0; ra <= 64; ra += 64) {
+#ifndef PFS_PORTABLE_BUILD
+		bm_fd fd = bm_fd_open_ro(bench_file);
+		fdatasync(fd);
+		posix_fadvise64(fd, 0, 0, POSIX_FADV_DONTNEED);
+		bm_fd_close(fd);
+#endif // PFS_PORTABLE_BUILD
+		bench_bm = bm_new_file_block_manager_path_bs(bench_file,
+				BENCH_BLOCK_SIZE, 1);
+		if (bench_bm == NULL || !bm_file_readahead(bench_bm, ra)) {
+			printf("%scould not create the block manager (%s) [2]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		i64 t0 = bench_nanos();
+		i64 count = 0;
+		for (i64 block = 0; block != -1; count++) {
+			void *data = bench_bm->get(bench_bm, block);
+			if (!data) {
+				printf("%scould not get a block (%s) [3]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+			i64 next = *(i64*) (data + BENCH_BLOCK_SIZE - 8);
+			bench_bm->unget(bench_bm, block);
+			block = next;
+		}
+		i64 t1 = bench_nanos();
+		struct bm_readahead_stats stats;
+		bm_file_readahead_stats(bench_bm, &stats, 0);
+		bench_bm->close_bm(bench_bm);
+		printf("%sread ahead %2d: %6ld ns/block hits=%ld misses=%ld "
+				"prefetched=%ld [4]\n", start, ra, (t1 - t0) / count, stats.hits,
+				stats.misses, stats.prefetched);
+	}
+}
+
+/*
+ * reads random blocks of a file with and without O_DIRECT
+ *
+ * as long as the file fits into the page cache the normal file I/O is
+ * faster, because the direct I/O has to go to the device every time.
+ * direct I/O pays off when the image is much larger than the memory and
+ * the block cache of the block manager is used, because then the blocks
+ * are not buffered twice and the page cache is not polluted
+ */
+static void direct_benchmark() {
+	const char *start = "[main.benchmarks.direct_benchmark]:                   ";
+	const char *bench_file = "./testout/bench-direct.pfs";
+	for (int direct = 0; direct < 2; direct++) {
+		bm bench_bm = direct ?
+				bm_new_direct_block_manager_path_bs(bench_file, 4096, 0) :
+				bm_new_file_block_manager_path_bs(bench_file, 4096, 0);
+		if (bench_bm == NULL) {
+			printf("%scould not create the block manager, skip (%s) [0]\n",
+					start, pfs_error());
+			return;
+		}
+		i64 t0 = bench_nanos();
+		for (i64 block = 0; block < BENCH_BLOCK_COUNT; block++) {
+			void *data = bench_bm->lazy_get(bench_bm, block);
+			if (!data) {
+				printf("%scould not get a block (%s) [1]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+			memset(data, (int) block, 4096);
+			bench_bm->set(bench_bm, block);
+		}
+		bench_bm->sync_bm(bench_bm);
+		i64 t1 = bench_nanos();
+		for (i64 i = 0; i < BENCH_OPS; i++) {
+			i64 block = (i * 7919) % BENCH_BLOCK_COUNT;
+			ui8 *data = bench_bm->get(bench_bm, block);
+			if (!data || *data != (ui8) block) {
+				printf("%scould not get a block (%s) [2]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+			bench_bm->unget(bench_bm, block);
+		}
+		i64 t2 = bench_nanos();
+		bench_bm->close_bm(bench_bm);
+		printf("%s%s write: %6ld ns/block, random read: %6ld ns/block [3]\n",
+				start, direct ? "O_DIRECT  " : "page cache", (t1 - t0) / BENCH_BLOCK_COUNT,
+				(t2 - t1) / BENCH_OPS);
+	}
+}
+
+/*
+ * measures the get/set and get/unget latency of the copying ram block
+ * manager (without and with pooled buffers) and the contiguous (zero-copy)
+ * ram block manager
+ */
+static void ram_benchmark() {
+	const char *start = "[main.benchmarks.ram_benchmark]:                      ";
+	i64 *blocks = malloc(BENCH_OPS * sizeof(i64));
+	if (!blocks) {
+		printf("%sout of memory [0]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	for (int i = 0; i < BENCH_OPS; i++) {
+		blocks[i] = random() % BENCH_BLOCK_COUNT;
+	}
+	const char *names[] = { //
+			"copying, no pool", //
+			"copying, pooled ", //
+			"contiguous      ", //
+			};
+	for (int mode = 0; mode < 3; mode++) {
+		bm bench_bm = mode == 2 ?
+				bm_new_contiguous_ram_block_manager(BENCH_BLOCK_COUNT,
+						BENCH_BLOCK_SIZE, 0) :
+				bm_new_ram_block_manager(BENCH_BLOCK_COUNT, BENCH_BLOCK_SIZE);
+		if (bench_bm == NULL || (mode == 0 && !bm_pool_capacity(bench_bm, 0))) {
+			printf("%scould not create the block manager (%s) [1]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		for (i64 block = 0; block < BENCH_BLOCK_COUNT; block++) {
+			i64 *data = bench_bm->get(bench_bm, block);
+			if (!data) {
+				printf("%scould not get a block (%s) [2]\n", start, pfs_error());
+				exit(EXIT_FAILURE);
+			}
+			data[0] = block;
+			bench_bm->set(bench_bm, block);
+		}
+		i64 t0 = bench_nanos();
+		for (int i = 0; i < BENCH_OPS; i++) {
+			i64 *data = bench_bm->get(bench_bm, blocks[i]);
+			if (!data || data[0] != blocks[i]) {
+				printf("%scould not get a block (%s) [3]\n", start, pfs_error());
+				exit(EXIT_FAILURE);
+			}
+			bench_bm->unget(bench_bm, blocks[i]);
+		}
+		i64 t1 = bench_nanos();
+		for (int i = 0; i < BENCH_OPS; i++) {
+			i64 *data = bench_bm->get(bench_bm, blocks[i]);
+			if (!data) {
+				printf("%scould not get a block (%s) [4]\n", start, pfs_error());
+				exit(EXIT_FAILURE);
+			}
+			data[1]++;
+			bench_bm->set(bench_bm, blocks[i]);
+		}
+		i64 t2 = bench_nanos();
+		bench_bm->close_bm(bench_bm);
+		printf("%s%s get+unget: %6ld ns/block, get+set: %6ld ns/block [5]\n",
+				start, names[mode],
+				(t1 - t0) / BENCH_OPS, (t2 - t1) / BENCH_OPS);
+	}
+	free(blocks);
+}
+
+#define ALLOC_BENCH_BLOCK_COUNT (1L << 18)
+
+/*
+ * measures the latency of allocate_block while the file system fills up
+ * and of free_block+allocate_block on an almost full file system
+ */
+static void alloc_benchmark() {
+	const char *start = "[main.benchmarks.alloc_benchmark]:                    ";
+	bm bench_bm = bm_new_contiguous_ram_block_manager(ALLOC_BENCH_BLOCK_COUNT,
+			BENCH_BLOCK_SIZE, 0);
+	if (bench_bm == NULL) {
+		printf("%scould not create the block manager (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	if (!pfsc_format(bench_bm, ALLOC_BENCH_BLOCK_COUNT, NULL, "")) {
+		printf("%scould not format the block manager (%s) [1]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	i64 *blocks = malloc(ALLOC_BENCH_BLOCK_COUNT * sizeof(i64));
+	if (!blocks) {
+		printf("%sout of memory [2]\n", start);
+		exit(EXIT_FAILURE);
+	}
+	const i64 step = ALLOC_BENCH_BLOCK_COUNT / 4;
+	i64 count = 0;
+	for (int quarter = 0; quarter < 4; quarter++) {
+		// leave some space for the allocation bitmap in the last quarter
+		i64 first = count;
+		i64 end = quarter == 3 ? count + step - (step >> 4) : count + step;
+		i64 t0 = bench_nanos();
+		for (; count < end; count++) {
+			blocks[count] = allocate_block(bench_bm,
+			BLOCK_FLAG_USED | BLOCK_FLAG_DATA);
+			if (blocks[count] == -1L) {
+				printf("%scould not allocate a block (%s) [3]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+		}
+		i64 t1 = bench_nanos();
+		printf("%sallocate (fill %3d%%..%3d%%): %6ld ns/block [4]\n", start,
+				quarter * 25, quarter * 25 + 25, (t1 - t0) / (count - first));
+	}
+	i64 t0 = bench_nanos();
+	for (int i = 0; i < BENCH_OPS; i++) {
+		i64 index = random() % count;
+		free_block(bench_bm, blocks[index]);
+		blocks[index] = allocate_block(bench_bm,
+		BLOCK_FLAG_USED | BLOCK_FLAG_DATA);
+		if (blocks[index] == -1L) {
+			printf("%scould not allocate a block (%s) [5]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t1 = bench_nanos();
+	printf("%sfree+allocate (almost full): %6ld ns/block [6]\n", start,
+			(t1 - t0) / BENCH_OPS);
+	free(blocks);
+	bench_bm->close_bm(bench_bm);
+}
+
+#define FILE_BENCH_LENGTH (1L << 25)
+#define FILE_BENCH_CHUNK  (1 << 16)
+#define FILE_BENCH_READS  (1 << 12)
+/* the length of the sequential reads */
+#define FILE_BENCH_STEP   (1 << 12)
+/* the number of files and their length for the interleaved reads */
+#define FILE_BENCH_FILES  (CHAIN_INDEX_FILES * 2)
+#define FILE_BENCH_FILE_LENGTH (1L << 20)
+
+static void file_benchmark0(ui32 flags);
+
+static inline int file_bench_read(pfs_eh file, struct pfs_file_cursor *cursor,
+		i64 pos, void *buffer) {
+	if (cursor) {
+		return pfsc_file_read_cursor(file, cursor, pos, buffer, FILE_BENCH_STEP);
+	}
+	return pfsc_file_read(file, pos, buffer, FILE_BENCH_STEP);
+}
+
+/*
+ * measures appending to a large file and reading from random positions of
+ * the file (both need the place of a file position in the block chain or
+ * the extents)
+ * sequential reads are measured with and without a cursor, also for more
+ * files than the chain index can remember
+ */
+static void file_benchmark() {
+	const char *start = "[main.benchmarks.file_benchmark]:                     ";
+	printf("%sblock chains [0.1]\n", start);
+	file_benchmark0(0U);
+	printf("%sextents [0.2]\n", start);
+	file_benchmark0(PFS_FORMAT_EXTENTS);
+}
+
+static void file_benchmark0(ui32 flags) {
+	const char *start = "[main.benchmarks.file_benchmark]:                     ";
+	i64 block_count = ((FILE_BENCH_LENGTH
+			+ FILE_BENCH_FILE_LENGTH * FILE_BENCH_FILES) / (BENCH_BLOCK_SIZE - 8))
+			* 2;
+	pfs = bm_new_contiguous_ram_block_manager(block_count, BENCH_BLOCK_SIZE, 0);
+	if (pfs == NULL
+			|| !pfsc_format_flags(pfs, block_count, NULL, "", flags)) {
+		printf("%scould not create the file system (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	pfs_eh file = pfsc_root();
+	void *data = random_data0(start, FILE_BENCH_CHUNK);
+	if (!file || !pfsc_folder_create_file(file, NULL, "bench_file")) {
+		printf("%scould not create the file (%s) [1]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	i64 t0 = bench_nanos();
+	for (i64 len = 0; len < FILE_BENCH_LENGTH; len += FILE_BENCH_CHUNK) {
+		if (pfsc_file_append(file, data, FILE_BENCH_CHUNK) != FILE_BENCH_CHUNK) {
+			printf("%scould not append to the file (%s) [2]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t1 = bench_nanos();
+	for (int i = 0; i < FILE_BENCH_READS; i++) {
+		i64 pos = random() % (FILE_BENCH_LENGTH - 256);
+		if (!pfsc_file_read(file, pos, data, 256)) {
+			printf("%scould not read from the file (%s) [3]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t2 = bench_nanos();
+	printf("%sappend: %8ld ns/chunk (%d bytes), random read: %8ld ns/read [4]\n",
+			start, (t1 - t0) / (FILE_BENCH_LENGTH / FILE_BENCH_CHUNK),
+			FILE_BENCH_CHUNK, (t2 - t1) / FILE_BENCH_READS);
+	// sequential reads, like the ones of a file stream
+	for (int use_cursor = 0; use_cursor < 2; use_cursor++) {
+		struct pfs_file_cursor cursor = { .pos = -1L };
+		t0 = bench_nanos();
+		for (i64 pos = 0; pos < FILE_BENCH_LENGTH; pos += FILE_BENCH_STEP) {
+			if (!file_bench_read(file, use_cursor ? &cursor : NULL, pos, data)) {
+				printf("%scould not read from the file (%s) [5]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+		}
+		t1 = bench_nanos();
+		printf("%ssequential read (%s): %8ld ns/read (%d bytes) [6]\n", start,
+				use_cursor ? "cursor   " : "no cursor",
+				(t1 - t0) / (FILE_BENCH_LENGTH / FILE_BENCH_STEP),
+				FILE_BENCH_STEP);
+	}
+	// more files than the chain index remembers are read at the same time
+	pfs_eh files[FILE_BENCH_FILES];
+	for (int i = 0; i < FILE_BENCH_FILES; i++) {
+		char name[16];
+		sprintf(name, "file%d", i);
+		files[i] = pfsc_root();
+		if (!files[i] || !pfsc_folder_create_file(files[i], NULL, name)) {
+			printf("%scould not create the file (%s) [7]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		for (i64 len = 0; len < FILE_BENCH_FILE_LENGTH; len += FILE_BENCH_CHUNK) {
+			if (pfsc_file_append(files[i], data, FILE_BENCH_CHUNK)
+					!= FILE_BENCH_CHUNK) {
+				printf("%scould not append to the file (%s) [8]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+		}
+	}
+	for (int use_cursor = 0; use_cursor < 2; use_cursor++) {
+		struct pfs_file_cursor cursors[FILE_BENCH_FILES];
+		for (int i = 0; i < FILE_BENCH_FILES; i++) {
+			cursors[i].pos = -1L;
+		}
+		t0 = bench_nanos();
+		for (i64 pos = 0; pos < FILE_BENCH_FILE_LENGTH; pos += FILE_BENCH_STEP) {
+			for (int i = 0; i < FILE_BENCH_FILES; i++) {
+				if (!file_bench_read(files[i], use_cursor ? &cursors[i] : NULL,
+						pos, data)) {
+					printf("%scould not read from the file (%s) [9]\n", start,
+							pfs_error());
+					exit(EXIT_FAILURE);
+				}
+			}
+		}
+		t1 = bench_nanos();
+		printf("%sinterleaved read of %d files (%s): %8ld ns/read [A]\n",
+				start, FILE_BENCH_FILES, use_cursor ? "cursor   " : "no cursor",
+				(t1 - t0)
+						/ ((FILE_BENCH_FILE_LENGTH / FILE_BENCH_STEP)
+								* FILE_BENCH_FILES));
+	}
+	for (int i = 0; i < FILE_BENCH_FILES; i++) {
+		free(files[i]);
+	}
+	free(data);
+	free(file);
+	pfs->close_bm(pfs);
+	pfs = NULL;
+}
+
+#define APPEND_BENCH_RECORDS     1000000
+#define APPEND_BENCH_RECORD_SIZE 100
+#define APPEND_BENCH_STEPS       10
+
+static void append_benchmark0(ui32 flags);
+
+/*
+ * appends many small records to one file, the time per record should not
+ * grow with the length of the file
+ */
+static void append_benchmark() {
+	const char *start = "[main.benchmarks.append_benchmark]:                   ";
+	printf("%sblock chains [0.1]\n", start);
+	append_benchmark0(0U);
+	printf("%sextents [0.2]\n", start);
+	append_benchmark0(PFS_FORMAT_EXTENTS);
+}
+
+static void append_benchmark0(ui32 flags) {
+	const char *start = "[main.benchmarks.append_benchmark]:                   ";
+	const i64 length = (i64) APPEND_BENCH_RECORDS * APPEND_BENCH_RECORD_SIZE;
+	i64 block_count = (length / (BENCH_BLOCK_SIZE - 8)) * 2;
+	pfs = bm_new_contiguous_ram_block_manager(block_count, BENCH_BLOCK_SIZE, 0);
+	if (pfs == NULL
+			|| !pfsc_format_flags(pfs, block_count, NULL, "", flags)) {
+		printf("%scould not create the file system (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	pfs_eh file = pfsc_root();
+	void *data = random_data0(start, APPEND_BENCH_RECORD_SIZE);
+	if (!file || !pfsc_folder_create_file(file, NULL, "bench_file")) {
+		printf("%scould not create the file (%s) [1]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	const int step = APPEND_BENCH_RECORDS / APPEND_BENCH_STEPS;
+	for (int i = 0; i < APPEND_BENCH_RECORDS; i += step) {
+		i64 t0 = bench_nanos();
+		for (int r = 0; r < step; r++) {
+			if (pfsc_file_append(file, data, APPEND_BENCH_RECORD_SIZE)
+					!= APPEND_BENCH_RECORD_SIZE) {
+				printf("%scould not append to the file (%s) [2]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+		}
+		i64 t1 = bench_nanos();
+		printf("%srecords %7d..%7d: %6ld ns/record [3]\n", start, i,
+				i + step, (t1 - t0) / step);
+	}
+	if (pfsc_file_length(file) != length) {
+		printf("%sthe file has the wrong length (%ld) [4]\n", start,
+				pfsc_file_length(file));
+		exit(EXIT_FAILURE);
+	}
+	free(data);
+	free(file);
+	pfs->close_bm(pfs);
+	pfs = NULL;
+}
+
+#define LOCALITY_BENCH_FOLDERS 8
+#define LOCALITY_BENCH_FILES 8
+#define LOCALITY_BENCH_ROUNDS 64
+
+static void locality_benchmark0(ui32 flags);
+
+/*
+ * appends interleaved to files of several folders and creates small files
+ * between the appends, then compares the fragments of the files
+ */
+static void locality_benchmark() {
+	const char *start = "[main.benchmarks.locality_benchmark]:                 ";
+	printf("%sblock chains [0.1]\n", start);
+	locality_benchmark0(0U);
+	printf("%sblock chains with locality [0.2]\n", start);
+	locality_benchmark0(PFS_FORMAT_LOCALITY);
+	printf("%sextents [0.3]\n", start);
+	locality_benchmark0(PFS_FORMAT_EXTENTS);
+	printf("%sextents with locality [0.4]\n", start);
+	locality_benchmark0(PFS_FORMAT_EXTENTS | PFS_FORMAT_LOCALITY);
+}
+
+static pfs_eh locality_bench_open(const char *start, int folder, int file) {
+	char name[32];
+	pfs_eh eh = pfsc_root();
+	sprintf(name, "folder%d", folder);
+	if (!eh || !pfsc_folder_folder_child_from_name(eh, name)) {
+		printf("%scould not open the folder (%s) [2]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	sprintf(name, "file%d", file);
+	if (!pfsc_folder_file_child_from_name(eh, name)) {
+		printf("%scould not open the file (%s) [3]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	return eh;
+}
+
+static void locality_benchmark0(ui32 flags) {
+	const char *start = "[main.benchmarks.locality_benchmark]:                 ";
+	const i64 block_count = 1L << 16;
+	char name[32];
+	pfs = bm_new_ram_block_manager(block_count, BENCH_BLOCK_SIZE);
+	if (pfs == NULL
+			|| !pfsc_format_flags(pfs, block_count, NULL, "", flags)) {
+		printf("%scould not create the file system (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	void *data = random_data0(start, BENCH_BLOCK_SIZE * 3);
+	for (int folder = 0; folder < LOCALITY_BENCH_FOLDERS; folder++) {
+		pfs_eh eh = pfsc_root();
+		sprintf(name, "folder%d", folder);
+		if (!eh || !pfsc_folder_create_folder(eh, NULL, name)) {
+			printf("%scould not create the folder (%s) [1]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		for (int file = 0; file < LOCALITY_BENCH_FILES; file++) {
+			pfs_eh child = malloc(sizeof(struct pfs_element_handle));
+			memcpy(child, eh, sizeof(struct pfs_element_handle));
+			sprintf(name, "file%d", file);
+			if (!pfsc_folder_create_file(child, eh, name)) {
+				printf("%scould not create the file (%s) [1]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+			free(child);
+		}
+		free(eh);
+	}
+	pfs_eh files[LOCALITY_BENCH_FOLDERS * LOCALITY_BENCH_FILES];
+	for (int i = 0; i < LOCALITY_BENCH_FOLDERS * LOCALITY_BENCH_FILES; i++) {
+		files[i] = locality_bench_open(start, i / LOCALITY_BENCH_FILES,
+				i % LOCALITY_BENCH_FILES);
+	}
+	srand(42);
+	i64 t0 = bench_nanos();
+	for (int round = 0; round < LOCALITY_BENCH_ROUNDS; round++) {
+		for (int i = 0; i < LOCALITY_BENCH_FOLDERS * LOCALITY_BENCH_FILES;
+				i++) {
+			const i64 length = 1 + rand() % (BENCH_BLOCK_SIZE * 3);
+			if (pfsc_file_append(files[i], data, length) != length) {
+				printf("%scould not append to the file (%s) [4]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+		}
+		// small files between the appends
+		pfs_eh eh = pfsc_root();
+		sprintf(name, "small%d", round);
+		if (!eh || !pfsc_folder_create_file(eh, NULL, name)
+				|| pfsc_file_append(eh, data, 100) != 100) {
+			printf("%scould not create a small file (%s) [5]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		free(eh);
+	}
+	i64 t1 = bench_nanos();
+	i64 fragments = 0L;
+	for (int i = 0; i < LOCALITY_BENCH_FOLDERS * LOCALITY_BENCH_FILES; i++) {
+		const i64 file_fragments = pfsc_file_fragments(files[i]);
+		if (file_fragments <= 0L) {
+			printf("%scould not count the fragments (%s) [6]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		fragments += file_fragments;
+		free(files[i]);
+	}
+	printf("%s%ld fragments per file, %ld used blocks, %ld us [7]\n", start,
+			fragments / (LOCALITY_BENCH_FOLDERS * LOCALITY_BENCH_FILES),
+			pfsc_used_block_count(pfs), (t1 - t0) / 1000);
+	free(data);
+	pfs->close_bm(pfs);
+	pfs = NULL;
+}
+
+#define DELAYED_BENCH_FILES 8
+#define DELAYED_BENCH_RECORDS 20000
+#define DELAYED_BENCH_RECORD_SIZE 100
+#define DELAYED_BENCH_BUFFER (1 << 16)
+
+static void delayed_benchmark0(ui32 flags, int delayed);
+
+/*
+ * appends records interleaved to several files, once directly and once
+ * collected in per file buffers (like streams with PFS_SO_DELAY_ALLOC)
+ */
+static void delayed_benchmark() {
+	const char *start = "[main.benchmarks.delayed_benchmark]:                  ";
+	printf("%sblock chains, direct [0.1]\n", start);
+	delayed_benchmark0(0U, 0);
+	printf("%sblock chains, delayed [0.2]\n", start);
+	delayed_benchmark0(0U, 1);
+	printf("%sextents, direct [0.3]\n", start);
+	delayed_benchmark0(PFS_FORMAT_EXTENTS, 0);
+	printf("%sextents, delayed [0.4]\n", start);
+	delayed_benchmark0(PFS_FORMAT_EXTENTS, 1);
+}
+
+static void delayed_benchmark0(ui32 flags, int delayed) {
+	const char *start = "[main.benchmarks.delayed_benchmark]:                  ";
+	const i64 block_count = 1L << 16;
+	char name[32];
+	pfs = bm_new_ram_block_manager(block_count, BENCH_BLOCK_SIZE);
+	if (pfs == NULL
+			|| !pfsc_format_flags(pfs, block_count, NULL, "", flags)) {
+		printf("%scould not create the file system (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	pfs_eh files[DELAYED_BENCH_FILES];
+	void *buffers[DELAYED_BENCH_FILES];
+	i64 buffered[DELAYED_BENCH_FILES];
+	for (int i = 0; i < DELAYED_BENCH_FILES; i++) {
+		files[i] = pfsc_root();
+		sprintf(name, "file%d", i);
+		if (!files[i] || !pfsc_folder_create_file(files[i], NULL, name)) {
+			printf("%scould not create the file (%s) [1]\n", start,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+		buffers[i] = malloc(DELAYED_BENCH_BUFFER);
+		buffered[i] = 0L;
+	}
+	void *data = random_data0(start, DELAYED_BENCH_RECORD_SIZE);
+	i64 appends = 0L;
+	i64 t0 = bench_nanos();
+	for (int r = 0; r < DELAYED_BENCH_RECORDS; r++) {
+		for (int i = 0; i < DELAYED_BENCH_FILES; i++) {
+			if (!delayed) {
+				appends++;
+				if (pfsc_file_append(files[i], data, DELAYED_BENCH_RECORD_SIZE)
+						!= DELAYED_BENCH_RECORD_SIZE) {
+					printf("%scould not append to the file (%s) [2]\n",
+							start, pfs_error());
+					exit(EXIT_FAILURE);
+				}
+				continue;
+			}
+			if (buffered[i] + DELAYED_BENCH_RECORD_SIZE > DELAYED_BENCH_BUFFER) {
+				appends++;
+				if (pfsc_file_append(files[i], buffers[i], buffered[i])
+						!= buffered[i]) {
+					printf("%scould not append to the file (%s) [2]\n",
+							start, pfs_error());
+					exit(EXIT_FAILURE);
+				}
+				buffered[i] = 0L;
+			}
+			memcpy(buffers[i] + buffered[i], data, DELAYED_BENCH_RECORD_SIZE);
+			buffered[i] += DELAYED_BENCH_RECORD_SIZE;
+		}
+	}
+	i64 fragments = 0L;
+	for (int i = 0; i < DELAYED_BENCH_FILES; i++) {
+		if (buffered[i] > 0) {
+			appends++;
+			if (pfsc_file_append(files[i], buffers[i], buffered[i])
+					!= buffered[i]) {
+				printf("%scould not append to the file (%s) [2]\n", start,
+						pfs_error());
+				exit(EXIT_FAILURE);
+			}
+		}
+	}
+	i64 t1 = bench_nanos();
+	for (int i = 0; i < DELAYED_BENCH_FILES; i++) {
+		if (pfsc_file_length(files[i])
+				!= (i64) DELAYED_BENCH_RECORDS * DELAYED_BENCH_RECORD_SIZE) {
+			printf("%sthe file has the wrong length (%ld) [3]\n", start,
+					pfsc_file_length(files[i]));
+			exit(EXIT_FAILURE);
+		}
+		fragments += pfsc_file_fragments(files[i]);
+		free(files[i]);
+		free(buffers[i]);
+	}
+	printf("%s%ld appends, %ld fragments per file, %ld ns/record [4]\n",
+			start, appends, fragments / DELAYED_BENCH_FILES,
+			(t1 - t0) / (DELAYED_BENCH_RECORDS * DELAYED_BENCH_FILES));
+	free(data);
+	pfs->close_bm(pfs);
+	pfs = NULL;
+}
+
+#define FREE_BENCH_BLOCKS (1L << 15)
+
+static void free_benchmark0(ui32 flags);
+
+/*
+ * measures how long truncating and deleting (in the background) a large
+ * file takes
+ */
+static void free_benchmark() {
+	const char *start = "[main.benchmarks.free_benchmark]:                     ";
+	printf("%sblock chains [0.1]\n", start);
+	free_benchmark0(PFS_FORMAT_DEFERRED_FREE);
+	printf("%sextents [0.2]\n", start);
+	free_benchmark0(PFS_FORMAT_DEFERRED_FREE | PFS_FORMAT_EXTENTS);
+}
+
+static void free_benchmark0(ui32 flags) {
+	const char *start = "[main.benchmarks.free_benchmark]:                     ";
+	const i64 block_count = FREE_BENCH_BLOCKS * 2L + 64L;
+	const i64 length = FREE_BENCH_BLOCKS * (BENCH_BLOCK_SIZE - 8);
+	pfs = bm_new_ram_block_manager(block_count, BENCH_BLOCK_SIZE);
+	if (pfs == NULL
+			|| !pfsc_format_flags(pfs, block_count, NULL, "", flags)) {
+		printf("%scould not create the file system (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	void *data = calloc(1, length);
+	pfs_eh file = pfsc_root();
+	if (data == NULL || file == NULL
+			|| !pfsc_folder_create_file(file, NULL, "file")
+			|| pfsc_file_append(file, data, length) != length) {
+		printf("%scould not create the file (%s) [1]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	i64 t0 = bench_nanos();
+	if (!pfsc_file_truncate(file, 0L)) {
+		printf("%scould not truncate the file (%s) [2]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	i64 t1 = bench_nanos();
+	if (pfsc_file_append(file, data, length) != length) {
+		printf("%scould not append to the file (%s) [3]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	i64 t2 = bench_nanos();
+	if (!pfsc_element_delete(file, NULL, NULL, 1)) {
+		printf("%scould not delete the file (%s) [4]\n", start, pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	i64 t3 = bench_nanos();
+	const i64 freed = pfsc_free_deferred(pfs, -1L);
+	i64 t4 = bench_nanos();
+	if (freed < length / BENCH_BLOCK_SIZE) {
+		printf("%sonly %ld blocks were freed (%s) [5]\n", start, freed,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	printf("%struncate %ld us, background delete %ld us, deferred free %ld us"
+			" [6]\n", start, (t1 - t0) / 1000, (t3 - t2) / 1000,
+			(t4 - t3) / 1000);
+	free(file);
+	free(data);
+	pfs->close_bm(pfs);
+	pfs = NULL;
+}
+
+static void folder_benchmark0(i64 children, ui32 flags, i32 block_size);
+
+/*
+ * measures how long creating and looking up children of a large folder takes
+ * the lookup time per child should not depend on the folder size
+ * with hash folders the create time per child should not depend on it either
+ */
+static void folder_benchmark() {
+	folder_benchmark0(2000L, 0U, BENCH_BLOCK_SIZE);
+	folder_benchmark0(20000L, 0U, BENCH_BLOCK_SIZE);
+	folder_benchmark0(20000L, PFS_FORMAT_HASH_FOLDERS, BENCH_BLOCK_SIZE);
+	folder_benchmark0(1000000L, PFS_FORMAT_HASH_FOLDERS, 4096);
+}
+
+static void folder_benchmark0(i64 children, ui32 flags, i32 block_size) {
+	const char *start = "[main.benchmarks.folder_benchmark]:                   ";
+	// leaves of hash folders are only filled half on average
+	const i64 block_count = children
+			* ((flags & PFS_FORMAT_HASH_FOLDERS) ? 512 : 256) / block_size
+			+ 256;
+	char name[32];
+	pfs = bm_new_ram_block_manager(block_count, block_size);
+	if (pfs == NULL
+			|| !pfsc_format_flags(pfs, block_count, NULL, "", flags)) {
+		printf("%scould not create the file system (%s) [0]\n", start,
+				pfs_error());
+		exit(EXIT_FAILURE);
+	}
+	pfs_eh root = pfsc_root();
+	pfs_eh e = pfsc_root();
+	i64 t0 = bench_nanos();
+	for (i64 i = 0; i < children; i++) {
+		sprintf(name, "child-%ld", i);
+		memcpy(e, root, sizeof(struct pfs_element_handle));
+		if (!pfsc_folder_create_file(e, root, name)) {
+			printf("%scould not create %s (%s) [1]\n", start, name,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t1 = bench_nanos();
+	for (i64 i = 0; i < children; i++) {
+		sprintf(name, "child-%ld", (i * 7919) % children);
+		memcpy(e, root, sizeof(struct pfs_element_handle));
+		if (!pfsc_folder_child_from_name(e, name)) {
+			printf("%scould not find %s (%s) [2]\n", start, name,
+					pfs_error());
+			exit(EXIT_FAILURE);
+		}
+	}
+	i64 t2 = bench_nanos();
+	printf("%s%ld children%s: create %ld ns, lookup %ld ns per child [3]\n",
+			start, children,
+			(flags & PFS_FORMAT_HASH_FOLDERS) ? " (hash folder)" : "",
+			(t1 - t0) / children, (t2 - t1) / children);
+	free(root);
+	free(e);
+	pfs->close_bm(pfs);
+	pfs = NULL;
+}
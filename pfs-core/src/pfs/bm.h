@@ -112,6 +112,24 @@ struct bm_block_manager {
 	int (*const delete_all_flags)(struct bm_block_manager *bm);
 };
 
+/**
+ * the default maximum number of bytes kept in the pools of a block manager
+ */
+#define BM_POOL_DEFAULT_MAX_BYTES (1L << 20)
+
+/**
+ * sets the maximum number of bytes, which are kept in the pools of unused
+ * block buffers and records of the given block manager
+ *
+ * a value of zero disables the pooling
+ *
+ * only the ram and file block managers pool their blocks, for the mmap and
+ * contiguous ram block managers this function does nothing
+ *
+ * returns 1 on success and 0 on error
+ */
+extern int bm_pool_capacity(struct bm_block_manager *bm, i64 max_bytes);
+
 /**
  * creates a new ram block manager
  *
@@ -133,6 +151,31 @@ extern struct bm_block_manager* bm_new_ram_block_manager(i64 block_count,
 extern struct bm_block_manager* bm_new_flaggable_ram_block_manager(
 		i64 block_count, i32 block_size);
 
+/**
+ * creates a new ram block manager, which stores all blocks in one
+ * contiguous memory region
+ *
+ * unlike the block manager of bm_new_ram_block_manager, get returns a
+ * pointer directly into the storage, so no block is copied and unget and
+ * set have nothing to do
+ * the memory is reserved lazily, so only the used blocks need memory
+ * because of this running out of memory is not reported with
+ * PFS_ERRNO_OUT_OF_MEMORY, instead the process is killed (or gets a SIGBUS)
+ * when a block is used for the first time, so this block manager is only used
+ * when explicitly requested
+ *
+ * block_count: the number of blocks in the block manager
+ *
+ * block_size: the size of the blocks
+ *
+ * huge_pages: if non-zero the storage is backed by transparent huge pages
+ *             (when supported by the system)
+ *
+ * on portable builds this is the same as bm_new_ram_block_manager
+ */
+extern struct bm_block_manager* bm_new_contiguous_ram_block_manager(
+		i64 block_count, i32 block_size, int huge_pages);
+
 /**
  * creates a new file block manager
  *
@@ -151,6 +194,145 @@ extern struct bm_block_manager* bm_new_file_block_manager_path_bs(const char *fi
 extern struct bm_block_manager* bm_new_file_block_manager_path(const char *file,
 		int read_only);
 
+/**
+ * creates a new block manager, which maps the given file into memory
+ *
+ * the blocks returned by get are pointers into the mapping, so get, unget
+ * and set need no copying and no system calls, but changes are visible
+ * in the file before set is called
+ * sync_bm synchronizes the mapping with the file (msync)
+ *
+ * the file is grown to block_count blocks if it is smaller (and not
+ * read only)
+ *
+ * on builds without mmap support a file block manager is returned
+ */
+extern struct bm_block_manager* bm_new_mmap_block_manager_path_bs(
+		const char *file, i32 block_size, i64 block_count, int read_only);
+
+/**
+ * like bm_new_mmap_block_manager_path_bs, but the block size and
+ * block count are read from the super block of the file
+ */
+extern struct bm_block_manager* bm_new_mmap_block_manager_path(const char *file,
+		int read_only);
+
+/**
+ * creates a new file block manager, which bypasses the page cache of the
+ * operating system (O_DIRECT)
+ *
+ * the block buffers are aligned as needed by the file system and the
+ * block_size has to be a multiple of the direct I/O alignment of the file,
+ * otherwise the creation fails
+ * this is useful together with the block cache (see bm_file_cache_capacity)
+ * when the image is much larger than the memory, because then every block
+ * is only buffered once
+ *
+ * on builds without O_DIRECT support a normal file block manager is returned
+ */
+extern struct bm_block_manager* bm_new_direct_block_manager_path_bs(
+		const char *file, i32 block_size, int read_only);
+
+/**
+ * like bm_new_direct_block_manager_path_bs, but the block size is read from
+ * the super block of the file
+ */
+extern struct bm_block_manager* bm_new_direct_block_manager_path(
+		const char *file, int read_only);
+
+/**
+ * sets the number of unused blocks, which are kept in memory by the given
+ * file block manager
+ *
+ * cached blocks, which were modified are only written back when they are
+ * evicted from the cache or when the block manager is synchronized or closed
+ *
+ * a capacity of zero (the default) disables the cache
+ *
+ * returns 1 on success and 0 on error (the given block manager is no file
+ * block manager, the capacity is negative or a block could not be saved)
+ */
+extern int bm_file_cache_capacity(struct bm_block_manager *bm, i64 capacity);
+
+/**
+ * lets the given file block manager use io_uring with the given queue depth
+ *
+ * with io_uring the write back of the cached blocks (see
+ * bm_file_cache_capacity) and the read ahead (see bm_file_readahead) submit
+ * up to queue_depth requests at once instead of one blocking system call
+ * per block run. the read ahead then reads the blocks into the cache, if
+ * the cache is large enough.
+ *
+ * a queue depth of zero disables io_uring
+ *
+ * io_uring is only available when the library was build with IO_URING=yes
+ * and liburing was found, otherwise this function fails (and the block
+ * manager continues to use the normal file I/O)
+ *
+ * returns 1 on success and 0 on error
+ */
+extern int bm_file_io_uring(struct bm_block_manager *bm, unsigned queue_depth);
+
+/**
+ * statistics of the read ahead of a file block manager
+ */
+struct bm_readahead_stats {
+	/* the number of blocks read from the file, which were prefetched */
+	i64 hits;
+	/* the number of blocks read sequentially, which were not prefetched */
+	i64 misses;
+	/* the number of blocks, which were prefetched */
+	i64 prefetched;
+};
+
+/**
+ * enables the sequential read ahead of the given file block manager
+ *
+ * when blocks are read along a block chain (the last 8 bytes of a block
+ * are the number of the next block), the next blocks are prefetched.
+ * while the chain is also stored physically sequential the prefetched
+ * window grows up to max_blocks blocks
+ *
+ * a max_blocks value of zero (the default) disables the read ahead
+ *
+ * returns 1 on success and 0 on error
+ */
+extern int bm_file_readahead(struct bm_block_manager *bm, i32 max_blocks);
+
+/**
+ * stores the read ahead statistics of the given file block manager in stats
+ * if reset is non-zero the statistics are set to zero afterwards
+ *
+ * returns 1 on success and 0 on error
+ */
+extern int bm_file_readahead_stats(struct bm_block_manager *bm,
+		struct bm_readahead_stats *stats, int reset);
+
+/**
+ * enables (or disables) the write-behind mode of the given file block manager
+ *
+ * in write-behind mode modified blocks are not saved when they are released,
+ * instead they are queued and saved by a background flusher thread.
+ * the flusher starts saving queued blocks when more than max_dirty/2 blocks
+ * are queued or a block is queued for max_age_ms milliseconds.
+ * when more than max_dirty blocks are queued, the releasing thread waits
+ * until the flusher has saved enough blocks
+ * sync_bm waits until all queued blocks are saved, so the durability after
+ * sync_bm does not change
+ *
+ * a max_dirty value of zero (the default) disables the write-behind mode
+ * and waits until the flusher has finished
+ *
+ * while the write-behind mode is enabled, the functions of the block manager
+ * are serialized with a mutex
+ *
+ * the write-behind mode is not available in portable builds
+ *
+ * returns 1 on success and 0 on error
+ */
+extern int bm_file_write_behind(struct bm_block_manager *bm, i64 max_dirty,
+		i64 max_age_ms);
+
 /*
  * operations with bm_fd:
  * i64   bm_fd_read(bm_fd fd, void *buf, size_t len)
@@ -159,6 +341,8 @@ extern struct bm_block_manager* bm_new_file_block_manager_path(const char *file,
  * i64   bm_fd_seek(bm_fd fd, size_t pos)
  * i64   bm_fd_seek_eof(bm_fd fd)
  * i64   bm_fd_flush(bm_fd fd)
+ * i64   bm_fd_pread(bm_fd fd, void *buf, size_t len, i64 pos)    (not in portable builds)
+ * i64   bm_fd_pwrite(bm_fd fd, void *data, size_t len, i64 pos) (not in portable builds)
  * bm_fd bm_fd_open(const char *file, int read_only)
  * bm_fd bm_fd_open_ro(const char *file)
  * bm_fd bm_fd_open_rw(const char *file)
@@ -184,6 +368,8 @@ extern struct bm_block_manager* bm_new_file_block_manager_path(const char *file,
 #define bm_fd_seek(fd, pos) lseek64(fd, pos, SEEK_SET)
 #define bm_fd_seek_eof(fd) lseek64(fd, 0, SEEK_END)
 #define bm_fd_flush(fd) fdatasync(fd)
+#define bm_fd_pread(fd, buf, len, pos) pread64(fd, buf, len, pos)
+#define bm_fd_pwrite(fd, data, len, pos) pwrite64(fd, data, len, pos)
 #define bm_fd_open_ro(file) open64(file, O_RDONLY)
 #define bm_fd_open_rw(file) open64(file, O_RDWR)
 #define bm_fd_open_rw_trunc(file) open64(file, O_RDWR | O_CREAT | O_TRUNC \
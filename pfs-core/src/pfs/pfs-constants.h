@@ -33,6 +33,11 @@
 #define PFS_MAGIC_START0 0x702f6e69622f2123UL
 #define PFS_MAGIC_START1 0x51fcd99d300a6d76UL
 
+#define PFS_FORMAT_EXTENTS  0x00000004U /* store the data of files and pipes as extents (runs of blocks) instead of block chains */
+#define PFS_FORMAT_LOCALITY 0x00000008U /* allocate new blocks near the previous block of the file or the block of the parent folder */
+#define PFS_FORMAT_HASH_FOLDERS 0x00000010U /* store large folders as a tree ordered by the hash of the child names instead of a chain of helper folders */
+#define PFS_FORMAT_DEFERRED_FREE 0x00000020U /* remember the blocks of files deleted in the background in the file system, so they can be freed later */
+
 #define	PFS_INTERN_ENTRY_FLAGS (PFS_F_HELPER_FOLDER) /* entries with one of these flags are not allowed to be passed to the outside */
 #define PFS_ESSENTIAL_FLAGS (PFS_F_FILE | PFS_F_FOLDER | PFS_F_PIPE)
 #define PFS_UNMODIFIABLE_FLAGS  0x000000FFU /* these flags are not allowed to be changed */
@@ -57,5 +62,6 @@
 #define PFS_SO_APPEND       0x00000400U /* open the stream for append access (before every write operation the position is set to the end of the file) */
 #define PFS_SO_FILE_TRUNC   0x00010000U /* truncate the files content */
 #define PFS_SO_FILE_EOF     0x00020000U /* set the position initially to the end of the file not the start */
+#define PFS_SO_DELAY_ALLOC  0x00040000U /* keep written data in memory and allocate its blocks in one batch on flush, close or memory pressure (only for append and pipe streams) */
 
 #endif /* PFS_CONSTANTS_H_ */
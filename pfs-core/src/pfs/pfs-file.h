@@ -51,4 +51,15 @@ extern i64 pfs_file_length(int eh);
  */
 extern int pfs_file_truncate(int eh, i64 length);
 
+/*
+ * reserves enough blocks for the file to hold length bytes
+ * the files length is not changed
+ * growing the file uses the reserved blocks first
+ * shrinking the file releases the reserved blocks
+ * extent file systems, which were formatted before the reserved count
+ * existed, do not reserve anything
+ * on success 1 and on error 0 is returned
+ */
+extern int pfs_file_preallocate(int eh, i64 length);
+
 #endif /* SRC_PFS_PFS_FILE_H_ */
@@ -43,4 +43,43 @@ extern int pfs_iter_close(int ih);
  */
 extern int pfs_iter_next(int ih);
 
+/*
+ * an entry of the buffer filled by pfs_iter_next_batch
+ *
+ * the entries are stored directly after each other,
+ * each entry needs PFS_ITER_ENTRY_SIZE(name_length) bytes
+ */
+struct pfs_iter_entry {
+	i64 create_time;
+	i64 last_mod_time;
+	// the length of a file or pipe and zero for folders and mount points
+	i64 length;
+	ui32 flags;
+	// the length of the name in bytes (without the '\0' terminator)
+	i32 name_length;
+	// the '\0' terminated name of the element
+	char name[];
+};
+
+_Static_assert(sizeof(struct pfs_iter_entry) == 32, "err");
+
+/* the size of an entry with a name of the given length (always a multiple of 8) */
+#define PFS_ITER_ENTRY_SIZE(name_length) \
+	((sizeof(struct pfs_iter_entry) + (name_length) + 8) & ~7UL)
+
+/*
+ * stores the next child elements of the folder iterator in the buffer
+ * no element handles are opened for the stored elements
+ *
+ * at most max_count entries are stored
+ * entries which do not fit in the buffer stay in the iterator
+ *
+ * when there is no next child element 0 is returned
+ * when the next entry does not fit in the buffer -1 is returned and (pfs_err) is set to PFS_ERRNO_OUT_OF_RANGE
+ *
+ * returns on success the number of stored entries and on error -1
+ */
+extern int pfs_iter_next_batch(int ih, void *buffer, i64 buffer_size,
+		int max_count);
+
 #endif /* SRC_PFS_PFS_ITER_H_ */
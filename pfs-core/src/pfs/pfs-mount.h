@@ -45,6 +45,12 @@ extern int pfs_mount_get_mount_point(int eh);
 
 extern i64 pfs_mount_fs_block_count(int eh);
 
+extern i64 pfs_mount_fs_free_block_count(int eh);
+
+extern i64 pfs_mount_fs_free_deferred(int eh, i64 max_blocks);
+
+extern i64 pfs_mount_fs_used_block_count(int eh);
+
 extern i32 pfs_mount_fs_block_size(int eh);
 
 extern uuid_p_t pfs_mount_fs_uuid(int eh, uuid_t result);
@@ -31,6 +31,12 @@
  *
  * the given stream handle ID may be reused by the system when
  * a new stream handle is opened
+ *
+ * when the delayed data of a stream opened with PFS_SO_DELAY_ALLOC can
+ * not be written the stream stays open and 0 is returned, pfs_close
+ * discards the data, which still can not be written
+ *
+ * on success 1 and on error 0 is returned
  */
 extern int pfs_stream_close(int sh);
 
@@ -130,4 +136,18 @@ extern i64 pfs_stream_add_pos(int sh, i64 add);
  */
 extern i64 pfs_stream_seek_eof(int sh);
 
+/*
+ * writes the data of a stream opened with PFS_SO_DELAY_ALLOC to its
+ * file/pipe, the blocks of the data are allocated in one batch
+ *
+ * the delayed data is also written when the stream is closed, read or
+ * seeked to the end of the file and when too much data is delayed
+ * other handles of the file/pipe see the data only after it is written
+ *
+ * for other streams this function does nothing
+ *
+ * on success 1 and on error 0 is returned
+ */
+extern int pfs_stream_flush(int sh);
+
 #endif /* SRC_PFS_PFS_STREAM_H_ */
@@ -47,6 +47,27 @@ extern int pfs_load(struct bm_block_manager *bm, const char *cwd, int read_only)
 extern int pfs_load_and_format(struct bm_block_manager *bm, i64 block_count,
 		uuid_t uuid, char *fs_name);
 
+/*
+ * like pfs_load_and_format, but the format_flags (PFS_FORMAT_*) select
+ * optional features of the on-disk format
+ *
+ * PFS_FORMAT_EXTENTS: the data of files and pipes is stored as runs of
+ *                     consecutive blocks instead of block chains
+ * PFS_FORMAT_LOCALITY: new blocks are allocated near the previous block of
+ *                      the file or the block of the parent folder instead of
+ *                      at the first unused block
+ * PFS_FORMAT_HASH_FOLDERS: folders, which do not fit in a block, are stored as
+ *                          a tree ordered by the hash of the child names
+ *                          instead of a chain of helper folders, so finding
+ *                          and adding a child needs O(log n) block reads
+ * PFS_FORMAT_DEFERRED_FREE: the file system remembers the blocks of the files
+ *                           deleted in the background (see
+ *                           pfs_delete_in_background), without this flag
+ *                           the blocks are always freed directly
+ */
+extern int pfs_load_and_format_flags(struct bm_block_manager *bm,
+		i64 block_count, uuid_t uuid, char *fs_name, ui32 format_flags);
+
 /*
  * formats the currently loaded PFS
  *
@@ -75,6 +96,11 @@ extern int pfs_is_read_only();
 
 /*
  * closes the file system
+ *
+ * the delayed data of all open streams is written before, data which
+ * can not be written is discarded
+ *
+ * on success 1 and on error 0 is returned
  */
 extern int pfs_close();
 
@@ -85,6 +111,40 @@ extern int pfs_close();
  */
 extern i64 pfs_block_count();
 
+/*
+ * returns the number of unused blocks of the current PFS
+ *
+ * the blocks of the files deleted in the background are used until they are
+ * freed
+ *
+ * on error -1 is returned
+ */
+extern i64 pfs_free_block_count();
+
+/*
+ * frees up to max_blocks blocks of the files, which were deleted in the
+ * background (all of them if max_blocks is negative)
+ *
+ * some of the blocks are also freed when the file system needs more blocks,
+ * when the file system is loaded (not read-only) and when it is closed, each
+ * of these frees at most a fixed number of blocks (1024), the rest stays
+ * remembered in the file system
+ * this function allows the application to do the work when it is idle
+ *
+ * returns the number of freed blocks, when zero is returned (and max_blocks
+ * is not zero) there are no blocks left to free
+ *
+ * on error -1 is returned
+ */
+extern i64 pfs_free_deferred(i64 max_blocks);
+
+/*
+ * returns the number of used blocks of the current PFS
+ *
+ * on error -1 is returned
+ */
+extern i64 pfs_used_block_count();
+
 /*
  * returns the block size in bytes of every block of the current PFS
  *
@@ -242,6 +302,23 @@ extern int pfs_change_dir_path(char *path);
  */
 extern int pfs_delete(const char *path, int also_when_loaded);
 
+/*
+ * enables (non-zero) or disables (zero) the delete in background mode
+ *
+ * in this mode deleting a large file only detaches its blocks, so the delete
+ * returns immediately
+ * the blocks stay used until they are freed by pfs_free_deferred (or when
+ * the file system needs them)
+ * the detached blocks are remembered in the file system, loading and closing
+ * the file system free a bounded number of them (so these calls may take a
+ * little longer), the others stay remembered until they are needed
+ * file systems formatted without PFS_FORMAT_DEFERRED_FREE (this includes
+ * all file systems formatted by older versions) free the blocks directly
+ *
+ * the mode is disabled by default
+ */
+extern void pfs_delete_in_background(int enable);
+
 /*
  * creates a new stream handle for the file/pipe with the given path
  *